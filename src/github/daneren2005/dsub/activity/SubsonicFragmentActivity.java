@@ -562,6 +562,10 @@ public class SubsonicFragmentActivity extends SubsonicActivity {
 				ContentResolver.addPeriodicSync(account, Constants.SYNC_ACCOUNT_STARRED_AUTHORITY, new Bundle(), 60L * syncInterval);
 				ContentResolver.setSyncAutomatically(account, Constants.SYNC_ACCOUNT_MOST_RECENT_AUTHORITY, (syncEnabled && prefs.getBoolean(Constants.PREFERENCES_KEY_SYNC_MOST_RECENT, false)));
 				ContentResolver.addPeriodicSync(account, Constants.SYNC_ACCOUNT_MOST_RECENT_AUTHORITY, new Bundle(), 60L * syncInterval);
+
+				// Library only needs to be walked about once a day
+				ContentResolver.setSyncAutomatically(account, Constants.SYNC_ACCOUNT_LIBRARY_AUTHORITY, (syncEnabled && prefs.getBoolean(Constants.PREFERENCES_KEY_SYNC_LIBRARY, false)));
+				ContentResolver.addPeriodicSync(account, Constants.SYNC_ACCOUNT_LIBRARY_AUTHORITY, new Bundle(), 24L * 60L * 60L);
 				return null;
 			}
 
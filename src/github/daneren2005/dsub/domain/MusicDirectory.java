@@ -19,7 +19,6 @@
 package github.daneren2005.dsub.domain;
 
 import android.content.Context;
-import android.media.MediaMetadataRetriever;
 import android.util.Log;
 import java.util.ArrayList;
 import java.util.List;
@@ -27,8 +26,12 @@ import java.io.File;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
 
 import github.daneren2005.dsub.util.Constants;
+import github.daneren2005.dsub.util.FileUtil;
+import github.daneren2005.dsub.util.MediaMetadataCache;
 import github.daneren2005.dsub.util.Util;
 
 /**
@@ -121,6 +124,83 @@ public class MusicDirectory implements Serializable {
 		EntryComparator.sort(children, byYear);
 	}
 
+	public Diff diff(MusicDirectory old) {
+		Diff diff = new Diff();
+		List<Entry> oldChildren = old == null ? new ArrayList<Entry>() : old.getChildren();
+		Map<String, Entry> oldEntries = new HashMap<String, Entry>();
+		for(Entry entry: oldChildren) {
+			oldEntries.put(entry.getId(), entry);
+		}
+
+		List<Entry> kept = new ArrayList<Entry>();
+		for(Entry entry: children) {
+			Entry oldEntry = oldEntries.remove(entry.getId());
+			if(oldEntry == null) {
+				diff.added.add(entry);
+			} else {
+				kept.add(entry);
+				if(isChanged(oldEntry, entry)) {
+					diff.changed.add(entry);
+				}
+			}
+		}
+		diff.removed.addAll(oldEntries.values());
+
+		// Only worth checking order of what both copies have in common
+		int i = 0;
+		for(Entry entry: oldChildren) {
+			if(i < kept.size() && !oldEntries.containsKey(entry.getId())) {
+				if(!kept.get(i).getId().equals(entry.getId())) {
+					diff.reordered = true;
+					break;
+				}
+				i++;
+			}
+		}
+
+		return diff;
+	}
+	private static boolean isChanged(Entry oldEntry, Entry entry) {
+		Bookmark oldBookmark = oldEntry.getBookmark();
+		Bookmark bookmark = entry.getBookmark();
+		return !Util.equals(oldEntry.getTitle(), entry.getTitle()) || !Util.equals(oldEntry.getAlbum(), entry.getAlbum()) ||
+				!Util.equals(oldEntry.getArtist(), entry.getArtist()) || !Util.equals(oldEntry.getTrack(), entry.getTrack()) ||
+				!Util.equals(oldEntry.getDiscNumber(), entry.getDiscNumber()) || !Util.equals(oldEntry.getYear(), entry.getYear()) ||
+				!Util.equals(oldEntry.getDuration(), entry.getDuration()) || !Util.equals(oldEntry.getCoverArt(), entry.getCoverArt()) ||
+				!Util.equals(oldEntry.getSize(), entry.getSize()) || !Util.equals(oldEntry.getPath(), entry.getPath()) ||
+				oldEntry.isStarred() != entry.isStarred() || oldEntry.getRating() != entry.getRating() ||
+				(oldBookmark == null ? -1 : oldBookmark.getPosition()) != (bookmark == null ? -1 : bookmark.getPosition());
+	}
+
+	public static class Diff {
+		private final List<Entry> added = new ArrayList<Entry>();
+		private final List<Entry> removed = new ArrayList<Entry>();
+		private final List<Entry> changed = new ArrayList<Entry>();
+		private boolean reordered = false;
+
+		public List<Entry> getAdded() {
+			return added;
+		}
+		public List<Entry> getRemoved() {
+			return removed;
+		}
+		public List<Entry> getChanged() {
+			return changed;
+		}
+		public boolean isReordered() {
+			return reordered;
+		}
+
+		public boolean isEmpty() {
+			return added.isEmpty() && removed.isEmpty() && changed.isEmpty() && !reordered;
+		}
+
+		@Override
+		public String toString() {
+			return "added=" + added.size() + ", removed=" + removed.size() + ", changed=" + changed.size() + ", reordered=" + reordered;
+		}
+	}
+
     public static class Entry implements Serializable {
 		public static final int TYPE_SONG = 0;
 		public static final int TYPE_PODCAST = 1;
@@ -168,37 +248,26 @@ public class MusicDirectory implements Serializable {
 		}
 		
 		public void loadMetadata(File file) {
-			try {
-				MediaMetadataRetriever metadata = new MediaMetadataRetriever();
-				metadata.setDataSource(file.getAbsolutePath());
-				String discNumber = metadata.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DISC_NUMBER);
-				if(discNumber == null) {
-					discNumber = "1/1";
-				}
-				int slashIndex = discNumber.indexOf("/");
-				if(slashIndex > 0) {
-					discNumber = discNumber.substring(0, slashIndex);
-				}
-				try {
-					setDiscNumber(Integer.parseInt(discNumber));
-				} catch(Exception e) {
-					Log.w(TAG, "Non numbers in disc field!");
-				}
-				String bitrate = metadata.extractMetadata(MediaMetadataRetriever.METADATA_KEY_BITRATE);
-				setBitRate(Integer.parseInt((bitrate != null) ? bitrate : "0") / 1000);
-				String length = metadata.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
-				setDuration(Integer.parseInt(length) / 1000);
-				String artist = metadata.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST);
-				if(artist != null) {
-					setArtist(artist);
-				}
-				String album = metadata.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM);
-				if(album != null) {
-					setAlbum(album);
-				}
-				metadata.release();
-			} catch(Exception e) {
-				Log.i(TAG, "Device doesn't properly support MediaMetadataRetreiver", e);
+			loadMetadata(MediaMetadataCache.read(file));
+		}
+		public void loadMetadata(Context context, File file) {
+			loadMetadata(FileUtil.getMediaMetadataCache(context).get(file));
+		}
+		private void loadMetadata(MediaMetadataCache.Metadata metadata) {
+			if(metadata.discNumber != null) {
+				setDiscNumber(metadata.discNumber);
+			}
+			if(metadata.bitRate != null) {
+				setBitRate(metadata.bitRate);
+			}
+			if(metadata.duration != null) {
+				setDuration(metadata.duration);
+			}
+			if(metadata.artist != null) {
+				setArtist(metadata.artist);
+			}
+			if(metadata.album != null) {
+				setAlbum(metadata.album);
 			}
 		}
 		public void rebaseTitleOffPath() {
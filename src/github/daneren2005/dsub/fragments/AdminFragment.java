@@ -27,7 +27,6 @@ import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -39,6 +38,7 @@ import github.daneren2005.dsub.service.OfflineException;
 import github.daneren2005.dsub.service.ServerTooOldException;
 import github.daneren2005.dsub.service.parser.SubsonicRESTException;
 import github.daneren2005.dsub.util.Constants;
+import github.daneren2005.dsub.util.FileUtil;
 import github.daneren2005.dsub.util.ProgressListener;
 import github.daneren2005.dsub.util.SilentBackgroundTask;
 import github.daneren2005.dsub.util.UserUtil;
@@ -120,10 +120,7 @@ public class AdminFragment extends SelectListFragment<User> {
 			return users;
 		} catch(SubsonicRESTException e) {
 			// Delete cached users if not allowed to get them
-			String s = Util.getRestUrl(context, null, false);
-			String cache = "users-" + s.hashCode() + ".ser";
-			File file = new File(context.getCacheDir(), cache);
-			file.delete();
+			FileUtil.deleteMetadata(context, Util.getCacheName(context, "users"));
 
 			List<User> users = new ArrayList<User>();
 			User user = musicService.getUser(refresh, UserUtil.getCurrentUsername(context), context, listener);
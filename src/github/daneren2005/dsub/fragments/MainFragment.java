@@ -34,9 +34,12 @@ import github.daneren2005.dsub.view.MergeAdapter;
 import github.daneren2005.dsub.util.Util;
 import github.daneren2005.dsub.service.MusicService;
 import github.daneren2005.dsub.service.MusicServiceFactory;
+import github.daneren2005.dsub.service.RESTMusicService;
+import github.daneren2005.dsub.service.RequestStats;
 import github.daneren2005.dsub.util.SilentBackgroundTask;
 import github.daneren2005.dsub.view.ChangeLog;
 import java.io.File;
+import java.io.FileWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -227,6 +230,17 @@ public class MainFragment extends SubsonicFragment {
 				}
 			}
 		});
+		list.setOnItemLongClickListener(new AdapterView.OnItemLongClickListener() {
+			@Override
+			public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
+				if(view == serverButton) {
+					showRequestStats();
+					return true;
+				} else {
+					return false;
+				}
+			}
+		});
 		setTitle(R.string.common_appname);
 
 		if(!Util.isOffline(context)) {
@@ -478,6 +492,71 @@ public class MainFragment extends SubsonicFragment {
 		} catch(Exception e) {}
 	}
 	
+	private void showRequestStats() {
+		final RequestStats stats = RequestStats.getInstance();
+		StringBuilder builder = new StringBuilder();
+		for(RequestStats.Endpoint endpoint: stats.getEndpoints()) {
+			RequestStats.Histogram firstByte = endpoint.getTiming("firstByte");
+			builder.append(endpoint.getMethod()).append("\n");
+			builder.append(context.getResources().getString(R.string.main_request_stats_endpoint,
+				endpoint.getRequests(), endpoint.getRetries(), endpoint.getFailures(),
+				firstByte.getPercentile(0.5), firstByte.getPercentile(0.95),
+				endpoint.getTiming("body").getMean(), endpoint.getTiming("parse").getMean(),
+				endpoint.getCompressedBytes(), endpoint.getDecodedBytes(),
+				endpoint.getCacheHits(), endpoint.getCacheHits() + endpoint.getCacheMisses())).append("\n");
+		}
+		builder.append(context.getResources().getString(R.string.main_request_stats_shared, Math.round(RESTMusicService.getCoalescer().getHitRate() * 100)));
+
+		new AlertDialog.Builder(context)
+			.setTitle(R.string.main_request_stats_title)
+			.setMessage(builder.toString())
+			.setPositiveButton(R.string.main_request_stats_csv, new DialogInterface.OnClickListener() {
+				@Override
+				public void onClick(DialogInterface dialog, int which) {
+					exportRequestStats(false);
+				}
+			})
+			.setNegativeButton(R.string.main_request_stats_json, new DialogInterface.OnClickListener() {
+				@Override
+				public void onClick(DialogInterface dialog, int which) {
+					exportRequestStats(true);
+				}
+			})
+			.setNeutralButton(R.string.main_request_stats_clear, new DialogInterface.OnClickListener() {
+				@Override
+				public void onClick(DialogInterface dialog, int which) {
+					stats.clear();
+				}
+			})
+			.show();
+	}
+
+	private void exportRequestStats(final boolean json) {
+		new LoadingTask<File>(context) {
+			@Override
+			protected File doInBackground() throws Throwable {
+				RequestStats stats = RequestStats.getInstance();
+				File file = new File(FileUtil.getSubsonicDirectory(context), json ? "request_stats.json" : "request_stats.csv");
+				FileWriter writer = new FileWriter(file);
+				try {
+					writer.write(json ? stats.toJson() : stats.toCsv());
+				} finally {
+					writer.close();
+				}
+				return file;
+			}
+
+			@Override
+			protected void done(File file) {
+				Intent share = new Intent(Intent.ACTION_SEND);
+				share.setType(json ? "application/json" : "text/csv");
+				share.putExtra(Intent.EXTRA_SUBJECT, context.getResources().getString(R.string.main_request_stats_subject));
+				share.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(file));
+				startActivity(Intent.createChooser(share, context.getResources().getString(R.string.main_request_stats_export)));
+			}
+		}.execute();
+	}
+
 	private void getMostRecentCount() {
 		// Use stashed value until after refresh occurs
 		SharedPreferences prefs = Util.getPreferences(context);
@@ -488,7 +567,7 @@ public class MainFragment extends SubsonicFragment {
 			@Override
 			public Integer doInBackground() throws Exception {
 				String recentAddedFile = Util.getCacheName(context, "recent_count");
-				ArrayList<String> recents = FileUtil.deserialize(context, recentAddedFile, ArrayList.class);
+				ArrayList<String> recents = FileUtil.deserializeMetadata(context, recentAddedFile, ArrayList.class);
 				if(recents == null) {
 					recents = new ArrayList<String>();
 				}
@@ -512,7 +591,7 @@ public class MainFragment extends SubsonicFragment {
 				while(recents.size() > 40) {
 					recents.remove(0);
 				}
-				FileUtil.serialize(context, recents, recentAddedFile);
+				FileUtil.serializeMetadata(context, recents, recentAddedFile);
 				
 				if(firstRun) {
 					return 0;
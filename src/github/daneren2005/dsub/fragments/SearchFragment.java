@@ -18,6 +18,7 @@ import android.widget.AdapterView;
 import android.widget.ListAdapter;
 import android.widget.ListView;
 import android.net.Uri;
+import android.util.Log;
 import android.view.ViewGroup;
 import github.daneren2005.dsub.R;
 import github.daneren2005.dsub.domain.Artist;
@@ -30,6 +31,8 @@ import github.daneren2005.dsub.service.DownloadService;
 import github.daneren2005.dsub.view.ArtistAdapter;
 import github.daneren2005.dsub.util.BackgroundTask;
 import github.daneren2005.dsub.util.Constants;
+import github.daneren2005.dsub.util.FileUtil;
+import github.daneren2005.dsub.util.SearchIndex;
 import github.daneren2005.dsub.view.EntryAdapter;
 import github.daneren2005.dsub.view.MergeAdapter;
 import github.daneren2005.dsub.util.TabBackgroundTask;
@@ -195,12 +198,61 @@ public class SearchFragment extends SubsonicFragment {
 		mergeAdapter = new MergeAdapter();
 		list.setAdapter(mergeAdapter);
 		
+		final SearchCritera criteria = new SearchCritera(query, MAX_ARTISTS, MAX_ALBUMS, MAX_SONGS);
 		BackgroundTask<SearchResult> task = new TabBackgroundTask<SearchResult>(this) {
+			private SearchResult localResult;
+			private SearchResult serverResult;
+
 			@Override
 			protected SearchResult doInBackground() throws Throwable {
-				SearchCritera criteria = new SearchCritera(query, MAX_ARTISTS, MAX_ALBUMS, MAX_SONGS);
+				// Show whatever is already cached right away while the server is searched
+				if(!Util.isOffline(context)) {
+					localResult = FileUtil.getSearchIndex(context).search(criteria);
+					final SearchResult result = localResult;
+					if(!result.getArtists().isEmpty() || !result.getAlbums().isEmpty() || !result.getSongs().isEmpty()) {
+						getHandler().post(new Runnable() {
+							@Override
+							public void run() {
+								if(!isCancelled()) {
+									searchResult = result;
+									populateList();
+								}
+							}
+						});
+					}
+				}
+
 				MusicService service = MusicServiceFactory.getMusicService(context);
-				return service.search(criteria, context, this);
+				try {
+					return SearchIndex.merge(localResult, service.search(criteria, context, this), criteria);
+				} catch(Exception e) {
+					if(localResult == null) {
+						throw e;
+					}
+
+					Log.w(TAG, "Failed to search server, only showing cached results", e);
+					return localResult;
+				}
+			}
+
+			@Override
+			protected void chunk(int position, List<?> items) {
+				if(position == 0) {
+					serverResult = new SearchResult(new ArrayList<Artist>(), new ArrayList<MusicDirectory.Entry>(), new ArrayList<MusicDirectory.Entry>());
+				}
+
+				for(Object item: items) {
+					if(item instanceof Artist) {
+						serverResult.getArtists().add((Artist) item);
+					} else if(((MusicDirectory.Entry) item).isDirectory()) {
+						serverResult.getAlbums().add((MusicDirectory.Entry) item);
+					} else {
+						serverResult.getSongs().add((MusicDirectory.Entry) item);
+					}
+				}
+
+				searchResult = SearchIndex.merge(localResult, serverResult, criteria);
+				populateList();
 			}
 
 			@Override
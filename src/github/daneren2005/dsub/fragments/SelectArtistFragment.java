@@ -22,6 +22,7 @@ import github.daneren2005.dsub.domain.Artist;
 import github.daneren2005.dsub.domain.Indexes;
 import github.daneren2005.dsub.domain.MusicDirectory;
 import github.daneren2005.dsub.domain.MusicFolder;
+import github.daneren2005.dsub.service.CachedMusicService;
 import github.daneren2005.dsub.service.MusicService;
 import github.daneren2005.dsub.service.MusicServiceFactory;
 import github.daneren2005.dsub.util.BackgroundTask;
@@ -35,7 +36,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
-public class SelectArtistFragment extends SelectListFragment<Artist> {
+public class SelectArtistFragment extends SelectListFragment<Artist> implements CachedMusicService.OnIndexesRevalidatedListener {
 	private static final String TAG = SelectArtistFragment.class.getSimpleName();
 	private static final int MENU_GROUP_MUSIC_FOLDER = 10;
 
@@ -53,6 +54,13 @@ public class SelectArtistFragment extends SelectListFragment<Artist> {
 			musicFolders = (List<MusicFolder>) bundle.getSerializable(Constants.FRAGMENT_LIST2);
 		}
 		artist = true;
+		MusicServiceFactory.getCachedMusicService().addOnIndexesRevalidatedListener(this);
+	}
+
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+		MusicServiceFactory.getCachedMusicService().removeOnIndexesRevalidatedListener(this);
 	}
 
 	@Override
@@ -184,6 +192,9 @@ public class SelectArtistFragment extends SelectListFragment<Artist> {
 		String musicFolderId = Util.getSelectedMusicFolderId(context);
 		
 		Indexes indexes = musicService.getIndexes(musicFolderId, refresh, context, listener);
+		if(!refresh && !Util.isOffline(context)) {
+			MusicServiceFactory.getCachedMusicService().revalidateIndexes(context, musicFolderId);
+		}
 		List<Artist> artists = new ArrayList<Artist>(indexes.getShortcuts().size() + indexes.getArtists().size());
 		artists.addAll(indexes.getShortcuts());
 		artists.addAll(indexes.getArtists());
@@ -197,6 +208,28 @@ public class SelectArtistFragment extends SelectListFragment<Artist> {
 		return R.string.button_bar_browse;
 	}
 
+	@Override
+	public void onIndexesRevalidated(String musicFolderId, Indexes indexes) {
+		if(adapter == null || currentTask != null || Util.isOffline(context) || !Util.equals(musicFolderId, Util.getSelectedMusicFolderId(context))) {
+			return;
+		}
+
+		objects = new ArrayList<Artist>(indexes.getShortcuts().size() + indexes.getArtists().size());
+		objects.addAll(indexes.getShortcuts());
+		objects.addAll(indexes.getArtists());
+		entries = indexes.getEntries();
+		if(objects.isEmpty()) {
+			return;
+		}
+
+		// Section indexes are built when the adapter is created, so keep the position and swap it out
+		int position = listView.getFirstVisiblePosition();
+		listView.setFastScrollEnabled(false);
+		listView.setAdapter(adapter = new ArtistAdapter(context, objects));
+		listView.setFastScrollEnabled(true);
+		listView.setSelection(position);
+	}
+
 	private void createMusicFolderButton() {
 		if(folderButton == null) {
 			folderButtonParent = context.getLayoutInflater().inflate(R.layout.select_artist_header, listView, false);
@@ -37,6 +37,7 @@ import android.widget.ListView;
 import android.widget.RatingBar;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
+import android.widget.WrapperListAdapter;
 import github.daneren2005.dsub.R;
 import github.daneren2005.dsub.domain.ArtistInfo;
 import github.daneren2005.dsub.domain.MusicDirectory;
@@ -52,6 +53,7 @@ import java.util.List;
 
 import github.daneren2005.dsub.activity.DownloadActivity;
 import github.daneren2005.dsub.domain.PodcastEpisode;
+import github.daneren2005.dsub.service.CachedMusicService;
 import github.daneren2005.dsub.service.MusicService;
 import github.daneren2005.dsub.service.MusicServiceFactory;
 import github.daneren2005.dsub.service.OfflineException;
@@ -73,7 +75,7 @@ import java.util.Set;
 
 import static github.daneren2005.dsub.domain.MusicDirectory.Entry;
 
-public class SelectDirectoryFragment extends SubsonicFragment implements AdapterView.OnItemClickListener {
+public class SelectDirectoryFragment extends SubsonicFragment implements AdapterView.OnItemClickListener, CachedMusicService.OnMusicDirectoryRevalidatedListener {
 	private static final String TAG = SelectDirectoryFragment.class.getSimpleName();
 
 	private GridView albumList;
@@ -120,6 +122,13 @@ public class SelectDirectoryFragment extends SubsonicFragment implements Adapter
 			artistInfo = (ArtistInfo) bundle.getSerializable(Constants.FRAGMENT_EXTRA);
 			restoredInstance = true;
 		}
+		MusicServiceFactory.getCachedMusicService().addOnMusicDirectoryRevalidatedListener(this);
+	}
+
+	@Override
+	public void onDestroy() {
+		super.onDestroy();
+		MusicServiceFactory.getCachedMusicService().removeOnMusicDirectoryRevalidatedListener(this);
 	}
 	
 	@Override
@@ -506,8 +515,10 @@ public class SelectDirectoryFragment extends SubsonicFragment implements Adapter
 			@Override
 			protected MusicDirectory load(MusicService service) throws Exception {
 				MusicDirectory dir = getMusicDirectory(id, name, refresh, service, this);
+				String shownId = id;
 
 				if(lookupParent && dir.getParent() != null) {
+					shownId = dir.getParent();
 					dir = getMusicDirectory(dir.getParent(), name, refresh, service, this);
 
 					// Update the fragment pointers so other stuff works correctly
@@ -524,6 +535,9 @@ public class SelectDirectoryFragment extends SubsonicFragment implements Adapter
 					}
 				}
 
+				if(!refresh) {
+					revalidateMusicDirectory(shownId, name, false);
+				}
 				return dir;
 			}
 			
@@ -584,7 +598,11 @@ public class SelectDirectoryFragment extends SubsonicFragment implements Adapter
 		new LoadTask(refresh) {
 			@Override
 			protected MusicDirectory load(MusicService service) throws Exception {
-				return service.getPlaylist(refresh, playlistId, playlistName, context, this);
+				MusicDirectory dir = service.getPlaylist(refresh, playlistId, playlistName, context, this);
+				if(!refresh && !Util.isOffline(context)) {
+					MusicServiceFactory.getCachedMusicService().revalidatePlaylist(context, playlistId, playlistName);
+				}
+				return dir;
 			}
 		}.execute();
 	}
@@ -663,6 +681,7 @@ public class SelectDirectoryFragment extends SubsonicFragment implements Adapter
 
 	private abstract class LoadTask extends TabBackgroundTask<Pair<MusicDirectory, Boolean>> {
 		private boolean refresh;
+		private EntryAdapter partialAdapter;
 
 		public LoadTask(boolean refresh) {
 			super(SelectDirectoryFragment.this);
@@ -703,8 +722,35 @@ public class SelectDirectoryFragment extends SubsonicFragment implements Adapter
 			return new Pair<MusicDirectory, Boolean>(dir, licenseValid);
 		}
 
+		@Override
+		protected void chunk(int position, List<?> items) {
+			// Only lists which end up as plain rows without a header built from the whole list can be shown early
+			if(playlistId == null && (albumListType == null || largeAlbums)) {
+				return;
+			}
+
+			if(position == 0) {
+				partialAdapter = new EntryAdapter(context, getImageLoader(), new ArrayList<Entry>(), false);
+				entryList.setAdapter(partialAdapter);
+				entryList.setVisibility(View.VISIBLE);
+				setPartialProgressVisible();
+			}
+
+			partialAdapter.setNotifyOnChange(false);
+			for(Object item: items) {
+				partialAdapter.add((Entry) item);
+			}
+			partialAdapter.notifyDataSetChanged();
+		}
+
 		@Override
 		protected void done(Pair<MusicDirectory, Boolean> result) {
+			if(partialAdapter != null) {
+				// Older versions can't add the header once an adapter is set
+				entryList.setAdapter(null);
+				partialAdapter = null;
+			}
+
 			finishLoading();
 			currentTask = null;
 		}
@@ -797,6 +843,42 @@ public class SelectDirectoryFragment extends SubsonicFragment implements Adapter
 		}
 	}
 
+	@Override
+	public void onMusicDirectoryRevalidated(String id, MusicDirectory dir, MusicDirectory.Diff diff) {
+		// Only plain listings can be patched in place, everything else is built from more than one call
+		if(entryAdapter == null || currentTask != null || podcastId != null || share != null || albumListType != null || showAll || topTracks) {
+			return;
+		}
+		if(!id.equals(playlistId != null ? playlistId : this.id)) {
+			return;
+		}
+
+		List<Entry> newAlbums = dir.getChildren(true, false);
+		List<Entry> newEntries = largeAlbums ? dir.getChildren(false, true) : dir.getChildren();
+		// Going to or from nothing changes which views are shown, so let it rebuild from the now updated cache
+		if(newAlbums.isEmpty() != albums.isEmpty() || newEntries.isEmpty() != entries.isEmpty()) {
+			refresh(false);
+			return;
+		}
+
+		albums.clear();
+		albums.addAll(newAlbums);
+		entries.clear();
+		entries.addAll(newEntries);
+		if(!diff.getAdded().isEmpty() || !diff.getRemoved().isEmpty() || diff.isReordered()) {
+			entryList.clearChoices();
+		}
+
+		entryAdapter.notifyDataSetChanged();
+		ListAdapter albumAdapter = albumList.getAdapter();
+		if(albumAdapter instanceof WrapperListAdapter) {
+			albumAdapter = ((WrapperListAdapter) albumAdapter).getWrappedAdapter();
+		}
+		if(albumAdapter instanceof BaseAdapter) {
+			((BaseAdapter) albumAdapter).notifyDataSetChanged();
+		}
+	}
+
 	private void setupAlbumList() {
 		albumList.setOnItemClickListener(new AdapterView.OnItemClickListener() {
 			@Override
@@ -137,6 +137,23 @@ public abstract class SelectListFragment<T> extends SubsonicFragment implements
 				return objects;
 			}
 
+			@Override
+			protected void chunk(int position, List<?> items) {
+				if(position == 0) {
+					// Sections aren't known until everything is there, so no fast scroll until done replaces this
+					listView.setFastScrollEnabled(false);
+					listView.setAdapter(adapter = getAdapter(new ArrayList<T>()));
+					listView.setVisibility(View.VISIBLE);
+					setPartialProgressVisible();
+				}
+
+				adapter.setNotifyOnChange(false);
+				for(Object item: items) {
+					adapter.add(item);
+				}
+				adapter.notifyDataSetChanged();
+			}
+
 			@Override
 			protected void done(List<T> result) {
 				if (result != null && !result.isEmpty()) {
@@ -148,6 +165,7 @@ public abstract class SelectListFragment<T> extends SubsonicFragment implements
 					onFinishRefresh();
 					listView.setVisibility(View.VISIBLE);
 				} else {
+					listView.setVisibility(View.GONE);
 					setEmpty(true);
 				}
 				
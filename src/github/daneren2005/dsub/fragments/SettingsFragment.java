@@ -70,6 +70,13 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 	private EditTextPreference cacheLocation;
 	private ListPreference preloadCountWifi;
 	private ListPreference preloadCountMobile;
+	private ListPreference maxDownloadsWifi;
+	private ListPreference maxDownloadsMobile;
+	private ListPreference downloadSegments;
+	private ListPreference downloadLimitScreenOn;
+	private ListPreference downloadLimitScreenOff;
+	private ListPreference downloadLimitMetered;
+	private ListPreference downloadLimitUnmetered;
 	private ListPreference tempLoss;
 	private ListPreference pauseDisconnect;
 	private Preference addServerPreference;
@@ -81,6 +88,8 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 	private CheckBoxPreference syncNotification;
 	private CheckBoxPreference syncStarred;
 	private CheckBoxPreference syncMostRecent;
+	private CheckBoxPreference syncLibrary;
+	private ListPreference syncLibraryThreads;
 	private CheckBoxPreference replayGain;
 	private ListPreference replayGainType;
 	private Preference replayGainBump;
@@ -141,6 +150,10 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 		}
 		else if(Constants.PREFERENCES_KEY_SYNC_MOST_RECENT.equals(key)) {
 			SyncUtil.removeMostRecentSyncFiles(context);
+		}
+		else if(Constants.PREFERENCES_KEY_SYNC_LIBRARY.equals(key)) {
+			Account account = new Account(Constants.SYNC_ACCOUNT_NAME, Constants.SYNC_ACCOUNT_TYPE);
+			ContentResolver.setSyncAutomatically(account, Constants.SYNC_ACCOUNT_LIBRARY_AUTHORITY, sharedPreferences.getBoolean(key, false));
 		} else if(Constants.PREFERENCES_KEY_REPLAY_GAIN.equals(key) || Constants.PREFERENCES_KEY_REPLAY_GAIN_BUMP.equals(key) || Constants.PREFERENCES_KEY_REPLAY_GAIN_UNTAGGED.equals(key)) {
 			DownloadService downloadService = DownloadService.getInstance();
 			if(downloadService != null) {
@@ -167,6 +180,13 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 		cacheLocation = (EditTextPreference) this.findPreference(Constants.PREFERENCES_KEY_CACHE_LOCATION);
 		preloadCountWifi = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_PRELOAD_COUNT_WIFI);
 		preloadCountMobile = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_PRELOAD_COUNT_MOBILE);
+		maxDownloadsWifi = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_MAX_DOWNLOADS_WIFI);
+		maxDownloadsMobile = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_MAX_DOWNLOADS_MOBILE);
+		downloadSegments = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_DOWNLOAD_SEGMENTS);
+		downloadLimitScreenOn = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_DOWNLOAD_LIMIT_SCREEN_ON);
+		downloadLimitScreenOff = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_DOWNLOAD_LIMIT_SCREEN_OFF);
+		downloadLimitMetered = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_DOWNLOAD_LIMIT_METERED);
+		downloadLimitUnmetered = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_DOWNLOAD_LIMIT_UNMETERED);
 		tempLoss = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_TEMP_LOSS);
 		pauseDisconnect = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_PAUSE_DISCONNECT);
 		serversCategory = (PreferenceCategory) this.findPreference(Constants.PREFERENCES_KEY_SERVER_KEY);
@@ -178,6 +198,8 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 		syncNotification = (CheckBoxPreference) this.findPreference(Constants.PREFERENCES_KEY_SYNC_NOTIFICATION);
 		syncStarred = (CheckBoxPreference) this.findPreference(Constants.PREFERENCES_KEY_SYNC_STARRED);
 		syncMostRecent = (CheckBoxPreference) this.findPreference(Constants.PREFERENCES_KEY_SYNC_MOST_RECENT);
+		syncLibrary = (CheckBoxPreference) this.findPreference(Constants.PREFERENCES_KEY_SYNC_LIBRARY);
+		syncLibraryThreads = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_SYNC_LIBRARY_THREADS);
 		replayGain = (CheckBoxPreference) this.findPreference(Constants.PREFERENCES_KEY_REPLAY_GAIN);
 		replayGainType = (ListPreference) this.findPreference(Constants.PREFERENCES_KEY_REPLAY_GAIN_TYPE);
 		replayGainBump = this.findPreference(Constants.PREFERENCES_KEY_REPLAY_GAIN_BUMP);
@@ -306,10 +328,18 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 		cacheLocation.setSummary(cacheLocation.getText());
 		preloadCountWifi.setSummary(preloadCountWifi.getEntry());
 		preloadCountMobile.setSummary(preloadCountMobile.getEntry());
+		maxDownloadsWifi.setSummary(maxDownloadsWifi.getEntry());
+		maxDownloadsMobile.setSummary(maxDownloadsMobile.getEntry());
+		downloadSegments.setSummary(downloadSegments.getEntry());
+		downloadLimitScreenOn.setSummary(downloadLimitScreenOn.getEntry());
+		downloadLimitScreenOff.setSummary(downloadLimitScreenOff.getEntry());
+		downloadLimitMetered.setSummary(downloadLimitMetered.getEntry());
+		downloadLimitUnmetered.setSummary(downloadLimitUnmetered.getEntry());
 		tempLoss.setSummary(tempLoss.getEntry());
 		pauseDisconnect.setSummary(pauseDisconnect.getEntry());
 		videoPlayer.setSummary(videoPlayer.getEntry());
 		syncInterval.setSummary(syncInterval.getEntry());
+		syncLibraryThreads.setSummary(syncLibraryThreads.getEntry());
 		openToTab.setSummary(openToTab.getEntry());
 		try {
 			if(megabyteFromat == null) {
@@ -328,6 +358,7 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 				syncNotification.setEnabled(true);
 				syncStarred.setEnabled(true);
 				syncMostRecent.setEnabled(true);
+				syncLibrary.setEnabled(true);
 			}
 		} else {
 			if(syncInterval.isEnabled()) {
@@ -336,6 +367,7 @@ public class SettingsFragment extends PreferenceCompatFragment implements Shared
 				syncNotification.setEnabled(false);
 				syncStarred.setEnabled(false);
 				syncMostRecent.setEnabled(false);
+				syncLibrary.setEnabled(false);
 			}
 		}
 		if(replayGain.isChecked()) {
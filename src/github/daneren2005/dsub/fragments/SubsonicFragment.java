@@ -59,6 +59,7 @@ import github.daneren2005.dsub.domain.Playlist;
 import github.daneren2005.dsub.domain.PodcastEpisode;
 import github.daneren2005.dsub.domain.ServerInfo;
 import github.daneren2005.dsub.domain.Share;
+import github.daneren2005.dsub.service.CachedMusicService;
 import github.daneren2005.dsub.service.DownloadFile;
 import github.daneren2005.dsub.service.DownloadService;
 import github.daneren2005.dsub.service.MediaStoreService;
@@ -551,6 +552,20 @@ public class SubsonicFragment extends Fragment implements SwipeRefreshLayout.OnR
 				progress.setVisibility(View.VISIBLE);
 			}
 		}
+		if(!visible && refreshLayout != null) {
+			refreshLayout.setRefreshing(false);
+		}
+	}
+
+	// Trade the full progress view for the small refresh spinner so what has loaded so far can be shown
+	public void setPartialProgressVisible() {
+		View view = rootView.findViewById(R.id.tab_progress);
+		if (view != null) {
+			view.setVisibility(View.GONE);
+		}
+		if(refreshLayout != null) {
+			refreshLayout.setRefreshing(true);
+		}
 	}
 
 	public void updateProgress(String message) {
@@ -956,6 +971,23 @@ public class SubsonicFragment extends Fragment implements SwipeRefreshLayout.OnR
 			return service.getMusicDirectory(id, name, refresh, context, listener);
 		}
 	}
+	// Asks for the same kind of listing getMusicDirectory loaded to be checked for anything newer in the background
+	protected void revalidateMusicDirectory(String id, String name, boolean forceArtist) {
+		if(Util.isOffline(context)) {
+			return;
+		}
+
+		CachedMusicService service = MusicServiceFactory.getCachedMusicService();
+		if(Util.isTagBrowsing(context)) {
+			if(artist && !artistOverride || forceArtist) {
+				service.revalidateArtist(context, id, name);
+			} else {
+				service.revalidateAlbum(context, id, name);
+			}
+		} else {
+			service.revalidateMusicDirectory(context, id, name);
+		}
+	}
 
 	protected void addToPlaylist(final List<Entry> songs) {
 		if(songs.isEmpty()) {
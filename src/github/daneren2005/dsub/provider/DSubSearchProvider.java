@@ -38,6 +38,8 @@ import github.daneren2005.dsub.domain.SearchCritera;
 import github.daneren2005.dsub.domain.SearchResult;
 import github.daneren2005.dsub.service.MusicService;
 import github.daneren2005.dsub.service.MusicServiceFactory;
+import github.daneren2005.dsub.util.FileUtil;
+import github.daneren2005.dsub.util.SearchIndex;
 import github.daneren2005.dsub.util.Util;
 
 /**
@@ -55,6 +57,8 @@ public class DSubSearchProvider extends ContentProvider {
 			SearchManager.SUGGEST_COLUMN_INTENT_DATA,
 			SearchManager.SUGGEST_COLUMN_INTENT_EXTRA_DATA,
 			SearchManager.SUGGEST_COLUMN_ICON_1};
+	// Number of cached matches needed before not bothering to ask the server for more
+	private static final int MIN_LOCAL_RESULTS = 5;
 
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
@@ -64,18 +68,34 @@ public class DSubSearchProvider extends ContentProvider {
 	}
 
 	private SearchResult search(String query) {
+		SearchCritera criteria = new SearchCritera(query, 5, 10, 10);
+
+		// Answer from what is already cached when that is enough to fill the suggestions
+		SearchResult localResult = null;
+		if(!Util.isOffline(getContext())) {
+			localResult = FileUtil.getSearchIndex(getContext()).search(criteria);
+			if(getCount(localResult) >= MIN_LOCAL_RESULTS) {
+				return localResult;
+			}
+		}
+
 		MusicService musicService = MusicServiceFactory.getMusicService(getContext());
 		if (musicService == null) {
-			return null;
+			return localResult;
 		}
 
 		try {
-			return musicService.search(new SearchCritera(query, 5, 10, 10), getContext(), null);
+			return SearchIndex.merge(localResult, musicService.search(criteria, getContext(), null), criteria);
 		} catch (Exception e) {
-			return null;
+			Log.w(TAG, "Failed to get search suggestions from server", e);
+			return localResult;
 		}
 	}
 
+	private int getCount(SearchResult result) {
+		return result.getArtists().size() + result.getAlbums().size() + result.getSongs().size();
+	}
+
 	private Cursor createCursor(String query, SearchResult searchResult) {
 		MatrixCursor cursor = new MatrixCursor(COLUMNS);
 		if (searchResult == null) {
@@ -0,0 +1,175 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.service;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.PowerManager;
+import android.util.Log;
+
+import github.daneren2005.dsub.util.Util;
+
+/**
+ * Token bucket every download in the process draws from before writing what it read.  The limit depends on whether
+ * the screen is on and whether the network is metered, and is shared by all downloads together.  The song playing
+ * right now never waits on it, but what it uses still counts against everything else.  Everything else is served by
+ * lane, so background downloads only get what is left over once the preloads are done waiting.
+ *
+ * The sync adapters run in the separate :sync process and so get a bucket of their own with the same limit, which
+ * means while both are downloading the total can be up to twice the limit.
+ */
+public class BandwidthShaper {
+	private static final String TAG = BandwidthShaper.class.getSimpleName();
+	// How often to look at the screen and network again
+	private static final long CONDITIONS_INTERVAL = 3000L;
+	private static final long MEASURE_INTERVAL = 3000L;
+	// How long a lower lane waits before checking whether a higher lane is still waiting
+	private static final long LANE_WAIT = 10L;
+
+	private static BandwidthShaper instance;
+
+	private final Context context;
+	private final int[] waiting = new int[DownloadScheduler.LANE_COUNT];
+	private long limit = 0;
+	private boolean screenOn = false;
+	private double tokens = 0;
+	private long lastRefill;
+	private long lastConditions = 0;
+	private long measureStart;
+	private long measuredBytes = 0;
+	private long bytesPerSecond = 0;
+
+	private BandwidthShaper(Context context) {
+		this.context = context;
+		lastRefill = measureStart = System.currentTimeMillis();
+	}
+
+	public static synchronized BandwidthShaper getInstance(Context context) {
+		if(instance == null) {
+			instance = new BandwidthShaper(context.getApplicationContext());
+		}
+		return instance;
+	}
+
+	/**
+	 * Wait until bytes which have just been read in lane can be written.
+	 *
+	 * @return whether it had to wait
+	 */
+	public synchronized boolean acquire(int lane, int bytes) throws InterruptedException {
+		long now = System.currentTimeMillis();
+		update(now);
+
+		boolean waited = false;
+		if(limit > 0 && lane != DownloadScheduler.LANE_NOW_PLAYING) {
+			waiting[lane]++;
+			try {
+				while(limit > 0 && (tokens <= 0 || isHigherWaiting(lane))) {
+					waited = true;
+					if(tokens <= 0) {
+						wait((long) Math.ceil(-tokens * 1000 / limit) + 1);
+					} else {
+						wait(LANE_WAIT);
+					}
+
+					now = System.currentTimeMillis();
+					update(now);
+				}
+			} finally {
+				waiting[lane]--;
+			}
+		}
+
+		if(limit > 0) {
+			tokens -= bytes;
+		}
+		measuredBytes += bytes;
+		return waited;
+	}
+
+	/**
+	 * Get the limit in bytes per second as of the last download, or 0 if there isn't one.
+	 */
+	public synchronized long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Whether the screen was on as of the last download.
+	 */
+	public synchronized boolean isScreenOn() {
+		return screenOn;
+	}
+
+	/**
+	 * Get how fast all downloads together have been going.
+	 */
+	public synchronized long getBytesPerSecond() {
+		if(System.currentTimeMillis() - measureStart > MEASURE_INTERVAL * 2) {
+			return 0;
+		}
+		return bytesPerSecond;
+	}
+
+	private void update(long now) {
+		if(now - lastConditions >= CONDITIONS_INTERVAL) {
+			PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+			screenOn = pm.isScreenOn();
+			long newLimit = Util.getDownloadLimit(context, screenOn, isMetered());
+			if(newLimit != limit) {
+				Log.i(TAG, "Download limit is now " + (newLimit > 0 ? (Util.formatBytes(newLimit) + "/s") : "off"));
+				limit = newLimit;
+			}
+			lastConditions = now;
+		}
+
+		// Allow up to a second worth to build up so short pauses between reads aren't lost
+		if(limit > 0) {
+			tokens = Math.min(limit, tokens + (now - lastRefill) * limit / 1000.0);
+		} else {
+			tokens = 0;
+		}
+		lastRefill = now;
+
+		if(now - measureStart >= MEASURE_INTERVAL) {
+			bytesPerSecond = measuredBytes * 1000L / (now - measureStart);
+			measuredBytes = 0;
+			measureStart = now;
+		}
+	}
+
+	private boolean isHigherWaiting(int lane) {
+		for(int i = 0; i < lane; i++) {
+			if(waiting[i] > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private boolean isMetered() {
+		ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+			return manager.isActiveNetworkMetered();
+		}
+
+		NetworkInfo networkInfo = manager.getActiveNetworkInfo();
+		return networkInfo == null || networkInfo.getType() != ConnectivityManager.TYPE_WIFI;
+	}
+}
@@ -21,15 +21,20 @@ package github.daneren2005.dsub.service;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.http.HttpResponse;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.util.Log;
 
 import github.daneren2005.dsub.domain.Artist;
 import github.daneren2005.dsub.domain.ArtistInfo;
@@ -51,6 +56,9 @@ import github.daneren2005.dsub.domain.User;
 import github.daneren2005.dsub.util.SilentBackgroundTask;
 import github.daneren2005.dsub.util.ProgressListener;
 import github.daneren2005.dsub.util.TimeLimitedCache;
+import github.daneren2005.dsub.util.TimeLimitedLruCache;
+import github.daneren2005.dsub.util.EntryIndex;
+import github.daneren2005.dsub.util.MetadataStore;
 import github.daneren2005.dsub.util.FileUtil;
 import github.daneren2005.dsub.util.Util;
 
@@ -64,6 +72,8 @@ public class CachedMusicService implements MusicService {
 
     private static final int MUSIC_DIR_CACHE_SIZE = 20;
     private static final int TTL_MUSIC_DIR = 5 * 60; // Five minutes
+	private static final long MUSIC_DIR_CACHE_BYTES = 2L * 1024L * 1024L;
+	private static final int REVALIDATE_INTERVAL = 60; // Don't check the same listing again for a minute
 
 	private final RESTMusicService musicService;
     private final TimeLimitedCache<Boolean> cachedLicenseValid = new TimeLimitedCache<Boolean>(120, TimeUnit.SECONDS);
@@ -71,9 +81,21 @@ public class CachedMusicService implements MusicService {
     private final TimeLimitedCache<List<Playlist>> cachedPlaylists = new TimeLimitedCache<List<Playlist>>(3600, TimeUnit.SECONDS);
     private final TimeLimitedCache<List<MusicFolder>> cachedMusicFolders = new TimeLimitedCache<List<MusicFolder>>(10 * 3600, TimeUnit.SECONDS);
 	private final TimeLimitedCache<List<PodcastChannel>> cachedPodcastChannels = new TimeLimitedCache<List<PodcastChannel>>(10 * 3600, TimeUnit.SECONDS);
+	private final TimeLimitedLruCache<String, MusicDirectory> cachedMusicDirectories = new TimeLimitedLruCache<String, MusicDirectory>(MUSIC_DIR_CACHE_SIZE, MUSIC_DIR_CACHE_BYTES, TTL_MUSIC_DIR, TimeUnit.SECONDS) {
+		@Override
+		protected long sizeOf(MusicDirectory dir) {
+			// Rough estimate of an Entry with all of its strings filled in
+			return 256L + dir.getChildrenSize() * 512L;
+		}
+	};
+	private final TimeLimitedLruCache<String, Boolean> revalidated = new TimeLimitedLruCache<String, Boolean>(100, 100, REVALIDATE_INTERVAL, TimeUnit.SECONDS);
+	// Only ever touched from the main thread
+	private final Map<OnMusicDirectoryRevalidatedListener, Boolean> musicDirectoryListeners = new WeakHashMap<OnMusicDirectoryRevalidatedListener, Boolean>();
+	private final Map<OnIndexesRevalidatedListener, Boolean> indexesListeners = new WeakHashMap<OnIndexesRevalidatedListener, Boolean>();
     private String restUrl;
 	private String musicFolderId;
 	private boolean isTagBrowsing = false;
+	private boolean listeningToStore = false;
 
     public CachedMusicService(RESTMusicService musicService) {
         this.musicService = musicService;
@@ -90,14 +112,14 @@ public class CachedMusicService implements MusicService {
         checkSettingsChanged(context);
         Boolean result = cachedLicenseValid.get();
         if (result == null) {
-			result = FileUtil.deserialize(context, getCacheName(context, "license"), Boolean.class);
+			result = FileUtil.deserializeMetadata(context, getCacheName(context, "license"), Boolean.class);
 
 			if(result == null) {
             	result = musicService.isLicenseValid(context, progressListener);
 
 				// Only save a copy license is valid
 				if(result) {
-					FileUtil.serialize(context, (Boolean) result, getCacheName(context, "license"));
+					FileUtil.serializeMetadata(context, (Boolean) result, getCacheName(context, "license"));
 				}
 			}
             cachedLicenseValid.set(result, result ? 30L * 60L : 2L * 60L, TimeUnit.SECONDS);
@@ -111,18 +133,22 @@ public class CachedMusicService implements MusicService {
         if (refresh) {
             cachedMusicFolders.clear();
         }
+		long start = System.currentTimeMillis();
+		boolean hit = true;
         List<MusicFolder> result = cachedMusicFolders.get();
         if (result == null) {
         	if(!refresh) {
-        		result = FileUtil.deserialize(context, getCacheName(context, "musicFolders"), ArrayList.class);
+        		result = FileUtil.deserializeMetadata(context, getCacheName(context, "musicFolders"), ArrayList.class);
         	}
         	
         	if(result == null) {
             	result = musicService.getMusicFolders(refresh, context, progressListener);
-            	FileUtil.serialize(context, new ArrayList<MusicFolder>(result), getCacheName(context, "musicFolders"));
+            	FileUtil.serializeMetadata(context, new ArrayList<MusicFolder>(result), getCacheName(context, "musicFolders"));
+				hit = false;
         	}
             cachedMusicFolders.set(result);
         }
+		recordCache("getMusicFolders", hit, start);
         return result;
     }
 
@@ -138,76 +164,123 @@ public class CachedMusicService implements MusicService {
             cachedIndexes.clear();
             cachedMusicFolders.clear();
         }
+		long start = System.currentTimeMillis();
+		boolean hit = true;
         Indexes result = cachedIndexes.get();
         if (result == null) {
 			String name = Util.isTagBrowsing(context, musicService.getInstance(context)) ? "artists" : "indexes";
 			name = getCacheName(context, name, musicFolderId);
+			Indexes cached = FileUtil.deserializeMetadata(context, name, Indexes.class);
 			if(!refresh) {
-				result = FileUtil.deserialize(context, name, Indexes.class);
+				result = cached;
 			}
         	
         	if(result == null) {
-            	result = musicService.getIndexes(musicFolderId, refresh, context, progressListener);
-            	FileUtil.serialize(context, result, name);
+            	result = getIndexesIfModified(context, musicFolderId, cached, progressListener);
+				if(result != cached) {
+            		FileUtil.serializeMetadata(context, result, name);
+				}
+				revalidated.put(name, Boolean.TRUE);
+				hit = false;
         	}
             cachedIndexes.set(result);
         }
+		recordCache(Util.isTagBrowsing(context, musicService.getInstance(context)) ? "getArtists" : "getIndexes", hit, start);
         return result;
     }
 
     @Override
     public MusicDirectory getMusicDirectory(String id, String name, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
-		MusicDirectory dir = null;
-		MusicDirectory cached = FileUtil.deserialize(context, getCacheName(context, "directory", id), MusicDirectory.class);
+		long start = System.currentTimeMillis();
+		String cacheName = getCacheName(context, "directory", id);
+		MusicDirectory dir = refresh ? null : getCachedMusicDirectory(cacheName);
+		if(dir != null) {
+			recordCache("getMusicDirectory", true, start);
+			return dir;
+		}
+
+		MusicDirectory cached = FileUtil.deserializeMetadata(context, cacheName, MusicDirectory.class);
 		if(!refresh) {
 			dir = cached;
 		}
 
+		boolean hit = dir != null;
 		if(dir == null) {
 			dir = musicService.getMusicDirectory(id, name, refresh, context, progressListener);
-			FileUtil.serialize(context, dir, getCacheName(context, "directory", id));
-			
+			FileUtil.serializeMetadata(context, dir, cacheName);
+			revalidated.put(cacheName, Boolean.TRUE);
+
 			// If a cached copy exists to check against, look for removes
-			deleteRemovedEntries(context, dir, cached);
+			if(cached != null) {
+				deleteRemovedEntries(context, dir.diff(cached).getRemoved());
+			}
 		}
+		setCachedMusicDirectory(cacheName, dir);
+		recordCache("getMusicDirectory", hit, start);
 
 		return dir;
     }
 
 	@Override
 	public MusicDirectory getArtist(String id, String name, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
-		MusicDirectory dir = null;
-		MusicDirectory cached = FileUtil.deserialize(context, getCacheName(context, "artist", id), MusicDirectory.class);
+		long start = System.currentTimeMillis();
+		String cacheName = getCacheName(context, "artist", id);
+		MusicDirectory dir = refresh ? null : getCachedMusicDirectory(cacheName);
+		if(dir != null) {
+			recordCache("getArtist", true, start);
+			return dir;
+		}
+
+		MusicDirectory cached = FileUtil.deserializeMetadata(context, cacheName, MusicDirectory.class);
 		if(!refresh) {
 			dir = cached;
 		}
 
+		boolean hit = dir != null;
 		if(dir == null) {
 			dir = musicService.getArtist(id, name, refresh, context, progressListener);
-			FileUtil.serialize(context, dir, getCacheName(context, "artist", id));
+			FileUtil.serializeMetadata(context, dir, cacheName);
+			revalidated.put(cacheName, Boolean.TRUE);
 
 			// If a cached copy exists to check against, look for removes
-			deleteRemovedEntries(context, dir, cached);
+			if(cached != null) {
+				deleteRemovedEntries(context, dir.diff(cached).getRemoved());
+			}
 		}
+		setCachedMusicDirectory(cacheName, dir);
+		recordCache("getArtist", hit, start);
 
 		return dir;
 	}
 
 	@Override
 	public MusicDirectory getAlbum(String id, String name, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
-		MusicDirectory dir = null;
-		MusicDirectory cached = FileUtil.deserialize(context, getCacheName(context, "album", id), MusicDirectory.class);
+		long start = System.currentTimeMillis();
+		String cacheName = getCacheName(context, "album", id);
+		MusicDirectory dir = refresh ? null : getCachedMusicDirectory(cacheName);
+		if(dir != null) {
+			recordCache("getAlbum", true, start);
+			return dir;
+		}
+
+		MusicDirectory cached = FileUtil.deserializeMetadata(context, cacheName, MusicDirectory.class);
 		if(!refresh) {
 			dir = cached;
 		}
 
+		boolean hit = dir != null;
 		if(dir == null) {
 			dir = musicService.getAlbum(id, name, refresh, context, progressListener);
-			FileUtil.serialize(context, dir, getCacheName(context, "album", id));
+			FileUtil.serializeMetadata(context, dir, cacheName);
+			revalidated.put(cacheName, Boolean.TRUE);
 
 			// If a cached copy exists to check against, look for removes
-			deleteRemovedEntries(context, dir, cached);
+			if(cached != null) {
+				deleteRemovedEntries(context, dir.diff(cached).getRemoved());
+			}
 		}
+		setCachedMusicDirectory(cacheName, dir);
+		recordCache("getAlbum", hit, start);
 
 		return dir;
 	}
@@ -219,45 +292,56 @@ public class CachedMusicService implements MusicService {
 
     @Override
     public MusicDirectory getPlaylist(boolean refresh, String id, String name, Context context, ProgressListener progressListener) throws Exception {
-		MusicDirectory dir = null;
-		MusicDirectory cachedPlaylist = FileUtil.deserialize(context, getCacheName(context, "playlist", id), MusicDirectory.class);
+		long start = System.currentTimeMillis();
+		String cacheName = getCacheName(context, "playlist", id);
+		MusicDirectory dir = refresh ? null : getCachedMusicDirectory(cacheName);
+		if(dir != null) {
+			recordCache("getPlaylist", true, start);
+			return dir;
+		}
+
+		MusicDirectory cachedPlaylist = FileUtil.deserializeMetadata(context, cacheName, MusicDirectory.class);
 		if(!refresh) {
 			dir = cachedPlaylist;
 		}
+		boolean hit = dir != null;
 		if(dir == null) {
 			dir = musicService.getPlaylist(refresh, id, name, context, progressListener);
-			FileUtil.serialize(context, dir, getCacheName(context, "playlist", id));
-
-			File playlistFile = FileUtil.getPlaylistFile(context, Util.getServerName(context, musicService.getInstance(context)), dir.getName());
-			if(cachedPlaylist == null || !playlistFile.exists() || !cachedPlaylist.getChildren().equals(dir.getChildren())) {
-				FileUtil.writePlaylistFile(context, playlistFile, dir);
-			}
+			FileUtil.serializeMetadata(context, dir, cacheName);
+			updatePlaylistFile(context, dir, cachedPlaylist);
+			revalidated.put(cacheName, Boolean.TRUE);
 		}
+		setCachedMusicDirectory(cacheName, dir);
+		recordCache("getPlaylist", hit, start);
         return dir;
     }
 
     @Override
     public List<Playlist> getPlaylists(boolean refresh, Context context, ProgressListener progressListener) throws Exception {
         checkSettingsChanged(context);
+		long start = System.currentTimeMillis();
+		boolean hit = true;
         List<Playlist> result = refresh ? null : cachedPlaylists.get();
         if (result == null) {
         	if(!refresh) {
-        		result = FileUtil.deserialize(context, getCacheName(context, "playlist"), ArrayList.class);
+        		result = FileUtil.deserializeMetadata(context, getCacheName(context, "playlist"), ArrayList.class);
         	}
         	
         	if(result == null) {
 	        	result = musicService.getPlaylists(refresh, context, progressListener);
-	        	FileUtil.serialize(context, new ArrayList<Playlist>(result), getCacheName(context, "playlist"));
+	        	FileUtil.serializeMetadata(context, new ArrayList<Playlist>(result), getCacheName(context, "playlist"));
+				hit = false;
         	}
             cachedPlaylists.set(result);
         }
+		recordCache("getPlaylists", hit, start);
         return result;
     }
 
     @Override
     public void createPlaylist(String id, String name, List<Entry> entries, Context context, ProgressListener progressListener) throws Exception {
 		cachedPlaylists.clear();
-		Util.delete(new File(context.getCacheDir(), getCacheName(context, "playlist")));
+		FileUtil.deleteMetadata(context, getCacheName(context, "playlist"));
         musicService.createPlaylist(id, name, entries, context, progressListener);
     }
 	
@@ -362,7 +446,7 @@ public class CachedMusicService implements MusicService {
 		// Do some serialization updates for changes to recently added
 		if("newest".equals(type) && offset == 0) {
 			String recentlyAddedFile = getCacheName(context, type);
-			ArrayList<String> recents = FileUtil.deserialize(context, recentlyAddedFile, ArrayList.class);
+			ArrayList<String> recents = FileUtil.deserializeMetadata(context, recentlyAddedFile, ArrayList.class);
 			if(recents == null) {
 				recents = new ArrayList<String>();
 			}
@@ -409,7 +493,8 @@ public class CachedMusicService implements MusicService {
 									musicDirectory.replaceChildren(objects);
 									// Reapply sort after addition
 									musicDirectory.sortChildren(context, instance);
-									FileUtil.serialize(context, musicDirectory, cacheName);
+									FileUtil.serializeMetadata(context, musicDirectory, cacheName);
+									setCachedMusicDirectory(cacheName, musicDirectory);
 								}
 							}
 						}.execute();
@@ -441,7 +526,7 @@ public class CachedMusicService implements MusicService {
 									indexes.setArtists(objects);
 									// Reapply sort after addition
 									indexes.sortChildren(context);
-									FileUtil.serialize(context, indexes, cacheName);
+									FileUtil.serializeMetadata(context, indexes, cacheName);
 									cachedIndexes.set(indexes);
 								}
 							}
@@ -454,7 +539,7 @@ public class CachedMusicService implements MusicService {
 			while(recents.size() > 0) {
 				recents.remove(0);
 			}
-			FileUtil.serialize(context, recents, recentlyAddedFile);
+			FileUtil.serializeMetadata(context, recents, recentlyAddedFile);
 		}
 
 		return dir;
@@ -469,7 +554,7 @@ public class CachedMusicService implements MusicService {
     public MusicDirectory getStarredList(Context context, ProgressListener progressListener) throws Exception {
         MusicDirectory dir = musicService.getStarredList(context, progressListener);
 
-		MusicDirectory oldDir = FileUtil.deserialize(context, "starred", MusicDirectory.class);
+		MusicDirectory oldDir = FileUtil.deserializeMetadata(context, "starred", MusicDirectory.class);
 		if(oldDir != null) {
 			final List<Entry> newList = new ArrayList<Entry>();
 			newList.addAll(dir.getChildren());
@@ -493,7 +578,7 @@ public class CachedMusicService implements MusicService {
 
 			new StarUpdater(context, totalList).execute();
 		}
-		FileUtil.serialize(context, dir, "starred");
+		FileUtil.serializeMetadata(context, dir, "starred");
 
 		return dir;
     }
@@ -518,6 +603,11 @@ public class CachedMusicService implements MusicService {
         return musicService.getDownloadInputStream(context, song, offset, maxBitrate, task);
     }
 
+	@Override
+	public HttpResponse getDownloadInputStream(Context context, Entry song, long start, long end, int maxBitrate, SilentBackgroundTask task) throws Exception {
+		return musicService.getDownloadInputStream(context, song, start, end, maxBitrate, task);
+	}
+
 	@Override
 	public String getMusicUrl(Context context, Entry song, int maxBitrate) throws Exception {
 		return musicService.getMusicUrl(context, song, maxBitrate);
@@ -622,12 +712,12 @@ public class CachedMusicService implements MusicService {
 		List<Genre> result = null;
 
 		if(!refresh) {
-			result = FileUtil.deserialize(context, getCacheName(context, "genre"), ArrayList.class);
+			result = FileUtil.deserializeMetadata(context, getCacheName(context, "genre"), ArrayList.class);
 		}
 
 		if(result == null) {
 			result = musicService.getGenres(refresh, context, progressListener);
-			FileUtil.serialize(context, new ArrayList<Genre>(result), getCacheName(context, "genre"));
+			FileUtil.serializeMetadata(context, new ArrayList<Genre>(result), getCacheName(context, "genre"));
 		}
 
 		return result;
@@ -650,12 +740,12 @@ public class CachedMusicService implements MusicService {
 
 		if (result == null) {
 			if(!refresh) {
-				result = FileUtil.deserialize(context, getCacheName(context, "podcast"), ArrayList.class);
+				result = FileUtil.deserializeMetadata(context, getCacheName(context, "podcast"), ArrayList.class);
 			}
 			
 			if(result == null) {
 				result = musicService.getPodcastChannels(refresh, context, progressListener);
-				FileUtil.serialize(context, new ArrayList<PodcastChannel>(result), getCacheName(context, "podcast"));
+				FileUtil.serializeMetadata(context, new ArrayList<PodcastChannel>(result), getCacheName(context, "podcast"));
 			}
 			cachedPodcastChannels.set(result);
 		}
@@ -669,12 +759,12 @@ public class CachedMusicService implements MusicService {
 		MusicDirectory result = null;
 
 		if(!refresh) {
-			result = FileUtil.deserialize(context, getCacheName(context, "directory", altId), MusicDirectory.class, 10);
+			result = FileUtil.deserializeMetadata(context, getCacheName(context, "directory", altId), MusicDirectory.class, 10);
 		}
 
 		if(result == null) {
 			result = musicService.getPodcastEpisodes(refresh, id, context, progressListener);
-			FileUtil.serialize(context, result, getCacheName(context, "directory", altId));
+			FileUtil.serializeMetadata(context, result, getCacheName(context, "directory", altId));
 		}
 
 		return result;
@@ -745,7 +835,7 @@ public class CachedMusicService implements MusicService {
 	public MusicDirectory getBookmarks(boolean refresh, Context context, ProgressListener progressListener) throws Exception {
 		MusicDirectory bookmarks = musicService.getBookmarks(refresh, context, progressListener);
 		
-		MusicDirectory oldBookmarks = FileUtil.deserialize(context, "bookmarks", MusicDirectory.class);
+		MusicDirectory oldBookmarks = FileUtil.deserializeMetadata(context, "bookmarks", MusicDirectory.class);
 		if(oldBookmarks != null) {
 			final List<Entry> oldList = oldBookmarks.getChildren();
 			final List<Entry> newList = new ArrayList<Entry>();
@@ -774,7 +864,7 @@ public class CachedMusicService implements MusicService {
 
 			new BookmarkUpdater(context, totalList).execute();
 		}
-		FileUtil.serialize(context, bookmarks, "bookmarks");
+		FileUtil.serializeMetadata(context, bookmarks, "bookmarks");
 		
 		return bookmarks;
 	}
@@ -799,13 +889,13 @@ public class CachedMusicService implements MusicService {
 
 		try {
 			result = musicService.getUser(refresh, username, context, progressListener);
-			FileUtil.serialize(context, result, getCacheName(context, "user-" + username));
+			FileUtil.serializeMetadata(context, result, getCacheName(context, "user-" + username));
 		} catch(Exception e) {
 			// Don't care
 		}
 		
 		if(result == null && !refresh) {
-			result = FileUtil.deserialize(context, getCacheName(context, "user-" + username), User.class);
+			result = FileUtil.deserializeMetadata(context, getCacheName(context, "user-" + username), User.class);
 		}
 
 		return result;
@@ -816,12 +906,12 @@ public class CachedMusicService implements MusicService {
 		List<User> result = null;
 
 		if(!refresh) {
-			result = FileUtil.deserialize(context, getCacheName(context, "users"), ArrayList.class);
+			result = FileUtil.deserializeMetadata(context, getCacheName(context, "users"), ArrayList.class);
 		}
 
 		if(result == null) {
 			result = musicService.getUsers(refresh, context, progressListener);
-			FileUtil.serialize(context, new ArrayList<User>(result), getCacheName(context, "users"));
+			FileUtil.serializeMetadata(context, new ArrayList<User>(result), getCacheName(context, "users"));
 		}
 
 		return result;
@@ -897,12 +987,12 @@ public class CachedMusicService implements MusicService {
 		String cacheName = getCacheName(context, "artistInfo", id);
 		ArtistInfo info = null;
 		if(!refresh) {
-			info = FileUtil.deserialize(context, cacheName, ArtistInfo.class);
+			info = FileUtil.deserializeMetadata(context, cacheName, ArtistInfo.class);
 		}
 
 		if(info == null) {
 			info = musicService.getArtistInfo(id, refresh, context, progressListener);
-			FileUtil.serialize(context, info, cacheName);
+			FileUtil.serializeMetadata(context, info, cacheName);
 		}
 
 		return info;
@@ -932,23 +1022,276 @@ public class CachedMusicService implements MusicService {
   		return name + "-" + s.hashCode() + ".ser";
   	}
 
-	private void deleteRemovedEntries(Context context, MusicDirectory dir, MusicDirectory cached) {
-		if(cached != null) {
-			List<Entry> oldList = new ArrayList<Entry>();
-			oldList.addAll(cached.getChildren());
+	public long getMusicDirectoryCacheHitCount() {
+		return cachedMusicDirectories.getHitCount();
+	}
+	public long getMusicDirectoryCacheMissCount() {
+		return cachedMusicDirectories.getMissCount();
+	}
+	public String getMusicDirectoryCacheStats() {
+		return cachedMusicDirectories.toString();
+	}
+
+	// Callers are free to modify what they get back and the entries in it, so only ever hand out and keep deep copies
+	private MusicDirectory getCachedMusicDirectory(String cacheName) {
+		MusicDirectory dir = cachedMusicDirectories.get(cacheName);
+		return dir == null ? null : copyMusicDirectory(dir);
+	}
+	private void setCachedMusicDirectory(String cacheName, MusicDirectory dir) {
+		cachedMusicDirectories.put(cacheName, copyMusicDirectory(dir));
+	}
+	private void recordCache(String method, boolean hit, long start) {
+		RequestStats.getInstance().getEndpoint(method).cached(hit, System.currentTimeMillis() - start);
+	}
+	private MusicDirectory copyMusicDirectory(MusicDirectory dir) {
+		return FileUtil.copy(dir);
+	}
+	// Whatever changes the copy on disk, whether from here, the sync process or clearing the cache, drops the one in memory
+	private synchronized void listenToStore(Context context) {
+		if(listeningToStore) {
+			return;
+		}
 
-			// Remove all current items from old list
-			for(Entry entry: dir.getChildren()) {
-				oldList.remove(entry);
+		FileUtil.getMetadataStore(context).addOnChangedListener(new MetadataStore.OnChangedListener() {
+			@Override
+			public void onChanged(String key) {
+				cachedMusicDirectories.remove(key);
 			}
 
-			// Anything remaining has been removed from server
-			MediaStoreService store = new MediaStoreService(context);
-			for(Entry entry: oldList) {
-				File file = FileUtil.getEntryFile(context, entry);
-				FileUtil.recursiveDelete(file, store);
+			@Override
+			public void onReset() {
+				cachedMusicDirectories.clear();
 			}
+		});
+		listeningToStore = true;
+	}
+
+	// Anything in the removed list has been removed from server
+	private void deleteRemovedEntries(Context context, List<Entry> removed) {
+		if(removed.isEmpty()) {
+			return;
 		}
+
+		MediaStoreService store = new MediaStoreService(context);
+		for(Entry entry: removed) {
+			File file = FileUtil.getEntryFile(context, entry);
+			FileUtil.recursiveDelete(file, store);
+		}
+	}
+
+	private void updatePlaylistFile(Context context, MusicDirectory dir, MusicDirectory cachedPlaylist) throws Exception {
+		File playlistFile = FileUtil.getPlaylistFile(context, Util.getServerName(context, musicService.getInstance(context)), dir.getName());
+		if(cachedPlaylist == null || !playlistFile.exists() || !cachedPlaylist.getChildren().equals(dir.getChildren())) {
+			FileUtil.writePlaylistFile(context, playlistFile, dir);
+		}
+	}
+
+	public void addOnMusicDirectoryRevalidatedListener(OnMusicDirectoryRevalidatedListener listener) {
+		musicDirectoryListeners.put(listener, Boolean.TRUE);
+	}
+	public void removeOnMusicDirectoryRevalidatedListener(OnMusicDirectoryRevalidatedListener listener) {
+		musicDirectoryListeners.remove(listener);
+	}
+	public void addOnIndexesRevalidatedListener(OnIndexesRevalidatedListener listener) {
+		indexesListeners.put(listener, Boolean.TRUE);
+	}
+	public void removeOnIndexesRevalidatedListener(OnIndexesRevalidatedListener listener) {
+		indexesListeners.remove(listener);
+	}
+
+	/**
+	 * Check the server for anything newer than the cached copy of a listing, if refreshing in the background is turned
+	 * on.  Listeners get to patch what they are showing instead of making the user wait on every listing.  Only screens
+	 * showing a listing which came from the cache ask for this, anything walking the library would just double up on
+	 * requests.
+	 */
+	public void revalidateMusicDirectory(Context context, String id, String name) {
+		revalidateMusicDirectory(context, "directory", id, name);
+	}
+	public void revalidateArtist(Context context, String id, String name) {
+		revalidateMusicDirectory(context, "artist", id, name);
+	}
+	public void revalidateAlbum(Context context, String id, String name) {
+		revalidateMusicDirectory(context, "album", id, name);
+	}
+	public void revalidatePlaylist(Context context, String id, String name) {
+		revalidateMusicDirectory(context, "playlist", id, name);
+	}
+
+	private void revalidateMusicDirectory(Context context, final String type, final String id, final String name) {
+		if(!Util.isBrowseRevalidateEnabled(context)) {
+			return;
+		}
+		final String cacheName = getCacheName(context, type, id);
+		if(revalidated.get(cacheName) != null) {
+			return;
+		}
+		MusicDirectory dir = getCachedMusicDirectory(cacheName);
+		if(dir == null) {
+			dir = FileUtil.deserializeMetadata(context, cacheName, MusicDirectory.class);
+			if(dir == null) {
+				return;
+			}
+		}
+		final MusicDirectory cached = dir;
+
+		final Context appContext = context.getApplicationContext();
+		new SilentBackgroundTask<MusicDirectory.Diff>(appContext) {
+			private MusicDirectory dir;
+
+			@Override
+			protected MusicDirectory.Diff doInBackground() throws Throwable {
+				if(!startRevalidating(cacheName)) {
+					return null;
+				}
+
+				if("artist".equals(type)) {
+					dir = musicService.getArtist(id, name, true, appContext, null);
+				} else if("album".equals(type)) {
+					dir = musicService.getAlbum(id, name, true, appContext, null);
+				} else if("playlist".equals(type)) {
+					dir = musicService.getPlaylist(true, id, name, appContext, null);
+				} else {
+					dir = musicService.getMusicDirectory(id, name, true, appContext, null);
+				}
+
+				MusicDirectory.Diff diff = dir.diff(cached);
+				if(!diff.isEmpty()) {
+					FileUtil.serializeMetadata(appContext, dir, cacheName);
+					deleteRemovedEntries(appContext, diff.getRemoved());
+					if("playlist".equals(type)) {
+						updatePlaylistFile(appContext, dir, cached);
+					}
+				}
+				setCachedMusicDirectory(cacheName, dir);
+
+				return diff;
+			}
+
+			@Override
+			protected void done(MusicDirectory.Diff diff) {
+				if(diff == null || diff.isEmpty()) {
+					return;
+				}
+
+				Log.i(TAG, "Revalidated " + type + " " + id + ": " + diff);
+				for(OnMusicDirectoryRevalidatedListener listener: new ArrayList<OnMusicDirectoryRevalidatedListener>(musicDirectoryListeners.keySet())) {
+					listener.onMusicDirectoryRevalidated(id, copyMusicDirectory(dir), diff);
+				}
+			}
+
+			@Override
+			protected void error(Throwable error) {
+				Log.w(TAG, "Failed to revalidate " + type + " " + id, error);
+			}
+		}.execute();
+	}
+
+	public void revalidateIndexes(Context context, final String musicFolderId) {
+		if(!Util.isBrowseRevalidateEnabled(context)) {
+			return;
+		}
+		String name = Util.isTagBrowsing(context, musicService.getInstance(context)) ? "artists" : "indexes";
+		final String cacheName = getCacheName(context, name, musicFolderId);
+		if(revalidated.get(cacheName) != null) {
+			return;
+		}
+		Indexes indexes = Util.equals(musicFolderId, this.musicFolderId) ? cachedIndexes.get() : null;
+		if(indexes == null) {
+			indexes = FileUtil.deserializeMetadata(context, cacheName, Indexes.class);
+			if(indexes == null) {
+				return;
+			}
+		}
+		final Indexes cached = indexes;
+
+		final Context appContext = context.getApplicationContext();
+		new SilentBackgroundTask<Indexes>(appContext) {
+			@Override
+			protected Indexes doInBackground() throws Throwable {
+				if(!startRevalidating(cacheName)) {
+					return null;
+				}
+
+				Indexes indexes = getIndexesIfModified(appContext, musicFolderId, cached, null);
+				if(indexes == cached || isSameIndexes(cached, indexes)) {
+					return null;
+				}
+
+				FileUtil.serializeMetadata(appContext, indexes, cacheName);
+				// Don't clobber another folder's listing if the selected one changed while this was running
+				if(Util.equals(musicFolderId, CachedMusicService.this.musicFolderId)) {
+					cachedIndexes.set(indexes);
+				}
+				return indexes;
+			}
+
+			@Override
+			protected void done(Indexes indexes) {
+				if(indexes == null) {
+					return;
+				}
+
+				Log.i(TAG, "Revalidated indexes for " + musicFolderId);
+				for(OnIndexesRevalidatedListener listener: new ArrayList<OnIndexesRevalidatedListener>(indexesListeners.keySet())) {
+					listener.onIndexesRevalidated(musicFolderId, indexes);
+				}
+			}
+
+			@Override
+			protected void error(Throwable error) {
+				Log.w(TAG, "Failed to revalidate indexes for " + musicFolderId, error);
+			}
+		}.execute();
+	}
+	// Only marked once the task runs, since a full task queue drops it without ever running it
+	private boolean startRevalidating(String cacheName) {
+		synchronized(revalidated) {
+			if(revalidated.get(cacheName) != null) {
+				return false;
+			}
+			revalidated.put(cacheName, Boolean.TRUE);
+			return true;
+		}
+	}
+	// Sends when the cached copy was last modified so the server can skip sending the whole index when nothing changed
+	private Indexes getIndexesIfModified(Context context, String musicFolderId, Indexes cached, ProgressListener progressListener) throws Exception {
+		long ifModifiedSince = cached == null ? 0L : cached.getLastModified();
+		Indexes indexes = musicService.getIndexes(musicFolderId, ifModifiedSince, context, progressListener);
+
+		// Server responds with an empty index when there isn't anything newer
+		if(ifModifiedSince > 0 && indexes.getShortcuts().isEmpty() && indexes.getArtists().isEmpty() && indexes.getEntries().isEmpty()) {
+			Log.i(TAG, "Indexes not modified since " + ifModifiedSince);
+			return cached;
+		}
+
+		return indexes;
+	}
+	private boolean isSameIndexes(Indexes cached, Indexes indexes) {
+		return isSameArtists(cached.getShortcuts(), indexes.getShortcuts()) && isSameArtists(cached.getArtists(), indexes.getArtists()) &&
+				cached.getEntries().equals(indexes.getEntries());
+	}
+	private boolean isSameArtists(List<Artist> cached, List<Artist> artists) {
+		if(cached.size() != artists.size()) {
+			return false;
+		}
+
+		for(int i = 0; i < cached.size(); i++) {
+			Artist cachedArtist = cached.get(i);
+			Artist artist = artists.get(i);
+			if(!cachedArtist.getId().equals(artist.getId()) || !Util.equals(cachedArtist.getName(), artist.getName()) || cachedArtist.isStarred() != artist.isStarred()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public interface OnMusicDirectoryRevalidatedListener {
+		void onMusicDirectoryRevalidated(String id, MusicDirectory dir, MusicDirectory.Diff diff);
+	}
+	public interface OnIndexesRevalidatedListener {
+		void onIndexesRevalidated(String musicFolderId, Indexes indexes);
 	}
   	
   	private abstract class SerializeUpdater<T> {
@@ -974,12 +1317,12 @@ public class CachedMusicService implements MusicService {
 		}
 
 		public ArrayList<T> getArrayList() {
-			return FileUtil.deserialize(context, cacheName, ArrayList.class);
+			return FileUtil.deserializeMetadata(context, cacheName, ArrayList.class);
 		}
   		public abstract boolean checkResult(T check);
   		public abstract void updateResult(List<T> objects, T result);
 		public void save(ArrayList<T> objects) {
-			FileUtil.serialize(context, objects, cacheName);
+			FileUtil.serializeMetadata(context, objects, cacheName);
 		}
   		
   		public void execute() {
@@ -1047,7 +1390,7 @@ public class CachedMusicService implements MusicService {
 
 		@Override
 		public ArrayList<Entry> getArrayList() {
-			musicDirectory = FileUtil.deserialize(context, cacheName, MusicDirectory.class);
+			musicDirectory = FileUtil.deserializeMetadata(context, cacheName, MusicDirectory.class);
 			if(musicDirectory != null) {
 				return new ArrayList<Entry>(musicDirectory.getChildren());
 			} else {
@@ -1056,27 +1399,47 @@ public class CachedMusicService implements MusicService {
 		}
 		public void save(ArrayList<Entry> objects) {
 			musicDirectory.replaceChildren(objects);
-			FileUtil.serialize(context, musicDirectory, cacheName);
+			FileUtil.serializeMetadata(context, musicDirectory, cacheName);
+			setCachedMusicDirectory(cacheName, musicDirectory);
 		}
 	}
 	private abstract class PlaylistDirectoryUpdater {
 		Context context;
+		Collection<String> ids;
 		
 		public PlaylistDirectoryUpdater(Context context) {
+			this(context, null);
+		}
+		public PlaylistDirectoryUpdater(Context context, Collection<String> ids) {
 			this.context = context;
+			this.ids = ids;
 		}
 		
 		public abstract boolean checkResult(Entry check);
 		public abstract void updateResult(Entry result);
 		
 		public void execute() {
-			List<Playlist> playlists = FileUtil.deserialize(context, getCacheName(context, "playlist"), ArrayList.class);
+			List<Playlist> playlists = FileUtil.deserializeMetadata(context, getCacheName(context, "playlist"), ArrayList.class);
 			if(playlists == null) {
 				// No playlist list cache, nothing to update!
 				return;
 			}
+
+			// When we know what we are looking for, only open the playlists which actually contain it
+			Set<String> containing = null;
+			if(ids != null) {
+				EntryIndex index = FileUtil.getEntryIndex(context);
+				if(!index.isComplete()) {
+					FileUtil.rebuildEntryIndex(context);
+				}
+				containing = index.getCacheNames(ids);
+			}
 			
 			for(Playlist playlist: playlists) {
+				if(containing != null && !containing.contains(getCacheName(context, "playlist", playlist.getId()))) {
+					continue;
+				}
+
 				new MusicDirectoryUpdater(context, "playlist", playlist.getId(), false) {
 					@Override
 					public boolean checkResult(Entry check) {
@@ -1187,7 +1550,12 @@ public class CachedMusicService implements MusicService {
 			
 			// Only run through playlists once and check each song against it
 			if(songs.size() > 0) {
-				new PlaylistDirectoryUpdater(context) {
+				List<String> ids = new ArrayList<String>(songs.size());
+				for(Entry song: songs) {
+					ids.add(song.getId());
+				}
+
+				new PlaylistDirectoryUpdater(context, ids) {
 					@Override
 					public boolean checkResult(Entry check) {
 						for(Entry entry: songs) {
@@ -1282,7 +1650,7 @@ public class CachedMusicService implements MusicService {
 
 		@Override
 		public ArrayList<Artist> getArrayList() {
-			indexes = FileUtil.deserialize(context, cacheName, Indexes.class);
+			indexes = FileUtil.deserializeMetadata(context, cacheName, Indexes.class);
 			if(indexes == null) {
 				return null;
 			}
@@ -1295,12 +1663,13 @@ public class CachedMusicService implements MusicService {
 
 		public void save(ArrayList<Artist> objects) {
 			indexes.setArtists(objects);
-			FileUtil.serialize(context, indexes, cacheName);
+			FileUtil.serializeMetadata(context, indexes, cacheName);
 			cachedIndexes.set(indexes);
 		}
 	}
 
     private void checkSettingsChanged(Context context) {
+		listenToStore(context);
 		int instance = musicService.getInstance(context);
         String newUrl = musicService.getRestUrl(context, null, false);
 		boolean newIsTagBrowsing = Util.isTagBrowsing(context, instance);
@@ -1310,6 +1679,7 @@ public class CachedMusicService implements MusicService {
             cachedIndexes.clear();
             cachedPlaylists.clear();
 			cachedPodcastChannels.clear();
+			cachedMusicDirectories.clear();
             restUrl = newUrl;
 			isTagBrowsing = newIsTagBrowsing;
         }
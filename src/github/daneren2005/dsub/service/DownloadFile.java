@@ -18,21 +18,32 @@
  */
 package github.daneren2005.dsub.service;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import android.content.Context;
 import android.net.wifi.WifiManager;
+import android.os.Looper;
 import android.os.PowerManager;
 import android.util.Log;
 import github.daneren2005.dsub.domain.MusicDirectory;
+import github.daneren2005.dsub.util.AdaptiveBitrate;
+import github.daneren2005.dsub.util.ByteRangeMap;
 import github.daneren2005.dsub.util.Constants;
 import github.daneren2005.dsub.util.SilentBackgroundTask;
 import github.daneren2005.dsub.util.FileUtil;
+import github.daneren2005.dsub.util.SegmentMap;
 import github.daneren2005.dsub.util.Util;
 import github.daneren2005.dsub.util.CacheCleaner;
 import github.daneren2005.serverproxy.BufferFile;
@@ -41,6 +52,7 @@ import org.apache.http.Header;
 
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.conn.EofSensorInputStream;
 
 /**
  * @author Sindre Mehus
@@ -49,38 +61,92 @@ import org.apache.http.HttpStatus;
 public class DownloadFile implements BufferFile {
     private static final String TAG = DownloadFile.class.getSimpleName();
     private static final int MAX_FAILURES = 5;
+	// Smaller files are over before a few extra connections would pay off
+	private static final long MIN_SEGMENTED_SIZE = 8 * 1024L * 1024L;
+	// Listeners hear about bytes being written at most this often for each file
+	private static final long PROGRESS_INTERVAL = 1000L;
+
+	public static final int STATE_DOWNLOADING = 0;
+	public static final int STATE_COMPLETED = 1;
+	public static final int STATE_FAILED = 2;
+	public static final int STATE_CANCELLED = 3;
+
+	private static final List<OnProgressListener> progressListeners = new CopyOnWriteArrayList<OnProgressListener>();
+	// Jumps closer than this to what has been downloaded just wait for the download to get there
+	private static final int SEEK_AHEAD_SECONDS = 20;
+	// Seeking back into something already downloaded can carry on right away once this much follows it, since the
+	// hole after it is filled next
+	private static final int SEEK_BUFFER_SECONDS = 10;
     private final Context context;
     private final MusicDirectory.Entry song;
-    private final File partialFile;
-    private final File completeFile;
-    private final File saveFile;
+	// Worked out the first time they are needed since most of a big queue is never looked at closely
+	private volatile Files files;
 
     private final MediaStoreService mediaStoreService;
     private DownloadTask downloadTask;
     private boolean save;
 	private boolean failedDownload = false;
     private int failed = 0;
-    private int bitRate;
+    private int bitRate = -1;
 	private boolean isPlaying = false;
 	private boolean saveWhenDone = false;
 	private boolean completeWhenDone = false;
 	private Long contentLength = null;
-	private long currentSpeed = 0;
+	private volatile long currentSpeed = 0;
 	private boolean rateLimit = false;
+	private volatile int lane = DownloadScheduler.LANE_BACKGROUND;
+	private boolean sequential = false;
+	private volatile SegmentMap segments;
+	private ByteRangeMap ranges;
+	private boolean rangesLoaded = false;
+	private volatile long fillFrom = 0;
+	private volatile long fillPosition = 0;
+	private final Object progressLock = new Object();
+	private final Object stateLock = new Object();
+	// Size of the file as of the last write of the download running right now, or -1 if nothing is running
+	private volatile long progress = -1;
+	private volatile long lastProgressPublished = 0;
+	private long timeToFirstAudio = -1;
+	private int rebufferCount = 0;
 
     public DownloadFile(Context context, MusicDirectory.Entry song, boolean save) {
         this.context = context;
         this.song = song;
         this.save = save;
-        saveFile = FileUtil.getSongFile(context, song);
-        bitRate = getActualBitrate();
-        partialFile = new File(saveFile.getParent(), FileUtil.getBaseName(saveFile.getName()) +
-                ".partial." + FileUtil.getExtension(saveFile.getName()));
-        completeFile = new File(saveFile.getParent(), FileUtil.getBaseName(saveFile.getName()) +
-                ".complete." + FileUtil.getExtension(saveFile.getName()));
         mediaStoreService = new MediaStoreService(context);
     }
 
+	private Files files() {
+		Files files = this.files;
+		if(files == null) {
+			// Racing threads work out the same paths, so whichever is kept doesn't matter
+			files = new Files(FileUtil.getSongFile(context, song));
+			this.files = files;
+		}
+		return files;
+	}
+	private File saveFile() {
+		return files().saveFile;
+	}
+	private File partialFile() {
+		return files().partialFile;
+	}
+	private File completeFile() {
+		return files().completeFile;
+	}
+	private File segmentedFile() {
+		return files().segmentedFile;
+	}
+	private File segmentsFile() {
+		return files().segmentsFile;
+	}
+	private File rangesFile() {
+		return files().rangesFile;
+	}
+	private File bitrateFile() {
+		return files().bitrateFile;
+	}
+
     public MusicDirectory.Entry getSong() {
         return song;
     }
@@ -89,8 +155,10 @@ public class DownloadFile implements BufferFile {
      * Returns the effective bit rate.
      */
     public int getBitRate() {
-		if(!partialFile.exists()) {
+		if(!isStarted()) {
 			bitRate = getActualBitrate();
+		} else if(bitRate == -1) {
+			bitRate = getPinnedBitrate();
 		}
         if (bitRate > 0) {
             return bitRate;
@@ -99,6 +167,9 @@ public class DownloadFile implements BufferFile {
     }
 	private int getActualBitrate() {
 		int br = song.isVideo() ? Util.getMaxVideoBitrate(context) : Util.getMaxBitrate(context);
+		if(br == AdaptiveBitrate.ADAPTIVE) {
+			br = getAdaptiveBitrate();
+		}
 		if(br == 0 && song.getTranscodedSuffix() != null && "mp3".equals(song.getTranscodedSuffix().toLowerCase())) {
 			if(song.getBitRate() != null) {
 				br = Math.min(320, song.getBitRate());
@@ -115,13 +186,66 @@ public class DownloadFile implements BufferFile {
 		return br;
 	}
 	
+	private int getAdaptiveBitrate() {
+		return AdaptiveBitrate.getBitrate(context, song.getBitRate());
+	}
+
+	/**
+	 * Whether some of the file has already been downloaded, either from the front or in segments.
+	 */
+	private boolean isStarted() {
+		return partialFile().exists() || segmentedFile().exists();
+	}
+	/**
+	 * Get the bit rate the download was started at so it can be resumed in the same format, or pick it again for
+	 * downloads started before it was saved.
+	 */
+	private int getPinnedBitrate() {
+		if(bitrateFile().exists()) {
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new FileInputStream(bitrateFile()));
+				return in.readInt();
+			} catch(IOException e) {
+				Log.w(TAG, "Failed to read bitrate of " + partialFile(), e);
+			} finally {
+				Util.close(in);
+			}
+		}
+		return getActualBitrate();
+	}
+	private void pinBitrate() {
+		if(!song.isVideo() && Util.getMaxBitrate(context) == AdaptiveBitrate.ADAPTIVE) {
+			AdaptiveBitrate.logDecision(context, song.getTitle(), bitRate);
+		}
+
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new FileOutputStream(bitrateFile()));
+			out.writeInt(bitRate);
+		} catch(IOException e) {
+			Log.w(TAG, "Failed to save bitrate of " + partialFile(), e);
+		} finally {
+			Util.close(out);
+		}
+	}
+
 	public Long getContentLength() {
 		return contentLength;
 	}
 
 	public long getCurrentSize() {
-		if(partialFile.exists()) {
-			return partialFile.length();
+		SegmentMap segments = this.segments;
+		long progress = this.progress;
+		ByteRangeMap ranges = getRanges();
+		if(progress >= 0) {
+			return progress;
+		} else if(ranges != null) {
+			return ranges.getDownloaded();
+		} else if(partialFile().exists()) {
+			return partialFile().length();
+		} else if(segments != null) {
+			return segments.getDownloaded();
 		} else {
 			File file = getCompleteFile();
 			if(file.exists()) {
@@ -134,7 +258,7 @@ public class DownloadFile implements BufferFile {
 
 	@Override
 	public long getEstimatedSize() {
-		if(contentLength != null) {
+		if(contentLength != null && contentLength >= 0) {
 			return contentLength;
 		}
 
@@ -154,10 +278,91 @@ public class DownloadFile implements BufferFile {
 		return currentSpeed;
 	}
 
+	/**
+	 * Set which DownloadScheduler lane this is downloading in, which decides how it shares bandwidth.
+	 */
+	public void setLane(int lane) {
+		this.lane = lane;
+	}
+
+	/**
+	 * Wait until more of the file has been written or the download has stopped, or at most timeout ms.
+	 */
+	public void waitForProgress(long timeout) throws InterruptedException {
+		synchronized(progressLock) {
+			progressLock.wait(timeout);
+		}
+	}
+	/**
+	 * Wait until a download of the file starts or stops, or at most timeout ms.
+	 */
+	public void waitForStateChange(long timeout) throws InterruptedException {
+		synchronized(stateLock) {
+			stateLock.wait(timeout);
+		}
+	}
+
+	public static void addOnProgressListener(OnProgressListener listener) {
+		progressListeners.add(listener);
+	}
+	public static void removeOnProgressListener(OnProgressListener listener) {
+		progressListeners.remove(listener);
+	}
+
+	private void publishProgress(long currentSize) {
+		progress = currentSize;
+		synchronized(progressLock) {
+			progressLock.notifyAll();
+		}
+
+		long now = System.currentTimeMillis();
+		if(now - lastProgressPublished >= PROGRESS_INTERVAL) {
+			lastProgressPublished = now;
+			for(OnProgressListener listener: progressListeners) {
+				listener.onProgress(this, currentSize);
+			}
+		}
+	}
+	private void publishState(int state) {
+		progress = state == STATE_DOWNLOADING ? progress : -1;
+		synchronized(progressLock) {
+			progressLock.notifyAll();
+		}
+		synchronized(stateLock) {
+			stateLock.notifyAll();
+		}
+
+		for(OnProgressListener listener: progressListeners) {
+			listener.onStateChanged(this, state);
+		}
+	}
+
+	/**
+	 * Get how long it took from asking to play this song until it was heard the first time, or -1 if it hasn't been.
+	 */
+	public synchronized long getTimeToFirstAudio() {
+		return timeToFirstAudio;
+	}
+	public synchronized void setTimeToFirstAudio(long timeToFirstAudio) {
+		if(this.timeToFirstAudio == -1) {
+			this.timeToFirstAudio = timeToFirstAudio;
+		}
+	}
+
+	/**
+	 * Get how many times playback of this song has had to stop and wait on the download.
+	 */
+	public synchronized int getRebufferCount() {
+		return rebufferCount;
+	}
+	public synchronized int addRebuffer() {
+		return ++rebufferCount;
+	}
+
     public synchronized void download() {
     	rateLimit = false;
         preDownload();
-        downloadTask.execute();
+        downloadTask.execute(DownloadScheduler.getExecutor());
     }
     public synchronized void downloadNow(MusicService musicService) {
     	rateLimit = true;
@@ -170,10 +375,20 @@ public class DownloadFile implements BufferFile {
 		}
     }
     private void preDownload() {
-    	FileUtil.createDirectoryForParent(saveFile);
+    	FileUtil.createDirectoryForParent(saveFile());
         failedDownload = false;
-		if(!partialFile.exists()) {
+		if(!isStarted()) {
 			bitRate = getActualBitrate();
+			pinBitrate();
+		} else if(bitRate == -1) {
+			bitRate = getPinnedBitrate();
+		}
+
+		// Segments are always the original file, so they can't be carried on with a transcoded stream
+		if(segmentedFile().exists() && partialFile().length() == 0 && !isOriginal()) {
+			Log.i(TAG, "Dropping segments of " + song + " since it is now being transcoded");
+			deleteSegments();
+			pinBitrate();
 		}
 		downloadTask = new DownloadTask(context);
     }
@@ -184,44 +399,170 @@ public class DownloadFile implements BufferFile {
         }
     }
 
+	/**
+	 * Switch a download split into segments over to a single stream, so playback can start from the front of the
+	 * file instead of waiting on every segment.
+	 */
+	public synchronized void requireSequential() {
+		sequential = true;
+		if(segments != null && isDownloading()) {
+			Log.i(TAG, "Switching " + song + " to a single stream for playback");
+			cancelDownload();
+			download();
+		}
+	}
+
 	@Override
 	public File getFile() {
-		if (saveFile.exists()) {
-			return saveFile;
-		} else if (completeFile.exists()) {
-			return completeFile;
+		if (saveFile().exists()) {
+			return saveFile();
+		} else if (completeFile().exists()) {
+			return completeFile();
 		} else {
-			return partialFile;
+			return partialFile();
 		}
 	}
 
     public File getCompleteFile() {
-        if (saveFile.exists()) {
-            return saveFile;
+        if (saveFile().exists()) {
+            return saveFile();
         }
 
-        if (completeFile.exists()) {
-            return completeFile;
+        if (completeFile().exists()) {
+            return completeFile();
         }
 
-        return saveFile;
+        return saveFile();
     }
 
     public File getPartialFile() {
-        return partialFile;
+        return partialFile();
     }
 
+	public File getSegmentedFile() {
+		return segmentedFile();
+	}
+	public File getSegmentsFile() {
+		return segmentsFile();
+	}
+	public File getRangesFile() {
+		return rangesFile();
+	}
+	public File getBitrateFile() {
+		return bitrateFile();
+	}
+
+	/**
+	 * Get which parts of the partial file are there, or null if it has been filled from the front like normal.
+	 */
+	public synchronized ByteRangeMap getRanges() {
+		if(!rangesLoaded) {
+			ranges = ByteRangeMap.load(rangesFile());
+			rangesLoaded = true;
+		}
+		return ranges;
+	}
+
+	/**
+	 * Get the offset right after the run of downloaded bytes starting at offset, or offset itself if the byte at
+	 * offset isn't downloaded yet.
+	 */
+	public long getAvailableEnd(long offset) {
+		ByteRangeMap ranges = getRanges();
+		long progress = this.progress;
+		if(ranges != null) {
+			return ranges.getEnd(offset);
+		} else if(progress >= 0 && segments == null) {
+			// Written from front to back, so what has been written so far is all there
+			return offset < progress ? progress : offset;
+		} else if(partialFile().exists()) {
+			long length = partialFile().length();
+			return offset < length ? length : offset;
+		} else if(isCompleteFileAvailable()) {
+			return getCompleteFile().length();
+		} else {
+			return offset;
+		}
+	}
+
+	/**
+	 * Whether everything from offset up to the current end of the partial file is downloaded.  The proxy serves the
+	 * partial file by its length, so otherwise it would hand the player whatever is in the hole after offset.
+	 */
+	public boolean isAvailableToEnd(long offset) {
+		ByteRangeMap ranges = getRanges();
+		return ranges == null || ranges.getEnd(offset) >= partialFile().length();
+	}
+
+	/**
+	 * Make the bytes starting at offset the next ones downloaded, ie: after seeking past what is downloaded so far.
+	 * Whatever is skipped over is filled in once the download reaches the end of the file.
+	 *
+	 * @return whether playback can go on from offset without waiting, ie: it is downloaded and so is enough after it to
+	 * stay ahead of playback while the next hole is filled
+	 */
+	public synchronized boolean seekAhead(long offset) {
+		if(isWorkDone()) {
+			return true;
+		}
+
+		ByteRangeMap ranges = getRanges();
+		if(ranges == null) {
+			long length = partialFile().length();
+			if(offset < length) {
+				return true;
+			} else if(offset - length < getBitRate() * 1000L / 8L * SEEK_AHEAD_SECONDS) {
+				return false;
+			}
+
+			ranges = new ByteRangeMap();
+			ranges.add(0, length);
+		} else if(ranges.contains(offset)) {
+			fillAfter(offset);
+			return isAvailableToEnd(offset) || ranges.getEnd(offset) - offset >= getBitRate() * 1000L / 8L * SEEK_BUFFER_SECONDS;
+		}
+
+		Log.i(TAG, "Jumping ahead to " + offset + " of " + song);
+		restartFill(ranges, offset);
+		return false;
+	}
+	/**
+	 * Make the hole right after the downloaded part offset is in the next one filled, since playback from offset runs
+	 * off the end of it next.
+	 */
+	public synchronized void fillAfter(long offset) {
+		ByteRangeMap ranges = getRanges();
+		if(ranges == null || !ranges.contains(offset)) {
+			return;
+		}
+
+		long end = ranges.getEnd(offset);
+		if(end != fillPosition && (ranges.getLength() < 0 || end < ranges.getLength())) {
+			restartFill(ranges, end);
+		}
+	}
+	private void restartFill(ByteRangeMap ranges, long offset) {
+		this.ranges = ranges;
+		rangesLoaded = true;
+		ranges.save(rangesFile());
+		fillFrom = offset;
+		if(isDownloading()) {
+			cancelDownload();
+			download();
+		}
+	}
+
     public boolean isSaved() {
-        return saveFile.exists();
+        return saveFile().exists();
     }
 
     public synchronized boolean isCompleteFileAvailable() {
-        return saveFile.exists() || completeFile.exists();
+        return saveFile().exists() || completeFile().exists();
     }
 
 	@Override
     public synchronized boolean isWorkDone() {
-        return saveFile.exists() || (completeFile.exists() && !save) || saveWhenDone || completeWhenDone;
+        return saveFile().exists() || (completeFile().exists() && !save) || saveWhenDone || completeWhenDone;
     }
 
 	@Override
@@ -267,44 +608,55 @@ public class DownloadFile implements BufferFile {
 		deleteFromStore();
 		
 		// Delete all possible versions of the file
-		File parent = partialFile.getParentFile();
-        Util.delete(partialFile);
-        Util.delete(completeFile);
-        Util.delete(saveFile);
+		File parent = partialFile().getParentFile();
+        Util.delete(partialFile());
+        Util.delete(completeFile());
+        Util.delete(saveFile());
+		deleteSegments();
+		deleteRanges();
+		Util.delete(bitrateFile());
 		FileUtil.deleteEmptyDir(parent);
+		FileUtil.getMediaMetadataCache(context).remove(completeFile());
+		FileUtil.getMediaMetadataCache(context).remove(saveFile());
     }
 
     public void unpin() {
-        if (saveFile.exists()) {
+        if (saveFile().exists()) {
         	// Delete old store entry before renaming to pinned file
-            saveFile.renameTo(completeFile);
-			renameInStore(saveFile, completeFile);
+            saveFile().renameTo(completeFile());
+			renameInStore(saveFile(), completeFile());
         }
     }
 
     public boolean cleanup() {
         boolean ok = true;
-        if (completeFile.exists() || saveFile.exists()) {
-            ok = Util.delete(partialFile);
+        if (completeFile().exists() || saveFile().exists()) {
+            ok = Util.delete(partialFile());
+			ok &= deleteSegments();
+			ok &= deleteRanges();
+			ok &= Util.delete(bitrateFile());
         }
-        if (saveFile.exists()) {
-            ok &= Util.delete(completeFile);
+        if (saveFile().exists()) {
+            ok &= Util.delete(completeFile());
         }
         return ok;
     }
 
     // In support of LRU caching.
     public void updateModificationDate() {
-        updateModificationDate(saveFile);
-        updateModificationDate(partialFile);
-        updateModificationDate(completeFile);
+        updateModificationDate(saveFile());
+        updateModificationDate(partialFile());
+        updateModificationDate(completeFile());
     }
 
     private void updateModificationDate(File file) {
         if (file.exists()) {
+            long oldModified = file.lastModified();
             boolean ok = file.setLastModified(System.currentTimeMillis());
             if (!ok) {
                 Log.w(TAG, "Failed to set last-modified date on " + file);
+            } else if (file != partialFile()) {
+                FileUtil.getMediaMetadataCache(context).touch(file, oldModified);
             }
         }
     }
@@ -312,36 +664,86 @@ public class DownloadFile implements BufferFile {
 	public void setPlaying(boolean isPlaying) {
 		try {
 			if(saveWhenDone && !isPlaying) {
-				Util.renameFile(completeFile, saveFile);
-				renameInStore(completeFile, saveFile);
+				Util.renameFile(completeFile(), saveFile());
+				renameInStore(completeFile(), saveFile());
 				saveWhenDone = false;
 			} else if(completeWhenDone && !isPlaying) {
 				if(save) {
-					Util.renameFile(partialFile, saveFile);
+					Util.renameFile(partialFile(), saveFile());
                     saveToStore();
 				} else {
-					Util.renameFile(partialFile, completeFile);
+					Util.renameFile(partialFile(), completeFile());
 					saveToStore();
 				}
+				cacheMetadata();
 				completeWhenDone = false;
 			}
 		} catch(IOException ex) {
-			Log.w(TAG, "Failed to rename file " + completeFile + " to " + saveFile, ex);
+			Log.w(TAG, "Failed to rename file " + completeFile() + " to " + saveFile(), ex);
 		}
 		
 		this.isPlaying = isPlaying;
+		if(!isPlaying) {
+			sequential = false;
+		}
 	}
 	public void renamePartial() {
+		// Still has holes in it
+		if(rangesFile().exists()) {
+			return;
+		}
+
 		try {
-			Util.renameFile(partialFile, completeFile);
+			Util.renameFile(partialFile(), completeFile());
 			saveToStore();
+			cacheMetadata();
 		} catch(IOException ex) {
-			Log.w(TAG, "Failed to rename file " + partialFile + " to " + completeFile, ex);
+			Log.w(TAG, "Failed to rename file " + partialFile() + " to " + completeFile(), ex);
 		}
 	}
 	public boolean getPlaying() {
 		return isPlaying;
 	}
+
+	private synchronized boolean deleteSegments() {
+		return Util.delete(segmentedFile()) & Util.delete(segmentsFile());
+	}
+	private synchronized void saveSegments(SegmentMap segments) {
+		// A cancelled task can still be finishing after the download it was replaced by already removed these
+		if(segmentedFile().exists()) {
+			segments.save(segmentsFile());
+		}
+	}
+	private synchronized boolean deleteRanges() {
+		ranges = null;
+		rangesLoaded = true;
+		fillFrom = 0;
+		return Util.delete(rangesFile());
+	}
+
+	/**
+	 * Whether the file can be fetched as several byte ranges at once, which only works when the server is sending
+	 * the original file and not a transcoded stream whose length isn't known up front.
+	 */
+	private boolean isSegmentable() {
+		Long size = song.getSize();
+		if(Util.getDownloadSegments(context) <= 1 || isPlaying || sequential || rateLimit || size == null || size < MIN_SEGMENTED_SIZE || partialFile().length() > 0) {
+			return false;
+		}
+
+		return isOriginal();
+	}
+	/**
+	 * Whether the server sends the original file at the current bit rate instead of transcoding it.
+	 */
+	private boolean isOriginal() {
+		if(song.isVideo()) {
+			return "raw".equals(Util.getVideoPlayerType(context));
+		} else {
+			boolean transcoded = song.getTranscodedSuffix() != null && !song.getTranscodedSuffix().equals(song.getSuffix());
+			return !transcoded && (bitRate == 0 || (song.getBitRate() != null && bitRate >= song.getBitRate()));
+		}
+	}
 	
 	private void deleteFromStore() {
 		try {
@@ -359,6 +761,15 @@ public class DownloadFile implements BufferFile {
 			}
 		}
 	}
+	private void cacheMetadata() {
+		new SilentBackgroundTask<Void>(context) {
+			@Override
+			protected Void doInBackground() throws Throwable {
+				FileUtil.getMediaMetadataCache(context).cache(getCompleteFile());
+				return null;
+			}
+		}.execute();
+	}
 	private void renameInStore(File start, File end) {
 		try {
 			mediaStoreService.renameInMediaStore(start, end);
@@ -372,19 +783,59 @@ public class DownloadFile implements BufferFile {
         return "DownloadFile (" + song + ")";
     }
 
+	/**
+	 * Drop a connection without reading the rest of what the server is sending.
+	 */
+	private static void abort(InputStream in) {
+		if(in instanceof EofSensorInputStream) {
+			try {
+				((EofSensorInputStream) in).abortConnection();
+			} catch(IOException e) {
+				Log.w(TAG, "Failed to abort connection", e);
+			}
+		} else {
+			Util.close(in);
+		}
+	}
+
     private class DownloadTask extends SilentBackgroundTask<Void> {
 		private MusicService musicService;
+		// Everything being read from right now, so cancelling can close them
+		private final List<InputStream> streams = new CopyOnWriteArrayList<InputStream>();
 
 		public DownloadTask(Context context) {
 			super(context);
 		}
 
+		@Override
+		public void cancel() {
+			super.cancel();
+
+			// Closing the streams is what stops the reads, so there is nothing to wait on
+			if(Thread.currentThread() == Looper.getMainLooper().getThread()) {
+				new Thread("DownloadFile_cancel") {
+					@Override
+					public void run() {
+						abortStreams();
+					}
+				}.start();
+			} else {
+				abortStreams();
+			}
+		}
+		private void abortStreams() {
+			for(InputStream in: streams) {
+				DownloadFile.abort(in);
+			}
+		}
+
         @Override
         public Void doInBackground() throws InterruptedException {
             InputStream in = null;
-            FileOutputStream out = null;
+            OutputStream out = null;
             PowerManager.WakeLock wakeLock = null;
 			WifiManager.WifiLock wifiLock = null;
+			publishState(STATE_DOWNLOADING);
             try {
 
                 if (Util.isScreenLitOnDownload(context)) {
@@ -396,21 +847,21 @@ public class DownloadFile implements BufferFile {
 				wifiLock = Util.createWifiLock(context, toString());
 				wifiLock.acquire();
 
-                if (saveFile.exists()) {
-                    Log.i(TAG, saveFile + " already exists. Skipping.");
+                if (saveFile().exists()) {
+                    Log.i(TAG, saveFile() + " already exists. Skipping.");
                     checkDownloads();
                     return null;
                 }
-                if (completeFile.exists()) {
+                if (completeFile().exists()) {
                     if (save) {
 						if(isPlaying) {
 							saveWhenDone = true;
 						} else {
-							Util.renameFile(completeFile, saveFile);
-							renameInStore(completeFile, saveFile);
+							Util.renameFile(completeFile(), saveFile());
+							renameInStore(completeFile(), saveFile());
 						}
                     } else {
-                        Log.i(TAG, completeFile + " already exists. Skipping.");
+                        Log.i(TAG, completeFile() + " already exists. Skipping.");
                     }
                     checkDownloads();
                     return null;
@@ -420,40 +871,51 @@ public class DownloadFile implements BufferFile {
                 	musicService = MusicServiceFactory.getMusicService(context);
 				}
 
+				// Carry on from what a download split into segments got through before switching to a single stream
+				if(segmentedFile().exists() && !isSegmentable()) {
+					resumeFromSegments();
+				}
+
 				// Some devices seem to throw error on partial file which doesn't exist
 				boolean compare;
 				try {
-					compare = (bitRate == 0) || (song.getDuration() == 0) || (partialFile.length() == 0) || (bitRate * song.getDuration() * 1000 / 8) > partialFile.length();
+					compare = (getRanges() != null) || (bitRate == 0) || (song.getDuration() == 0) || (partialFile().length() == 0) || (bitRate * song.getDuration() * 1000 / 8) > partialFile().length();
 				} catch(Exception e) {
 					compare = true;
 				}
 				if(compare) {
-					// Attempt partial HTTP GET, appending to the file if it exists.
-					HttpResponse response = musicService.getDownloadInputStream(context, song, partialFile.length(), bitRate, DownloadTask.this);
-					Header contentLengthHeader = response.getFirstHeader("Content-Length");
-					if(contentLengthHeader != null) {
-						String contentLengthString = contentLengthHeader.getValue();
-						if(contentLengthString != null) {
-							Log.i(TAG, "Content Length: " + contentLengthString);
-							contentLength = Long.parseLong(contentLengthString);
-						}
-					}
-					in = response.getEntity().getContent();
-					boolean partial = response.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT;
-					if (partial) {
-						Log.i(TAG, "Executed partial HTTP GET, skipping " + partialFile.length() + " bytes");
-					}
+					if(!isSegmentable() || !downloadSegments(musicService)) {
+						ByteRangeMap ranges = getRanges();
+						if(ranges == null || !fillRanges(musicService, ranges)) {
+							// Attempt partial HTTP GET, appending to the file if it exists.
+							HttpResponse response = musicService.getDownloadInputStream(context, song, partialFile().length(), bitRate, DownloadTask.this);
+							Header contentLengthHeader = response.getFirstHeader("Content-Length");
+							if(contentLengthHeader != null) {
+								String contentLengthString = contentLengthHeader.getValue();
+								if(contentLengthString != null) {
+									Log.i(TAG, "Content Length: " + contentLengthString);
+									contentLength = Long.parseLong(contentLengthString);
+								}
+							}
+							in = response.getEntity().getContent();
+							boolean partial = response.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT;
+							if (partial) {
+								Log.i(TAG, "Executed partial HTTP GET, skipping " + partialFile().length() + " bytes");
+							}
 
-					out = new FileOutputStream(partialFile, partial);
-					long n = copy(in, out);
-					Log.i(TAG, "Downloaded " + n + " bytes to " + partialFile);
-					out.flush();
-					out.close();
+							// Written by offset instead of appended so a jump ahead can't end up in the middle of it
+							out = new RangeOutputStream(partial ? partialFile().length() : 0, !partial);
+							long n = copy(in, out);
+							Log.i(TAG, "Downloaded " + n + " bytes to " + partialFile());
+							out.flush();
+							out.close();
 
-					if (isCancelled()) {
-						throw new Exception("Download of '" + song + "' was cancelled");
-					} else if(partialFile.length() == 0) {
-						throw new Exception("Download of '" + song + "' failed.  File is 0 bytes long.");
+							if (isCancelled()) {
+								throw new Exception("Download of '" + song + "' was cancelled");
+							} else if(partialFile().length() == 0) {
+								throw new Exception("Download of '" + song + "' failed.  File is 0 bytes long.");
+							}
+						}
 					}
 
 					downloadAndSaveCoverArt(musicService);
@@ -463,33 +925,34 @@ public class DownloadFile implements BufferFile {
 					completeWhenDone = true;
 				} else {
 					if(save) {
-						Util.renameFile(partialFile, saveFile);
+						Util.renameFile(partialFile(), saveFile());
 					} else {
-						Util.renameFile(partialFile, completeFile);
+						Util.renameFile(partialFile(), completeFile());
 					}
 					DownloadFile.this.saveToStore();
+					FileUtil.getMediaMetadataCache(context).cache(getCompleteFile());
 				}
 
             } catch(InterruptedException x) {
 				throw x;
 			} catch(FileNotFoundException x) {
-				Util.delete(completeFile);
-				Util.delete(saveFile);
+				Util.delete(completeFile());
+				Util.delete(saveFile());
 				if(!isCancelled()) {
 					failed = MAX_FAILURES + 1;
 					failedDownload = true;
 					Log.w(TAG, "Failed to download '" + song + "'.", x);
 				}
 			} catch(IOException x) {
-				Util.delete(completeFile);
-				Util.delete(saveFile);
+				Util.delete(completeFile());
+				Util.delete(saveFile());
 				if(!isCancelled()) {
 					failedDownload = true;
 					Log.w(TAG, "Failed to download '" + song + "'.", x);
 				}
 			} catch (Exception x) {
-                Util.delete(completeFile);
-                Util.delete(saveFile);
+                Util.delete(completeFile());
+                Util.delete(saveFile());
                 if (!isCancelled()) {
                 	failed++;
                     failedDownload = true;
@@ -498,6 +961,14 @@ public class DownloadFile implements BufferFile {
             } finally {
                 Util.close(in);
                 Util.close(out);
+				// Let anyone waiting on the file know it won't be growing any more
+				if(isCancelled()) {
+					publishState(STATE_CANCELLED);
+				} else if(failedDownload) {
+					publishState(STATE_FAILED);
+				} else {
+					publishState(STATE_COMPLETED);
+				}
                 if (wakeLock != null) {
                     wakeLock.release();
                     Log.i(TAG, "Released wake lock " + wakeLock);
@@ -516,6 +987,348 @@ public class DownloadFile implements BufferFile {
 			return null;
         }
         
+		/**
+		 * Fetch the file as several byte ranges at once into a file the full size of the song.
+		 *
+		 * @return false if the server ignored the ranges, ie: because it is transcoding, and a single stream should be used instead
+		 */
+		private boolean downloadSegments(MusicService musicService) throws Exception {
+			long length = song.getSize();
+			SegmentMap segments = segmentedFile().exists() ? SegmentMap.load(segmentsFile(), length) : null;
+			if(segments == null) {
+				segments = new SegmentMap(length, Util.getDownloadSegments(context));
+				RandomAccessFile file = new RandomAccessFile(segmentedFile(), "rw");
+				try {
+					file.setLength(length);
+				} finally {
+					Util.close(file);
+				}
+			}
+			contentLength = length;
+			DownloadFile.this.segments = segments;
+
+			List<SegmentThread> threads = new ArrayList<SegmentThread>();
+			try {
+				for(int i = 0; i < segments.getSegmentCount(); i++) {
+					if(!segments.isComplete(i)) {
+						SegmentThread thread = new SegmentThread(musicService, segments, i);
+						threads.add(thread);
+						thread.start();
+					}
+				}
+				Log.i(TAG, "Downloading " + song + " over " + threads.size() + " connections, " + Util.formatBytes(segments.getDownloaded()) + " already done");
+
+				long lastLog = System.currentTimeMillis();
+				long lastCount = segments.getDownloaded();
+				for(SegmentThread thread: threads) {
+					while(thread.isAlive()) {
+						thread.join(3000L);
+
+						long now = System.currentTimeMillis();
+						if(now - lastLog > 3000L) {
+							long count = segments.getDownloaded();
+							Log.i(TAG, "Downloaded " + Util.formatBytes(count) + " of " + song);
+							currentSpeed = (count - lastCount) * 1000L / (now - lastLog);
+							lastLog = now;
+							lastCount = count;
+							saveSegments(segments);
+						}
+					}
+				}
+			} finally {
+				// Only still running if this was cancelled
+				for(SegmentThread thread: threads) {
+					thread.abort();
+				}
+				saveSegments(segments);
+				if(DownloadFile.this.segments == segments) {
+					DownloadFile.this.segments = null;
+				}
+			}
+
+			for(SegmentThread thread: threads) {
+				if(thread.rangeIgnored) {
+					Log.i(TAG, "Server didn't send the ranges asked for of " + song + ", using a single stream");
+					deleteSegments();
+					return false;
+				}
+			}
+			for(SegmentThread thread: threads) {
+				if(thread.error != null) {
+					throw thread.error;
+				}
+			}
+			if(isCancelled()) {
+				throw new Exception("Download of '" + song + "' was cancelled");
+			} else if(!segments.isComplete()) {
+				throw new Exception("Download of '" + song + "' failed.  Only " + segments.getDownloaded() + " of " + length + " bytes were received.");
+			}
+
+			Util.renameFile(segmentedFile(), partialFile());
+			Util.delete(segmentsFile());
+			return true;
+		}
+
+		/**
+		 * Fill in what is missing from a partial file which has had parts skipped over.  Starts from where playback
+		 * last jumped to and goes back for whatever was skipped once the end of the file is reached.
+		 *
+		 * @return false if the server ignored the ranges, in which case everything after the first hole is thrown out
+		 */
+		private boolean fillRanges(MusicService musicService, ByteRangeMap ranges) throws Exception {
+			while(!isCancelled() && !ranges.isComplete()) {
+				long from = fillFrom;
+				long start = ranges.getNextHole(from);
+				if(ranges.getLength() >= 0 && start >= ranges.getLength()) {
+					fillFrom = 0;
+					continue;
+				}
+				long end = ranges.getHoleEnd(start);
+
+				HttpResponse response = musicService.getDownloadInputStream(context, song, start, bitRate, DownloadTask.this);
+				InputStream in = response.getEntity().getContent();
+				try {
+					if(start > 0 && response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT) {
+						Log.i(TAG, "Server didn't send the range asked for of " + song + ", going back to the first hole");
+						RandomAccessFile file = new RandomAccessFile(partialFile(), "rw");
+						try {
+							file.setLength(ranges.getEnd(0));
+						} finally {
+							Util.close(file);
+						}
+						deleteRanges();
+						return false;
+					}
+
+					if(ranges.getLength() < 0) {
+						long length = getTotalLength(response, start);
+						if(length >= 0) {
+							ranges.setLength(length);
+							end = ranges.getHoleEnd(start);
+						}
+					}
+					if(ranges.getLength() >= 0) {
+						contentLength = ranges.getLength();
+					}
+					Log.i(TAG, "Filling " + song + " from " + start + " to " + (end >= 0 ? end : "the end"));
+
+					OutputStream out = new RangeOutputStream(start, false);
+					long n;
+					try {
+						n = copy(in, out, end >= 0 ? end - start : -1);
+					} finally {
+						Util.close(out);
+					}
+
+					if(isCancelled()) {
+						throw new Exception("Download of '" + song + "' was cancelled");
+					} else if(end < 0) {
+						// Stream of an unknown length has ended, so now it is known
+						ranges.setLength(start + n);
+						ranges.save(rangesFile());
+					} else if(n < end - start) {
+						throw new IOException("Download of '" + song + "' ended after " + (start + n) + " of " + end + " bytes");
+					}
+				} finally {
+					// Stopping at the start of the next range leaves the rest of the response unread
+					DownloadFile.abort(in);
+				}
+			}
+
+			if(isCancelled()) {
+				throw new Exception("Download of '" + song + "' was cancelled");
+			}
+			deleteRanges();
+			return true;
+		}
+
+		/**
+		 * Get the length of the whole file from a response, or -1 if the server doesn't know it, ie: when transcoding.
+		 */
+		private long getTotalLength(HttpResponse response, long start) {
+			try {
+				Header contentRange = response.getFirstHeader("Content-Range");
+				if(contentRange != null) {
+					String value = contentRange.getValue();
+					String total = value.substring(value.lastIndexOf('/') + 1).trim();
+					return "*".equals(total) ? -1 : Long.parseLong(total);
+				}
+
+				Header contentLength = response.getFirstHeader("Content-Length");
+				if(contentLength != null && start == 0) {
+					return Long.parseLong(contentLength.getValue());
+				}
+			} catch(NumberFormatException e) {
+				Log.w(TAG, "Failed to parse length of " + song, e);
+			}
+			return -1;
+		}
+
+		/**
+		 * Writes to the partial file starting at a given offset, keeping track of what has been written once the file
+		 * has holes in it.
+		 */
+		private class RangeOutputStream extends OutputStream {
+			private final RandomAccessFile file;
+			private final ByteRangeMap ranges;
+			private long position;
+			private long lastSave;
+
+			public RangeOutputStream(long position, boolean truncate) throws IOException {
+				file = new RandomAccessFile(partialFile(), "rw");
+				if(truncate) {
+					file.setLength(0);
+				}
+				file.seek(position);
+				this.position = position;
+				ranges = getRanges();
+				lastSave = System.currentTimeMillis();
+				fillPosition = position;
+			}
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] buffer, int offset, int length) throws IOException {
+				file.write(buffer, offset, length);
+				if(ranges != null) {
+					ranges.add(position, position + length);
+
+					long now = System.currentTimeMillis();
+					if(now - lastSave > 3000L) {
+						save();
+						lastSave = now;
+					}
+				}
+				position += length;
+				fillPosition = position;
+				publishProgress(ranges != null ? ranges.getDownloaded() : position);
+			}
+
+			@Override
+			public void close() throws IOException {
+				file.close();
+				if(ranges != null) {
+					save();
+				}
+			}
+
+			private void save() {
+				// Don't bring back what was deleted along with the partial file
+				if(getRanges() == ranges) {
+					ranges.save(rangesFile());
+				}
+			}
+		}
+
+		private void resumeFromSegments() throws IOException {
+			SegmentMap segments = SegmentMap.load(segmentsFile(), segmentedFile().length());
+			if(segments != null && partialFile().length() == 0) {
+				long remaining = segments.getContiguousLength();
+				Log.i(TAG, "Resuming " + song + " from the first " + Util.formatBytes(remaining) + " downloaded in segments");
+
+				InputStream in = null;
+				OutputStream out = null;
+				try {
+					in = new FileInputStream(segmentedFile());
+					out = new FileOutputStream(partialFile());
+					byte[] buffer = new byte[1024 * 16];
+					int n;
+					while(remaining > 0 && (n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+						out.write(buffer, 0, n);
+						remaining -= n;
+					}
+				} finally {
+					Util.close(in);
+					Util.close(out);
+				}
+			}
+			deleteSegments();
+		}
+
+		private class SegmentThread extends Thread {
+			private final MusicService musicService;
+			private final SegmentMap segments;
+			private final int segment;
+			private volatile InputStream in;
+			private boolean rangeIgnored = false;
+			private Exception error;
+
+			public SegmentThread(MusicService musicService, SegmentMap segments, int segment) {
+				super("DownloadFile_segment");
+				this.musicService = musicService;
+				this.segments = segments;
+				this.segment = segment;
+			}
+
+			@Override
+			public void run() {
+				AdaptiveBitrate.startTransfer();
+				try {
+					download();
+				} catch(Exception e) {
+					if(!isCancelled()) {
+						error = e;
+					}
+				} finally {
+					abort();
+					AdaptiveBitrate.endTransfer();
+				}
+			}
+
+			private void download() throws Exception {
+				long position = segments.getPosition(segment);
+				long end = segments.getEnd(segment);
+				HttpResponse response = musicService.getDownloadInputStream(context, song, position, end - 1, bitRate, DownloadTask.this);
+				in = response.getEntity().getContent();
+				streams.add(in);
+
+				// A transcoded stream doesn't have a known length, so the server sends it all or a range of something else
+				Header contentRange = response.getFirstHeader("Content-Range");
+				if(response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT || contentRange == null || !contentRange.getValue().endsWith("/" + segments.getLength())) {
+					rangeIgnored = true;
+					return;
+				}
+
+				RandomAccessFile out = new RandomAccessFile(segmentedFile(), "rw");
+				try {
+					out.seek(position);
+					byte[] buffer = new byte[1024 * 16];
+					int n;
+					BandwidthShaper shaper = BandwidthShaper.getInstance(context);
+					while(position < end && !isCancelled() && (n = in.read(buffer)) != -1) {
+						n = (int) Math.min(n, end - position);
+						shaper.acquire(lane, n);
+						out.write(buffer, 0, n);
+						position += n;
+						segments.add(segment, n);
+						publishProgress(segments.getDownloaded());
+					}
+				} finally {
+					Util.close(out);
+				}
+
+				if(position < end && !isCancelled()) {
+					throw new IOException("Segment " + segment + " of '" + song + "' ended after " + position + " of " + end + " bytes");
+				}
+			}
+
+			/**
+			 * Drop the connection without reading the rest of what the server is sending.
+			 */
+			public void abort() {
+				InputStream in = this.in;
+				this.in = null;
+				if(in != null) {
+					streams.remove(in);
+				}
+				DownloadFile.abort(in);
+			}
+		}
+
         private void checkDownloads() {
         	DownloadService downloadService = DownloadService.getInstance();
         	if(downloadService != null) {
@@ -547,33 +1360,41 @@ public class DownloadFile implements BufferFile {
         }
 
         private long copy(final InputStream in, OutputStream out) throws IOException, InterruptedException {
-
-            // Start a thread that will close the input stream if the task is
-            // cancelled, thus causing the copy() method to return.
-            new Thread("DownloadFile_copy") {
-                @Override
-                public void run() {
-                    while (true) {
-                        Util.sleepQuietly(3000L);
-                        if (isCancelled()) {
-                            Util.close(in);
-                            return;
-                        }
-                        if (!isRunning()) {
-                            return;
-                        }
-                    }
-                }
-            }.start();
-
+			return copy(in, out, -1);
+		}
+        private long copy(final InputStream in, OutputStream out, long limit) throws IOException, InterruptedException {
+			streams.add(in);
+			AdaptiveBitrate.startTransfer();
+			try {
+				return copyStream(in, out, limit);
+			} finally {
+				AdaptiveBitrate.endTransfer();
+				streams.remove(in);
+			}
+		}
+        private long copyStream(InputStream in, OutputStream out, long limit) throws IOException, InterruptedException {
             byte[] buffer = new byte[1024 * 16];
             long count = 0;
             int n;
             long lastLog = System.currentTimeMillis();
 			long lastCount = 0;
+			// Only time spent reading goes towards the network estimate, not waiting on the shaper or writing
+			long readTime = 0;
+			boolean throttled = false;
 
-			boolean activeLimit = rateLimit;
-            while (!isCancelled() && (n = in.read(buffer)) != -1) {
+			BandwidthShaper shaper = BandwidthShaper.getInstance(context);
+			long readStart = System.currentTimeMillis();
+            while (!isCancelled() && (limit < 0 || count < limit) && (n = in.read(buffer)) != -1) {
+				readTime += System.currentTimeMillis() - readStart;
+				if(limit >= 0) {
+					n = (int) Math.min(n, limit - count);
+				}
+				throttled |= shaper.acquire(lane, n);
+				// Until a limit is set, keep background downloads from using up all of the bandwidth while the screen is on
+				if(rateLimit && shaper.getLimit() == 0 && shaper.isScreenOn()) {
+					Thread.sleep(10L);
+					throttled = true;
+				}
                 out.write(buffer, 0, n);
                 count += n;
 				lastCount += n;
@@ -582,26 +1403,51 @@ public class DownloadFile implements BufferFile {
                 if (now - lastLog > 3000L) {  // Only every so often.
                     Log.i(TAG, "Downloaded " + Util.formatBytes(count) + " of " + song);
 					currentSpeed = lastCount / ((now - lastLog) / 1000L);
+					// Reads after a wait on the shaper are served from what the socket buffered meanwhile
+					if(!throttled) {
+						AdaptiveBitrate.addSample(context, lastCount, readTime);
+					}
                     lastLog = now;
 					lastCount = 0;
-					
-					// Re-establish every few seconds whether screen is on or not
-					if(rateLimit) {
-						PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
-						if(pm.isScreenOn()) {
-							activeLimit = true;
-						} else {
-							activeLimit = false;
-						}
-					}
-                }
-                
-                // If screen is on and rateLimit is true, stop downloading from exhausting bandwidth
-                if(activeLimit) {
-                	Thread.sleep(10L);
+					readTime = 0;
+					throttled = false;
                 }
+				readStart = System.currentTimeMillis();
             }
             return count;
         }
     }
+
+	private static class Files {
+		final File saveFile;
+		final File partialFile;
+		final File completeFile;
+		final File segmentedFile;
+		final File segmentsFile;
+		final File rangesFile;
+		final File bitrateFile;
+
+		Files(File saveFile) {
+			this.saveFile = saveFile;
+			partialFile = new File(saveFile.getParent(), FileUtil.getBaseName(saveFile.getName()) +
+					".partial." + FileUtil.getExtension(saveFile.getName()));
+			completeFile = new File(saveFile.getParent(), FileUtil.getBaseName(saveFile.getName()) +
+					".complete." + FileUtil.getExtension(saveFile.getName()));
+			segmentedFile = new File(partialFile.getPath() + ".segmented");
+			segmentsFile = new File(partialFile.getPath() + ".segments");
+			rangesFile = new File(partialFile.getPath() + ".ranges");
+			bitrateFile = new File(partialFile.getPath() + ".bitrate");
+		}
+	}
+
+	public interface OnProgressListener {
+		/**
+		 * Called from the downloading thread, at most once every PROGRESS_INTERVAL for each file.
+		 */
+		void onProgress(DownloadFile downloadFile, long currentSize);
+		/**
+		 * Called from the downloading thread with one of the STATE_* values.
+		 */
+		void onStateChanged(DownloadFile downloadFile, int state);
+	}
 }
@@ -0,0 +1,309 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.service;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import github.daneren2005.dsub.domain.MusicDirectory;
+
+/**
+ * List of downloads which stays fast with thousands of songs in it.  The order is kept in a tree where every node
+ * knows how many nodes are under it, so getting, adding and removing at a position are all O(log n).  Every node is
+ * also looked up by its DownloadFile and by its song, and walking up from a node to the root gives its position, so
+ * indexOf and finding the downloads of a song don't have to scan the whole list either.
+ */
+public class DownloadQueue extends AbstractList<DownloadFile> {
+	private final Random random = new Random();
+	private final Map<DownloadFile, List<Node>> files = new HashMap<DownloadFile, List<Node>>();
+	private final Map<MusicDirectory.Entry, List<Node>> songs = new HashMap<MusicDirectory.Entry, List<Node>>();
+	private Node root;
+
+	@Override
+	public DownloadFile get(int index) {
+		return getNode(index).file;
+	}
+
+	@Override
+	public DownloadFile set(int index, DownloadFile file) {
+		Node node = getNode(index);
+		DownloadFile previous = node.file;
+		unregister(node);
+		node.file = file;
+		register(node);
+		return previous;
+	}
+
+	@Override
+	public void add(int index, DownloadFile file) {
+		if(index < 0 || index > size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+
+		Node node = new Node(file, random.nextInt());
+		register(node);
+		Node[] split = split(root, index);
+		root = merge(merge(split[0], node), split[1]);
+		root.parent = null;
+		modCount++;
+	}
+
+	@Override
+	public DownloadFile remove(int index) {
+		if(index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+
+		Node[] before = split(root, index);
+		Node[] after = split(before[1], 1);
+		Node node = after[0];
+		root = merge(before[0], after[1]);
+		if(root != null) {
+			root.parent = null;
+		}
+		unregister(node);
+		modCount++;
+		return node.file;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		int index = indexOf(o);
+		if(index == -1) {
+			return false;
+		}
+
+		remove(index);
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return size(root);
+	}
+
+	@Override
+	public void clear() {
+		root = null;
+		files.clear();
+		songs.clear();
+		modCount++;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return files.containsKey(o);
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		List<Node> nodes = files.get(o);
+		if(nodes == null) {
+			return -1;
+		}
+
+		int index = Integer.MAX_VALUE;
+		for(Node node: nodes) {
+			index = Math.min(index, getIndex(node));
+		}
+		return index;
+	}
+
+	@Override
+	public int lastIndexOf(Object o) {
+		List<Node> nodes = files.get(o);
+		if(nodes == null) {
+			return -1;
+		}
+
+		int index = -1;
+		for(Node node: nodes) {
+			index = Math.max(index, getIndex(node));
+		}
+		return index;
+	}
+
+	/**
+	 * Get every download of song in the order they are in the list.
+	 */
+	public List<DownloadFile> getFiles(MusicDirectory.Entry song) {
+		List<Node> nodes = songs.get(song);
+		if(nodes == null) {
+			return Collections.emptyList();
+		}
+
+		List<Node> sorted = new ArrayList<Node>(nodes);
+		if(sorted.size() > 1) {
+			final Map<Node, Integer> indexes = new HashMap<Node, Integer>();
+			for(Node node: sorted) {
+				indexes.put(node, getIndex(node));
+			}
+			Collections.sort(sorted, new Comparator<Node>() {
+				@Override
+				public int compare(Node lhs, Node rhs) {
+					return indexes.get(lhs).compareTo(indexes.get(rhs));
+				}
+			});
+		}
+
+		List<DownloadFile> result = new ArrayList<DownloadFile>(sorted.size());
+		for(Node node: sorted) {
+			result.add(node.file);
+		}
+		return result;
+	}
+
+	private Node getNode(int index) {
+		if(index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+
+		Node node = root;
+		while(true) {
+			int leftSize = size(node.left);
+			if(index < leftSize) {
+				node = node.left;
+			} else if(index == leftSize) {
+				return node;
+			} else {
+				index -= leftSize + 1;
+				node = node.right;
+			}
+		}
+	}
+
+	private int getIndex(Node node) {
+		int index = size(node.left);
+		while(node.parent != null) {
+			if(node == node.parent.right) {
+				index += size(node.parent.left) + 1;
+			}
+			node = node.parent;
+		}
+		return index;
+	}
+
+	private void register(Node node) {
+		add(files, node.file, node);
+		if(node.file.getSong() != null) {
+			add(songs, node.file.getSong(), node);
+		}
+	}
+	private void unregister(Node node) {
+		remove(files, node.file, node);
+		if(node.file.getSong() != null) {
+			remove(songs, node.file.getSong(), node);
+		}
+	}
+	private static <K> void add(Map<K, List<Node>> map, K key, Node node) {
+		List<Node> nodes = map.get(key);
+		if(nodes == null) {
+			// Almost everything is only in the list once
+			nodes = new ArrayList<Node>(1);
+			map.put(key, nodes);
+		}
+		nodes.add(node);
+	}
+	private static <K> void remove(Map<K, List<Node>> map, K key, Node node) {
+		List<Node> nodes = map.get(key);
+		if(nodes != null) {
+			nodes.remove(node);
+			if(nodes.isEmpty()) {
+				map.remove(key);
+			}
+		}
+	}
+
+	// Split tree into the first count nodes and the rest
+	private static Node[] split(Node tree, int count) {
+		if(tree == null) {
+			return new Node[] {null, null};
+		}
+
+		Node[] split;
+		if(count <= size(tree.left)) {
+			split = split(tree.left, count);
+			tree.left = split[1];
+			if(tree.left != null) {
+				tree.left.parent = tree;
+			}
+			split[1] = tree;
+		} else {
+			split = split(tree.right, count - size(tree.left) - 1);
+			tree.right = split[0];
+			if(tree.right != null) {
+				tree.right.parent = tree;
+			}
+			split[0] = tree;
+		}
+		tree.update();
+
+		for(Node node: split) {
+			if(node != null) {
+				node.parent = null;
+			}
+		}
+		return split;
+	}
+
+	// Join two trees where everything in left comes before everything in right
+	private static Node merge(Node left, Node right) {
+		if(left == null) {
+			return right;
+		} else if(right == null) {
+			return left;
+		}
+
+		if(left.priority > right.priority) {
+			left.right = merge(left.right, right);
+			left.right.parent = left;
+			left.update();
+			return left;
+		} else {
+			right.left = merge(left, right.left);
+			right.left.parent = right;
+			right.update();
+			return right;
+		}
+	}
+
+	private static int size(Node node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private static class Node {
+		DownloadFile file;
+		final int priority;
+		int size = 1;
+		Node left;
+		Node right;
+		Node parent;
+
+		Node(DownloadFile file, int priority) {
+			this.file = file;
+			this.priority = priority;
+		}
+
+		void update() {
+			size = 1 + DownloadQueue.size(left) + DownloadQueue.size(right);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.service;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of the songs being downloaded at the same time.  Every song waiting on a download is put in a lane,
+ * and lanes are served in order: the song playing right now, the one after it, the rest of the preload window and
+ * finally anything being saved in the background.  Only the song playing right now is allowed to cancel a download
+ * to get a connection, everything else waits for one to finish.  Cancelled downloads pick up where they left off
+ * from the partial file when they are started again.
+ *
+ * Downloads run on their own threads rather than the shared BackgroundTask ones, whose queue drops tasks when it
+ * is full and would leave a download stuck in active without ever running.
+ */
+public class DownloadScheduler {
+	private static final String TAG = DownloadScheduler.class.getSimpleName();
+
+	public static final int LANE_NOW_PLAYING = 0;
+	public static final int LANE_NEXT_UP = 1;
+	public static final int LANE_PRELOAD = 2;
+	public static final int LANE_BACKGROUND = 3;
+	public static final int LANE_COUNT = 4;
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger(0);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			return new Thread(runnable, String.format("DownloadScheduler_%d", count.getAndIncrement()));
+		}
+	});
+
+	private final Map<DownloadFile, Integer> active = new LinkedHashMap<DownloadFile, Integer>();
+	private final int[] waiting = new int[LANE_COUNT];
+
+	/**
+	 * Start downloading as much of wanted as there are connections for.
+	 *
+	 * @param wanted songs which still need downloading along with their lane, in the order they should be started
+	 * @param maxDownloads number of downloads allowed at once
+	 * @return the songs which were started
+	 */
+	public synchronized List<DownloadFile> schedule(Map<DownloadFile, Integer> wanted, int maxDownloads) {
+		removeFinished();
+
+		// Songs move between lanes as the queue moves, ie: a preload becomes next up
+		for(Map.Entry<DownloadFile, Integer> entry: active.entrySet()) {
+			Integer lane = wanted.get(entry.getKey());
+			if(lane != null) {
+				entry.setValue(lane);
+				entry.getKey().setLane(lane);
+			}
+		}
+
+		// Limit can go down when switching from wifi to mobile or while playback is waiting on the current song
+		while(active.size() > maxDownloads) {
+			DownloadFile lowest = getLowest(LANE_NOW_PLAYING, wanted);
+			if(lowest == null) {
+				break;
+			}
+			Log.i(TAG, "Pausing " + lowest + " to stay under " + maxDownloads + " downloads");
+			cancel(lowest);
+		}
+
+		List<DownloadFile> started = new ArrayList<DownloadFile>();
+		for(int i = 0; i < LANE_COUNT; i++) {
+			waiting[i] = 0;
+		}
+		boolean full = false;
+		for(Map.Entry<DownloadFile, Integer> entry: wanted.entrySet()) {
+			DownloadFile downloadFile = entry.getKey();
+			int lane = entry.getValue();
+			if(active.containsKey(downloadFile)) {
+				continue;
+			}
+
+			if(!full && active.size() >= maxDownloads && lane == LANE_NOW_PLAYING) {
+				DownloadFile lowest = getLowest(lane, wanted);
+				if(lowest != null) {
+					Log.i(TAG, "Pausing " + lowest + " to make room for " + downloadFile);
+					cancel(lowest);
+				}
+			}
+
+			if(!full && active.size() < maxDownloads) {
+				active.put(downloadFile, lane);
+				downloadFile.setLane(lane);
+				downloadFile.download();
+				started.add(downloadFile);
+			} else {
+				// Wanted is in lane order, so nothing after this can get a connection either
+				full = true;
+				waiting[lane]++;
+			}
+		}
+
+		return started;
+	}
+
+	static Executor getExecutor() {
+		return executor;
+	}
+
+	public synchronized boolean isActive(DownloadFile downloadFile) {
+		return active.containsKey(downloadFile);
+	}
+
+	public synchronized void cancel(DownloadFile downloadFile) {
+		if(active.remove(downloadFile) != null) {
+			downloadFile.cancelDownload();
+		}
+	}
+
+	public synchronized void cancelAll(List<DownloadFile> downloadFiles) {
+		for(DownloadFile downloadFile: downloadFiles) {
+			cancel(downloadFile);
+		}
+	}
+
+	/**
+	 * Get the download in the highest priority lane, or null if nothing is downloading.
+	 */
+	public synchronized DownloadFile getCurrent() {
+		DownloadFile current = null;
+		int currentLane = LANE_COUNT;
+		for(Map.Entry<DownloadFile, Integer> entry: active.entrySet()) {
+			if(entry.getValue() < currentLane) {
+				current = entry.getKey();
+				currentLane = entry.getValue();
+			}
+		}
+		return current;
+	}
+
+	public synchronized List<DownloadFile> getActive() {
+		return new ArrayList<DownloadFile>(active.keySet());
+	}
+
+	public synchronized int getActiveCount(int lane) {
+		int count = 0;
+		for(Integer activeLane: active.values()) {
+			if(activeLane == lane) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Get the number of songs in a lane waiting on a connection as of the last time downloads were scheduled.
+	 */
+	public synchronized int getWaitingCount(int lane) {
+		return waiting[lane];
+	}
+
+	public synchronized long getBytesPerSecond(int lane) {
+		long bytesPerSecond = 0;
+		for(Map.Entry<DownloadFile, Integer> entry: active.entrySet()) {
+			if(entry.getValue() == lane) {
+				bytesPerSecond += entry.getKey().getBytesPerSecond();
+			}
+		}
+		return bytesPerSecond;
+	}
+
+	private void removeFinished() {
+		Iterator<DownloadFile> iterator = active.keySet().iterator();
+		while(iterator.hasNext()) {
+			DownloadFile downloadFile = iterator.next();
+			if(downloadFile.isWorkDone() || downloadFile.isFailed() || downloadFile.isDownloadCancelled()) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Get the download to give up first for one in lane: songs which aren't wanted anymore, then the lowest lane
+	 * and the most recently started within it.
+	 */
+	private DownloadFile getLowest(int lane, Map<DownloadFile, Integer> wanted) {
+		DownloadFile lowest = null;
+		int lowestLane = lane;
+		for(Map.Entry<DownloadFile, Integer> entry: active.entrySet()) {
+			int activeLane = wanted.containsKey(entry.getKey()) ? entry.getValue() : LANE_COUNT;
+			if(activeLane >= lowestLane && activeLane != LANE_NOW_PLAYING) {
+				lowest = entry.getKey();
+				lowestLane = activeLane;
+			}
+		}
+		return lowest;
+	}
+}
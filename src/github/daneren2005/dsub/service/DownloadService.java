@@ -49,7 +49,7 @@ import github.daneren2005.dsub.util.ShufflePlayBuffer;
 import github.daneren2005.dsub.util.SimpleServiceBinder;
 import github.daneren2005.dsub.util.Util;
 import github.daneren2005.dsub.util.compat.RemoteControlClientHelper;
-import github.daneren2005.dsub.util.tags.BastpUtil;
+import github.daneren2005.dsub.util.FileUtil;
 import github.daneren2005.dsub.view.UpdateView;
 import github.daneren2005.serverproxy.BufferProxy;
 
@@ -58,9 +58,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.annotation.TargetApi;
 import android.app.Service;
@@ -100,6 +103,14 @@ public class DownloadService extends Service {
 	public static final int REWIND = 10000;
 	private static final double DELETE_CUTOFF = 0.84;
 	private static final int REQUIRED_ALBUM_MATCHES = 4;
+	// Least that is buffered before playback starts, no matter how fast the download is
+	private static final long MIN_BUFFER_BYTES = 32 * 1024L;
+	private static final long MIN_BUFFER_SECONDS = 2L;
+	// Only count on this much of the measured download rate holding up for the rest of the song
+	private static final double DOWNLOAD_RATE_MARGIN = 0.8;
+	private static final long MIN_MEASURE_TIME = 500L;
+	// How much of the next song has to be there before it is set up to play right after this one
+	private static final long NEXT_BUFFER_SECONDS = 10L;
 
 	private RemoteControlClientHelper mRemoteControl;
 
@@ -109,8 +120,8 @@ public class DownloadService extends Service {
 	private MediaPlayer nextMediaPlayer;
 	private int audioSessionId;
 	private boolean nextSetup = false;
-	private final List<DownloadFile> downloadList = new ArrayList<DownloadFile>();
-	private final List<DownloadFile> backgroundDownloadList = new ArrayList<DownloadFile>();
+	private final DownloadQueue downloadList = new DownloadQueue();
+	private final DownloadQueue backgroundDownloadList = new DownloadQueue();
 	private final List<DownloadFile> toDelete = new ArrayList<DownloadFile>();
 	private final Handler handler = new Handler();
 	private Handler mediaPlayerHandler;
@@ -124,7 +135,7 @@ public class DownloadService extends Service {
 	private DownloadFile currentPlaying;
 	private int currentPlayingIndex = -1;
 	private DownloadFile nextPlaying;
-	private DownloadFile currentDownloading;
+	private final DownloadScheduler downloadScheduler = new DownloadScheduler();
 	private SilentBackgroundTask bufferTask;
 	private SilentBackgroundTask nextPlayingTask;
 	private PlayerState playerState = IDLE;
@@ -139,16 +150,32 @@ public class DownloadService extends Service {
 	private boolean keepScreenOn;
 	private int cachedPosition = 0;
 	private boolean downloadOngoing = false;
+	private final AtomicBoolean downloadNotificationPending = new AtomicBoolean(false);
+	private final DownloadFile.OnProgressListener downloadProgressListener = new DownloadFile.OnProgressListener() {
+		@Override
+		public void onProgress(DownloadFile downloadFile, long currentSize) {
+			updateDownloadingNotification();
+		}
+
+		@Override
+		public void onStateChanged(DownloadFile downloadFile, int state) {
+			updateDownloadingNotification();
+		}
+	};
 	private float volume = 1.0f;
 
 	private AudioEffectsController effectsController;
 	private RemoteControlState remoteState = LOCAL;
 	private PositionCache positionCache;
 	private BufferProxy proxy;
+	// Serves the next song while it is still downloading, becomes proxy once it starts playing
+	private BufferProxy nextProxy;
+	private boolean nextPartial = false;
 
 	private Timer sleepTimer;
 	private int timerDuration;
 	private boolean autoPlayStart = false;
+	private long playRequestTime = 0;
 
 	private MediaRouteManager mediaRouter;
 	
@@ -227,6 +254,7 @@ public class DownloadService extends Service {
 		mediaRouter = new MediaRouteManager(this);
 
 		instance = this;
+		DownloadFile.addOnProgressListener(downloadProgressListener);
 		lifecycleSupport.onCreate();
 		shufflePlayBuffer = new ShufflePlayBuffer(this);
 	}
@@ -242,6 +270,7 @@ public class DownloadService extends Service {
 	public void onDestroy() {
 		super.onDestroy();
 		instance = null;
+		DownloadFile.removeOnProgressListener(downloadProgressListener);
 
 		if(currentPlaying != null) currentPlaying.setPlaying(false);
 		if(sleepTimer != null){
@@ -287,6 +316,10 @@ public class DownloadService extends Service {
 			proxy.stop();
 			proxy = null;
 		}
+		if(nextProxy != null) {
+			nextProxy.stop();
+			nextProxy = null;
+		}
 		mediaRouter.destroy();
 		Notifications.hidePlayingNotification(this, this, handler);
 		Notifications.hideDownloadingNotification(this, this, handler);
@@ -308,48 +341,49 @@ public class DownloadService extends Service {
 		handler.postDelayed(r, millis);
 	}
 
-	public synchronized void download(List<MusicDirectory.Entry> songs, boolean save, boolean autoplay, boolean playNext, boolean shuffle) {
+	public void download(List<MusicDirectory.Entry> songs, boolean save, boolean autoplay, boolean playNext, boolean shuffle) {
 		download(songs, save, autoplay, playNext, shuffle, 0, 0);
 	}
-	public synchronized void download(List<MusicDirectory.Entry> songs, boolean save, boolean autoplay, boolean playNext, boolean shuffle, int start, int position) {
-		setShufflePlayEnabled(false);
-		int offset = 1;
+	public void download(List<MusicDirectory.Entry> songs, boolean save, boolean autoplay, boolean playNext, boolean shuffle, int start, int position) {
+		// Set everything up before taking the lock so a big batch doesn't hold up playback while it's looked at
 		boolean noNetwork = !Util.isOffline(this) && !Util.isNetworkConnected(this);
 		boolean warnNetwork = false;
+		List<DownloadFile> downloadFiles = new ArrayList<DownloadFile>(songs.size());
+		for (MusicDirectory.Entry song : songs) {
+			if(song != null) {
+				DownloadFile downloadFile = new DownloadFile(this, song, save);
+				if(noNetwork && !warnNetwork) {
+					if(!downloadFile.isCompleteFileAvailable()) {
+						warnNetwork = true;
+					}
+				}
+				downloadFiles.add(downloadFile);
+			}
+		}
 
-		if (songs.isEmpty()) {
+		download(downloadFiles, autoplay, playNext, shuffle, start, position, warnNetwork);
+	}
+	private synchronized void download(List<DownloadFile> downloadFiles, boolean autoplay, boolean playNext, boolean shuffle, int start, int position, boolean warnNetwork) {
+		setShufflePlayEnabled(false);
+		int offset = 1;
+
+		if (downloadFiles.isEmpty()) {
 			return;
 		}
 		if (playNext) {
 			if (autoplay && getCurrentPlayingIndex() >= 0) {
 				offset = 0;
 			}
-			for (MusicDirectory.Entry song : songs) {
-				if(song != null) {
-					DownloadFile downloadFile = new DownloadFile(this, song, save);
-					addToDownloadList(downloadFile, getCurrentPlayingIndex() + offset);
-					if(noNetwork && !warnNetwork) {
-						if(!downloadFile.isCompleteFileAvailable()) {
-							warnNetwork = true;
-						}
-					}
-					offset++;
-				}
+			for (DownloadFile downloadFile : downloadFiles) {
+				addToDownloadList(downloadFile, getCurrentPlayingIndex() + offset);
+				offset++;
 			}
 			setNextPlaying();
 			revision++;
 		} else {
 			int size = size();
 			int index = getCurrentPlayingIndex();
-			for (MusicDirectory.Entry song : songs) {
-				DownloadFile downloadFile = new DownloadFile(this, song, save);
-				addToDownloadList(downloadFile, -1);
-				if(noNetwork && !warnNetwork) {
-					if(!downloadFile.isCompleteFileAvailable()) {
-						warnNetwork = true;
-					}
-				}
-			}
+			downloadList.addAll(downloadFiles);
 			if(!autoplay && (size - 1) == index) {
 				setNextPlaying();
 			}
@@ -385,17 +419,28 @@ public class DownloadService extends Service {
 			downloadList.add(offset, file);
 		}
 	}
-	public synchronized void downloadBackground(List<MusicDirectory.Entry> songs, boolean save) {
+	public void downloadBackground(List<MusicDirectory.Entry> songs, boolean save) {
+		// Looking at what is already on disk is done before taking the lock, like in download
+		List<DownloadFile> work = new ArrayList<DownloadFile>();
+		List<DownloadFile> unpin = new ArrayList<DownloadFile>();
 		for (MusicDirectory.Entry song : songs) {
 			DownloadFile downloadFile = new DownloadFile(this, song, save);
 			if(!downloadFile.isWorkDone() || (downloadFile.shouldSave() && !downloadFile.isSaved())) {
 				// Only add to list if there is work to be done
-				backgroundDownloadList.add(downloadFile);
+				work.add(downloadFile);
 			} else if(downloadFile.isSaved() && !save) {
 				// Quickly unpin song instead of adding it to work to be done
-				downloadFile.unpin();
+				unpin.add(downloadFile);
 			}
 		}
+
+		downloadBackground(work, unpin);
+	}
+	private synchronized void downloadBackground(List<DownloadFile> work, List<DownloadFile> unpin) {
+		backgroundDownloadList.addAll(work);
+		for(DownloadFile downloadFile: unpin) {
+			downloadFile.unpin();
+		}
 		revision++;
 
 		if(!Util.isOffline(this) && !Util.isNetworkConnected(this)) {
@@ -516,22 +561,19 @@ public class DownloadService extends Service {
 
 	public synchronized DownloadFile forSong(MusicDirectory.Entry song) {
 		DownloadFile returnFile = null;
-		for (DownloadFile downloadFile : downloadList) {
-			if (downloadFile.getSong().equals(song)) {
-				if(((downloadFile.isDownloading() && !downloadFile.isDownloadCancelled() && downloadFile.getPartialFile().exists()) || downloadFile.isWorkDone())) {
-					// If downloading, return immediately
-					return downloadFile;
-				} else {
-					// Otherwise, check to make sure there isn't a background download going on first
-					returnFile = downloadFile;
-				}
-			}
-		}
-		for (DownloadFile downloadFile : backgroundDownloadList) {
-			if (downloadFile.getSong().equals(song)) {
+		for (DownloadFile downloadFile : downloadList.getFiles(song)) {
+			if(((downloadFile.isDownloading() && !downloadFile.isDownloadCancelled() && downloadFile.getPartialFile().exists()) || downloadFile.isWorkDone())) {
+				// If downloading, return immediately
 				return downloadFile;
+			} else {
+				// Otherwise, check to make sure there isn't a background download going on first
+				returnFile = downloadFile;
 			}
 		}
+		List<DownloadFile> backgroundFiles = backgroundDownloadList.getFiles(song);
+		if (!backgroundFiles.isEmpty()) {
+			return backgroundFiles.get(0);
+		}
 
 		if(returnFile != null) {
 			return returnFile;
@@ -550,10 +592,7 @@ public class DownloadService extends Service {
 	}
 
 	public synchronized void clearBackground() {
-		if(currentDownloading != null && backgroundDownloadList.contains(currentDownloading)) {
-			currentDownloading.cancelDownload();
-			currentDownloading = null;
-		}
+		downloadScheduler.cancelAll(backgroundDownloadList);
 		backgroundDownloadList.clear();
 		revision++;
 		Notifications.hideDownloadingNotification(this, this, handler);
@@ -634,12 +673,13 @@ public class DownloadService extends Service {
 		}
 
 		reset();
+		for(DownloadFile downloadFile: downloadList) {
+			if(!backgroundDownloadList.contains(downloadFile)) {
+				downloadScheduler.cancel(downloadFile);
+			}
+		}
 		downloadList.clear();
 		revision++;
-		if (currentDownloading != null && !backgroundDownloadList.contains(currentDownloading)) {
-			currentDownloading.cancelDownload();
-			currentDownloading = null;
-		}
 		setCurrentPlaying(null, false);
 
 		if (serialize) {
@@ -662,10 +702,7 @@ public class DownloadService extends Service {
 	}
 
 	public synchronized void remove(DownloadFile downloadFile) {
-		if (downloadFile == currentDownloading) {
-			currentDownloading.cancelDownload();
-			currentDownloading = null;
-		}
+		downloadScheduler.cancel(downloadFile);
 		if (downloadFile == currentPlaying) {
 			reset();
 			setCurrentPlaying(null, false);
@@ -776,7 +813,11 @@ public class DownloadService extends Service {
 	}
 
 	public DownloadFile getCurrentDownloading() {
-		return currentDownloading;
+		return downloadScheduler.getCurrent();
+	}
+
+	public DownloadScheduler getDownloadScheduler() {
+		return downloadScheduler;
 	}
 
 	public List<DownloadFile> getSongs() {
@@ -871,16 +912,18 @@ public class DownloadService extends Service {
 		MediaPlayer tmp = mediaPlayer;
 		mediaPlayer = nextMediaPlayer;
 		nextMediaPlayer = tmp;
-		setCurrentPlaying(nextPlaying, true);
-		setPlayerState(PlayerState.STARTED);
-		setupHandlers(currentPlaying, false, start);
-		setNextPlaying();
 
-		// Proxy should not be being used here since the next player was already setup to play
+		// Old proxy was for the song which just ended, the next player brings its own if it is still downloading
 		if(proxy != null) {
 			proxy.stop();
-			proxy = null;
 		}
+		proxy = nextProxy;
+		nextProxy = null;
+
+		setCurrentPlaying(nextPlaying, true);
+		setPlayerState(PlayerState.STARTED);
+		setupHandlers(currentPlaying, nextPartial, start);
+		setNextPlaying();
 		checkDownloads();
 	}
 
@@ -908,6 +951,13 @@ public class DownloadService extends Service {
 				if(proxy != null && currentPlaying.isCompleteFileAvailable()) {
 					doPlay(currentPlaying, position, playerState == STARTED);
 					return;
+				} else if(proxy != null && !currentPlaying.isWorkDone()) {
+					// Jumping past what is downloaded so far starts a new download from there, so wait on that instead
+					long offset = (long) position * currentPlaying.getBitRate() / 8L;
+					if(!currentPlaying.seekAhead(offset)) {
+						bufferAndPlay(position, playerState == STARTED);
+						return;
+					}
 				}
 
 				mediaPlayer.seekTo(position);
@@ -1092,6 +1142,10 @@ public class DownloadService extends Service {
 				nextMediaPlayer.release();
 				nextMediaPlayer = null;
 			}
+			if(nextProxy != null) {
+				nextProxy.stop();
+				nextProxy = null;
+			}
 		} catch (Exception e) {
 			Log.w(TAG, "Failed to reset next media player");
 		}
@@ -1394,9 +1448,11 @@ public class DownloadService extends Service {
 		if (remoteState != LOCAL) {
 			reset();
 
-			// Cancel current download, if necessary.
-			if (currentDownloading != null) {
-				currentDownloading.cancelDownload();
+			// Cancel current downloads, if necessary.
+			for(DownloadFile downloadFile: downloadScheduler.getActive()) {
+				if(!backgroundDownloadList.contains(downloadFile)) {
+					downloadScheduler.cancel(downloadFile);
+				}
 			}
 
 			// Cancels current setup tasks
@@ -1476,6 +1532,11 @@ public class DownloadService extends Service {
 		bufferAndPlay(position, true);
 	}
 	private synchronized void bufferAndPlay(int position, boolean start) {
+		// Only the first time a song is played counts, not each seek within it
+		if(start && currentPlaying.getTimeToFirstAudio() == -1) {
+			playRequestTime = System.currentTimeMillis();
+		}
+
 		if(!currentPlaying.isCompleteFileAvailable()) {
 			reset();
 
@@ -1545,6 +1606,7 @@ public class DownloadService extends Service {
 							if (start || autoPlayStart) {
 								mediaPlayer.start();
 								setPlayerState(STARTED);
+								recordTimeToFirstAudio(downloadFile);
 
 								// Disable autoPlayStart after done
 								autoPlayStart = false;
@@ -1571,6 +1633,15 @@ public class DownloadService extends Service {
 		}
 	}
 
+	private void recordTimeToFirstAudio(DownloadFile downloadFile) {
+		if(playRequestTime > 0) {
+			long timeToFirstAudio = System.currentTimeMillis() - playRequestTime;
+			playRequestTime = 0;
+			downloadFile.setTimeToFirstAudio(timeToFirstAudio);
+			Log.i(TAG, "Time to first audio of " + downloadFile + ": " + timeToFirstAudio + " ms");
+		}
+	}
+
 	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
 	private synchronized void setupNext(final DownloadFile downloadFile) {
 		try {
@@ -1589,7 +1660,17 @@ public class DownloadService extends Service {
 			} catch(Throwable e) {
 				nextMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
 			}
-			nextMediaPlayer.setDataSource(file.getPath());
+			// Start of a song which is still downloading is played through its own proxy, same as in doPlay
+			String dataSource = file.getPath();
+			nextPartial = file.equals(downloadFile.getPartialFile());
+			if(nextPartial && !Util.isOffline(this)) {
+				nextProxy = new BufferProxy(this);
+				nextProxy.start();
+				nextProxy.setBufferFile(downloadFile);
+				dataSource = nextProxy.getPrivateAddress(dataSource);
+				Log.i(TAG, "Next Data Source: " + dataSource);
+			}
+			nextMediaPlayer.setDataSource(dataSource);
 			setNextPlayerState(PREPARING);
 
 			nextMediaPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
@@ -1640,6 +1721,17 @@ public class DownloadService extends Service {
 			}
 		});
 
+		mediaPlayer.setOnInfoListener(new MediaPlayer.OnInfoListener() {
+			@Override
+			public boolean onInfo(MediaPlayer mediaPlayer, int what, int extra) {
+				// Player ran out of what the proxy has handed it so far
+				if(what == MediaPlayer.MEDIA_INFO_BUFFERING_START && isPartial) {
+					Log.i(TAG, "Rebuffer " + downloadFile.addRebuffer() + " of " + downloadFile);
+				}
+				return false;
+			}
+		});
+
 		mediaPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
 			@Override
 			public void onCompletion(MediaPlayer mediaPlayer) {
@@ -1667,6 +1759,7 @@ public class DownloadService extends Service {
 							downloadFile.setPlaying(true);
 						} else {
 							Log.i(TAG, "Requesting restart from " + pos + " of " + duration);
+							Log.i(TAG, "Rebuffer " + downloadFile.addRebuffer() + " of " + downloadFile);
 							reset();
 							bufferTask = new BufferTask(downloadFile, pos, true);
 							bufferTask.execute();
@@ -1796,71 +1889,67 @@ public class DownloadService extends Service {
 			return;
 		}
 
-		// Need to download current playing and not casting?
-		if (currentPlaying != null && remoteState == LOCAL && currentPlaying != currentDownloading && !currentPlaying.isWorkDone()) {
-			// Cancel current download, if necessary.
-			if (currentDownloading != null) {
-				currentDownloading.cancelDownload();
+		// Sort everything which still needs downloading into lanes, in the order it should be started
+		Map<DownloadFile, Integer> wanted = new LinkedHashMap<DownloadFile, Integer>();
+		if(remoteState == LOCAL) {
+			// Need to download current playing and not casting?
+			if(currentPlaying != null && !currentPlaying.isWorkDone() && !currentPlaying.isFailedMax()) {
+				wanted.put(currentPlaying, DownloadScheduler.LANE_NOW_PLAYING);
 			}
 
-			currentDownloading = currentPlaying;
-			currentDownloading.download();
-			cleanupCandidates.add(currentDownloading);
-		}
-
-		// Find a suitable target for download.
-		else if (currentDownloading == null || currentDownloading.isWorkDone() || currentDownloading.isFailed() && ((!downloadList.isEmpty() && remoteState == LOCAL) || !backgroundDownloadList.isEmpty())) {
-			currentDownloading = null;
 			int n = size();
-
-			int preloaded = 0;
-
-			if(n != 0 && remoteState == LOCAL) {
+			if(n != 0) {
 				int start = currentPlaying == null ? 0 : getCurrentPlayingIndex();
 				if(start == -1) {
 					start = 0;
 				}
+				int preloadCount = Util.getPreloadCount(this);
+				int preloaded = 0;
 				int i = start;
 				do {
 					DownloadFile downloadFile = downloadList.get(i);
-					if (!downloadFile.isWorkDone() && !downloadFile.isFailedMax()) {
-						if (downloadFile.shouldSave() || preloaded < Util.getPreloadCount(this)) {
-							currentDownloading = downloadFile;
-							currentDownloading.download();
-							cleanupCandidates.add(currentDownloading);
-							if(i == (start + 1)) {
-								setNextPlayerState(DOWNLOADING);
+					if(downloadFile != currentPlaying) {
+						if(!downloadFile.isWorkDone() && !downloadFile.isFailedMax() && !wanted.containsKey(downloadFile)) {
+							if(preloaded < preloadCount) {
+								wanted.put(downloadFile, preloaded == 0 ? DownloadScheduler.LANE_NEXT_UP : DownloadScheduler.LANE_PRELOAD);
+							} else if(downloadFile.shouldSave()) {
+								wanted.put(downloadFile, DownloadScheduler.LANE_BACKGROUND);
 							}
-							break;
 						}
-					} else if (currentPlaying != downloadFile) {
 						preloaded++;
 					}
 
 					i = (i + 1) % n;
 				} while (i != start);
 			}
+		}
 
-			if((preloaded + 1 == n || preloaded >= Util.getPreloadCount(this) || downloadList.isEmpty() || remoteState != LOCAL) && !backgroundDownloadList.isEmpty()) {
-				for(int i = 0; i < backgroundDownloadList.size(); i++) {
-					DownloadFile downloadFile = backgroundDownloadList.get(i);
-					if(downloadFile.isWorkDone() && (!downloadFile.shouldSave() || downloadFile.isSaved()) || downloadFile.isFailedMax()) {
-						// Don't need to keep list like active song list
-						backgroundDownloadList.remove(i);
-						revision++;
-						i--;
-					} else {
-						currentDownloading = downloadFile;
-						currentDownloading.download();
-						cleanupCandidates.add(currentDownloading);
-						break;
-					}
-				}
+		for(int i = 0; i < backgroundDownloadList.size(); i++) {
+			DownloadFile downloadFile = backgroundDownloadList.get(i);
+			if(downloadFile.isWorkDone() && (!downloadFile.shouldSave() || downloadFile.isSaved()) || downloadFile.isFailedMax()) {
+				// Don't need to keep list like active song list
+				backgroundDownloadList.remove(i);
+				revision++;
+				i--;
+			} else if(!wanted.containsKey(downloadFile)) {
+				wanted.put(downloadFile, DownloadScheduler.LANE_BACKGROUND);
+			}
+		}
+
+		// Give the current song every connection while playback is waiting on it
+		int maxDownloads = Util.getMaxDownloads(this);
+		if(playerState == DOWNLOADING && wanted.containsKey(currentPlaying)) {
+			maxDownloads = 1;
+		}
+		for(DownloadFile downloadFile: downloadScheduler.schedule(wanted, maxDownloads)) {
+			cleanupCandidates.add(downloadFile);
+			if(downloadFile == nextPlaying) {
+				setNextPlayerState(DOWNLOADING);
 			}
 		}
 
 		if(!backgroundDownloadList.isEmpty()) {
-			Notifications.showDownloadingNotification(this, this, handler, currentDownloading, backgroundDownloadList.size());
+			Notifications.showDownloadingNotification(this, this, handler, downloadScheduler.getCurrent(), backgroundDownloadList.size());
 			downloadOngoing = true;
 		} else if(backgroundDownloadList.isEmpty() && downloadOngoing) {
 			Notifications.hideDownloadingNotification(this, this, handler);
@@ -1929,7 +2018,7 @@ public class DownloadService extends Service {
 		Iterator<DownloadFile> iterator = cleanupCandidates.iterator();
 		while (iterator.hasNext()) {
 			DownloadFile downloadFile = iterator.next();
-			if (downloadFile != currentPlaying && downloadFile != currentDownloading) {
+			if (downloadFile != currentPlaying && !downloadScheduler.isActive(downloadFile)) {
 				if (downloadFile.cleanup()) {
 					iterator.remove();
 				}
@@ -2099,7 +2188,7 @@ public class DownloadService extends Service {
 
 		SharedPreferences prefs = Util.getPreferences(this);
 		try {
-			float[] rg = BastpUtil.getReplayGainValues(downloadFile.getFile().getCanonicalPath()); /* track, album */
+			float[] rg = FileUtil.getMediaMetadataCache(this).getReplayGain(downloadFile.getFile()); /* track, album */
 			float adjust = 0f;
 			if (prefs.getBoolean(Constants.PREFERENCES_KEY_REPLAY_GAIN, false)) {
 				boolean singleAlbum = false;
@@ -2178,9 +2267,15 @@ public class DownloadService extends Service {
 	private class BufferTask extends SilentBackgroundTask<Void> {
 		private final DownloadFile downloadFile;
 		private final int position;
-		private final long expectedFileSize;
+		private final long startOffset;
+		private final long minBufferSize;
+		private final long fallbackBufferSize;
+		private final long playbackBytesPerSecond;
 		private final File partialFile;
 		private final boolean start;
+		private long startTime;
+		private long startSize;
+		private long lastLog;
 
 		public BufferTask(DownloadFile downloadFile, int position, boolean start) {
 			super(instance);
@@ -2189,21 +2284,27 @@ public class DownloadService extends Service {
 			partialFile = downloadFile.getPartialFile();
 			this.start = start;
 
-			// Calculate roughly how many bytes BUFFER_LENGTH_SECONDS corresponds to.
 			int bitRate = downloadFile.getBitRate();
-			long byteCount = Math.max(100000, bitRate * 1024L / 8L * 5L);
-
-			// Find out how large the file should grow before resuming playback.
+			playbackBytesPerSecond = bitRate * 1000L / 8L;
+			startOffset = (long) position * bitRate / 8L;
+			minBufferSize = Math.max(MIN_BUFFER_BYTES, playbackBytesPerSecond * MIN_BUFFER_SECONDS);
+			// Used until there is a transfer rate to go on
+			fallbackBufferSize = Math.max(100000, playbackBytesPerSecond * 5L);
 			Log.i(TAG, "Buffering from position " + position + " and bitrate " + bitRate);
-			expectedFileSize = (position * bitRate / 8) + byteCount;
 		}
 
 		@Override
 		public Void doInBackground() throws InterruptedException {
 			setPlayerState(DOWNLOADING);
+			downloadFile.requireSequential();
+			// Any hole after where playback starts is filled first, so only the buffer has to be waited on
+			downloadFile.fillAfter(startOffset);
+			startTime = System.currentTimeMillis();
+			startSize = downloadFile.getAvailableEnd(startOffset);
 
 			while (!bufferComplete()) {
-				Thread.sleep(1000L);
+				// Woken up by the download as soon as more of the file is written
+				downloadFile.waitForProgress(1000L);
 				if (isCancelled() || downloadFile.isFailedMax()) {
 					return null;
 				} else if(!downloadFile.isFailedMax() && !downloadFile.isDownloading()) {
@@ -2211,35 +2312,84 @@ public class DownloadService extends Service {
 				}
 			}
 			doPlay(downloadFile, position, start);
+			// Start back up anything held back while buffering
+			checkDownloads();
 
 			return null;
 		}
 
 		private boolean bufferComplete() {
 			boolean completeFileAvailable = downloadFile.isWorkDone();
-			long size = partialFile.length();
+			// Only what follows on from where playback starts counts, there may be holes before or after it
+			long size = downloadFile.getAvailableEnd(startOffset);
+			long expectedFileSize = getExpectedFileSize(size);
 
-			Log.i(TAG, "Buffering " + partialFile + " (" + size + "/" + expectedFileSize + ", " + completeFileAvailable + ")");
+			long now = System.currentTimeMillis();
+			if(now - lastLog >= 1000L || completeFileAvailable || size >= expectedFileSize) {
+				Log.i(TAG, "Buffering " + partialFile + " (" + size + "/" + expectedFileSize + ", " + completeFileAvailable + ")");
+				lastLog = now;
+			}
 			return completeFileAvailable || size >= expectedFileSize;
 		}
 
+		/**
+		 * Find out how large the file should grow before playback can start without catching up to the download.
+		 * Once the download is faster than playback only a small buffer is needed, otherwise enough has to be there
+		 * that the rest of the song finishes downloading before playback gets to it.
+		 */
+		private long getExpectedFileSize(long size) {
+			long bytesPerSecond = downloadFile.getBytesPerSecond();
+			long elapsed = System.currentTimeMillis() - startTime;
+			if(bytesPerSecond <= 0 && elapsed >= MIN_MEASURE_TIME) {
+				// Download hasn't measured its own rate yet, go off of what has arrived while waiting
+				bytesPerSecond = (size - startSize) * 1000L / elapsed;
+			}
+			if(bytesPerSecond <= 0 || playbackBytesPerSecond <= 0) {
+				return startOffset + fallbackBufferSize;
+			}
+
+			long totalSize = Math.max(downloadFile.getEstimatedSize(), startOffset + minBufferSize);
+			long playbackRemaining = totalSize - startOffset;
+			long downloadedByEnd = (long) (playbackRemaining * DOWNLOAD_RATE_MARGIN * bytesPerSecond / playbackBytesPerSecond);
+			return Math.max(startOffset + minBufferSize, totalSize - downloadedByEnd);
+		}
+
 		@Override
 		public String toString() {
 			return "BufferTask (" + downloadFile + ")";
 		}
 	}
 
+	private void updateDownloadingNotification() {
+		// Several downloads can report at once, only one refresh needs to be waiting
+		if(downloadOngoing && downloadNotificationPending.compareAndSet(false, true)) {
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					downloadNotificationPending.set(false);
+					if(downloadOngoing) {
+						Notifications.showDownloadingNotification(DownloadService.this, DownloadService.this, handler, downloadScheduler.getCurrent(), backgroundDownloadList.size());
+					}
+				}
+			});
+		}
+	}
+
 	private class CheckCompletionTask extends SilentBackgroundTask<Void> {
 		private final DownloadFile downloadFile;
 		private final File partialFile;
+		private final long bufferSize;
+		private long lastLog = 0;
 
 		public CheckCompletionTask(DownloadFile downloadFile) {
 			super(instance);
 			this.downloadFile = downloadFile;
 			if(downloadFile != null) {
 				partialFile = downloadFile.getPartialFile();
+				bufferSize = Math.max(100000, downloadFile.getBitRate() * 1000L / 8L * NEXT_BUFFER_SECONDS);
 			} else {
 				partialFile = null;
+				bufferSize = 0;
 			}
 		}
 
@@ -2249,10 +2399,9 @@ public class DownloadService extends Service {
 				return null;
 			}
 
-			// Do an initial sleep so this prepare can't compete with main prepare
-			Thread.sleep(5000L);
 			while (!bufferComplete()) {
-				Thread.sleep(5000L);
+				// Woken up by the download as the file grows, only the player state still needs checking every so often
+				downloadFile.waitForProgress(5000L);
 				if (isCancelled()) {
 					return null;
 				}
@@ -2269,8 +2418,18 @@ public class DownloadService extends Service {
 
 		private boolean bufferComplete() {
 			boolean completeFileAvailable = downloadFile.isWorkDone();
-			Log.i(TAG, "Buffering next " + partialFile + " (" + partialFile.length() + "): " + completeFileAvailable);
-			return completeFileAvailable && (playerState == PlayerState.STARTED || playerState == PlayerState.PAUSED);
+			// Enough to start on can be played through the proxy while the rest downloads
+			long size = downloadFile.getAvailableEnd(0);
+			boolean buffered = completeFileAvailable || (size >= bufferSize && !downloadFile.isFailed());
+
+			long now = System.currentTimeMillis();
+			if(now - lastLog >= 5000L || buffered) {
+				Log.i(TAG, "Buffering next " + partialFile + " (" + size + "/" + bufferSize + "): " + completeFileAvailable);
+				lastLog = now;
+			}
+
+			// Waiting on the main prepare to finish keeps this one from competing with it
+			return buffered && (playerState == PlayerState.STARTED || playerState == PlayerState.PAUSED);
 		}
 
 		@Override
@@ -101,6 +101,8 @@ public interface MusicService {
 
     HttpResponse getDownloadInputStream(Context context, MusicDirectory.Entry song, long offset, int maxBitrate, SilentBackgroundTask task) throws Exception;
 
+	HttpResponse getDownloadInputStream(Context context, MusicDirectory.Entry song, long start, long end, int maxBitrate, SilentBackgroundTask task) throws Exception;
+
 	String getMusicUrl(Context context, MusicDirectory.Entry song, int maxBitrate) throws Exception;
 
 	String getVideoUrl(int maxBitrate, Context context, String id);
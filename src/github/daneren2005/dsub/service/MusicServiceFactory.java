@@ -27,10 +27,14 @@ import github.daneren2005.dsub.util.Util;
  */
 public class MusicServiceFactory {
 
-    private static final MusicService REST_MUSIC_SERVICE = new CachedMusicService(new RESTMusicService());
+    private static final CachedMusicService REST_MUSIC_SERVICE = new CachedMusicService(new RESTMusicService());
     private static final MusicService OFFLINE_MUSIC_SERVICE = new OfflineMusicService();
 
     public static MusicService getMusicService(Context context) {
         return Util.isOffline(context) ? OFFLINE_MUSIC_SERVICE : REST_MUSIC_SERVICE;
     }
+
+	public static CachedMusicService getCachedMusicService() {
+		return REST_MUSIC_SERVICE;
+	}
 }
@@ -24,7 +24,6 @@ import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -54,6 +53,7 @@ import github.daneren2005.dsub.domain.Share;
 import github.daneren2005.dsub.domain.User;
 import github.daneren2005.dsub.util.Constants;
 import github.daneren2005.dsub.util.FileUtil;
+import github.daneren2005.dsub.util.OfflineCatalog;
 import github.daneren2005.dsub.util.ProgressListener;
 import github.daneren2005.dsub.util.SilentBackgroundTask;
 import github.daneren2005.dsub.util.Util;
@@ -82,13 +82,16 @@ public class OfflineMusicService implements MusicService {
     @Override
     public Indexes getIndexes(String musicFolderId, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
         List<Artist> artists = new ArrayList<Artist>();
-        File root = FileUtil.getMusicDirectory(context);
-        for (File file : FileUtil.listFiles(root)) {
-            if (file.isDirectory()) {
+        OfflineCatalog catalog = FileUtil.getOfflineCatalog(context);
+        if (refresh) {
+            catalog.invalidate();
+        }
+        for (OfflineCatalog.Record record : catalog.list(catalog.getRoot())) {
+            if (record.directory) {
                 Artist artist = new Artist();
-                artist.setId(file.getPath());
-                artist.setIndex(file.getName().substring(0, 1));
-                artist.setName(file.getName());
+                artist.setId(record.file.getPath());
+                artist.setIndex(record.name.substring(0, 1));
+                artist.setName(record.name);
                 artists.add(artist);
             }
         }
@@ -109,11 +112,25 @@ public class OfflineMusicService implements MusicService {
 
 		Set<String> names = new HashSet<String>();
 
-		for (File file : FileUtil.listMediaFiles(dir)) {
-			String name = getName(file);
-			if (name != null & !names.contains(name)) {
-				names.add(name);
-				result.addChild(createEntry(context, file, name, true, isPodcast));
+		OfflineCatalog catalog = FileUtil.getOfflineCatalog(context);
+		if(refresh) {
+			catalog.invalidate();
+		}
+		List<OfflineCatalog.Record> records = catalog.list(dir);
+		if(records != null) {
+			for (OfflineCatalog.Record record : records) {
+				if (record.name != null && names.add(record.name)) {
+					result.addChild(createEntry(context, record, true, isPodcast));
+				}
+			}
+		} else {
+			// Podcasts and anything else outside of the music directory
+			for (File file : FileUtil.listMediaFiles(dir)) {
+				String name = getName(file);
+				if (name != null & !names.contains(name)) {
+					names.add(name);
+					result.addChild(createEntry(context, file, name, true, isPodcast));
+				}
 			}
 		}
 		result.sortChildren(Util.getPreferences(context).getBoolean(Constants.PREFERENCES_KEY_CUSTOM_SORT_ENABLED, true));
@@ -144,13 +161,46 @@ public class OfflineMusicService implements MusicService {
         return FileUtil.getBaseName(name);
     }
 
-	private MusicDirectory.Entry createEntry(Context context, File file, String name) {
-		return createEntry(context, file, name, true);
-	}
     private MusicDirectory.Entry createEntry(Context context, File file, String name, boolean load) {
         return createEntry(context, file, name, load, false);
     }
 	private MusicDirectory.Entry createEntry(Context context, File file, String name, boolean load, boolean isPodcast) {
+		return createEntry(context, file, name, file.isDirectory(), file.length(), load, isPodcast);
+	}
+	private MusicDirectory.Entry createEntry(Context context, File file, String name, boolean directory, long size, boolean load, boolean isPodcast) {
+		String artist = null;
+		String album = null;
+		String title = name;
+		int track = 0;
+		if (!directory) {
+			String root = FileUtil.getMusicDirectory(context).getPath();
+			File artistFolder = file.getParentFile().getParentFile();
+			File albumFolder = file.getParentFile();
+			if(artistFolder.getPath().equals(root)) {
+				artist = albumFolder.getName();
+			} else {
+				artist = artistFolder.getName();
+			}
+			album = albumFolder.getName();
+
+			int index = name.indexOf('-');
+			if(index != -1) {
+				try {
+					track = Integer.parseInt(name.substring(0, index));
+					title = title.substring(index + 1);
+				} catch(Exception e) {
+					// Failed parseInt, just means track filled out
+				}
+			}
+		}
+
+		return createEntry(context, file, directory, size, artist, album, title, track, load, isPodcast);
+	}
+	private MusicDirectory.Entry createEntry(Context context, OfflineCatalog.Record record, boolean load, boolean isPodcast) {
+		// The catalog already parsed these out of the path when it listed the folder
+		return createEntry(context, record.file, record.directory, record.size, record.artist, record.album, record.title, record.track, load, isPodcast);
+	}
+	private MusicDirectory.Entry createEntry(Context context, File file, boolean directory, long size, String artist, String album, String title, int track, boolean load, boolean isPodcast) {
 		MusicDirectory.Entry entry;
 		if(isPodcast) {
 			PodcastEpisode episode = new PodcastEpisode();
@@ -159,38 +209,24 @@ public class OfflineMusicService implements MusicService {
 		} else {
 			entry = new MusicDirectory.Entry();
 		}
-		entry.setDirectory(file.isDirectory());
+		entry.setDirectory(directory);
 		entry.setId(file.getPath());
 		entry.setParent(file.getParent());
-		entry.setSize(file.length());
+		entry.setSize(size);
 		String root = FileUtil.getMusicDirectory(context).getPath();
 		if(!file.getParentFile().getParentFile().getPath().equals(root)) {
 			entry.setGrandParent(file.getParentFile().getParent());
 		}
 		entry.setPath(file.getPath().replaceFirst("^" + root + "/" , ""));
-		String title = name;
-		if (file.isFile()) {
-			File artistFolder = file.getParentFile().getParentFile();
-			File albumFolder = file.getParentFile();
-			if(artistFolder.getPath().equals(root)) {
-				entry.setArtist(albumFolder.getName());
-			} else {
-				entry.setArtist(artistFolder.getName());
-			}
-			entry.setAlbum(albumFolder.getName());
-
-			int index = name.indexOf('-');
-			if(index != -1) {
-				try {
-					entry.setTrack(Integer.parseInt(name.substring(0, index)));
-					title = title.substring(index + 1);
-				} catch(Exception e) {
-					// Failed parseInt, just means track filled out
-				}
+		if (!directory) {
+			entry.setArtist(artist);
+			entry.setAlbum(album);
+			if(track > 0) {
+				entry.setTrack(track);
 			}
 
 			if(load) {
-				entry.loadMetadata(file);
+				entry.loadMetadata(context, file);
 			}
 		}
 
@@ -221,6 +257,11 @@ public class OfflineMusicService implements MusicService {
 		throw new OfflineException(ERRORMSG);
 	}
 
+	@Override
+	public HttpResponse getDownloadInputStream(Context context, MusicDirectory.Entry song, long start, long end, int maxBitrate, SilentBackgroundTask task) throws Exception {
+		throw new OfflineException(ERRORMSG);
+	}
+
 	@Override
 	public String getMusicUrl(Context context, MusicDirectory.Entry song, int maxBitrate) throws Exception {
 		throw new OfflineException(ERRORMSG);
@@ -241,23 +282,37 @@ public class OfflineMusicService implements MusicService {
 		List<Artist> artists = new ArrayList<Artist>();
 		List<MusicDirectory.Entry> albums = new ArrayList<MusicDirectory.Entry>();
 		List<MusicDirectory.Entry> songs = new ArrayList<MusicDirectory.Entry>();
-        File root = FileUtil.getMusicDirectory(context);
-		int closeness = 0;
-        for (File artistFile : FileUtil.listFiles(root)) {
-			String artistName = artistFile.getName();
-            if (artistFile.isDirectory()) {
-				if((closeness = matchCriteria(criteria, artistName)) > 0) {
-					Artist artist = new Artist();
-					artist.setId(artistFile.getPath());
-					artist.setIndex(artistFile.getName().substring(0, 1));
-					artist.setName(artistName);
-					artist.setCloseness(closeness);
-					artists.add(artist);
-				}
-				
-				recursiveAlbumSearch(artistName, artistFile, criteria, context, albums, songs);
-            }
-        }
+		OfflineCatalog catalog = FileUtil.getOfflineCatalog(context);
+		File root = catalog.getRoot();
+		int closeness;
+		for (OfflineCatalog.Record record : catalog.getAll()) {
+			File parent = record.file.getParentFile();
+			if (record.name == null || (!record.directory && root.equals(parent))) {
+				continue;
+			}
+
+			if ((closeness = matchCriteria(criteria, record.name)) <= 0) {
+				continue;
+			}
+
+			if (record.directory && root.equals(parent)) {
+				Artist artist = new Artist();
+				artist.setId(record.file.getPath());
+				artist.setIndex(record.name.substring(0, 1));
+				artist.setName(record.name);
+				artist.setCloseness(closeness);
+				artists.add(artist);
+			} else if (record.directory) {
+				MusicDirectory.Entry album = createEntry(context, record, true, false);
+				album.setArtist(record.artist);
+				album.setCloseness(closeness);
+				albums.add(album);
+			} else {
+				MusicDirectory.Entry song = createEntry(context, record, true, false);
+				song.setCloseness(closeness);
+				songs.add(song);
+			}
+		}
 		
 		Collections.sort(artists, new Comparator<Artist>() {
 			public int compare(Artist lhs, Artist rhs) {
@@ -307,48 +362,6 @@ public class OfflineMusicService implements MusicService {
 		throw new OfflineException(ERRORMSG);
 	}
 
-	private void recursiveAlbumSearch(String artistName, File file, SearchCritera criteria, Context context, List<MusicDirectory.Entry> albums, List<MusicDirectory.Entry> songs) {
-		int closeness;
-		for(File albumFile : FileUtil.listMediaFiles(file)) {
-			if(albumFile.isDirectory()) {
-				String albumName = getName(albumFile);
-				if((closeness = matchCriteria(criteria, albumName)) > 0) {
-					MusicDirectory.Entry album = createEntry(context, albumFile, albumName);
-					album.setArtist(artistName);
-					album.setCloseness(closeness);
-					albums.add(album);
-				}
-
-				for(File songFile : FileUtil.listMediaFiles(albumFile)) {
-					String songName = getName(songFile);
-					if(songName == null) {
-						continue;
-					}
-
-					if(songFile.isDirectory()) {
-						recursiveAlbumSearch(artistName, songFile, criteria, context, albums, songs);
-					}
-					else if((closeness = matchCriteria(criteria, songName)) > 0){
-						MusicDirectory.Entry song = createEntry(context, albumFile, songName);
-						song.setArtist(artistName);
-						song.setAlbum(albumName);
-						song.setCloseness(closeness);
-						songs.add(song);
-					}
-				}
-			}
-			else {
-				String songName = getName(albumFile);
-				if((closeness = matchCriteria(criteria, songName)) > 0) {
-					MusicDirectory.Entry song = createEntry(context, albumFile, songName);
-					song.setArtist(artistName);
-					song.setAlbum(songName);
-					song.setCloseness(closeness);
-					songs.add(song);
-				}
-			}
-		}
-	}
 	private int matchCriteria(SearchCritera criteria, String name) {
 		String query = criteria.getQuery().toLowerCase();
 		String[] queryParts = query.split(" ");
@@ -648,17 +661,20 @@ public class OfflineMusicService implements MusicService {
 
 	@Override
     public MusicDirectory getRandomSongs(int size, String folder, String genre, String startYear, String endYear, Context context, ProgressListener progressListener) throws Exception {
-        File root = FileUtil.getMusicDirectory(context);
-        List<File> children = new LinkedList<File>();
-        listFilesRecursively(root, children);
+        List<OfflineCatalog.Record> children = new ArrayList<OfflineCatalog.Record>();
+        for (OfflineCatalog.Record record : FileUtil.getOfflineCatalog(context).getFiles()) {
+            if (record.name != null) {
+                children.add(record);
+            }
+        }
         MusicDirectory result = new MusicDirectory();
 
         if (children.isEmpty()) {
             return result;
         }
         for (int i = 0; i < size; i++) {
-            File file = children.get(random.nextInt(children.size()));
-            result.addChild(createEntry(context, file, getName(file)));
+            OfflineCatalog.Record record = children.get(random.nextInt(children.size()));
+            result.addChild(createEntry(context, record, true, false));
         }
 
         return result;
@@ -803,13 +819,4 @@ public class OfflineMusicService implements MusicService {
 		throw new OfflineException(ERRORMSG);
     }
 
-    private void listFilesRecursively(File parent, List<File> children) {
-        for (File file : FileUtil.listMediaFiles(parent)) {
-            if (file.isFile()) {
-                children.add(file);
-            } else {
-                listFilesRecursively(file, children);
-            }
-        }
-    }
 }
@@ -28,8 +28,11 @@ import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.http.Header;
@@ -75,6 +78,7 @@ import github.daneren2005.dsub.service.parser.ChatMessageParser;
 import github.daneren2005.dsub.service.parser.ErrorParser;
 import github.daneren2005.dsub.service.parser.GenreParser;
 import github.daneren2005.dsub.service.parser.IndexesParser;
+import github.daneren2005.dsub.service.parser.JsonPullParser;
 import github.daneren2005.dsub.service.parser.JukeboxStatusParser;
 import github.daneren2005.dsub.service.parser.LicenseParser;
 import github.daneren2005.dsub.service.parser.LyricsParser;
@@ -93,6 +97,7 @@ import github.daneren2005.dsub.service.parser.StarredListParser;
 import github.daneren2005.dsub.service.parser.UserParser;
 import github.daneren2005.dsub.service.ssl.SSLSocketFactory;
 import github.daneren2005.dsub.service.ssl.TrustSelfSignedStrategy;
+import github.daneren2005.dsub.util.AdaptiveBitrate;
 import github.daneren2005.dsub.util.BackgroundTask;
 import github.daneren2005.dsub.util.SilentBackgroundTask;
 import github.daneren2005.dsub.util.Constants;
@@ -128,6 +133,10 @@ public class RESTMusicService implements MusicService {
     private String redirectTo;
     private final ThreadSafeClientConnManager connManager;
 	private Integer instance;
+	// Shared by every instance in this process, so screens and downloads asking for the same thing at once only fetch it once
+	private static final RequestCoalescer coalescer = new RequestCoalescer();
+	// Servers which sent back JSON that couldn't be read, which are only asked for XML from then on
+	private static final Set<Integer> xmlOnly = Collections.synchronizedSet(new HashSet<Integer>());
 
     public RESTMusicService() {
 
@@ -144,8 +153,8 @@ public class RESTMusicService implements MusicService {
 
         // Create and initialize scheme registry
         SchemeRegistry schemeRegistry = new SchemeRegistry();
-        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
-        schemeRegistry.register(new Scheme("https", createSSLSocketFactory(), 443));
+        schemeRegistry.register(new Scheme("http", TimedSocketFactory.wrap(PlainSocketFactory.getSocketFactory()), 80));
+        schemeRegistry.register(new Scheme("https", TimedSocketFactory.wrap(createSSLSocketFactory()), 443));
 
         // Create an HttpClient with the ThreadSafeClientConnManager.
         // This connection manager must be used if more than one thread will
@@ -185,13 +194,13 @@ public class RESTMusicService implements MusicService {
         }
     }
 
-    public List<MusicFolder> getMusicFolders(boolean refresh, Context context, ProgressListener progressListener) throws Exception {
-        Reader reader = getReader(context, progressListener, "getMusicFolders", null);
-        try {
-            return new MusicFoldersParser(context, getInstance(context)).parse(reader, progressListener);
-        } finally {
-            Util.close(reader);
-        }
+    public List<MusicFolder> getMusicFolders(boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
+		return getParsed(context, progressListener, refresh, "getMusicFolders", null, new ResponseParser<List<MusicFolder>>() {
+			@Override
+			public List<MusicFolder> parse(Reader reader, ProgressListener listener) throws Exception {
+				return new MusicFoldersParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
     }
 
 	@Override
@@ -225,6 +234,10 @@ public class RESTMusicService implements MusicService {
 
     @Override
     public Indexes getIndexes(String musicFolderId, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
+		return getIndexes(musicFolderId, 0L, context, progressListener);
+	}
+
+	public Indexes getIndexes(String musicFolderId, long ifModifiedSince, final Context context, final ProgressListener progressListener) throws Exception {
         List<String> parameterNames = new ArrayList<String>();
         List<Object> parameterValues = new ArrayList<Object>();
 
@@ -233,16 +246,23 @@ public class RESTMusicService implements MusicService {
             parameterValues.add(musicFolderId);
         }
 
-        Reader reader = getReader(context, progressListener, Util.isTagBrowsing(context, getInstance(context)) ? "getArtists" : "getIndexes", null, parameterNames, parameterValues);
-        try {
-            return new IndexesParser(context, getInstance(context)).parse(reader, progressListener);
-        } finally {
-            Util.close(reader);
-        }
+		// getArtists has no equivalent, so tag browsing always gets the full list
+		boolean tagBrowsing = Util.isTagBrowsing(context, getInstance(context));
+		if(ifModifiedSince > 0 && !tagBrowsing) {
+			parameterNames.add("ifModifiedSince");
+			parameterValues.add(ifModifiedSince);
+		}
+
+		return getParsed(context, progressListener, false, tagBrowsing ? "getArtists" : "getIndexes", null, parameterNames, parameterValues, new ResponseParser<Indexes>() {
+			@Override
+			public Indexes parse(Reader reader, ProgressListener listener) throws Exception {
+				return new IndexesParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
     }
 
     @Override
-    public MusicDirectory getMusicDirectory(String id, String name, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
+    public MusicDirectory getMusicDirectory(String id, final String name, boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
 		SharedPreferences prefs = Util.getPreferences(context);
 		String cacheLocn = prefs.getString(Constants.PREFERENCES_KEY_CACHE_LOCATION, null);
 		if(id.indexOf(cacheLocn) != -1) {
@@ -256,32 +276,32 @@ public class RESTMusicService implements MusicService {
 			}
 		}
 
-        Reader reader = getReader(context, progressListener, "getMusicDirectory", null, "id", id);
-        try {
-            return new MusicDirectoryParser(context, getInstance(context)).parse(name, reader, progressListener);
-        } finally {
-            Util.close(reader);
-        }
+		return getParsed(context, progressListener, refresh, "getMusicDirectory", null, "id", id, new ResponseParser<MusicDirectory>() {
+			@Override
+			public MusicDirectory parse(Reader reader, ProgressListener listener) throws Exception {
+				return new MusicDirectoryParser(context, getInstance(context)).parse(name, reader, listener);
+			}
+		});
     }
 
 	@Override
-	public MusicDirectory getArtist(String id, String name, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
-		Reader reader = getReader(context, progressListener, "getArtist", null, "id", id);
-		try {
-			return new MusicDirectoryParser(context, getInstance(context)).parse(name, reader, progressListener);
-		} finally {
-			Util.close(reader);
-		}
+	public MusicDirectory getArtist(String id, final String name, boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
+		return getParsed(context, progressListener, refresh, "getArtist", null, "id", id, new ResponseParser<MusicDirectory>() {
+			@Override
+			public MusicDirectory parse(Reader reader, ProgressListener listener) throws Exception {
+				return new MusicDirectoryParser(context, getInstance(context)).parse(name, reader, listener);
+			}
+		});
 	}
 
 	@Override
-	public MusicDirectory getAlbum(String id, String name, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
-		Reader reader = getReader(context, progressListener, "getAlbum", null, "id", id);
-		try {
-			return new MusicDirectoryParser(context, getInstance(context)).parse(name, reader, progressListener);
-		} finally {
-			Util.close(reader);
-		}
+	public MusicDirectory getAlbum(String id, final String name, boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
+		return getParsed(context, progressListener, refresh, "getAlbum", null, "id", id, new ResponseParser<MusicDirectory>() {
+			@Override
+			public MusicDirectory parse(Reader reader, ProgressListener listener) throws Exception {
+				return new MusicDirectoryParser(context, getInstance(context)).parse(name, reader, listener);
+			}
+		});
 	}
 
 	@Override
@@ -297,55 +317,56 @@ public class RESTMusicService implements MusicService {
     /**
      * Search using the "search" REST method.
      */
-    private SearchResult searchOld(SearchCritera critera, Context context, ProgressListener progressListener) throws Exception {
+    private SearchResult searchOld(SearchCritera critera, final Context context, ProgressListener progressListener) throws Exception {
         List<String> parameterNames = Arrays.asList("any", "songCount");
         List<Object> parameterValues = Arrays.<Object>asList(critera.getQuery(), critera.getSongCount());
-        Reader reader = getReader(context, progressListener, "search", null, parameterNames, parameterValues);
-        try {
-            return new SearchResultParser(context, getInstance(context)).parse(reader, progressListener);
-        } finally {
-            Util.close(reader);
-        }
+		return getParsed(context, progressListener, "search", null, parameterNames, parameterValues, new ResponseParser<SearchResult>() {
+			@Override
+			public SearchResult parse(Reader reader, ProgressListener listener) throws Exception {
+				return new SearchResultParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
     }
 
     /**
      * Search using the "search2" REST method, available in 1.4.0 and later.
      */
-    private SearchResult searchNew(SearchCritera critera, Context context, ProgressListener progressListener) throws Exception {
+    private SearchResult searchNew(SearchCritera critera, final Context context, ProgressListener progressListener) throws Exception {
         checkServerVersion(context, "1.4", null);
 
         List<String> parameterNames = Arrays.asList("query", "artistCount", "albumCount", "songCount");
         List<Object> parameterValues = Arrays.<Object>asList(critera.getQuery(), critera.getArtistCount(),
                                                              critera.getAlbumCount(), critera.getSongCount());
-        Reader reader = getReader(context, progressListener, Util.isTagBrowsing(context, getInstance(context)) ? "search3" : "search2", null, parameterNames, parameterValues);
-        try {
-            return new SearchResult2Parser(context, getInstance(context)).parse(reader, progressListener);
-        } finally {
-            Util.close(reader);
-        }
+		// Not shared with other callers since searches are one off and not cached
+		return getParsed(context, progressListener, Util.isTagBrowsing(context, getInstance(context)) ? "search3" : "search2", null, parameterNames, parameterValues, new ResponseParser<SearchResult>() {
+			@Override
+			public SearchResult parse(Reader reader, ProgressListener listener) throws Exception {
+				return new SearchResult2Parser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
     }
 
     @Override
-    public MusicDirectory getPlaylist(boolean refresh, String id, String name, Context context, ProgressListener progressListener) throws Exception {
+    public MusicDirectory getPlaylist(boolean refresh, String id, String name, final Context context, final ProgressListener progressListener) throws Exception {
         HttpParams params = new BasicHttpParams();
         HttpConnectionParams.setSoTimeout(params, SOCKET_READ_TIMEOUT_GET_PLAYLIST);
 
-        Reader reader = getReader(context, progressListener, "getPlaylist", params, "id", id);
-        try {
-			return new PlaylistParser(context, getInstance(context)).parse(reader, progressListener);
-        } finally {
-            Util.close(reader);
-        }
+		return getParsed(context, progressListener, refresh, "getPlaylist", params, "id", id, new ResponseParser<MusicDirectory>() {
+			@Override
+			public MusicDirectory parse(Reader reader, ProgressListener listener) throws Exception {
+				return new PlaylistParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
     }
 
     @Override
-    public List<Playlist> getPlaylists(boolean refresh, Context context, ProgressListener progressListener) throws Exception {
-        Reader reader = getReader(context, progressListener, "getPlaylists", null);
-        try {
-            return new PlaylistsParser(context, getInstance(context)).parse(reader, progressListener);
-        } finally {
-            Util.close(reader);
-        }
+    public List<Playlist> getPlaylists(boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
+		return getParsed(context, progressListener, refresh, "getPlaylists", null, new ResponseParser<List<Playlist>>() {
+			@Override
+			public List<Playlist> parse(Reader reader, ProgressListener listener) throws Exception {
+				return new PlaylistsParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
     }
 
     @Override
@@ -459,13 +480,13 @@ public class RESTMusicService implements MusicService {
 	}
 
     @Override
-    public Lyrics getLyrics(String artist, String title, Context context, ProgressListener progressListener) throws Exception {
-        Reader reader = getReader(context, progressListener, "getLyrics", null, Arrays.asList("artist", "title"), Arrays.<Object>asList(artist, title));
-        try {
-            return new LyricsParser(context, getInstance(context)).parse(reader, progressListener);
-        } finally {
-            Util.close(reader);
-        }
+    public Lyrics getLyrics(String artist, String title, final Context context, final ProgressListener progressListener) throws Exception {
+		return getParsed(context, progressListener, false, "getLyrics", null, Arrays.asList("artist", "title"), Arrays.<Object>asList(artist, title), new ResponseParser<Lyrics>() {
+			@Override
+			public Lyrics parse(Reader reader, ProgressListener listener) throws Exception {
+				return new LyricsParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
     }
 
     @Override
@@ -491,7 +512,7 @@ public class RESTMusicService implements MusicService {
     }
 
     @Override
-    public MusicDirectory getAlbumList(String type, int size, int offset, Context context, ProgressListener progressListener) throws Exception {
+    public MusicDirectory getAlbumList(String type, int size, int offset, final Context context, final ProgressListener progressListener) throws Exception {
 		List<String> names = new ArrayList<String>();
 		List<Object> values = new ArrayList<Object>();
 
@@ -512,17 +533,16 @@ public class RESTMusicService implements MusicService {
 			}
 		}
 
-        Reader reader = getReader(context, progressListener, Util.isTagBrowsing(context, getInstance(context)) ? "getAlbumList2" : "getAlbumList",
-                                  null, names, values);
-        try {
-            return new AlbumListParser(context, getInstance(context)).parse(reader, progressListener);
-        } finally {
-            Util.close(reader);
-        }
+		return getParsed(context, progressListener, false, Util.isTagBrowsing(context, getInstance(context)) ? "getAlbumList2" : "getAlbumList", null, names, values, new ResponseParser<MusicDirectory>() {
+			@Override
+			public MusicDirectory parse(Reader reader, ProgressListener listener) throws Exception {
+				return new AlbumListParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
     }
 
 	@Override
-	public MusicDirectory getAlbumList(String type, String extra, int size, int offset, Context context, ProgressListener progressListener) throws Exception {
+	public MusicDirectory getAlbumList(String type, String extra, int size, int offset, final Context context, final ProgressListener progressListener) throws Exception {
 		checkServerVersion(context, "1.10.1", "This type of album list is not supported");
 
 		List<String> names = new ArrayList<String>();
@@ -553,7 +573,7 @@ public class RESTMusicService implements MusicService {
 		}
 
 		// Add folder if it was set and is non null
-		int instance = getInstance(context);
+		final int instance = getInstance(context);
 		if(Util.getAlbumListsPerFolder(context, instance)) {
 			String folderId = Util.getSelectedMusicFolderId(context, instance);
 			if(folderId != null) {
@@ -562,26 +582,26 @@ public class RESTMusicService implements MusicService {
 			}
 		}
 
-		Reader reader = getReader(context, progressListener, Util.isTagBrowsing(context, instance) ? "getAlbumList2" : "getAlbumList", null, names, values);
-		try {
-			return new AlbumListParser(context, instance).parse(reader, progressListener);
-		} finally {
-			Util.close(reader);
-		}
+		return getParsed(context, progressListener, false, Util.isTagBrowsing(context, instance) ? "getAlbumList2" : "getAlbumList", null, names, values, new ResponseParser<MusicDirectory>() {
+			@Override
+			public MusicDirectory parse(Reader reader, ProgressListener listener) throws Exception {
+				return new AlbumListParser(context, instance).parse(reader, listener);
+			}
+		});
 	}
 
 	@Override
-    public MusicDirectory getStarredList(Context context, ProgressListener progressListener) throws Exception {
-        Reader reader = getReader(context, progressListener, Util.isTagBrowsing(context, getInstance(context)) ? "getStarred2" : "getStarred", null);
-        try {
-            return new StarredListParser(context, getInstance(context)).parse(reader, progressListener);
-        } finally {
-            Util.close(reader);
-        }
+    public MusicDirectory getStarredList(final Context context, final ProgressListener progressListener) throws Exception {
+		return getParsed(context, progressListener, false, Util.isTagBrowsing(context, getInstance(context)) ? "getStarred2" : "getStarred", null, new ResponseParser<MusicDirectory>() {
+			@Override
+			public MusicDirectory parse(Reader reader, ProgressListener listener) throws Exception {
+				return new StarredListParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
     }
 
     @Override
-    public MusicDirectory getRandomSongs(int size, String musicFolderId, String genre, String startYear, String endYear, Context context, ProgressListener progressListener) throws Exception {
+    public MusicDirectory getRandomSongs(int size, String musicFolderId, String genre, String startYear, String endYear, final Context context, ProgressListener progressListener) throws Exception {
         HttpParams params = new BasicHttpParams();
         HttpConnectionParams.setSoTimeout(params, SOCKET_READ_TIMEOUT_GET_RANDOM_SONGS);
 
@@ -608,12 +628,13 @@ public class RESTMusicService implements MusicService {
 			values.add(endYear);
 		}
 
-        Reader reader = getReader(context, progressListener, "getRandomSongs", params, names, values);
-        try {
-            return new RandomSongsParser(context, getInstance(context)).parse(reader, progressListener);
-        } finally {
-            Util.close(reader);
-        }
+		// Not shared with other callers since each one wants a different set
+		return getParsed(context, progressListener, "getRandomSongs", params, names, values, new ResponseParser<MusicDirectory>() {
+			@Override
+			public MusicDirectory parse(Reader reader, ProgressListener listener) throws Exception {
+				return new RandomSongsParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
     }
 
 	private void checkServerVersion(Context context, String version, String text) throws ServerTooOldException {
@@ -637,80 +658,110 @@ public class RESTMusicService implements MusicService {
 	}
 
     @Override
-    public Bitmap getCoverArt(Context context, MusicDirectory.Entry entry, int size, ProgressListener progressListener, SilentBackgroundTask task) throws Exception {
-
-        // Synchronize on the entry so that we don't download concurrently for the same song.
-        synchronized (entry) {
-
-            // Use cached file, if existing.
-            Bitmap bitmap = FileUtil.getAlbumArtBitmap(context, entry, size);
-            if (bitmap != null) {
-                return bitmap;
-            }
-
-            String url = getRestUrl(context, "getCoverArt");
+    public Bitmap getCoverArt(final Context context, final MusicDirectory.Entry entry, int size, final ProgressListener progressListener, final SilentBackgroundTask task) throws Exception {
+		// Use cached file, if existing.
+		Bitmap bitmap = FileUtil.getAlbumArtBitmap(context, entry, size);
+		if (bitmap != null) {
+			return bitmap;
+		}
+
+		// Everyone asking for the same cover at once shares one download, whatever size they want it at
+		final List<String> parameterNames = Arrays.asList("id");
+		final List<Object> parameterValues = Arrays.<Object>asList(entry.getCoverArt());
+		byte[] bytes = coalescer.execute(RequestCoalescer.getKey(getInstance(context), "getCoverArt", parameterNames, parameterValues), task, new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				String url = getRestUrl(context, "getCoverArt");
+
+				InputStream in = null;
+				try {
+					HttpEntity entity = getEntityForURL(context, url, null, parameterNames, parameterValues, progressListener, task);
 
-            InputStream in = null;
-            try {
-                List<String> parameterNames = Arrays.asList("id");
-                List<Object> parameterValues = Arrays.<Object>asList(entry.getCoverArt());
-                HttpEntity entity = getEntityForURL(context, url, null, parameterNames, parameterValues, progressListener, task);
-
-				in = entity.getContent();
-				Header contentEncoding = entity.getContentEncoding();
-				if (contentEncoding != null && contentEncoding.getValue().equalsIgnoreCase("gzip")) {
-					in = new GZIPInputStream(in);
-				}
+					in = entity.getContent();
+					Header contentEncoding = entity.getContentEncoding();
+					if (contentEncoding != null && contentEncoding.getValue().equalsIgnoreCase("gzip")) {
+						in = new GZIPInputStream(in);
+					}
 
-                // If content type is XML, an error occured.  Get it.
-                String contentType = Util.getContentType(entity);
-                if (contentType != null && contentType.startsWith("text/xml")) {
-                    new ErrorParser(context, getInstance(context)).parse(new InputStreamReader(in, Constants.UTF_8));
-                    return null; // Never reached.
-                }
+					// If content type is XML, an error occured.  Get it.
+					String contentType = Util.getContentType(entity);
+					if (contentType != null && contentType.startsWith("text/xml")) {
+						new ErrorParser(context, getInstance(context)).parse(new InputStreamReader(in, Constants.UTF_8));
+						return null; // Never reached.
+					}
 
-                byte[] bytes = Util.toByteArray(in);
+					byte[] bytes;
+					AdaptiveBitrate.startTransfer();
+					try {
+						long start = System.currentTimeMillis();
+						bytes = Util.toByteArray(in);
+						AdaptiveBitrate.addSample(context, bytes.length, System.currentTimeMillis() - start);
+					} finally {
+						AdaptiveBitrate.endTransfer();
+					}
 
-				// Handle case where partial was downloaded before being cancelled
-				if(task != null && task.isCancelled()) {
-					return null;
-				}
+					// Handle case where partial was downloaded before being cancelled
+					if(task != null && task.isCancelled()) {
+						return null;
+					}
 
-				OutputStream out = null;
-				try {
-					out = new FileOutputStream(FileUtil.getAlbumArtFile(context, entry));
-					out.write(bytes);
+					OutputStream out = null;
+					try {
+						out = new FileOutputStream(FileUtil.getAlbumArtFile(context, entry));
+						out.write(bytes);
+					} finally {
+						Util.close(out);
+					}
+					return bytes;
 				} finally {
-					Util.close(out);
+					Util.close(in);
 				}
+			}
+		});
 
-				// Size == 0 -> only want to download
-				if(size == 0) {
-					return null;
-				} else {
-					return FileUtil.getSampledBitmap(bytes, size);
-				}
-            } finally {
-                Util.close(in);
-            }
-        }
+		// Whoever downloaded it only saved it for their own entry, which can be in a different album folder than ours
+		File albumArtFile = FileUtil.getAlbumArtFile(context, entry);
+		if(bytes != null && !albumArtFile.exists() && (task == null || !task.isCancelled())) {
+			OutputStream out = null;
+			try {
+				out = new FileOutputStream(albumArtFile);
+				out.write(bytes);
+			} finally {
+				Util.close(out);
+			}
+		}
+
+		// Size == 0 -> only want to download
+		if(bytes == null || size == 0) {
+			return null;
+		} else {
+			return FileUtil.getSampledBitmap(bytes, size);
+		}
     }
 
     @Override
     public HttpResponse getDownloadInputStream(Context context, MusicDirectory.Entry song, long offset, int maxBitrate, SilentBackgroundTask task) throws Exception {
+		return getDownloadInputStream(context, song, offset, -1, maxBitrate, task);
+	}
+
+	@Override
+	public HttpResponse getDownloadInputStream(Context context, MusicDirectory.Entry song, long offset, long end, int maxBitrate, SilentBackgroundTask task) throws Exception {
 
         String url = getRestUrl(context, "stream");
 
         // Set socket read timeout. Note: The timeout increases as the offset gets larger. This is
         // to avoid the thrashing effect seen when offset is combined with transcoding/downsampling on the server.
         // In that case, the server uses a long time before sending any data, causing the client to time out.
+        // A closed range is only asked for from the original file, which the server can seek in right away.
         HttpParams params = new BasicHttpParams();
-        int timeout = (int) (SOCKET_READ_TIMEOUT_DOWNLOAD + offset * TIMEOUT_MILLIS_PER_OFFSET_BYTE);
+        int timeout = (int) (SOCKET_READ_TIMEOUT_DOWNLOAD + (end >= 0 ? 0 : offset * TIMEOUT_MILLIS_PER_OFFSET_BYTE));
         HttpConnectionParams.setSoTimeout(params, timeout);
 
-        // Add "Range" header if offset is given.
+        // Add "Range" header if offset or end is given.
         List<Header> headers = new ArrayList<Header>();
-        if (offset > 0) {
+        if (end >= 0) {
+            headers.add(new BasicHeader("Range", "bytes=" + offset + "-" + end));
+        } else if (offset > 0) {
             headers.add(new BasicHeader("Range", "bytes=" + offset + "-"));
         }
 
@@ -915,15 +966,15 @@ public class RESTMusicService implements MusicService {
     }
 
 	@Override
-	public List<Share> getShares(Context context, ProgressListener progressListener) throws Exception {
+	public List<Share> getShares(final Context context, final ProgressListener progressListener) throws Exception {
 		checkServerVersion(context, "1.6", "Shares not supported.");
 
-		Reader reader = getReader(context, progressListener, "getShares", null);
-		try {
-			return new ShareParser(context, getInstance(context)).parse(reader, progressListener);
-		} finally {
-			Util.close(reader);
-		}
+		return getParsed(context, progressListener, false, "getShares", null, new ResponseParser<List<Share>>() {
+			@Override
+			public List<Share> parse(Reader reader, ProgressListener listener) throws Exception {
+				return new ShareParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
 	}
 
 	@Override
@@ -1053,19 +1104,19 @@ public class RESTMusicService implements MusicService {
 	}
 
 	@Override
-	public List<Genre> getGenres(boolean refresh, Context context, ProgressListener progressListener) throws Exception {
+	public List<Genre> getGenres(boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
 		checkServerVersion(context, "1.9", "Genres not supported.");
 
-        Reader reader = getReader(context, progressListener, "getGenres", null);
-        try {
-            return new GenreParser(context, getInstance(context)).parse(reader, progressListener);
-        } finally {
-            Util.close(reader);
-        }
+		return getParsed(context, progressListener, refresh, "getGenres", null, new ResponseParser<List<Genre>>() {
+			@Override
+			public List<Genre> parse(Reader reader, ProgressListener listener) throws Exception {
+				return new GenreParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
 	}
 
 	@Override
-	public MusicDirectory getSongsByGenre(String genre, int count, int offset, Context context, ProgressListener progressListener) throws Exception {
+	public MusicDirectory getSongsByGenre(String genre, int count, int offset, final Context context, final ProgressListener progressListener) throws Exception {
 		checkServerVersion(context, "1.9", "Genres not supported.");
 
 		HttpParams params = new BasicHttpParams();
@@ -1081,17 +1132,16 @@ public class RESTMusicService implements MusicService {
 		parameterNames.add("offset");
 		parameterValues.add(offset);
 
-		Reader reader = getReader(context, progressListener, "getSongsByGenre", params, parameterNames, parameterValues);
-
-		try {
-			return new RandomSongsParser(context, getInstance(context)).parse(reader, progressListener);
-		} finally {
-			Util.close(reader);
-		}
+		return getParsed(context, progressListener, false, "getSongsByGenre", params, parameterNames, parameterValues, new ResponseParser<MusicDirectory>() {
+			@Override
+			public MusicDirectory parse(Reader reader, ProgressListener listener) throws Exception {
+				return new RandomSongsParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
 	}
 
 	@Override
-	public MusicDirectory getTopTrackSongs(String artist, int size, Context context, ProgressListener progressListener) throws Exception {
+	public MusicDirectory getTopTrackSongs(String artist, int size, final Context context, final ProgressListener progressListener) throws Exception {
 		List<String> parameterNames = new ArrayList<String>();
 		List<Object> parameterValues = new ArrayList<Object>();
 
@@ -1100,46 +1150,46 @@ public class RESTMusicService implements MusicService {
 		parameterNames.add("size");
 		parameterValues.add(size);
 
-		Reader reader = getReader(context, progressListener, "getTopTrackSongs", null, parameterNames, parameterValues);
-		try {
-			return new RandomSongsParser(context, getInstance(context)).parse(reader, progressListener);
-		} finally {
-			Util.close(reader);
-		}
+		return getParsed(context, progressListener, false, "getTopTrackSongs", null, parameterNames, parameterValues, new ResponseParser<MusicDirectory>() {
+			@Override
+			public MusicDirectory parse(Reader reader, ProgressListener listener) throws Exception {
+				return new RandomSongsParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
 	}
 
 	@Override
-	public List<PodcastChannel> getPodcastChannels(boolean refresh, Context context, ProgressListener progressListener) throws Exception {
+	public List<PodcastChannel> getPodcastChannels(boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
 		checkServerVersion(context, "1.6", "Podcasts not supported.");
 
-		Reader reader = getReader(context, progressListener, "getPodcasts", null, Arrays.asList("includeEpisodes"), Arrays.<Object>asList("false"));
-        try {
-            List<PodcastChannel> channels = new PodcastChannelParser(context, getInstance(context)).parse(reader, progressListener);
+		return getParsed(context, progressListener, refresh, "getPodcasts", null, Arrays.asList("includeEpisodes"), Arrays.<Object>asList("false"), new ResponseParser<List<PodcastChannel>>() {
+			@Override
+			public List<PodcastChannel> parse(Reader reader, ProgressListener listener) throws Exception {
+				List<PodcastChannel> channels = new PodcastChannelParser(context, getInstance(context)).parse(reader, listener);
 
-			String content = "";
-			for(PodcastChannel channel: channels) {
-				content += channel.getName() + "\n";
-			}
+				String content = "";
+				for(PodcastChannel channel: channels) {
+					content += channel.getName() + "\n";
+				}
 
-			File file = FileUtil.getPodcastFile(context, Util.getServerName(context, getInstance(context)));
-			BufferedWriter bw = new BufferedWriter(new FileWriter(file));
-			bw.write(content);
-			bw.close();
+				File file = FileUtil.getPodcastFile(context, Util.getServerName(context, getInstance(context)));
+				BufferedWriter bw = new BufferedWriter(new FileWriter(file));
+				bw.write(content);
+				bw.close();
 
-			return channels;
-        } finally {
-            Util.close(reader);
-        }
+				return channels;
+			}
+		});
 	}
 
 	@Override
-	public MusicDirectory getPodcastEpisodes(boolean refresh, String id, Context context, ProgressListener progressListener) throws Exception {
-		Reader reader = getReader(context, progressListener, "getPodcasts", null, Arrays.asList("id"), Arrays.<Object>asList(id));
-        try {
-            return new PodcastEntryParser(context, getInstance(context)).parse(id, reader, progressListener);
-        } finally {
-            Util.close(reader);
-        }
+	public MusicDirectory getPodcastEpisodes(boolean refresh, final String id, final Context context, final ProgressListener progressListener) throws Exception {
+		return getParsed(context, progressListener, refresh, "getPodcasts", null, Arrays.asList("id"), Arrays.<Object>asList(id), new ResponseParser<MusicDirectory>() {
+			@Override
+			public MusicDirectory parse(Reader reader, ProgressListener listener) throws Exception {
+				return new PodcastEntryParser(context, getInstance(context)).parse(id, reader, listener);
+			}
+		});
 	}
 
 	@Override
@@ -1215,15 +1265,15 @@ public class RESTMusicService implements MusicService {
 	}
 
 	@Override
-	public MusicDirectory getBookmarks(boolean refresh, Context context, ProgressListener progressListener) throws Exception {
+	public MusicDirectory getBookmarks(boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
 		checkServerVersion(context, "1.9", "Bookmarks not supported.");
 
-		Reader reader = getReader(context, progressListener, "getBookmarks", null);
-		try {
-			return new BookmarkParser(context, getInstance(context)).parse(reader, progressListener);
-		} finally {
-			Util.close(reader);
-		}
+		return getParsed(context, progressListener, refresh, "getBookmarks", null, new ResponseParser<MusicDirectory>() {
+			@Override
+			public MusicDirectory parse(Reader reader, ProgressListener listener) throws Exception {
+				return new BookmarkParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
 	}
 
 	@Override
@@ -1251,31 +1301,31 @@ public class RESTMusicService implements MusicService {
 	}
 
 	@Override
-	public User getUser(boolean refresh, String username, Context context, ProgressListener progressListener) throws Exception {
-		Reader reader = getReader(context, progressListener, "getUser", null, Arrays.asList("username"), Arrays.<Object>asList(username));
-		try {
-			List<User> users = new UserParser(context, getInstance(context)).parse(reader, progressListener);
-			if(users.size() > 0) {
-				// Should only have returned one anyways
-				return users.get(0);
-			} else {
-				return null;
+	public User getUser(boolean refresh, String username, final Context context, final ProgressListener progressListener) throws Exception {
+		return getParsed(context, progressListener, refresh, "getUser", null, Arrays.asList("username"), Arrays.<Object>asList(username), new ResponseParser<User>() {
+			@Override
+			public User parse(Reader reader, ProgressListener listener) throws Exception {
+				List<User> users = new UserParser(context, getInstance(context)).parse(reader, listener);
+				if(users.size() > 0) {
+					// Should only have returned one anyways
+					return users.get(0);
+				} else {
+					return null;
+				}
 			}
-		} finally {
-			Util.close(reader);
-		}
+		});
 	}
 
 	@Override
-	public List<User> getUsers(boolean refresh, Context context, ProgressListener progressListener) throws Exception {
+	public List<User> getUsers(boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
 		checkServerVersion(context, "1.8", "Getting user list is not supported");
 
-		Reader reader = getReader(context, progressListener, "getUsers", null);
-		try {
-			return new UserParser(context, getInstance(context)).parse(reader, progressListener);
-		} finally {
-			Util.close(reader);
-		}
+		return getParsed(context, progressListener, refresh, "getUsers", null, new ResponseParser<List<User>>() {
+			@Override
+			public List<User> parse(Reader reader, ProgressListener listener) throws Exception {
+				return new UserParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
 	}
 
 	@Override
@@ -1359,126 +1409,135 @@ public class RESTMusicService implements MusicService {
 	}
 
 	@Override
-	public Bitmap getAvatar(String username, int size, Context context, ProgressListener progressListener, SilentBackgroundTask task) throws Exception {
+	public Bitmap getAvatar(final String username, int size, final Context context, final ProgressListener progressListener, final SilentBackgroundTask task) throws Exception {
 		// Return silently if server is too old
 		if (!ServerInfo.checkServerVersion(context, "1.8")) {
 			return null;
 		}
 
-		// Synchronize on the username so that we don't download concurrently for
-		// the same user.
-		synchronized (username) {
-			// Use cached file, if existing.
-			Bitmap bitmap = FileUtil.getAvatarBitmap(context, username, size);
-			if(bitmap != null) {
-				return bitmap;
-			}
-
-			String url = Util.getRestUrl(context, "getAvatar");
-			InputStream in = null;
-			try
-			{
-				List<String> parameterNames;
-				List<Object> parameterValues;
-
-				parameterNames = Collections.singletonList("username");
-				parameterValues = Arrays.<Object>asList(username);
-
-				HttpEntity entity = getEntityForURL(context, url, null, parameterNames, parameterValues, progressListener, task);
-				in = entity.getContent();
-				Header contentEncoding = entity.getContentEncoding();
-				if (contentEncoding != null && contentEncoding.getValue().equalsIgnoreCase("gzip")) {
-					in = new GZIPInputStream(in);
-				}
+		// Use cached file, if existing.
+		Bitmap bitmap = FileUtil.getAvatarBitmap(context, username, size);
+		if(bitmap != null) {
+			return bitmap;
+		}
 
-				// If content type is XML, an error occurred. Get it.
-				String contentType = Util.getContentType(entity);
-				if (contentType != null && contentType.startsWith("text/xml"))
+		// Share one download between everyone asking for the same user at once
+		final List<String> parameterNames = Collections.singletonList("username");
+		final List<Object> parameterValues = Arrays.<Object>asList(username);
+		byte[] bytes = coalescer.execute(RequestCoalescer.getKey(getInstance(context), "getAvatar", parameterNames, parameterValues), task, new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				String url = Util.getRestUrl(context, "getAvatar");
+				InputStream in = null;
+				try
 				{
-					new ErrorParser(context, getInstance(context)).parse(new InputStreamReader(in, Constants.UTF_8));
-					return null; // Never reached.
-				}
+					HttpEntity entity = getEntityForURL(context, url, null, parameterNames, parameterValues, progressListener, task);
+					in = entity.getContent();
+					Header contentEncoding = entity.getContentEncoding();
+					if (contentEncoding != null && contentEncoding.getValue().equalsIgnoreCase("gzip")) {
+						in = new GZIPInputStream(in);
+					}
 
-				byte[] bytes = Util.toByteArray(in);
-				if(task != null && task.isCancelled()) {
-					// Handle case where partial is downloaded and cancelled
-					return null;
-				}
+					// If content type is XML, an error occurred. Get it.
+					String contentType = Util.getContentType(entity);
+					if (contentType != null && contentType.startsWith("text/xml"))
+					{
+						new ErrorParser(context, getInstance(context)).parse(new InputStreamReader(in, Constants.UTF_8));
+						return null; // Never reached.
+					}
 
-				OutputStream out = null;
-				try {
-					out = new FileOutputStream(FileUtil.getAvatarFile(context, username));
-					out.write(bytes);
-				} finally {
-					Util.close(out);
-				}
+					byte[] bytes = Util.toByteArray(in);
+					if(task != null && task.isCancelled()) {
+						// Handle case where partial is downloaded and cancelled
+						return null;
+					}
 
-				return FileUtil.getSampledBitmap(bytes, size, false);
-			}
-			finally {
-				Util.close(in);
+					OutputStream out = null;
+					try {
+						out = new FileOutputStream(FileUtil.getAvatarFile(context, username));
+						out.write(bytes);
+					} finally {
+						Util.close(out);
+					}
+					return bytes;
+				}
+				finally {
+					Util.close(in);
+				}
 			}
+		});
+
+		if(bytes == null) {
+			return null;
 		}
+		return FileUtil.getSampledBitmap(bytes, size, false);
 	}
 
 	@Override
-	public ArtistInfo getArtistInfo(String id, boolean refresh, Context context, ProgressListener progressListener) throws Exception {
+	public ArtistInfo getArtistInfo(String id, boolean refresh, final Context context, final ProgressListener progressListener) throws Exception {
 		checkServerVersion(context, "1.11", "Getting artist info is not supported");
 
-		Reader reader = getReader(context, progressListener, Util.isTagBrowsing(context, getInstance(context)) ? "getArtistInfo2" : "getArtistInfo", null, Arrays.asList("id", "includeNotPresent"), Arrays.<Object>asList(id, "true"));
-		try {
-			return new ArtistInfoParser(context, getInstance(context)).parse(reader, progressListener);
-		} finally {
-			Util.close(reader);
-		}
+		return getParsed(context, progressListener, refresh, Util.isTagBrowsing(context, getInstance(context)) ? "getArtistInfo2" : "getArtistInfo", null, Arrays.asList("id", "includeNotPresent"), Arrays.<Object>asList(id, "true"), new ResponseParser<ArtistInfo>() {
+			@Override
+			public ArtistInfo parse(Reader reader, ProgressListener listener) throws Exception {
+				return new ArtistInfoParser(context, getInstance(context)).parse(reader, listener);
+			}
+		});
 	}
 
 	@Override
-	public Bitmap getBitmap(String url, int size, Context context, ProgressListener progressListener, SilentBackgroundTask task) throws Exception {
-		// Synchronize on the url so that we don't download concurrently
-		synchronized (url) {
-			// Use cached file, if existing.
-			Bitmap bitmap = FileUtil.getMiscBitmap(context, url, size);
-			if(bitmap != null) {
-				return bitmap;
-			}
+	public Bitmap getBitmap(final String url, int size, final Context context, final ProgressListener progressListener, final SilentBackgroundTask task) throws Exception {
+		// Use cached file, if existing.
+		Bitmap bitmap = FileUtil.getMiscBitmap(context, url, size);
+		if(bitmap != null) {
+			return bitmap;
+		}
+
+		// Share one download between everyone asking for the same url at once
+		byte[] bytes = coalescer.execute(RequestCoalescer.getKey(getInstance(context), url, null, null), task, new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				InputStream in = null;
+				try {
+					HttpEntity entity = getEntityForURL(context, url, null, null, null, progressListener, task);
+					in = entity.getContent();
+					Header contentEncoding = entity.getContentEncoding();
+					if (contentEncoding != null && contentEncoding.getValue().equalsIgnoreCase("gzip")) {
+						in = new GZIPInputStream(in);
+					}
 
-			InputStream in = null;
-			try {
-				HttpEntity entity = getEntityForURL(context, url, null, null, null, progressListener, task);
-				in = entity.getContent();
-				Header contentEncoding = entity.getContentEncoding();
-				if (contentEncoding != null && contentEncoding.getValue().equalsIgnoreCase("gzip")) {
-					in = new GZIPInputStream(in);
-				}
+					// If content type is XML, an error occurred. Get it.
+					String contentType = Util.getContentType(entity);
+					if (contentType != null && contentType.startsWith("text/xml")) {
+						new ErrorParser(context, getInstance(context)).parse(new InputStreamReader(in, Constants.UTF_8));
+						return null; // Never reached.
+					}
 
-				// If content type is XML, an error occurred. Get it.
-				String contentType = Util.getContentType(entity);
-				if (contentType != null && contentType.startsWith("text/xml")) {
-					new ErrorParser(context, getInstance(context)).parse(new InputStreamReader(in, Constants.UTF_8));
-					return null; // Never reached.
-				}
+					byte[] bytes = Util.toByteArray(in);
+					if(task != null && task.isCancelled()) {
+						// Handle case where partial is downloaded and cancelled
+						return null;
+					}
 
-				byte[] bytes = Util.toByteArray(in);
-				if(task != null && task.isCancelled()) {
-					// Handle case where partial is downloaded and cancelled
-					return null;
+					OutputStream out = null;
+					try {
+						out = new FileOutputStream(FileUtil.getMiscFile(context, url));
+						out.write(bytes);
+					} finally {
+						Util.close(out);
+					}
+					return bytes;
 				}
-
-				OutputStream out = null;
-				try {
-					out = new FileOutputStream(FileUtil.getMiscFile(context, url));
-					out.write(bytes);
-				} finally {
-					Util.close(out);
+				finally {
+					Util.close(in);
 				}
-
-				return FileUtil.getSampledBitmap(bytes, size, false);
-			}
-			finally {
-				Util.close(in);
 			}
+		});
+
+		if(bytes == null) {
+			return null;
 		}
+		return FileUtil.getSampledBitmap(bytes, size, false);
 	}
 
 	@Override
@@ -1588,6 +1647,80 @@ public class RESTMusicService implements MusicService {
 		this.instance = instance;
 	}
 
+	public static RequestCoalescer getCoalescer() {
+		return coalescer;
+	}
+
+	private <T> T getParsed(Context context, ProgressListener progressListener, boolean refresh, String method, HttpParams requestParams, ResponseParser<T> parser) throws Exception {
+		return getParsed(context, progressListener, refresh, method, requestParams, Collections.<String>emptyList(), Collections.emptyList(), parser);
+	}
+	private <T> T getParsed(Context context, ProgressListener progressListener, boolean refresh, String method, HttpParams requestParams, String parameterName, Object parameterValue, ResponseParser<T> parser) throws Exception {
+		return getParsed(context, progressListener, refresh, method, requestParams, Arrays.asList(parameterName), Arrays.<Object>asList(parameterValue), parser);
+	}
+	private <T> T getParsed(final Context context, ProgressListener progressListener, boolean refresh, final String method, final HttpParams requestParams,
+							final List<String> parameterNames, final List<Object> parameterValues, final ResponseParser<T> parser) throws Exception {
+		// Asking to refresh means wanting what the server has now, not what a request started before it gets back
+		if(refresh) {
+			return getParsed(context, progressListener, method, requestParams, parameterNames, parameterValues, parser);
+		}
+
+		// Callers asking for the same thing at the same time share the request, but each gets its own copy of what was
+		// parsed from it since they sort and filter it in place
+		String key = RequestCoalescer.getKey(getInstance(context), method, parameterNames, parameterValues);
+		BackgroundTask task = progressListener instanceof BackgroundTask ? (BackgroundTask) progressListener : null;
+		return coalescer.execute(key, task, progressListener, new RequestCoalescer.Request<T>() {
+			@Override
+			public T call(ProgressListener listener) throws Exception {
+				return getParsed(context, listener, method, requestParams, parameterNames, parameterValues, parser);
+			}
+		}, new RequestCoalescer.Copier<T>() {
+			@Override
+			public T copy(T result) throws Exception {
+				return FileUtil.copy(result);
+			}
+		});
+	}
+	private <T> T getParsed(Context context, ProgressListener progressListener, String method, HttpParams requestParams,
+							List<String> parameterNames, List<Object> parameterValues, ResponseParser<T> parser) throws Exception {
+		// One call as far as the stats go, even if it has to be asked for again as XML
+		RequestStats.Request stats = RequestStats.getInstance().startMethod(method);
+		int instance = getInstance(context);
+		if(!xmlOnly.contains(instance) && ServerInfo.checkServerVersion(context, "1.4", instance)) {
+			RetryProgressListener retryListener = progressListener == null ? null : new RetryProgressListener(progressListener);
+			try {
+				return getParsed(context, retryListener, method, requestParams, parameterNames, parameterValues, parser, stats, true);
+			} catch(JsonPullParser.JsonException e) {
+				Log.w(TAG, "Failed to read JSON from server, asking for XML from now on", e);
+				xmlOnly.add(instance);
+			}
+
+			// The listener already has the start of the list, so it gets the rest with the result instead of all of it again
+			if(retryListener != null) {
+				retryListener.retrying();
+			}
+			return getParsed(context, retryListener, method, requestParams, parameterNames, parameterValues, parser, stats, false);
+		}
+
+		return getParsed(context, progressListener, method, requestParams, parameterNames, parameterValues, parser, stats, false);
+	}
+	private <T> T getParsed(Context context, ProgressListener progressListener, String method, HttpParams requestParams,
+							List<String> parameterNames, List<Object> parameterValues, ResponseParser<T> parser, RequestStats.Request stats, boolean json) throws Exception {
+		Reader reader = getReader(context, progressListener, method, requestParams, parameterNames, parameterValues, json, stats);
+		try {
+			return parser.parse(reader, progressListener);
+		} catch(Exception e) {
+			if(json && e instanceof JsonPullParser.JsonException) {
+				// Asked for again as XML under the same stats, which is what gets counted
+				stats.discardBody();
+			} else {
+				stats.failed(e);
+			}
+			throw e;
+		} finally {
+			Util.close(reader);
+		}
+	}
+
     private Reader getReader(Context context, ProgressListener progressListener, String method, HttpParams requestParams) throws Exception {
         return getReader(context, progressListener, method, requestParams, Collections.<String>emptyList(), Collections.emptyList());
     }
@@ -1599,35 +1732,38 @@ public class RESTMusicService implements MusicService {
 
     private Reader getReader(Context context, ProgressListener progressListener, String method,
                              HttpParams requestParams, List<String> parameterNames, List<Object> parameterValues) throws Exception {
+		return getReader(context, progressListener, method, requestParams, parameterNames, parameterValues, false, RequestStats.getInstance().startMethod(method));
+	}
+	private Reader getReader(Context context, ProgressListener progressListener, String method, HttpParams requestParams,
+							 List<String> parameterNames, List<Object> parameterValues, boolean json, RequestStats.Request stats) throws Exception {
 
         if (progressListener != null) {
             progressListener.updateProgress(R.string.service_connecting);
         }
 
         String url = getRestUrl(context, method);
-        return getReaderForURL(context, url, requestParams, parameterNames, parameterValues, progressListener);
+		if(json) {
+			// Smaller on the wire and cheaper to read than XML
+			url += "&f=json";
+		}
+        return getReaderForURL(context, url, requestParams, parameterNames, parameterValues, progressListener, stats);
     }
 
     private Reader getReaderForURL(Context context, String url, HttpParams requestParams, List<String> parameterNames,
-                                   List<Object> parameterValues, ProgressListener progressListener) throws Exception {
-        HttpEntity entity = getEntityForURL(context, url, requestParams, parameterNames, parameterValues, progressListener);
+                                   List<Object> parameterValues, ProgressListener progressListener, RequestStats.Request stats) throws Exception {
+        HttpEntity entity = getResponseForURL(context, url, requestParams, parameterNames, parameterValues, null, progressListener, null, stats).getEntity();
         if (entity == null) {
             throw new RuntimeException("No entity received for URL " + url);
         }
 
-        InputStream in = entity.getContent();
+        InputStream in = stats.countCompressed(entity.getContent());
 		Header contentEncoding = entity.getContentEncoding();
 		if (contentEncoding != null && contentEncoding.getValue().equalsIgnoreCase("gzip")) {
 			in = new GZIPInputStream(in);
 		}
-        return new InputStreamReader(in, Constants.UTF_8);
+        return new InputStreamReader(stats.countDecoded(in), Constants.UTF_8);
     }
 
-	private HttpEntity getEntityForURL(Context context, String url, HttpParams requestParams, List<String> parameterNames,
-		List<Object> parameterValues, ProgressListener progressListener) throws Exception {
-
-		return getEntityForURL(context, url, requestParams, parameterNames, parameterValues, progressListener, null);
-	}
     private HttpEntity getEntityForURL(Context context, String url, HttpParams requestParams, List<String> parameterNames,
                                        List<Object> parameterValues, ProgressListener progressListener, SilentBackgroundTask task) throws Exception {
         return getResponseForURL(context, url, requestParams, parameterNames, parameterValues, null, progressListener, task).getEntity();
@@ -1636,6 +1772,11 @@ public class RESTMusicService implements MusicService {
     private HttpResponse getResponseForURL(Context context, String url, HttpParams requestParams,
                                            List<String> parameterNames, List<Object> parameterValues,
                                            List<Header> headers, ProgressListener progressListener, SilentBackgroundTask task) throws Exception {
+		return getResponseForURL(context, url, requestParams, parameterNames, parameterValues, headers, progressListener, task, RequestStats.getInstance().start(url));
+	}
+	private HttpResponse getResponseForURL(Context context, String url, HttpParams requestParams,
+										   List<String> parameterNames, List<Object> parameterValues,
+										   List<Header> headers, ProgressListener progressListener, SilentBackgroundTask task, RequestStats.Request stats) throws Exception {
 	// If not too many parameters, extract them to the URL rather than relying on the HTTP POST request being
         // received intact. Remember, HTTP POST requests are converted to GET requests during HTTP redirects, thus
         // loosing its entity.
@@ -1653,12 +1794,12 @@ public class RESTMusicService implements MusicService {
         }
 
         String rewrittenUrl = rewriteUrlWithRedirect(context, url);
-        return executeWithRetry(context, rewrittenUrl, url, requestParams, parameterNames, parameterValues, headers, progressListener, task);
+        return executeWithRetry(context, rewrittenUrl, url, requestParams, parameterNames, parameterValues, headers, progressListener, task, stats);
     }
 
     private HttpResponse executeWithRetry(final Context context, String url, String originalUrl, HttpParams requestParams,
                                           List<String> parameterNames, List<Object> parameterValues,
-                                          List<Header> headers, ProgressListener progressListener, SilentBackgroundTask task) throws Exception {
+                                          List<Header> headers, ProgressListener progressListener, SilentBackgroundTask task, RequestStats.Request stats) throws Exception {
 		// Strip out sensitive information from log
 		if(url.indexOf("scanstatus") == -1) {
 			Log.i(TAG, stripUrlInfo(url));
@@ -1674,6 +1815,7 @@ public class RESTMusicService implements MusicService {
         int attempts = 0;
         while (true) {
             attempts++;
+			stats.attempt(attempts);
             HttpContext httpContext = new BasicHttpContext();
             final HttpPost request = new HttpPost(url);
 
@@ -1731,12 +1873,15 @@ public class RESTMusicService implements MusicService {
                     new UsernamePasswordCredentials(username, password));
 
             try {
+				RequestStats.setCurrent(stats);
                 HttpResponse response = httpClient.execute(request, httpContext);
+				stats.responded(response.getStatusLine().getStatusCode());
                 detectRedirect(originalUrl, context, httpContext);
                 return response;
             } catch (IOException x) {
                 request.abort();
                 if (attempts >= HTTP_REQUEST_MAX_ATTEMPTS || isCancelled.get()) {
+					stats.failed(x);
                     throw x;
                 }
                 if (progressListener != null) {
@@ -1746,7 +1891,9 @@ public class RESTMusicService implements MusicService {
                 Log.w(TAG, "Got IOException " + x + " (" + attempts + "), will retry");
                 increaseTimeouts(requestParams);
 				Thread.sleep(2000L);
-            }
+            } finally {
+				RequestStats.setCurrent(null);
+			}
         }
     }
 
@@ -1834,4 +1981,41 @@ public class RESTMusicService implements MusicService {
 			return Util.getRestUrl(context, method, instance, allowAltAddress);
 		}
 	}
+
+	/**
+	 * Passes progress on to listener, but drops the chunks of a retry if the first try already sent some.
+	 */
+	private static class RetryProgressListener implements ProgressListener {
+		private final ProgressListener listener;
+		private boolean sentChunks = false;
+		private boolean dropChunks = false;
+
+		public RetryProgressListener(ProgressListener listener) {
+			this.listener = listener;
+		}
+
+		public void retrying() {
+			dropChunks = sentChunks;
+		}
+
+		@Override
+		public void updateProgress(String message) {
+			listener.updateProgress(message);
+		}
+		@Override
+		public void updateProgress(int messageId) {
+			listener.updateProgress(messageId);
+		}
+		@Override
+		public void updateChunk(int position, List<?> items) {
+			if(!dropChunks) {
+				sentChunks = true;
+				listener.updateChunk(position, items);
+			}
+		}
+	}
+
+	private interface ResponseParser<T> {
+		T parse(Reader reader, ProgressListener listener) throws Exception;
+	}
 }
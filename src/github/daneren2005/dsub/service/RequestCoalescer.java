@@ -0,0 +1,264 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.service;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import github.daneren2005.dsub.util.BackgroundTask;
+import github.daneren2005.dsub.util.ProgressListener;
+
+/**
+ * Lets callers asking for the same thing at the same time share one request.  The first caller for a key runs it and
+ * everyone who asks for that key before it is done waits for and gets the same result, or the same exception.  If the
+ * first caller was cancelled everyone waiting on it tries again instead, since they still want the result.  Results
+ * which callers change afterwards should be shared with a {@link Copier} so each caller gets its own.  Progress and
+ * chunks the request reports are passed on to everyone sharing it, with what was reported before a caller joined
+ * repeated to it first.
+ */
+public class RequestCoalescer {
+	private static final String TAG = RequestCoalescer.class.getSimpleName();
+
+	private final Map<String, Call> calls = new HashMap<String, Call>();
+	private long requests = 0;
+	private long coalesced = 0;
+
+	public <T> T execute(String key, BackgroundTask task, Callable<T> request) throws Exception {
+		return execute(key, task, request, null);
+	}
+	public <T> T execute(String key, BackgroundTask task, final Callable<T> request, Copier<T> copier) throws Exception {
+		return execute(key, task, null, new Request<T>() {
+			@Override
+			public T call(ProgressListener listener) throws Exception {
+				return request.call();
+			}
+		}, copier);
+	}
+	public <T> T execute(String key, BackgroundTask task, ProgressListener listener, Request<T> request, Copier<T> copier) throws Exception {
+		boolean counted = false;
+		while(true) {
+			Call call;
+			boolean leader = false;
+			synchronized(calls) {
+				if(!counted) {
+					requests++;
+				}
+				call = calls.get(key);
+				if(call == null) {
+					call = new Call();
+					calls.put(key, call);
+					leader = true;
+				} else if(!counted) {
+					call.waiting++;
+					coalesced++;
+					Log.i(TAG, "Joined " + key + ", " + coalesced + " of " + requests + " requests shared");
+				}
+				counted = true;
+			}
+
+			call.progress.add(listener);
+			if(leader) {
+				try {
+					return run(key, task, call, request, copier);
+				} finally {
+					call.progress.remove(listener);
+				}
+			}
+
+			try {
+				synchronized(call) {
+					while(!call.done) {
+						call.wait();
+					}
+				}
+			} finally {
+				call.progress.remove(listener);
+			}
+			if(call.abandoned) {
+				continue;
+			} else if(call.error != null) {
+				throw call.error;
+			} else if(copier != null) {
+				return copier.copy((T) call.result);
+			} else {
+				return (T) call.result;
+			}
+		}
+	}
+
+	private <T> T run(String key, BackgroundTask task, Call call, Request<T> request, Copier<T> copier) throws Exception {
+		T result = null;
+		Exception error = null;
+		boolean finished = false;
+		try {
+			result = request.call(call.progress);
+			finished = true;
+			return result;
+		} catch(Exception e) {
+			error = e;
+			finished = true;
+			throw e;
+		} finally {
+			int waiting;
+			synchronized(calls) {
+				calls.remove(key);
+				waiting = call.waiting;
+			}
+
+			// Copy before the leader gets to change its result, which everyone waiting then copies again for themselves
+			T shared = result;
+			if(waiting > 0 && copier != null && result != null) {
+				try {
+					shared = copier.copy(result);
+				} catch(Exception e) {
+					Log.w(TAG, "Failed to copy " + key + ", letting everyone waiting ask again", e);
+					finished = false;
+				}
+			}
+
+			synchronized(call) {
+				call.result = shared;
+				call.error = error;
+				call.abandoned = !finished || (task != null && task.isCancelled());
+				call.done = true;
+				call.notifyAll();
+			}
+		}
+	}
+
+	public long getRequests() {
+		synchronized(calls) {
+			return requests;
+		}
+	}
+	public long getCoalesced() {
+		synchronized(calls) {
+			return coalesced;
+		}
+	}
+	public double getHitRate() {
+		synchronized(calls) {
+			return requests == 0 ? 0 : (double) coalesced / requests;
+		}
+	}
+
+	/**
+	 * Get the key for calling method on the server instance with the given parameters.  The parameters are sorted so
+	 * the order they were added in doesn't matter.
+	 */
+	public static String getKey(int instance, String method, List<String> parameterNames, List<Object> parameterValues) {
+		List<String> parameters = new ArrayList<String>();
+		if(parameterNames != null) {
+			for(int i = 0; i < parameterNames.size(); i++) {
+				parameters.add(parameterNames.get(i) + "=" + parameterValues.get(i));
+			}
+		}
+		Collections.sort(parameters);
+
+		StringBuilder builder = new StringBuilder();
+		builder.append(instance).append(":").append(method);
+		for(int i = 0; i < parameters.size(); i++) {
+			builder.append(i == 0 ? "?" : "&").append(parameters.get(i));
+		}
+		return builder.toString();
+	}
+
+	public interface Request<T> {
+		/**
+		 * Run the request, reporting progress to listener so everyone sharing it sees it.
+		 */
+		T call(ProgressListener listener) throws Exception;
+	}
+	public interface Copier<T> {
+		T copy(T result) throws Exception;
+	}
+
+	private static class Call {
+		final SharedProgress progress = new SharedProgress();
+		int waiting = 0;
+		boolean done = false;
+		boolean abandoned = false;
+		Object result;
+		Exception error;
+	}
+
+	/**
+	 * Passes progress on to every caller sharing a request.  The last message and the chunks since the list last
+	 * started over are kept so a caller which joins late sees the same list as the rest.  Each caller gets its own
+	 * list of the items in a chunk.
+	 */
+	private static class SharedProgress implements ProgressListener {
+		private final List<ProgressListener> listeners = new ArrayList<ProgressListener>();
+		private final List<Integer> chunkPositions = new ArrayList<Integer>();
+		private final List<List<?>> chunks = new ArrayList<List<?>>();
+		private String message;
+		private int messageId = -1;
+
+		public synchronized void add(ProgressListener listener) {
+			if(listener == null) {
+				return;
+			}
+
+			if(message != null) {
+				listener.updateProgress(message);
+			} else if(messageId != -1) {
+				listener.updateProgress(messageId);
+			}
+			for(int i = 0; i < chunks.size(); i++) {
+				listener.updateChunk(chunkPositions.get(i), new ArrayList<Object>(chunks.get(i)));
+			}
+			listeners.add(listener);
+		}
+		public synchronized void remove(ProgressListener listener) {
+			listeners.remove(listener);
+		}
+
+		@Override
+		public synchronized void updateProgress(String message) {
+			this.message = message;
+			messageId = -1;
+			for(ProgressListener listener: listeners) {
+				listener.updateProgress(message);
+			}
+		}
+		@Override
+		public synchronized void updateProgress(int messageId) {
+			this.messageId = messageId;
+			message = null;
+			for(ProgressListener listener: listeners) {
+				listener.updateProgress(messageId);
+			}
+		}
+		@Override
+		public synchronized void updateChunk(int position, List<?> items) {
+			if(position == 0) {
+				chunkPositions.clear();
+				chunks.clear();
+			}
+			chunkPositions.add(position);
+			chunks.add(new ArrayList<Object>(items));
+
+			for(ProgressListener listener: listeners) {
+				listener.updateChunk(position, new ArrayList<Object>(items));
+			}
+		}
+	}
+}
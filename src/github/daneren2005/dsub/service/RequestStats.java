@@ -0,0 +1,498 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.service;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Running totals of where the time goes for each Subsonic method: setting up the connection, waiting for the server,
+ * reading the body and parsing it, and how often it was answered from the cache instead.  Everything is recorded
+ * with atomics so keeping track never holds up a request.
+ */
+public class RequestStats {
+	private static final RequestStats instance = new RequestStats();
+	// Request being sent on this thread, so the socket factory knows who to charge a new connection to
+	private static final ThreadLocal<Request> current = new ThreadLocal<Request>();
+	private static final String[] TIMINGS = {"connectWait", "connect", "firstByte", "body", "parse", "total"};
+
+	private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+
+	public static RequestStats getInstance() {
+		return instance;
+	}
+
+	public Endpoint getEndpoint(String method) {
+		Endpoint endpoint = endpoints.get(method);
+		if(endpoint == null) {
+			endpoint = new Endpoint(method);
+			Endpoint existing = endpoints.putIfAbsent(method, endpoint);
+			if(existing != null) {
+				endpoint = existing;
+			}
+		}
+		return endpoint;
+	}
+
+	public List<Endpoint> getEndpoints() {
+		List<Endpoint> list = new ArrayList<Endpoint>(endpoints.values());
+		Collections.sort(list, new Comparator<Endpoint>() {
+			@Override
+			public int compare(Endpoint lhs, Endpoint rhs) {
+				return lhs.getMethod().compareTo(rhs.getMethod());
+			}
+		});
+		return list;
+	}
+
+	public void clear() {
+		endpoints.clear();
+	}
+
+	public Request start(String url) {
+		return startMethod(getMethod(url));
+	}
+	public Request startMethod(String method) {
+		Endpoint endpoint = getEndpoint(method);
+		endpoint.requests.incrementAndGet();
+		return new Request(endpoint);
+	}
+
+	static void setCurrent(Request request) {
+		if(request == null) {
+			current.remove();
+		} else {
+			current.set(request);
+		}
+	}
+	static void socketCreated() {
+		Request request = current.get();
+		if(request != null) {
+			request.socketCreated();
+		}
+	}
+	static void socketConnected() {
+		Request request = current.get();
+		if(request != null) {
+			request.socketConnected();
+		}
+	}
+
+	public static String getMethod(String url) {
+		int start = url.indexOf("/rest/");
+		if(start == -1) {
+			return "other";
+		}
+
+		start += "/rest/".length();
+		int end = start;
+		while(end < url.length() && url.charAt(end) != '.' && url.charAt(end) != '?') {
+			end++;
+		}
+		return url.substring(start, end);
+	}
+
+	public String toCsv() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("method,requests,retries,failures,cacheHits,cacheMisses,compressedBytes,decodedBytes");
+		for(String timing: TIMINGS) {
+			builder.append(',').append(timing).append("Count");
+			builder.append(',').append(timing).append("Mean");
+			builder.append(',').append(timing).append("P50");
+			builder.append(',').append(timing).append("P95");
+			builder.append(',').append(timing).append("Max");
+		}
+		builder.append(",failureTypes\n");
+
+		for(Endpoint endpoint: getEndpoints()) {
+			builder.append(endpoint.getMethod());
+			builder.append(',').append(endpoint.getRequests());
+			builder.append(',').append(endpoint.getRetries());
+			builder.append(',').append(endpoint.getFailures());
+			builder.append(',').append(endpoint.getCacheHits());
+			builder.append(',').append(endpoint.getCacheMisses());
+			builder.append(',').append(endpoint.getCompressedBytes());
+			builder.append(',').append(endpoint.getDecodedBytes());
+			for(String timing: TIMINGS) {
+				Histogram histogram = endpoint.getTiming(timing);
+				builder.append(',').append(histogram.getCount());
+				builder.append(',').append(histogram.getMean());
+				builder.append(',').append(histogram.getPercentile(0.5));
+				builder.append(',').append(histogram.getPercentile(0.95));
+				builder.append(',').append(histogram.getMax());
+			}
+
+			builder.append(',');
+			boolean first = true;
+			for(Map.Entry<String, Long> failure: endpoint.getFailureTypes().entrySet()) {
+				if(!first) {
+					builder.append(';');
+				}
+				builder.append(failure.getKey()).append('=').append(failure.getValue());
+				first = false;
+			}
+			builder.append('\n');
+		}
+		return builder.toString();
+	}
+
+	public String toJson() throws JSONException {
+		JSONArray array = new JSONArray();
+		for(Endpoint endpoint: getEndpoints()) {
+			JSONObject json = new JSONObject();
+			json.put("method", endpoint.getMethod());
+			json.put("requests", endpoint.getRequests());
+			json.put("retries", endpoint.getRetries());
+			json.put("failures", endpoint.getFailures());
+			json.put("cacheHits", endpoint.getCacheHits());
+			json.put("cacheMisses", endpoint.getCacheMisses());
+			json.put("compressedBytes", endpoint.getCompressedBytes());
+			json.put("decodedBytes", endpoint.getDecodedBytes());
+
+			for(String timing: TIMINGS) {
+				Histogram histogram = endpoint.getTiming(timing);
+				JSONObject values = new JSONObject();
+				values.put("count", histogram.getCount());
+				values.put("mean", histogram.getMean());
+				values.put("p50", histogram.getPercentile(0.5));
+				values.put("p95", histogram.getPercentile(0.95));
+				values.put("max", histogram.getMax());
+				json.put(timing, values);
+			}
+
+			JSONObject failures = new JSONObject();
+			for(Map.Entry<String, Long> failure: endpoint.getFailureTypes().entrySet()) {
+				failures.put(failure.getKey(), failure.getValue());
+			}
+			json.put("failureTypes", failures);
+			array.put(json);
+		}
+		return array.toString(2);
+	}
+
+	public static class Endpoint {
+		private final String method;
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong retries = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong cacheHits = new AtomicLong();
+		private final AtomicLong cacheMisses = new AtomicLong();
+		private final AtomicLong compressedBytes = new AtomicLong();
+		private final AtomicLong decodedBytes = new AtomicLong();
+		private final ConcurrentMap<String, AtomicLong> failureTypes = new ConcurrentHashMap<String, AtomicLong>();
+
+		// Time until a new connection started connecting, so looking up the server plus any wait for a free connection
+		private final Histogram connectWait = new Histogram();
+		private final Histogram connect = new Histogram();
+		private final Histogram firstByte = new Histogram();
+		private final Histogram body = new Histogram();
+		private final Histogram parse = new Histogram();
+		// Whole call as the screen sees it, whether it came from the cache or not
+		private final Histogram total = new Histogram();
+
+		Endpoint(String method) {
+			this.method = method;
+		}
+
+		public void failed(Throwable t) {
+			failed(t.getClass().getSimpleName());
+		}
+		public void failed(String type) {
+			failures.incrementAndGet();
+			AtomicLong count = failureTypes.get(type);
+			if(count == null) {
+				count = new AtomicLong();
+				AtomicLong existing = failureTypes.putIfAbsent(type, count);
+				if(existing != null) {
+					count = existing;
+				}
+			}
+			count.incrementAndGet();
+		}
+
+		public void cached(boolean hit, long duration) {
+			if(hit) {
+				cacheHits.incrementAndGet();
+			} else {
+				cacheMisses.incrementAndGet();
+			}
+			total.record(duration);
+		}
+
+		public String getMethod() {
+			return method;
+		}
+		public long getRequests() {
+			return requests.get();
+		}
+		public long getRetries() {
+			return retries.get();
+		}
+		public long getFailures() {
+			return failures.get();
+		}
+		public long getCacheHits() {
+			return cacheHits.get();
+		}
+		public long getCacheMisses() {
+			return cacheMisses.get();
+		}
+		public long getCompressedBytes() {
+			return compressedBytes.get();
+		}
+		public long getDecodedBytes() {
+			return decodedBytes.get();
+		}
+		public Map<String, Long> getFailureTypes() {
+			Map<String, Long> types = new TreeMap<String, Long>();
+			for(Map.Entry<String, AtomicLong> type: failureTypes.entrySet()) {
+				types.put(type.getKey(), type.getValue().get());
+			}
+			return types;
+		}
+
+		public Histogram getTiming(String name) {
+			if("connectWait".equals(name)) {
+				return connectWait;
+			} else if("connect".equals(name)) {
+				return connect;
+			} else if("firstByte".equals(name)) {
+				return firstByte;
+			} else if("body".equals(name)) {
+				return body;
+			} else if("parse".equals(name)) {
+				return parse;
+			} else if("total".equals(name)) {
+				return total;
+			} else {
+				throw new IllegalArgumentException("No timing named " + name);
+			}
+		}
+	}
+
+	/**
+	 * Counts of values in power of two buckets, so percentiles are only as exact as the bucket they fall in.
+	 */
+	public static class Histogram {
+		// Bucket 0 holds 0, bucket i holds up to 2^i - 1 and the last one everything bigger
+		private static final int BUCKETS = 24;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		public void record(long value) {
+			value = Math.max(value, 0);
+			int bucket = Math.min(64 - Long.numberOfLeadingZeros(value), BUCKETS - 1);
+			buckets.incrementAndGet(bucket);
+			count.incrementAndGet();
+			sum.addAndGet(value);
+
+			long previous = max.get();
+			while(value > previous && !max.compareAndSet(previous, value)) {
+				previous = max.get();
+			}
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+		public long getMean() {
+			long n = count.get();
+			return n == 0 ? 0 : sum.get() / n;
+		}
+		public long getMax() {
+			return max.get();
+		}
+
+		public long getPercentile(double fraction) {
+			long n = count.get();
+			if(n == 0) {
+				return 0;
+			}
+
+			long target = Math.max((long) Math.ceil(n * fraction), 1);
+			long seen = 0;
+			for(int i = 0; i < BUCKETS - 1; i++) {
+				seen += buckets.get(i);
+				if(seen >= target) {
+					return Math.min((1L << i) - 1, getMax());
+				}
+			}
+			return getMax();
+		}
+	}
+
+	/**
+	 * One call to the server, from sending it until whoever read the response closes it.  Each timing is recorded once
+	 * per call, even if it takes more than one attempt or connection to get an answer.
+	 */
+	public static class Request {
+		private final Endpoint endpoint;
+		private long attemptStart;
+		private long socketStart;
+		private long responded;
+		// Time spent waiting on reads of the body, anything else until it is closed was spent parsing it
+		private long readNanos = 0;
+		private boolean connectWaitTimed = false;
+		private boolean connectTimed = false;
+		private boolean firstByteTimed = false;
+		private boolean finished = false;
+		// Only the first thing to go wrong is counted, ie: not the error page which then fails to parse as well
+		private boolean failed = false;
+
+		Request(Endpoint endpoint) {
+			this.endpoint = endpoint;
+			attemptStart = System.currentTimeMillis();
+		}
+
+		public Endpoint getEndpoint() {
+			return endpoint;
+		}
+
+		public void attempt(int attempt) {
+			if(attempt > 1) {
+				endpoint.retries.incrementAndGet();
+			}
+			attemptStart = System.currentTimeMillis();
+			readNanos = 0;
+			finished = false;
+		}
+		public void responded(int statusCode) {
+			responded = System.currentTimeMillis();
+			if(!firstByteTimed) {
+				firstByteTimed = true;
+				endpoint.firstByte.record(responded - attemptStart);
+			}
+			if(statusCode >= 400) {
+				failed("HTTP " + statusCode);
+			}
+		}
+		public void failed(Throwable t) {
+			failed(t.getClass().getSimpleName());
+		}
+		public void failed(String type) {
+			if(!failed) {
+				failed = true;
+				endpoint.failed(type);
+			}
+		}
+
+		/**
+		 * Leave the body of the response being read out of the timings, since it is being thrown away and asked for
+		 * again in another format.  The next attempt's body is timed instead.
+		 */
+		public void discardBody() {
+			finished = true;
+		}
+
+		void socketCreated() {
+			socketStart = System.currentTimeMillis();
+			if(!connectWaitTimed) {
+				connectWaitTimed = true;
+				endpoint.connectWait.record(socketStart - attemptStart);
+			}
+		}
+		void socketConnected() {
+			if(!connectTimed) {
+				connectTimed = true;
+				endpoint.connect.record(System.currentTimeMillis() - socketStart);
+			}
+		}
+
+		// Counts what actually came over the network, before it is unzipped
+		public InputStream countCompressed(InputStream in) {
+			return new FilterInputStream(in) {
+				@Override
+				public int read() throws IOException {
+					int value = super.read();
+					if(value != -1) {
+						endpoint.compressedBytes.incrementAndGet();
+					}
+					return value;
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+					int read = super.read(buffer, offset, length);
+					if(read > 0) {
+						endpoint.compressedBytes.addAndGet(read);
+					}
+					return read;
+				}
+			};
+		}
+
+		// Counts and times reading what the parser sees, and records the body and parse times once it is closed
+		public InputStream countDecoded(InputStream in) {
+			return new FilterInputStream(in) {
+				@Override
+				public int read() throws IOException {
+					long start = System.nanoTime();
+					int value = super.read();
+					readNanos += System.nanoTime() - start;
+					if(value != -1) {
+						endpoint.decodedBytes.incrementAndGet();
+					}
+					return value;
+				}
+
+				@Override
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+					long start = System.nanoTime();
+					int read = super.read(buffer, offset, length);
+					readNanos += System.nanoTime() - start;
+					if(read > 0) {
+						endpoint.decodedBytes.addAndGet(read);
+					}
+					return read;
+				}
+
+				@Override
+				public void close() throws IOException {
+					finish();
+					super.close();
+				}
+			};
+		}
+
+		private void finish() {
+			if(finished) {
+				return;
+			}
+			finished = true;
+
+			long read = readNanos / 1000000L;
+			endpoint.body.record(read);
+			endpoint.parse.record(System.currentTimeMillis() - responded - read);
+		}
+	}
+}
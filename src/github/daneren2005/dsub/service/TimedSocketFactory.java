@@ -0,0 +1,76 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.service;
+
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.conn.scheme.SocketFactory;
+import org.apache.http.params.HttpParams;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+/**
+ * Wraps the socket factory for a scheme to tell RequestStats when a new connection is opened and how long connecting
+ * took.  Connections reused from the pool never get here.  The connection operator looks up the server before calling
+ * the factory, so that shows up as the time before the socket was created.  Layering https over a socket which is
+ * already connected, ie: through a proxy tunnel, isn't timed again since the connection was counted when it was made.
+ */
+class TimedSocketFactory implements SocketFactory {
+	protected final SocketFactory factory;
+
+	private TimedSocketFactory(SocketFactory factory) {
+		this.factory = factory;
+	}
+
+	public static SocketFactory wrap(SocketFactory factory) {
+		if(factory instanceof LayeredSocketFactory) {
+			return new Layered((LayeredSocketFactory) factory);
+		} else {
+			return new TimedSocketFactory(factory);
+		}
+	}
+
+	@Override
+	public Socket createSocket() throws IOException {
+		RequestStats.socketCreated();
+		return factory.createSocket();
+	}
+
+	@Override
+	public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress, int localPort, HttpParams params) throws IOException, UnknownHostException, ConnectTimeoutException {
+		Socket socket = factory.connectSocket(sock, host, port, localAddress, localPort, params);
+		RequestStats.socketConnected();
+		return socket;
+	}
+
+	@Override
+	public boolean isSecure(Socket sock) throws IllegalArgumentException {
+		return factory.isSecure(sock);
+	}
+
+	private static class Layered extends TimedSocketFactory implements LayeredSocketFactory {
+		public Layered(LayeredSocketFactory factory) {
+			super(factory);
+		}
+
+		@Override
+		public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException, UnknownHostException {
+			return ((LayeredSocketFactory) factory).createSocket(socket, host, port, autoClose);
+		}
+	}
+}
@@ -18,7 +18,10 @@
  */
 package github.daneren2005.dsub.service.parser;
 
+import java.io.PushbackReader;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.xmlpull.v1.XmlPullParser;
 
@@ -34,11 +37,17 @@ import github.daneren2005.dsub.util.Util;
  * @author Sindre Mehus
  */
 public abstract class AbstractParser {
+	// Enough for the first screenful, after which chunks double in size up to the max
+	private static final int FIRST_CHUNK = 20;
+	private static final int MAX_CHUNK = 1000;
 
     protected final Context context;
 	protected final int instance;
     private XmlPullParser parser;
+	private JsonPullParser jsonParser;
     private boolean rootElementFound;
+	private List<Object> chunk;
+	private int chunkPosition;
 
     public AbstractParser(Context context, int instance) {
         this.context = context;
@@ -87,11 +96,53 @@ public abstract class AbstractParser {
         }
     }
 
+	/**
+	 * Queue up a parsed item to be handed to the listener with the rest of its chunk.  Whatever is left over at the end
+	 * is sent by {@link #flushChunk}.
+	 * @return true if this filled up a chunk and sent it
+	 */
+	protected boolean addToChunk(ProgressListener progressListener, Object item) {
+		if(progressListener == null) {
+			return false;
+		}
+
+		if(chunk == null) {
+			chunk = new ArrayList<Object>();
+		}
+		chunk.add(item);
+		if(chunk.size() < Math.min(Math.max(FIRST_CHUNK, chunkPosition), MAX_CHUNK)) {
+			return false;
+		}
+
+		progressListener.updateChunk(chunkPosition, chunk);
+		chunkPosition += chunk.size();
+		chunk = null;
+		return true;
+	}
+	/**
+	 * Send whatever is left over in the last chunk once everything has been parsed.
+	 */
+	protected void flushChunk(ProgressListener progressListener) {
+		if(progressListener == null || chunk == null) {
+			return;
+		}
+
+		progressListener.updateChunk(chunkPosition, chunk);
+		chunkPosition += chunk.size();
+		chunk = null;
+	}
+
     protected String getText() {
+		if(jsonParser != null) {
+			return jsonParser.getText();
+		}
         return parser.getText();
     }
 
     protected String get(String name) {
+		if(jsonParser != null) {
+			return jsonParser.getAttributeValue(name);
+		}
         return parser.getAttributeValue(null, name);
     }
 
@@ -100,11 +151,18 @@ public abstract class AbstractParser {
     }
 
     protected Integer getInteger(String name) {
+		if(jsonParser != null) {
+			Long value = jsonParser.getAttributeLong(name);
+			return value == null ? null : Integer.valueOf(value.intValue());
+		}
         String s = get(name);
         return s == null ? null : Integer.valueOf(s);
     }
 
     protected Long getLong(String name) {
+		if(jsonParser != null) {
+			return jsonParser.getAttributeLong(name);
+		}
         String s = get(name);
         return s == null ? null : Long.valueOf(s);
     }
@@ -115,17 +173,39 @@ public abstract class AbstractParser {
     }
 
     protected void init(Reader reader) throws Exception {
-        parser = Xml.newPullParser();
-        parser.setInput(reader);
+		// Servers which don't understand f=json just answer in XML, so go by what actually came back
+		PushbackReader in = new PushbackReader(reader);
+		int c;
+		do {
+			c = in.read();
+		} while(c != -1 && Character.isWhitespace(c));
+		if(c != -1) {
+			in.unread(c);
+		}
+
+		if(c == '{') {
+			parser = null;
+			jsonParser = new JsonPullParser();
+			jsonParser.setInput(in);
+		} else {
+			jsonParser = null;
+			parser = Xml.newPullParser();
+			parser.setInput(in);
+		}
         rootElementFound = false;
+		chunk = null;
+		chunkPosition = 0;
     }
 
     protected int nextParseEvent() throws Exception {
+		if(jsonParser != null) {
+			return jsonParser.next();
+		}
         return parser.next();
     }
 
     protected String getElementName() {
-        String name = parser.getName();
+        String name = jsonParser != null ? jsonParser.getName() : parser.getName();
         if ("subsonic-response".equals(name)) {
             rootElementFound = true;
             String version = get("version");
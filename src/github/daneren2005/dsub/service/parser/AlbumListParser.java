@@ -48,6 +48,7 @@ public class AlbumListParser extends MusicDirectoryEntryParser {
 					MusicDirectory.Entry entry = parseEntry("");
 					entry.setDirectory(true);
                     dir.addChild(entry);
+					addToChunk(progressListener, entry);
                 } else if ("error".equals(name)) {
                     handleError();
                 }
@@ -55,6 +56,7 @@ public class AlbumListParser extends MusicDirectoryEntryParser {
         } while (eventType != XmlPullParser.END_DOCUMENT);
 
         validate();
+		flushChunk(progressListener);
 
         return dir;
     }
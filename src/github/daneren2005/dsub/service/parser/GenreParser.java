@@ -61,18 +61,21 @@ public class GenreParser extends AbstractParser {
         		}
         	}
         	br.close();
-        	
-        	// Replace double escaped ampersand (&amp;apos;) 
-        	xml = xml.replaceAll("(?:&amp;)(amp;|lt;|gt;|#37;|apos;)", "&$1");
-        	
-            // Replace unescaped ampersand
-            xml = xml.replaceAll("&(?!amp;|lt;|gt;|#37;|apos;)", "&amp;");
-
-            // Replace unescaped percent symbol
-            // No replacements for <> at this time
-            xml = xml.replaceAll("%", "&#37;");
-            
-            xml = xml.replaceAll("'", "&apos;");
+
+			// The fixes below are only for broken XML, JSON is escaped properly
+			if(!xml.trim().startsWith("{")) {
+				// Replace double escaped ampersand (&amp;apos;)
+				xml = xml.replaceAll("(?:&amp;)(amp;|lt;|gt;|#37;|apos;)", "&$1");
+
+				// Replace unescaped ampersand
+				xml = xml.replaceAll("&(?!amp;|lt;|gt;|#37;|apos;)", "&amp;");
+
+				// Replace unescaped percent symbol
+				// No replacements for <> at this time
+				xml = xml.replaceAll("%", "&#37;");
+
+				xml = xml.replaceAll("'", "&apos;");
+			}
             
             sr = new StringReader(xml);
         } catch (IOException ioe) {
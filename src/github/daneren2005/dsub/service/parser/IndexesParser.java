@@ -77,7 +77,7 @@ public class IndexesParser extends MusicDirectoryEntryParser {
 					artist.setStarred(get("starred") != null);
                     artists.add(artist);
 
-                    if (artists.size() % 10 == 0) {
+                    if (addToChunk(progressListener, artist)) {
                         String msg = getContext().getResources().getString(R.string.parser_artist_count, artists.size());
                         updateProgress(progressListener, msg);
                     }
@@ -88,6 +88,7 @@ public class IndexesParser extends MusicDirectoryEntryParser {
                     shortcut.setIndex("*");
 					shortcut.setStarred(get("starred") != null);
                     shortcuts.add(shortcut);
+					addToChunk(progressListener, shortcut);
 				} else if("child".equals(name)) {
 					MusicDirectory.Entry entry = parseEntry("");
 					entries.add(entry);
@@ -98,6 +99,7 @@ public class IndexesParser extends MusicDirectoryEntryParser {
         } while (eventType != XmlPullParser.END_DOCUMENT);
 
         validate();
+		flushChunk(progressListener);
 		
 		if(ignoredArticles != null) {
 			SharedPreferences.Editor prefs = Util.getPreferences(context).edit();
@@ -0,0 +1,560 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.service.parser;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Walks a JSON response from the server as if it were the XML one, so the same parsers can read both.  Every object
+ * is an element named after the key it is under, every item of an array is an element named after the array's key,
+ * the plain values of an object are its attributes and "value" is its text.  The handful of XML elements which only
+ * have text, ie: biography, show up as plain values in JSON and are turned back into elements.
+ *
+ * The response is read a chunk at a time and only what the current event points at is kept around.  The attributes
+ * of an object are the plain values before its first child, and only if a parser asks for one which isn't there is
+ * the rest of the object read ahead to find it, since some servers put the children first.
+ */
+public class JsonPullParser {
+	private static final int OBJECT = 0;
+	private static final int ARRAY = 1;
+	private static final String[] TEXT_ELEMENTS = {"biography", "musicBrainzId", "lastFmUrl", "smallImageUrl", "mediumImageUrl", "largeImageUrl"};
+
+	private Reader reader;
+	private boolean endOfInput;
+	private IOException readAheadError;
+
+	// Window onto the response: buffer[0] is at offset in the response, and everything from kept on has to stay in it
+	private char[] buffer;
+	private int offset;
+	private int length;
+	private int kept;
+	private int position;
+
+	// Objects and arrays which have been entered but not left yet
+	private int depth = 0;
+	private int[] frameTypes = new int[16];
+	private String[] frameNames = new String[16];
+
+	// Every key which has been used as a name, so each is only made into a String once
+	private String[] names = new String[32];
+	private int nameCount = 0;
+
+	private int event = XmlPullParser.START_DOCUMENT;
+	private String name;
+	private int attributeCount = 0;
+	private int[] attributes = new int[4 * 16];
+	// Where to carry on looking for attributes after the first child, or -1 once the whole object has been seen
+	private int attributesFrom = -1;
+	private int textStart;
+	private int textEnd;
+	private boolean pendingText = false;
+	private boolean pendingEnd = false;
+
+	public void setInput(Reader reader) throws IOException {
+		this.reader = reader;
+		endOfInput = false;
+		readAheadError = null;
+		buffer = new char[8192];
+		offset = 0;
+		length = 0;
+		kept = 0;
+
+		position = skipWhitespace(0);
+		expect(position, '{');
+		position++;
+		depth = 0;
+		push(OBJECT, null);
+		event = XmlPullParser.START_DOCUMENT;
+	}
+
+	public int next() throws IOException {
+		if(pendingText) {
+			pendingText = false;
+			return event = XmlPullParser.TEXT;
+		} else if(pendingEnd) {
+			pendingEnd = false;
+			attributeCount = 0;
+			return event = XmlPullParser.END_TAG;
+		} else if(readAheadError != null) {
+			throw readAheadError;
+		}
+
+		// Nothing the last event pointed at is needed anymore
+		kept = position;
+		attributeCount = 0;
+		attributesFrom = -1;
+		while(depth > 0) {
+			int top = depth - 1;
+			position = skipSeparators(position);
+			char c = charAt(position);
+
+			if(frameTypes[top] == ARRAY) {
+				if(c == ']') {
+					position++;
+					depth--;
+				} else if(c == '{') {
+					return startObject(frameNames[top]);
+				} else if(c == '[') {
+					position++;
+					push(ARRAY, frameNames[top]);
+				} else {
+					// Plain value in a list, ie: the folders a user can see
+					int start = position;
+					position = skipValue(position);
+					return startTextElement(frameNames[top], start, position);
+				}
+			} else {
+				if(c == '}') {
+					position++;
+					String ended = frameNames[top];
+					depth--;
+					if(depth == 0) {
+						break;
+					}
+
+					name = ended;
+					return event = XmlPullParser.END_TAG;
+				}
+
+				int keyStart = position + 1;
+				position = skipString(position);
+				int keyEnd = position - 1;
+				position = skipWhitespace(position);
+				expect(position, ':');
+				position = skipWhitespace(position + 1);
+
+				c = charAt(position);
+				if(c == '{') {
+					return startObject(getName(keyStart, keyEnd));
+				} else if(c == '[') {
+					position++;
+					push(ARRAY, getName(keyStart, keyEnd));
+				} else {
+					int start = position;
+					position = skipValue(position);
+					if(matches(keyStart, keyEnd, "value")) {
+						textStart = start;
+						textEnd = position;
+						return event = XmlPullParser.TEXT;
+					} else if(isTextElement(keyStart, keyEnd)) {
+						return startTextElement(getName(keyStart, keyEnd), start, position);
+					}
+					// Any other plain value after a child was only an attribute while the object was being started
+				}
+			}
+		}
+
+		name = null;
+		return event = XmlPullParser.END_DOCUMENT;
+	}
+
+	public int getEventType() {
+		return event;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getText() {
+		return event == XmlPullParser.TEXT ? decode(textStart, textEnd) : null;
+	}
+
+	public String getAttributeValue(String attribute) {
+		int i = findAttribute(attribute);
+		return i == -1 ? null : decode(attributes[i + 2], attributes[i + 3]);
+	}
+
+	/**
+	 * Same as parsing getAttributeValue, but without making a String first when the value is a plain number.
+	 */
+	public Long getAttributeLong(String attribute) {
+		int i = findAttribute(attribute);
+		if(i == -1) {
+			return null;
+		}
+
+		int start = attributes[i + 2];
+		int end = attributes[i + 3];
+		if(at(start) == '"') {
+			start++;
+			end--;
+		}
+
+		boolean negative = start < end && at(start) == '-';
+		long value = 0;
+		for(int j = negative ? start + 1 : start; j < end; j++) {
+			char c = at(j);
+			if(c < '0' || c > '9' || j - start > 18) {
+				// Not a plain number, so let the usual parsing deal with it
+				String s = getAttributeValue(attribute);
+				return s == null ? null : Long.valueOf(s);
+			}
+			value = value * 10 + (c - '0');
+		}
+		if(start == end || (negative && start + 1 == end)) {
+			throw new NumberFormatException("Invalid number for " + attribute);
+		}
+		return negative ? -value : value;
+	}
+
+	private int startObject(String objectName) throws IOException {
+		position++;
+		push(OBJECT, objectName);
+		name = objectName;
+
+		// Take the plain values up to the first child as they go by, so they are only read once
+		while(true) {
+			int p = skipSeparators(position);
+			char c = charAt(p);
+			if(c == '}') {
+				break;
+			}
+
+			int keyStart = p + 1;
+			p = skipString(p);
+			int keyEnd = p - 1;
+			p = skipWhitespace(p);
+			expect(p, ':');
+			p = skipWhitespace(p + 1);
+
+			c = charAt(p);
+			if(c == '{' || c == '[' || matches(keyStart, keyEnd, "value") || isTextElement(keyStart, keyEnd)) {
+				// Leave it for next, and only look for more attributes past it if someone asks
+				attributesFrom = position;
+				break;
+			}
+
+			int valueStart = p;
+			position = skipValue(p);
+			addAttribute(keyStart, keyEnd, valueStart, position);
+		}
+
+		return event = XmlPullParser.START_TAG;
+	}
+
+	private int startTextElement(String elementName, int start, int end) {
+		name = elementName;
+		textStart = start;
+		textEnd = end;
+		pendingText = true;
+		pendingEnd = true;
+		return event = XmlPullParser.START_TAG;
+	}
+
+	// Read the rest of the current object to find the attributes which come after its children
+	private void readAheadAttributes() {
+		int p = attributesFrom;
+		attributesFrom = -1;
+		try {
+			while(true) {
+				p = skipSeparators(p);
+				char c = charAt(p);
+				if(c == '}') {
+					return;
+				}
+
+				int keyStart = p + 1;
+				p = skipString(p);
+				int keyEnd = p - 1;
+				p = skipWhitespace(p);
+				expect(p, ':');
+				p = skipWhitespace(p + 1);
+
+				c = charAt(p);
+				if(c == '{' || c == '[') {
+					p = skipContainer(p);
+				} else {
+					int valueStart = p;
+					p = skipValue(p);
+					if(!matches(keyStart, keyEnd, "value") && !isTextElement(keyStart, keyEnd)) {
+						addAttribute(keyStart, keyEnd, valueStart, p);
+					}
+				}
+			}
+		} catch(IOException e) {
+			// Attribute lookups can't throw, so give it to whoever calls next
+			readAheadError = e;
+		}
+	}
+
+	private void addAttribute(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+		int i = attributeCount * 4;
+		if(i + 4 > attributes.length) {
+			int[] bigger = new int[attributes.length * 2];
+			System.arraycopy(attributes, 0, bigger, 0, attributes.length);
+			attributes = bigger;
+		}
+		attributes[i] = keyStart;
+		attributes[i + 1] = keyEnd;
+		attributes[i + 2] = valueStart;
+		attributes[i + 3] = valueEnd;
+		attributeCount++;
+	}
+
+	private int findAttribute(String attribute) {
+		if(event != XmlPullParser.START_TAG) {
+			return -1;
+		}
+
+		int from = 0;
+		while(true) {
+			for(int i = from; i < attributeCount * 4; i += 4) {
+				if(matches(attributes[i], attributes[i + 1], attribute)) {
+					// null means the same as not being there at all
+					return matches(attributes[i + 2], attributes[i + 3], "null") ? -1 : i;
+				}
+			}
+
+			if(attributesFrom == -1) {
+				return -1;
+			}
+			from = attributeCount * 4;
+			readAheadAttributes();
+		}
+	}
+
+	private void push(int type, String frameName) {
+		if(depth == frameTypes.length) {
+			int[] types = new int[depth * 2];
+			System.arraycopy(frameTypes, 0, types, 0, depth);
+			frameTypes = types;
+			String[] frameNames = new String[depth * 2];
+			System.arraycopy(this.frameNames, 0, frameNames, 0, depth);
+			this.frameNames = frameNames;
+		}
+		frameTypes[depth] = type;
+		frameNames[depth] = frameName;
+		depth++;
+	}
+
+	private String getName(int start, int end) {
+		for(int i = 0; i < nameCount; i++) {
+			if(matches(start, end, names[i])) {
+				return names[i];
+			}
+		}
+
+		String name = decode(start - 1, end + 1);
+		if(nameCount == names.length) {
+			String[] bigger = new String[nameCount * 2];
+			System.arraycopy(names, 0, bigger, 0, nameCount);
+			names = bigger;
+		}
+		names[nameCount++] = name;
+		return name;
+	}
+
+	private boolean isTextElement(int start, int end) {
+		for(String textElement: TEXT_ELEMENTS) {
+			if(matches(start, end, textElement)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean matches(int start, int end, String s) {
+		if(end - start != s.length()) {
+			return false;
+		}
+		for(int i = 0; i < s.length(); i++) {
+			if(at(start + i) != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Turn a raw value into a String, taking off the quotes and escapes of strings
+	private String decode(int start, int end) {
+		if(at(start) != '"') {
+			return new String(buffer, start - offset, end - start);
+		}
+
+		start++;
+		end--;
+		int escape = -1;
+		for(int i = start; i < end; i++) {
+			if(at(i) == '\\') {
+				escape = i;
+				break;
+			}
+		}
+		if(escape == -1) {
+			return new String(buffer, start - offset, end - start);
+		}
+
+		StringBuilder builder = new StringBuilder(end - start);
+		builder.append(buffer, start - offset, escape - start);
+		for(int i = escape; i < end; i++) {
+			char c = at(i);
+			if(c != '\\') {
+				builder.append(c);
+				continue;
+			}
+
+			c = at(++i);
+			switch(c) {
+				case 'b':
+					builder.append('\b');
+					break;
+				case 'f':
+					builder.append('\f');
+					break;
+				case 'n':
+					builder.append('\n');
+					break;
+				case 'r':
+					builder.append('\r');
+					break;
+				case 't':
+					builder.append('\t');
+					break;
+				case 'u':
+					builder.append((char) Integer.parseInt(new String(buffer, i + 1 - offset, 4), 16));
+					i += 4;
+					break;
+				default:
+					builder.append(c);
+					break;
+			}
+		}
+		return builder.toString();
+	}
+
+	private int skipWhitespace(int p) throws IOException {
+		while(available(p) && Character.isWhitespace(at(p))) {
+			p++;
+		}
+		return p;
+	}
+	private int skipSeparators(int p) throws IOException {
+		while(available(p) && (at(p) == ',' || Character.isWhitespace(at(p)))) {
+			p++;
+		}
+		return p;
+	}
+
+	// Skip a string starting at the quote at p, returning the position right after the closing quote
+	private int skipString(int p) throws IOException {
+		expect(p, '"');
+		for(p = p + 1; available(p); p++) {
+			char c = at(p);
+			if(c == '\\') {
+				p++;
+			} else if(c == '"') {
+				return p + 1;
+			}
+		}
+		throw new JsonException("Unterminated string");
+	}
+	private int skipValue(int p) throws IOException {
+		if(charAt(p) == '"') {
+			return skipString(p);
+		}
+
+		int start = p;
+		while(available(p)) {
+			char c = at(p);
+			if(c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+				break;
+			}
+			p++;
+		}
+		if(p == start) {
+			throw new JsonException("Expected a value at " + start);
+		}
+		return p;
+	}
+	private int skipContainer(int p) throws IOException {
+		int nested = 0;
+		while(available(p)) {
+			char c = at(p);
+			if(c == '"') {
+				p = skipString(p);
+				continue;
+			} else if(c == '{' || c == '[') {
+				nested++;
+			} else if(c == '}' || c == ']') {
+				nested--;
+				if(nested == 0) {
+					return p + 1;
+				}
+			}
+			p++;
+		}
+		throw new JsonException("Unterminated object");
+	}
+
+	// Character at p, which has to already be in the buffer
+	private char at(int p) {
+		return buffer[p - offset];
+	}
+	private char charAt(int p) throws IOException {
+		if(!available(p)) {
+			throw new JsonException("Unexpected end of response");
+		}
+		return at(p);
+	}
+	private void expect(int p, char expected) throws IOException {
+		if(charAt(p) != expected) {
+			throw new JsonException("Expected " + expected + " at " + p + " but got " + at(p));
+		}
+	}
+
+	// Read more of the response until p is in the buffer, returning false if the response ends first
+	private boolean available(int p) throws IOException {
+		while(p >= offset + length) {
+			if(endOfInput) {
+				return false;
+			}
+
+			if(length == buffer.length) {
+				int drop = kept - offset;
+				if(drop > 0) {
+					System.arraycopy(buffer, drop, buffer, 0, length - drop);
+					offset = kept;
+					length -= drop;
+				} else {
+					// Everything in it is still needed, ie: reading ahead past a big list for an attribute
+					char[] bigger = new char[buffer.length * 2];
+					System.arraycopy(buffer, 0, bigger, 0, length);
+					buffer = bigger;
+				}
+			}
+
+			int n = reader.read(buffer, length, buffer.length - length);
+			if(n == -1) {
+				endOfInput = true;
+			} else {
+				length += n;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Thrown when the server sends something which isn't valid JSON.
+	 */
+	public static class JsonException extends IOException {
+		public JsonException(String message) {
+			super(message);
+		}
+	}
+}
@@ -45,7 +45,9 @@ public class PlaylistParser extends MusicDirectoryEntryParser {
             if (eventType == XmlPullParser.START_TAG) {
                 String name = getElementName();
                 if ("entry".equals(name)) {
-                    dir.addChild(parseEntry(""));
+					MusicDirectory.Entry entry = parseEntry("");
+                    dir.addChild(entry);
+					addToChunk(progressListener, entry);
                 } else if ("error".equals(name)) {
                     handleError();
                 } else if ("playlist".equals(name)) {
@@ -56,6 +58,7 @@ public class PlaylistParser extends MusicDirectoryEntryParser {
         } while (eventType != XmlPullParser.END_DOCUMENT);
 
         validate();
+		flushChunk(progressListener);
 
         return dir;
     }
@@ -55,12 +55,16 @@ public class SearchResult2Parser extends MusicDirectoryEntryParser {
                     artist.setId(get("id"));
                     artist.setName(get("name"));
                     artists.add(artist);
+					addToChunk(progressListener, artist);
                 } else if ("album".equals(name)) {
 					MusicDirectory.Entry entry = parseEntry("");
 					entry.setDirectory(true);
                     albums.add(entry);
+					addToChunk(progressListener, entry);
                 } else if ("song".equals(name)) {
-                    songs.add(parseEntry(""));
+					MusicDirectory.Entry entry = parseEntry("");
+                    songs.add(entry);
+					addToChunk(progressListener, entry);
                 } else if ("error".equals(name)) {
                     handleError();
                 }
@@ -68,6 +72,7 @@ public class SearchResult2Parser extends MusicDirectoryEntryParser {
         } while (eventType != XmlPullParser.END_DOCUMENT);
 
         validate();
+		flushChunk(progressListener);
 
         return new SearchResult(artists, albums, songs);
     }
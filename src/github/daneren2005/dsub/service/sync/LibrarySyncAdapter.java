@@ -0,0 +1,233 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.service.sync;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import github.daneren2005.dsub.R;
+import github.daneren2005.dsub.domain.Artist;
+import github.daneren2005.dsub.domain.Indexes;
+import github.daneren2005.dsub.domain.MusicDirectory;
+import github.daneren2005.dsub.service.CachedMusicService;
+import github.daneren2005.dsub.service.RESTMusicService;
+import github.daneren2005.dsub.util.Constants;
+import github.daneren2005.dsub.util.FileUtil;
+import github.daneren2005.dsub.util.Notifications;
+import github.daneren2005.dsub.util.SyncUtil;
+import github.daneren2005.dsub.util.Util;
+
+/**
+ * Walks the whole library of artists and albums ahead of time so browsing is served from the metadata cache.
+ * Only runs on wifi while charging, and saves which artists it has finished so a sync that gets cut off can
+ * continue from there next time.
+ */
+public class LibrarySyncAdapter extends SubsonicSyncAdapter {
+	private static final String TAG = LibrarySyncAdapter.class.getSimpleName();
+	// Anything cached more recently than this is used as is instead of asking the server again
+	private static final long MAX_CACHE_AGE = 24L * 60L * 60L * 1000L;
+	private static final int CHECKPOINT_INTERVAL = 20;
+	private static final int MAX_DEPTH = 10;
+
+	private volatile boolean stopped;
+
+	public LibrarySyncAdapter(Context context, boolean autoInitialize) {
+		super(context, autoInitialize);
+	}
+	@TargetApi(14)
+	public LibrarySyncAdapter(Context context, boolean autoInitialize, boolean allowParallelSyncs) {
+		super(context, autoInitialize, allowParallelSyncs);
+	}
+
+	@Override
+	protected boolean isWifiRequired() {
+		return true;
+	}
+	@Override
+	protected boolean isChargingRequired() {
+		return true;
+	}
+
+	@Override
+	public void onSyncCanceled() {
+		stopped = true;
+		super.onSyncCanceled();
+	}
+
+	@Override
+	public void onExecuteSync(final Context context, final int instance) {
+		stopped = false;
+		final String musicFolderId = Util.getSelectedMusicFolderId(context, instance);
+		final ArrayList<String> synced = SyncUtil.getSyncedLibrary(context, instance, musicFolderId);
+		final Set<String> skip = new HashSet<String>(synced);
+
+		List<Artist> artists = new ArrayList<Artist>();
+		try {
+			Indexes indexes = getIndexes(context, instance, musicFolderId);
+			artists.addAll(indexes.getShortcuts());
+			artists.addAll(indexes.getArtists());
+		} catch(Exception e) {
+			Log.e(TAG, "Failed to get artists for " + Util.getServerName(context, instance), e);
+			return;
+		}
+
+		final int total = artists.size();
+		final AtomicInteger progress = new AtomicInteger(Math.min(skip.size(), total));
+		final AtomicInteger failed = new AtomicInteger(0);
+		Notifications.showLibrarySyncNotification(context, progress.get(), total);
+
+		int threads = Integer.parseInt(Util.getPreferences(context).getString(Constants.PREFERENCES_KEY_SYNC_LIBRARY_THREADS, "4"));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		// CachedMusicService isn't thread safe, so each worker gets its own rather than sharing musicService
+		final ThreadLocal<CachedMusicService> workerServices = new ThreadLocal<CachedMusicService>();
+		long start = System.currentTimeMillis();
+		for(final Artist artist: artists) {
+			// Root is only there to list songs which aren't in any folder
+			if(skip.contains(artist.getId()) || "root".equals(artist.getId())) {
+				continue;
+			}
+
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if(stopped) {
+						return;
+					}
+
+					try {
+						CachedMusicService service = workerServices.get();
+						if(service == null) {
+							service = new CachedMusicService(new RESTMusicService());
+							service.setInstance(instance);
+							workerServices.set(service);
+						}
+
+						crawl(service, context, instance, tagBrowsing ? "artist" : "directory", artist.getId(), artist.getName(), 0);
+					} catch(InterruptedException e) {
+						return;
+					} catch(Exception e) {
+						Log.w(TAG, "Failed to sync " + artist.getName(), e);
+						failed.incrementAndGet();
+						return;
+					}
+
+					synchronized (synced) {
+						synced.add(artist.getId());
+						if(synced.size() % CHECKPOINT_INTERVAL == 0) {
+							SyncUtil.setSyncedLibrary(synced, context, instance, musicFolderId);
+						}
+					}
+					Notifications.showLibrarySyncNotification(context, progress.incrementAndGet(), total);
+				}
+			});
+		}
+		executor.shutdown();
+
+		try {
+			// Stop partway through if no longer plugged in or on wifi
+			while(!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+				if(!isSyncAllowed()) {
+					stopped = true;
+				}
+			}
+		} catch(InterruptedException e) {
+			stopped = true;
+			executor.shutdownNow();
+		}
+		Notifications.hideLibrarySyncNotification(context);
+
+		synchronized (synced) {
+			if(stopped || failed.get() > 0) {
+				SyncUtil.setSyncedLibrary(synced, context, instance, musicFolderId);
+			} else {
+				// Start from the beginning next time so anything out of date gets refreshed
+				SyncUtil.removeSyncedLibrary(context, instance, musicFolderId);
+			}
+		}
+
+		Log.i(TAG, "Synced " + progress.get() + " of " + total + " artists in " + (System.currentTimeMillis() - start) + " ms, " + failed.get() + " failed" + (stopped ? ", stopped early" : ""));
+		if(!stopped && progress.get() > 0) {
+			Notifications.showSyncNotification(context, R.string.sync_library_complete, context.getResources().getString(R.string.sync_library_progress_summary, progress.get(), total));
+		}
+	}
+
+	private Indexes getIndexes(Context context, int instance, String musicFolderId) throws Exception {
+		String cacheName = Util.getCacheName(context, instance, tagBrowsing ? "artists" : "indexes", musicFolderId);
+		long timestamp = FileUtil.getMetadataTimestamp(context, cacheName);
+		if(isFresh(timestamp)) {
+			Indexes indexes = FileUtil.deserializeMetadata(context, cacheName, Indexes.class);
+			if(indexes != null) {
+				return indexes;
+			}
+		}
+
+		return musicService.getIndexes(musicFolderId, timestamp > 0, context, null);
+	}
+
+	private void crawl(CachedMusicService service, Context context, int instance, String type, String id, String name, int depth) throws Exception {
+		MusicDirectory dir = getMusicDirectory(service, context, instance, type, id, name);
+		if(depth >= MAX_DEPTH) {
+			return;
+		}
+
+		for(MusicDirectory.Entry child: dir.getChildren(true, false)) {
+			if(stopped) {
+				throw new InterruptedException("Library sync stopped");
+			}
+
+			if(tagBrowsing) {
+				// Albums only contain songs, so nothing further to walk
+				getMusicDirectory(service, context, instance, "album", child.getId(), child.getTitle());
+			} else {
+				crawl(service, context, instance, "directory", child.getId(), child.getTitle(), depth + 1);
+			}
+		}
+	}
+
+	private MusicDirectory getMusicDirectory(CachedMusicService service, Context context, int instance, String type, String id, String name) throws Exception {
+		String cacheName = Util.getCacheName(context, instance, type, id);
+		long timestamp = FileUtil.getMetadataTimestamp(context, cacheName);
+		if(isFresh(timestamp)) {
+			MusicDirectory dir = FileUtil.deserializeMetadata(context, cacheName, MusicDirectory.class);
+			if(dir != null) {
+				return dir;
+			}
+		}
+
+		// Only force a refresh if there is an old copy, otherwise the normal lookup already goes to the server
+		boolean refresh = timestamp > 0;
+		if("artist".equals(type)) {
+			return service.getArtist(id, name, refresh, context, null);
+		} else if("album".equals(type)) {
+			return service.getAlbum(id, name, refresh, context, null);
+		} else {
+			return service.getMusicDirectory(id, name, refresh, context, null);
+		}
+	}
+
+	private boolean isFresh(long timestamp) {
+		return timestamp > 0 && (System.currentTimeMillis() - timestamp) < MAX_CACHE_AGE;
+	}
+}
@@ -135,7 +135,7 @@ public class PlaylistSyncAdapter extends SubsonicSyncAdapter {
 		// For remaining playlists, check to make sure they have been updated recently
 		if(remainder != null) {
 			for (Playlist playlist : remainder) {
-				MusicDirectory dir = FileUtil.deserialize(context, Util.getCacheName(context, instance, "playlist", playlist.getId()), MusicDirectory.class, MAX_PLAYLIST_AGE);
+				MusicDirectory dir = FileUtil.deserializeMetadata(context, Util.getCacheName(context, instance, "playlist", playlist.getId()), MusicDirectory.class, MAX_PLAYLIST_AGE);
 				if (dir == null) {
 					try {
 						musicService.getPlaylist(true, playlist.getId(), serverName, context, null);
@@ -65,13 +65,19 @@ public class SubsonicSyncAdapter extends AbstractThreadedSyncAdapter {
 
 	@Override
 	public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
+		if(isSyncAllowed()) {
+			executeSync(context);
+		}
+	}
+
+	protected boolean isSyncAllowed() {
 		ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
 		NetworkInfo networkInfo = manager.getActiveNetworkInfo();
 		
 		// Don't try to sync if no network!
 		if(networkInfo == null || !networkInfo.isConnected() || Util.isOffline(context)) {
 			Log.w(TAG, "Not running sync, not connected to network");
-			return;
+			return false;
 		}
 		
 		// Make sure battery > x% or is charging
@@ -79,26 +85,34 @@ public class SubsonicSyncAdapter extends AbstractThreadedSyncAdapter {
 		Intent batteryStatus = context.registerReceiver(null, intentFilter);
 		int status = batteryStatus.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
 		if(status != BatteryManager.BATTERY_STATUS_CHARGING && status != BatteryManager.BATTERY_STATUS_FULL) {
+			if(isChargingRequired()) {
+				Log.w(TAG, "Not running sync, not charging");
+				return false;
+			}
+
 			int level = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
 			int scale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
 			
 			if((level / (float)scale) < 0.15) {
 				Log.w(TAG, "Not running sync, battery too low");
-				return;
+				return false;
 			}
 		}
 
 		// Check if user wants to only sync on wifi
-		SharedPreferences prefs = Util.getPreferences(context);
-		if(prefs.getBoolean(Constants.PREFERENCES_KEY_SYNC_WIFI, true)) {
-			if(networkInfo.getType() == ConnectivityManager.TYPE_WIFI) {
-				executeSync(context);
-			} else {
-				Log.w(TAG, "Not running sync, not connected to wifi");
-			}
-		} else {
-			executeSync(context);
+		if(isWifiRequired() && networkInfo.getType() != ConnectivityManager.TYPE_WIFI) {
+			Log.w(TAG, "Not running sync, not connected to wifi");
+			return false;
 		}
+
+		return true;
+	}
+	protected boolean isWifiRequired() {
+		SharedPreferences prefs = Util.getPreferences(context);
+		return prefs.getBoolean(Constants.PREFERENCES_KEY_SYNC_WIFI, true);
+	}
+	protected boolean isChargingRequired() {
+		return false;
 	}
 	
 	private void executeSync(Context context) {
@@ -0,0 +1,161 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.util;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Picks the bitrate to stream at when the max bitrate is set to adaptive.  A rolling estimate of how fast a single
+ * connection is on each network is kept from what downloads and cover art fetches see, and the highest bitrate the
+ * server can transcode to which that estimate keeps up with, with some headroom, is used.  Transfers running at the
+ * same time only see their share of the network, so samples are only taken while one is running on its own.
+ */
+public final class AdaptiveBitrate {
+	private static final String TAG = AdaptiveBitrate.class.getSimpleName();
+
+	public static final int ADAPTIVE = -1;
+	private static final int[] BITRATES = {32, 64, 80, 96, 112, 128, 160, 192, 256, 320};
+	// Used until the network has been measured
+	private static final int DEFAULT_BITRATE = 128;
+	// Only pick a bitrate which needs less than this part of the estimated throughput
+	private static final double HEADROOM = 1.5;
+	// How much a new sample moves the estimate
+	private static final double SAMPLE_WEIGHT = 0.3;
+	// Samples smaller than this are mostly connection setup
+	private static final long MIN_SAMPLE_BYTES = 16 * 1024L;
+	private static final long MIN_SAMPLE_TIME = 100L;
+
+	private static final Map<String, Double> estimates = new HashMap<String, Double>();
+	private static int transfers = 0;
+
+	private AdaptiveBitrate() {
+	}
+
+	/**
+	 * Mark the start of a transfer which samples may be taken from.  Must be matched by a call to endTransfer.
+	 */
+	public static void startTransfer() {
+		synchronized(estimates) {
+			transfers++;
+		}
+	}
+	public static void endTransfer() {
+		synchronized(estimates) {
+			transfers--;
+		}
+	}
+
+	/**
+	 * Add what was seen transferring bytes over millis to the estimate of the network currently in use.  Ignored
+	 * while more than one transfer is running.
+	 */
+	public static void addSample(Context context, long bytes, long millis) {
+		if(bytes < MIN_SAMPLE_BYTES || millis < MIN_SAMPLE_TIME) {
+			return;
+		}
+		synchronized(estimates) {
+			if(transfers > 1) {
+				return;
+			}
+		}
+
+		String network = getNetwork(context);
+		if(network == null) {
+			return;
+		}
+
+		double bytesPerSecond = bytes * 1000.0 / millis;
+		synchronized(estimates) {
+			Double estimate = estimates.get(network);
+			if(estimate == null) {
+				estimate = bytesPerSecond;
+			} else {
+				estimate = estimate * (1 - SAMPLE_WEIGHT) + bytesPerSecond * SAMPLE_WEIGHT;
+			}
+			estimates.put(network, estimate);
+		}
+	}
+
+	/**
+	 * Get the estimated throughput of the network currently in use, or -1 if it hasn't been measured.
+	 */
+	public static long getBytesPerSecond(Context context) {
+		String network = getNetwork(context);
+		if(network == null) {
+			return -1;
+		}
+
+		synchronized(estimates) {
+			Double estimate = estimates.get(network);
+			return estimate == null ? -1 : estimate.longValue();
+		}
+	}
+
+	/**
+	 * Pick the bitrate to ask the server for.
+	 *
+	 * @param songBitRate bitrate of the original file, or null if unknown
+	 * @return bitrate in kbps, or 0 to stream the original file
+	 */
+	public static int getBitrate(Context context, Integer songBitRate) {
+		long bytesPerSecond = getBytesPerSecond(context);
+		if(bytesPerSecond < 0) {
+			return DEFAULT_BITRATE;
+		} else if(songBitRate != null && songBitRate > 0 && canSustain(bytesPerSecond, songBitRate)) {
+			return 0;
+		}
+
+		int bitrate = BITRATES[0];
+		for(int candidate: BITRATES) {
+			if(canSustain(bytesPerSecond, candidate)) {
+				bitrate = candidate;
+			}
+		}
+		return bitrate;
+	}
+
+	/**
+	 * Log that a download was started at bitrate along with what it was based on.
+	 */
+	public static void logDecision(Context context, String title, int bitrate) {
+		long bytesPerSecond = getBytesPerSecond(context);
+		Log.i(TAG, "Picked " + (bitrate == 0 ? "original" : (bitrate + " kbps")) + " for " + title + " on " + getNetwork(context) + " at " + (bytesPerSecond < 0 ? "unmeasured" : (Util.formatBytes(bytesPerSecond) + "/s")));
+	}
+
+	private static boolean canSustain(long bytesPerSecond, int bitrate) {
+		return bitrate * 1000L / 8L * HEADROOM <= bytesPerSecond;
+	}
+
+	private static String getNetwork(Context context) {
+		ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo networkInfo = manager.getActiveNetworkInfo();
+		if(networkInfo == null) {
+			return null;
+		}
+
+		// Mobile networks are told apart by their type, ie: 3G vs LTE
+		if(networkInfo.getType() == ConnectivityManager.TYPE_MOBILE) {
+			return networkInfo.getTypeName() + ":" + networkInfo.getSubtypeName();
+		} else {
+			return networkInfo.getTypeName();
+		}
+	}
+}
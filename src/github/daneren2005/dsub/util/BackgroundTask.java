@@ -25,6 +25,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -99,6 +100,29 @@ public abstract class BackgroundTask<T> implements ProgressListener {
 
 	public abstract void execute();
 
+	/**
+	 * Run on executor instead of the shared task threads, for work which can't be dropped when their queue is full
+	 */
+	public void execute(Executor executor) {
+		final Task current = task = new Task();
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if(Looper.myLooper() == null) {
+					Looper.prepare();
+				}
+
+				try {
+					current.execute();
+				} catch(InterruptedException e) {
+					// Cancelled, and the executor's thread gets reused so nothing else to do
+				} catch(Throwable t) {
+					Log.e(TAG, "Unexpected crash in BackgroundTask", t);
+				}
+			}
+		});
+	}
+
     protected abstract T doInBackground() throws Throwable;
 
     protected abstract void done(T result);
@@ -172,6 +196,11 @@ public abstract class BackgroundTask<T> implements ProgressListener {
         updateProgress(context.getResources().getString(messageId));
     }
 
+	@Override
+	public void updateChunk(int position, List<?> items) {
+		// Most tasks only care about the finished result
+	}
+
 	public void setOnCompletionListener(Runnable onCompletionListener) {
 		this.onCompletionListener = onCompletionListener;
 	}
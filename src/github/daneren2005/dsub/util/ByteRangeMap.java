@@ -0,0 +1,169 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.util;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Which parts of a partial file have been downloaded once it stops being filled from front to back, ie: after
+ * jumping ahead to a part that wasn't there yet.  Ranges are kept sorted by where they start and are merged as soon
+ * as they touch, so the holes are simply the gaps between them.  It is saved next to the partial file so the holes
+ * can still be filled after a restart.
+ */
+public class ByteRangeMap {
+	private static final String TAG = ByteRangeMap.class.getSimpleName();
+	private static final int VERSION = 1;
+
+	// Start of every range mapped to the offset right after its last byte
+	private final TreeMap<Long, Long> ranges = new TreeMap<Long, Long>();
+	private long length = -1;
+
+	/**
+	 * Get the length of the whole file, or -1 if it isn't known yet, ie: for a transcoded stream which hasn't
+	 * ended yet.
+	 */
+	public synchronized long getLength() {
+		return length;
+	}
+	public synchronized void setLength(long length) {
+		this.length = length;
+	}
+
+	public synchronized void add(long start, long end) {
+		if(end <= start) {
+			return;
+		}
+
+		// Swallow every range which overlaps or touches the new one
+		Map.Entry<Long, Long> before = ranges.floorEntry(start);
+		if(before != null && before.getValue() >= start) {
+			start = before.getKey();
+			end = Math.max(end, before.getValue());
+		}
+		Iterator<Map.Entry<Long, Long>> iterator = ranges.tailMap(start, true).entrySet().iterator();
+		while(iterator.hasNext()) {
+			Map.Entry<Long, Long> entry = iterator.next();
+			if(entry.getKey() > end) {
+				break;
+			}
+			end = Math.max(end, entry.getValue());
+			iterator.remove();
+		}
+		ranges.put(start, end);
+	}
+
+	public synchronized boolean contains(long offset) {
+		Map.Entry<Long, Long> range = ranges.floorEntry(offset);
+		return range != null && range.getValue() > offset;
+	}
+
+	/**
+	 * Get the offset right after the run of downloaded bytes which offset is in, or offset itself if it isn't
+	 * downloaded yet.
+	 */
+	public synchronized long getEnd(long offset) {
+		Map.Entry<Long, Long> range = ranges.floorEntry(offset);
+		return (range != null && range.getValue() > offset) ? range.getValue() : offset;
+	}
+
+	/**
+	 * Get the first offset at or after from which is missing, or the length of the file if nothing after it is.
+	 */
+	public synchronized long getNextHole(long from) {
+		long hole = getEnd(from);
+		return (length >= 0 && hole >= length) ? length : hole;
+	}
+
+	/**
+	 * Get the end of the hole starting at start, which is either where the next range starts or the end of the file.
+	 * Returns -1 if the hole runs to the end of a file whose length isn't known.
+	 */
+	public synchronized long getHoleEnd(long start) {
+		Long next = ranges.higherKey(start);
+		return next != null ? next : length;
+	}
+
+	public synchronized long getDownloaded() {
+		long downloaded = 0;
+		for(Map.Entry<Long, Long> range: ranges.entrySet()) {
+			downloaded += range.getValue() - range.getKey();
+		}
+		return downloaded;
+	}
+
+	public synchronized boolean isComplete() {
+		return length >= 0 && getEnd(0) >= length;
+	}
+
+	public synchronized int size() {
+		return ranges.size();
+	}
+
+	public synchronized void save(File file) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(VERSION);
+			out.writeLong(length);
+			out.writeInt(ranges.size());
+			for(Map.Entry<Long, Long> range: ranges.entrySet()) {
+				out.writeLong(range.getKey());
+				out.writeLong(range.getValue());
+			}
+			out.close();
+
+			FileUtil.writeChecked(file, bytes.toByteArray());
+		} catch(IOException e) {
+			Log.w(TAG, "Failed to save ranges to " + file, e);
+		}
+	}
+
+	/**
+	 * Read back the ranges saved for a partial file, or null if there aren't any.
+	 */
+	public static ByteRangeMap load(File file) {
+		if(!file.exists()) {
+			return null;
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(FileUtil.readChecked(file)));
+			if(in.readInt() != VERSION) {
+				return null;
+			}
+
+			ByteRangeMap map = new ByteRangeMap();
+			map.length = in.readLong();
+			int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				map.add(in.readLong(), in.readLong());
+			}
+			return map;
+		} catch(IOException e) {
+			Log.w(TAG, "Failed to load ranges from " + file, e);
+			return null;
+		}
+	}
+}
@@ -153,6 +153,10 @@ public class CacheCleaner {
 
         for (DownloadFile downloadFile : downloadService.getDownloads()) {
             undeletable.add(downloadFile.getPartialFile());
+            undeletable.add(downloadFile.getSegmentedFile());
+            undeletable.add(downloadFile.getSegmentsFile());
+            undeletable.add(downloadFile.getRangesFile());
+            undeletable.add(downloadFile.getBitrateFile());
             undeletable.add(downloadFile.getCompleteFile());
         }
 
@@ -222,6 +226,7 @@ public class CacheCleaner {
 				
 				// Make sure cover art directory does not grow too large
 				cleanupCoverArt(context);
+				FileUtil.deleteStaleTempFiles(context);
 			} catch (RuntimeException x) {
 				Log.e(TAG, "Error in cache cleaning.", x);
 			}
@@ -94,6 +94,13 @@ public final class Constants {
     public static final String PREFERENCES_KEY_CACHE_LOCATION = "cacheLocation";
     public static final String PREFERENCES_KEY_PRELOAD_COUNT_WIFI = "preloadCountWifi";
 	public static final String PREFERENCES_KEY_PRELOAD_COUNT_MOBILE = "preloadCountMobile";
+	public static final String PREFERENCES_KEY_MAX_DOWNLOADS_WIFI = "maxDownloadsWifi";
+	public static final String PREFERENCES_KEY_MAX_DOWNLOADS_MOBILE = "maxDownloadsMobile";
+	public static final String PREFERENCES_KEY_DOWNLOAD_SEGMENTS = "downloadSegments";
+	public static final String PREFERENCES_KEY_DOWNLOAD_LIMIT_SCREEN_ON = "downloadLimitScreenOn";
+	public static final String PREFERENCES_KEY_DOWNLOAD_LIMIT_SCREEN_OFF = "downloadLimitScreenOff";
+	public static final String PREFERENCES_KEY_DOWNLOAD_LIMIT_METERED = "downloadLimitMetered";
+	public static final String PREFERENCES_KEY_DOWNLOAD_LIMIT_UNMETERED = "downloadLimitUnmetered";
     public static final String PREFERENCES_KEY_HIDE_MEDIA = "hideMedia";
     public static final String PREFERENCES_KEY_MEDIA_BUTTONS = "mediaButtons";
     public static final String PREFERENCES_KEY_SCREEN_LIT_ON_DOWNLOAD = "screenLitOnDownload";
@@ -125,6 +132,8 @@ public final class Constants {
 	public static final String PREFERENCES_KEY_SYNC_NOTIFICATION = "syncNotification";
 	public static final String PREFERENCES_KEY_SYNC_STARRED = "syncStarred";
 	public static final String PREFERENCES_KEY_SYNC_MOST_RECENT = "syncMostRecent";
+	public static final String PREFERENCES_KEY_SYNC_LIBRARY = "syncLibrary";
+	public static final String PREFERENCES_KEY_SYNC_LIBRARY_THREADS = "syncLibraryThreads";
 	public static final String PREFERENCES_KEY_PAUSE_DISCONNECT = "pauseOnDisconnect";
 	public static final String PREFERENCES_KEY_HIDE_WIDGET = "hideWidget";
 	public static final String PREFERENCES_KEY_PODCASTS_ENABLED = "podcastsEnabled";
@@ -151,6 +160,7 @@ public final class Constants {
 	public static final String PREFERENCES_KEY_REPLAY_GAIN_UNTAGGED = "replayGainUntagged2";
 	public static final String PREFERENCES_KEY_REPLAY_GAIN_TYPE= "replayGainType";
 	public static final String PREFERENCES_KEY_ALBUMS_PER_FOLDER = "albumsPerFolder";
+	public static final String PREFERENCES_KEY_BROWSE_REVALIDATE = "browseRevalidate";
 	
 	public static final String OFFLINE_SCROBBLE_COUNT = "scrobbleCount";
 	public static final String OFFLINE_SCROBBLE_ID = "scrobbleID";
@@ -184,6 +194,7 @@ public final class Constants {
 	public static final String SYNC_ACCOUNT_PODCAST_AUTHORITY = "github.daneren2005.dsub.podcasts.provider";
 	public static final String SYNC_ACCOUNT_STARRED_AUTHORITY = "github.daneren2005.dsub.starred.provider";
 	public static final String SYNC_ACCOUNT_MOST_RECENT_AUTHORITY = "github.daneren2005.dsub.mostrecent.provider";
+	public static final String SYNC_ACCOUNT_LIBRARY_AUTHORITY = "github.daneren2005.dsub.library.provider";
 
 	public static final String TASKER_EXTRA_BUNDLE = "com.twofortyfouram.locale.intent.extra.BUNDLE";
 
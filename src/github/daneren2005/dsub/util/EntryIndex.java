@@ -0,0 +1,213 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.util;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reverse index from an entry id to the cache names of every stored directory which contains it, so that star,
+ * rating and bookmark changes only have to rewrite the directories that actually hold the entry.
+ *
+ * The ids of each directory are kept as their own record next to it in the metadata store.  The reverse mapping
+ * is only held in memory.  The store reports every key written, including ones the :sync process wrote, and only
+ * those are read again on the next lookup.
+ */
+public class EntryIndex {
+	private static final String TAG = EntryIndex.class.getSimpleName();
+	static final String PREFIX = "entryIds-";
+	private static final String COMPLETE_KEY = "entryIds";
+
+	private final MetadataStore store;
+	private final Map<String, Set<String>> cacheNamesById = new HashMap<String, Set<String>>();
+	private final Map<String, List<String>> idsByCacheName = new HashMap<String, List<String>>();
+	// Guarded by itself rather than this, since the store reports changes while holding its own lock
+	private final Set<String> dirtyKeys = new HashSet<String>();
+	private boolean reset = true;
+
+	public EntryIndex(MetadataStore store) {
+		this.store = store;
+		store.addOnChangedListener(new MetadataStore.OnChangedListener() {
+			@Override
+			public void onChanged(String key) {
+				if(key.startsWith(PREFIX)) {
+					synchronized (dirtyKeys) {
+						dirtyKeys.add(key);
+					}
+				}
+			}
+
+			@Override
+			public void onReset() {
+				synchronized (dirtyKeys) {
+					dirtyKeys.clear();
+					reset = true;
+				}
+			}
+		});
+	}
+
+	public synchronized void put(String cacheName, List<String> ids) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(ids.size() * 8 + 4);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(ids.size());
+			for(String id: ids) {
+				out.writeUTF(id);
+			}
+			out.close();
+
+			if(store.put(PREFIX + cacheName, bytes.toByteArray())) {
+				setIds(cacheName, ids);
+			}
+		} catch(IOException e) {
+			Log.w(TAG, "Failed to index " + cacheName, e);
+		}
+	}
+
+	public synchronized void remove(String cacheName) {
+		store.remove(PREFIX + cacheName);
+		setIds(cacheName, null);
+	}
+
+	public Set<String> getCacheNames(String id) {
+		return getCacheNames(Collections.singletonList(id));
+	}
+	public synchronized Set<String> getCacheNames(Collection<String> ids) {
+		sync();
+
+		Set<String> cacheNames = new HashSet<String>();
+		for(String id: ids) {
+			Set<String> names = cacheNamesById.get(id);
+			if(names != null) {
+				cacheNames.addAll(names);
+			}
+		}
+		return cacheNames;
+	}
+
+	public boolean isComplete() {
+		return store.contains(COMPLETE_KEY);
+	}
+	public synchronized void setComplete() {
+		store.put(COMPLETE_KEY, new byte[0]);
+	}
+
+	public synchronized void clear() {
+		for(String key: store.keys()) {
+			if(key.startsWith(PREFIX)) {
+				store.remove(key);
+			}
+		}
+		store.remove(COMPLETE_KEY);
+
+		cacheNamesById.clear();
+		idsByCacheName.clear();
+	}
+
+	private void sync() {
+		store.refresh();
+
+		List<String> keys;
+		boolean reload;
+		synchronized (dirtyKeys) {
+			reload = reset;
+			if(!reload && dirtyKeys.isEmpty()) {
+				return;
+			}
+
+			keys = new ArrayList<String>(dirtyKeys);
+			dirtyKeys.clear();
+			reset = false;
+		}
+
+		// Outside of dirtyKeys, since listing can take the store lock which is held while reporting changes
+		if(reload) {
+			cacheNamesById.clear();
+			idsByCacheName.clear();
+			keys.clear();
+			for(String key: store.keys()) {
+				if(key.startsWith(PREFIX)) {
+					keys.add(key);
+				}
+			}
+		}
+
+		// Removed keys read back as null, which drops them
+		for(String key: keys) {
+			setIds(key.substring(PREFIX.length()), read(key));
+		}
+	}
+
+	private List<String> read(String key) {
+		byte[] data = store.get(key);
+		if(data == null) {
+			return null;
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			int size = in.readInt();
+			List<String> ids = new ArrayList<String>(size);
+			for(int i = 0; i < size; i++) {
+				ids.add(in.readUTF());
+			}
+			return ids;
+		} catch(IOException e) {
+			Log.w(TAG, "Failed to read index " + key, e);
+			return null;
+		}
+	}
+
+	private void setIds(String cacheName, List<String> ids) {
+		List<String> oldIds = idsByCacheName.remove(cacheName);
+		if(oldIds != null) {
+			for(String id: oldIds) {
+				Set<String> names = cacheNamesById.get(id);
+				if(names != null) {
+					names.remove(cacheName);
+					if(names.isEmpty()) {
+						cacheNamesById.remove(id);
+					}
+				}
+			}
+		}
+
+		if(ids != null) {
+			idsByCacheName.put(cacheName, ids);
+			for(String id: ids) {
+				Set<String> names = cacheNamesById.get(id);
+				if(names == null) {
+					names = new HashSet<String>();
+					cacheNamesById.put(id, names);
+				}
+				names.add(cacheName);
+			}
+		}
+	}
+}
@@ -19,14 +19,18 @@
 package github.daneren2005.dsub.util;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
@@ -34,15 +38,16 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.zip.CRC32;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterInputStream;
 
-import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Build;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.util.LruCache;
 import android.util.Log;
 import github.daneren2005.dsub.domain.Artist;
 import github.daneren2005.dsub.domain.Genre;
@@ -58,6 +63,8 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
 /**
  * @author Sindre Mehus
  */
@@ -69,19 +76,52 @@ public class FileUtil {
     private static final List<String> MUSIC_FILE_EXTENSIONS = Arrays.asList("mp3", "ogg", "aac", "flac", "m4a", "wav", "wma");
 	private static final List<String> VIDEO_FILE_EXTENSIONS = Arrays.asList("flv", "mp4", "m4v", "wmv", "avi", "mov", "mpg", "mkv");
 	private static final List<String> PLAYLIST_FILE_EXTENSIONS = Arrays.asList("m3u");
+	private static final List<String> METADATA_CACHE_PREFIXES = Arrays.asList("license-", "musicFolders-", "indexes-", "artists-", "directory-",
+			"artist-", "album-", "playlist-", "newest-", "genre-", "podcast-", "user-", "users-", "artistInfo-", "entryLookup-", "recent_count-");
+	private static final List<String> METADATA_CACHE_NAMES = Arrays.asList("starred", "bookmarks");
+	private static final List<String> MUSIC_DIRECTORY_CACHE_PREFIXES = Arrays.asList("directory-", "artist-", "album-", "playlist-");
     private static File DEFAULT_MUSIC_DIR;
-	private static final Kryo kryo = new Kryo();
+	private static final int SERIALIZE_FOOTER_MAGIC = 0x44537562;
+	private static final int SERIALIZE_FOOTER_SIZE = 12;
+	// Temp files older than this were left by a process which died before it could rename them
+	private static final long STALE_TEMP_FILE_AGE = 60L * 60L * 1000L;
 	private static HashMap<String, MusicDirectory.Entry> entryLookup;
-
-	static {
-		kryo.register(MusicDirectory.Entry.class);
-		kryo.register(Indexes.class);
-		kryo.register(Artist.class);
-		kryo.register(MusicFolder.class);
-		kryo.register(PodcastChannel.class);
-		kryo.register(Playlist.class);
-		kryo.register(Genre.class);
-	}
+	private static MetadataStore metadataStore;
+	private static EntryIndex entryIndex;
+	private static SearchIndex searchIndex;
+	private static SilentBackgroundTask<Void> searchIndexTask;
+	private static OfflineCatalog offlineCatalog;
+	private static MediaMetadataCache mediaMetadataCache;
+	// Music directory last checked to be usable, and the preference value it was picked for
+	private static String musicDirectoryPreference;
+	private static File musicDirectory;
+	// Where songs go under the music directory, so a big queue doesn't work out the same names over and over
+	private static final LruCache<String, String> songPaths = new LruCache<String, String>(2000);
+
+	// Kryo instances aren't thread safe, so give each thread its own instead of making everyone wait on one
+	private static final ThreadLocal<Kryo> kryo = new ThreadLocal<Kryo>() {
+		@Override
+		protected Kryo initialValue() {
+			Kryo kryo = new Kryo();
+			kryo.register(MusicDirectory.Entry.class);
+			kryo.register(Indexes.class);
+			kryo.register(Artist.class);
+			kryo.register(MusicFolder.class);
+			kryo.register(PodcastChannel.class);
+			kryo.register(Playlist.class);
+			kryo.register(Genre.class);
+			return kryo;
+		}
+	};
+	// Only used to copy in memory, so it can build classes without a no-arg constructor since nothing is read back later
+	private static final ThreadLocal<Kryo> copyKryo = new ThreadLocal<Kryo>() {
+		@Override
+		protected Kryo initialValue() {
+			Kryo kryo = new Kryo();
+			kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+			return kryo;
+		}
+	};
 	
 	public static File getAnySong(Context context) {
 		File dir = getMusicDirectory(context);
@@ -111,6 +151,15 @@ public class FileUtil {
 	}
 
     public static File getSongFile(Context context, MusicDirectory.Entry song) {
+		File musicDir = getMusicDirectory(context);
+		String key = getSongPathKey(context, song);
+		if(key != null) {
+			String path = songPaths.get(key);
+			if(path != null) {
+				return new File(musicDir, path);
+			}
+		}
+
         File dir = getAlbumDirectory(context, song);
 
         StringBuilder fileName = new StringBuilder();
@@ -141,8 +190,32 @@ public class FileUtil {
 			}
 		}
 
-        return new File(dir, fileName.toString());
+		File file = new File(dir, fileName.toString());
+		String root = musicDir.getPath() + "/";
+		if(key != null && file.getPath().startsWith(root)) {
+			songPaths.put(key, file.getPath().substring(root.length()));
+		}
+        return file;
     }
+	private static String getSongPathKey(Context context, MusicDirectory.Entry song) {
+		if(song.getId() == null) {
+			return null;
+		}
+
+		StringBuilder key = new StringBuilder();
+		key.append(Util.getActiveServer(context)).append(":").append(song.getId()).append(":");
+		if(song.getPath() != null) {
+			key.append(song.getPath());
+		} else {
+			// No cached directory is ever named by a song's id, so lookupChild misses and the file is named from these instead
+			key.append(song.getArtist()).append(":").append(song.getAlbum()).append(":").append(song.getTrack()).append(":").append(song.getTitle());
+			key.append(":").append(song.getTranscodedSuffix() != null ? song.getTranscodedSuffix() : song.getSuffix());
+		}
+		if(song.isVideo()) {
+			key.append(":").append(Util.getVideoPlayerType(context));
+		}
+		return key.toString();
+	}
 
 	public static File getPlaylistFile(Context context, String server, String name) {
 		File playlistDir = getPlaylistDirectory(context, server);
@@ -350,7 +423,7 @@ public class FileUtil {
 		// Initialize lookupMap if first time called
 		String lookupName = Util.getCacheName(context, "entryLookup");
 		if(entryLookup == null) {
-			entryLookup = deserialize(context, lookupName, HashMap.class);
+			entryLookup = deserializeMetadata(context, lookupName, HashMap.class);
 			
 			// Create it if 
 			if(entryLookup == null) {
@@ -367,14 +440,14 @@ public class FileUtil {
 		// Do a special lookup since 4.7+ doesn't match artist/album to entry.getPath
 		String s = Util.getRestUrl(context, null, false) + entry.getId();
 		String cacheName = (Util.isTagBrowsing(context) ? "album-" : "directory-") + s.hashCode() + ".ser";
-		MusicDirectory entryDir = FileUtil.deserialize(context, cacheName, MusicDirectory.class);
+		MusicDirectory entryDir = FileUtil.deserializeMetadata(context, cacheName, MusicDirectory.class);
 
 		if(entryDir != null) {
 			List<MusicDirectory.Entry> songs = entryDir.getChildren(allowDir, true);
 			if(songs.size() > 0) {
 				child = songs.get(0);
 				entryLookup.put(entry.getId(), child);
-				serialize(context, entryLookup, lookupName);
+				serializeMetadata(context, entryLookup, lookupName);
 				return child;
 			}
 		}
@@ -450,13 +523,28 @@ public class FileUtil {
 
     public static File getMusicDirectory(Context context) {
         String path = Util.getPreferences(context).getString(Constants.PREFERENCES_KEY_CACHE_LOCATION, getDefaultMusicDirectory(context).getPath());
+		synchronized(FileUtil.class) {
+			if(musicDirectory != null && path.equals(musicDirectoryPreference)) {
+				return musicDirectory;
+			}
+		}
+
         File dir = new File(path);
-        return ensureDirectoryExistsAndIsReadWritable(dir) ? dir : getDefaultMusicDirectory(context);
+		dir = ensureDirectoryExistsAndIsReadWritable(dir) ? dir : getDefaultMusicDirectory(context);
+		synchronized(FileUtil.class) {
+			musicDirectoryPreference = path;
+			musicDirectory = dir;
+		}
+		return dir;
     }
 	public static boolean deleteMusicDirectory(Context context) {
 		File musicDirectory = FileUtil.getMusicDirectory(context);
 		MediaStoreService mediaStore = new MediaStoreService(context);
-		return recursiveDelete(musicDirectory, mediaStore);
+		boolean deleted = recursiveDelete(musicDirectory, mediaStore);
+		synchronized(FileUtil.class) {
+			FileUtil.musicDirectory = null;
+		}
+		return deleted;
 	}
 	public static void deleteSerializedCache(Context context) {
 		for(File file: context.getCacheDir().listFiles()) {
@@ -464,6 +552,7 @@ public class FileUtil {
 				file.delete();
 			}
 		}
+		getMetadataStore(context).clear();
 	}
 	public static boolean deleteArtworkCache(Context context) {
 		File artDirectory = FileUtil.getAlbumArtDirectory(context);
@@ -725,100 +814,386 @@ public class FileUtil {
 		}
 	}
 
-    public static <T extends Serializable> boolean serialize(Context context, T obj, String fileName) {
-		synchronized (kryo) {
-			Output out = null;
-			try {
-				RandomAccessFile file = new RandomAccessFile(context.getCacheDir() + "/" + fileName, "rw");
-				out = new Output(new FileOutputStream(file.getFD()));
-				kryo.writeObject(out, obj);
-				return true;
-			} catch (Throwable x) {
-				Log.w(TAG, "Failed to serialize object to " + fileName);
-				return false;
-			} finally {
-				Util.close(out);
-			}
+	public static <T extends Serializable> boolean serialize(Context context, T obj, String fileName) {
+		try {
+			writeChecked(context, fileName, toBytes(obj));
+			return true;
+		} catch (Throwable x) {
+			Log.w(TAG, "Failed to serialize object to " + fileName);
+			return false;
 		}
-    }
+	}
 
 	public static <T extends Serializable> T deserialize(Context context, String fileName, Class<T> tClass) {
 		return deserialize(context, fileName, tClass, 0);
 	}
 
-    public static <T extends Serializable> T deserialize(Context context, String fileName, Class<T> tClass, int hoursOld) {
-		synchronized (kryo) {
-			Input in = null;
-			try {
-				File file = new File(context.getCacheDir(), fileName);
-				if(!file.exists()) {
+	public static <T extends Serializable> T deserialize(Context context, String fileName, Class<T> tClass, int hoursOld) {
+		try {
+			File file = new File(context.getCacheDir(), fileName);
+			if(!file.exists()) {
+				return null;
+			}
+
+			if(hoursOld != 0) {
+				Date fileDate = new Date(file.lastModified());
+				// Convert into hours
+				long age = (new Date().getTime() - fileDate.getTime()) / 1000 / 3600;
+				if(age > hoursOld) {
 					return null;
 				}
+			}
+
+			return fromBytes(readChecked(file), tClass);
+		} catch(FileNotFoundException e) {
+			// Different error message
+			Log.w(TAG, "No serialization for object from " + fileName);
+			return null;
+		} catch (Throwable x) {
+			Log.w(TAG, "Failed to deserialize object from " + fileName);
+			return null;
+		}
+	}
+
+	public static <T extends Serializable> boolean serializeCompressed(Context context, T obj, String fileName) {
+		DeflaterOutputStream out = null;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			out = new DeflaterOutputStream(bytes);
+			out.write(toBytes(obj));
+			out.finish();
+			writeChecked(context, fileName, bytes.toByteArray());
+			return true;
+		} catch (Throwable x) {
+			Log.w(TAG, "Failed to serialize compressed object to " + fileName);
+			return false;
+		} finally {
+			Util.close(out);
+		}
+	}
+
+	public static <T extends Serializable> T deserializeCompressed(Context context, String fileName, Class<T> tClass) {
+		Input in = null;
+		try {
+			byte[] bytes = readChecked(new File(context.getCacheDir(), fileName));
+			in = new Input(new InflaterInputStream(new ByteArrayInputStream(bytes)));
+			return kryo.get().readObject(in, tClass);
+		} catch(FileNotFoundException e) {
+			// Different error message
+			Log.w(TAG, "No serialization compressed for object from " + fileName);
+			return null;
+		} catch (Throwable x) {
+			Log.w(TAG, "Failed to deserialize compressed object from " + fileName);
+			return null;
+		} finally {
+			Util.close(in);
+		}
+	}
+
+	private static byte[] toBytes(Object obj) {
+		Output out = new Output(4096, -1);
+		kryo.get().writeObject(out, obj);
+		return out.toBytes();
+	}
+	private static <T> T fromBytes(byte[] bytes, Class<T> tClass) {
+		return kryo.get().readObject(new Input(bytes), tClass);
+	}
+
+	/**
+	 * Deep copy of something parsed from the server, so it can be sorted or filtered without changing the original
+	 */
+	public static <T> T copy(T obj) {
+		if(obj == null) {
+			return null;
+		}
+		return copyKryo.get().copy(obj);
+	}
+
+	/**
+	 * Writes to a temp file which is then renamed over the original, so a crash never leaves a half written file
+	 * behind.  A length + CRC footer is appended so that any corruption is caught on read instead of surfacing as
+	 * a garbage object.
+	 */
+	private static void writeChecked(Context context, String fileName, byte[] data) throws IOException {
+		writeChecked(new File(context.getCacheDir(), fileName), data);
+	}
+	public static void writeChecked(File file, byte[] data) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		ByteBuffer footer = ByteBuffer.allocate(SERIALIZE_FOOTER_SIZE);
+		footer.putInt(data.length);
+		footer.putInt((int) crc.getValue());
+		footer.putInt(SERIALIZE_FOOTER_MAGIC);
+
+		// Unique across processes as well as threads, since the sync adapter writes to the same cache
+		File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+		boolean renamed = false;
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(tmp);
+			out.write(data);
+			out.write(footer.array());
+			out.getFD().sync();
+			Util.close(out);
+			out = null;
+
+			if(!tmp.renameTo(file)) {
+				throw new IOException("Failed to rename " + tmp + " to " + file);
+			}
+			renamed = true;
+		} finally {
+			Util.close(out);
+			if(!renamed) {
+				tmp.delete();
+			}
+		}
+	}
+	/**
+	 * Delete temp files from writes which never got renamed into place because the process died part way through.
+	 */
+	public static void deleteStaleTempFiles(Context context) {
+		File[] files = context.getCacheDir().listFiles();
+		if(files == null) {
+			return;
+		}
+
+		long cutoff = System.currentTimeMillis() - STALE_TEMP_FILE_AGE;
+		for(File file: files) {
+			if(file.isFile() && file.getName().endsWith(".tmp") && file.lastModified() < cutoff) {
+				if(file.delete()) {
+					Log.i(TAG, "Deleted stale temp file " + file);
+				}
+			}
+		}
+	}
+	/**
+	 * Read back what was saved with writeChecked, throwing if it was corrupted.
+	 */
+	public static byte[] readChecked(File file) throws IOException {
+		byte[] bytes;
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			bytes = new byte[(int) in.length()];
+			in.readFully(bytes);
+		} finally {
+			Util.close(in);
+		}
+
+		// Files written before the footer was added are read as is
+		if(bytes.length < SERIALIZE_FOOTER_SIZE) {
+			return bytes;
+		}
+		ByteBuffer footer = ByteBuffer.wrap(bytes, bytes.length - SERIALIZE_FOOTER_SIZE, SERIALIZE_FOOTER_SIZE);
+		int length = footer.getInt();
+		int checksum = footer.getInt();
+		if(footer.getInt() != SERIALIZE_FOOTER_MAGIC) {
+			return bytes;
+		}
 
-				if(hoursOld != 0) {
-					Date fileDate = new Date(file.lastModified());
-					// Convert into hours
-					long age = (new Date().getTime() - fileDate.getTime()) / 1000 / 3600;
-					if(age > hoursOld) {
-						return null;
+		if(length != bytes.length - SERIALIZE_FOOTER_SIZE) {
+			throw new IOException("Length mismatch in " + file);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, length);
+		if((int) crc.getValue() != checksum) {
+			throw new IOException("Checksum mismatch in " + file);
+		}
+
+		byte[] data = new byte[length];
+		System.arraycopy(bytes, 0, data, 0, length);
+		return data;
+	}
+
+	public static synchronized MetadataStore getMetadataStore(Context context) {
+		if(metadataStore == null) {
+			metadataStore = new MetadataStore(new File(context.getCacheDir(), "metadata"));
+
+			// Pull in everything cached before the store existed
+			metadataStore.migrate(context.getCacheDir(), new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					if(METADATA_CACHE_NAMES.contains(name)) {
+						return true;
+					} else if(!name.endsWith(".ser")) {
+						return false;
+					}
+
+					for(String prefix: METADATA_CACHE_PREFIXES) {
+						if(name.startsWith(prefix)) {
+							return true;
+						}
 					}
+					return false;
 				}
+			});
+		}
 
-				RandomAccessFile randomFile = new RandomAccessFile(file, "r");
+		return metadataStore;
+	}
 
-				in = new Input(new FileInputStream(randomFile.getFD()));
-				T result = (T) kryo.readObject(in, tClass);
-				return result;
-			} catch(FileNotFoundException e) {
-				// Different error message
-				Log.w(TAG, "No serialization for object from " + fileName);
-				return null;
-			} catch (Throwable x) {
-				Log.w(TAG, "Failed to deserialize object from " + fileName);
-				return null;
-			} finally {
-				Util.close(in);
+	public static <T extends Serializable> boolean serializeMetadata(Context context, T obj, String cacheName) {
+		byte[] bytes;
+		try {
+			bytes = toBytes(obj);
+		} catch (Throwable x) {
+			Log.w(TAG, "Failed to serialize object to " + cacheName);
+			return false;
+		}
+
+		if(!getMetadataStore(context).put(cacheName, bytes)) {
+			return false;
+		}
+
+		if(obj instanceof MusicDirectory) {
+			getEntryIndex(context).put(cacheName, getEntryIds((MusicDirectory) obj));
+		}
+
+		// Only keep the search index current if something in this process is already using it
+		SearchIndex index = searchIndex;
+		if(index != null) {
+			index.put(cacheName, obj);
+		}
+		return true;
+	}
+
+	public static <T extends Serializable> T deserializeMetadata(Context context, String cacheName, Class<T> tClass) {
+		return deserializeMetadata(context, cacheName, tClass, 0);
+	}
+
+	public static <T extends Serializable> T deserializeMetadata(Context context, String cacheName, Class<T> tClass, int hoursOld) {
+		byte[] bytes = getMetadataStore(context).get(cacheName, hoursOld * 3600L * 1000L);
+		if(bytes == null) {
+			return null;
+		}
+
+		try {
+			return fromBytes(bytes, tClass);
+		} catch (Throwable x) {
+			Log.w(TAG, "Failed to deserialize object from " + cacheName);
+			return null;
+		}
+	}
+
+	public static long getMetadataTimestamp(Context context, String cacheName) {
+		MetadataStore store = getMetadataStore(context);
+		return store.contains(cacheName) ? store.getTimestamp(cacheName) : 0L;
+	}
+
+	public static void deleteMetadata(Context context, String cacheName) {
+		if(getMetadataStore(context).remove(cacheName) && isMusicDirectoryCacheName(cacheName)) {
+			getEntryIndex(context).remove(cacheName);
+		}
+
+		SearchIndex index = searchIndex;
+		if(index != null) {
+			index.remove(cacheName);
+		}
+	}
+
+	public static synchronized EntryIndex getEntryIndex(Context context) {
+		if(entryIndex == null) {
+			entryIndex = new EntryIndex(getMetadataStore(context));
+		}
+
+		return entryIndex;
+	}
+
+	/**
+	 * Get the search index for the active server.  The first call starts filling it from the cache in the background,
+	 * so until that finishes it only has part of what is cached.
+	 */
+	public static synchronized SearchIndex getSearchIndex(Context context) {
+		int instance = Util.getActiveServer(context);
+		if(searchIndex == null || searchIndex.getInstance() != instance) {
+			if(searchIndexTask != null) {
+				searchIndexTask.cancel();
 			}
+
+			final SearchIndex index = new SearchIndex(instance);
+			final Context appContext = context.getApplicationContext();
+			searchIndex = index;
+			searchIndexTask = new SilentBackgroundTask<Void>(appContext) {
+				@Override
+				protected Void doInBackground() throws Throwable {
+					index.build(appContext, this);
+					return null;
+				}
+			};
 		}
-    }
 
-	public static <T extends Serializable> boolean serializeCompressed(Context context, T obj, String fileName) {
-		synchronized (kryo) {
-			Output out = null;
-			try {
-				RandomAccessFile file = new RandomAccessFile(context.getCacheDir() + "/" + fileName, "rw");
-				out = new Output(new DeflaterOutputStream(new FileOutputStream(file.getFD())));
-				kryo.writeObject(out, obj);
-				return true;
-			} catch (Throwable x) {
-				Log.w(TAG, "Failed to serialize compressed object to " + fileName);
-				return false;
-			} finally {
-				Util.close(out);
+		// Offered again until it gets going, since a full task queue drops it without ever running it
+		if(!searchIndex.isBuilt() && !searchIndex.isBuilding()) {
+			searchIndexTask.execute();
+		}
+		return searchIndex;
+	}
+
+	public static synchronized MediaMetadataCache getMediaMetadataCache(Context context) {
+		if(mediaMetadataCache == null) {
+			mediaMetadataCache = new MediaMetadataCache(getMetadataStore(context));
+		}
+
+		return mediaMetadataCache;
+	}
+
+	public static synchronized OfflineCatalog getOfflineCatalog(Context context) {
+		File root = getMusicDirectory(context);
+		if(offlineCatalog == null || !offlineCatalog.getRoot().equals(root)) {
+			offlineCatalog = new OfflineCatalog(root, new File(context.getCacheDir(), "offlineCatalog.dat"));
+		}
+
+		return offlineCatalog;
+	}
+
+	public static int rebuildEntryIndex(Context context) {
+		MetadataStore store = getMetadataStore(context);
+		EntryIndex index = getEntryIndex(context);
+		index.clear();
+
+		// The list of playlists shares a prefix with the playlists themselves
+		List<String> skip = new ArrayList<String>();
+		for(int i = 1; i <= Util.getServerCount(context); i++) {
+			skip.add(Util.getCacheName(context, i, "playlist"));
+		}
+
+		int count = 0;
+		for(String cacheName: store.keys()) {
+			if(skip.contains(cacheName) || !isMusicDirectoryCacheName(cacheName)) {
+				continue;
+			}
+
+			MusicDirectory dir = deserializeMetadata(context, cacheName, MusicDirectory.class);
+			if(dir != null && dir.getChildren() != null) {
+				index.put(cacheName, getEntryIds(dir));
+				count++;
 			}
 		}
+		index.setComplete();
+
+		Log.i(TAG, "Rebuilt entry index from " + count + " directories");
+		return count;
 	}
 
-	@TargetApi(Build.VERSION_CODES.GINGERBREAD)
-	public static <T extends Serializable> T deserializeCompressed(Context context, String fileName, Class<T> tClass) {
-		synchronized (kryo) {
-			Input in = null;
-			try {
-				RandomAccessFile file = new RandomAccessFile(context.getCacheDir() + "/" + fileName, "r");
-
-				in = new Input(new InflaterInputStream(new FileInputStream(file.getFD())));
-				T result = (T) kryo.readObject(in, tClass);
-				return result;
-			} catch(FileNotFoundException e) {
-				// Different error message
-				Log.w(TAG, "No serialization compressed for object from " + fileName);
-				return null;
-			} catch (Throwable x) {
-				Log.w(TAG, "Failed to deserialize compressed object from " + fileName);
-				return null;
-			} finally {
-				Util.close(in);
+	private static boolean isMusicDirectoryCacheName(String cacheName) {
+		if(METADATA_CACHE_NAMES.contains(cacheName)) {
+			return true;
+		}
+
+		for(String prefix: MUSIC_DIRECTORY_CACHE_PREFIXES) {
+			if(cacheName.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	private static List<String> getEntryIds(MusicDirectory dir) {
+		List<MusicDirectory.Entry> children = dir.getChildren();
+		List<String> ids = new ArrayList<String>(children.size());
+		for(MusicDirectory.Entry entry: children) {
+			if(entry != null && entry.getId() != null) {
+				ids.add(entry.getId());
 			}
 		}
+		return ids;
 	}
 }
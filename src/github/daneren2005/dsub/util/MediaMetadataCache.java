@@ -0,0 +1,228 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.util;
+
+import android.media.MediaMetadataRetriever;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import github.daneren2005.dsub.util.tags.BastpUtil;
+
+/**
+ * Remembers what was read out of the tags of downloaded files, so a file only has to be opened with a
+ * MediaMetadataRetriever once instead of every time its album is shown.  Records are stored by path in the
+ * metadata store and are only trusted while the file still has the same size and modified time.
+ */
+public class MediaMetadataCache {
+	private static final String TAG = MediaMetadataCache.class.getSimpleName();
+	static final String PREFIX = "mediaMetadata-";
+	private static final int VERSION = 1;
+
+	private final MetadataStore store;
+
+	public MediaMetadataCache(MetadataStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Get the tags of file, reading them from the file itself only if they aren't already cached.
+	 */
+	public Metadata get(File file) {
+		Metadata metadata = getCached(file);
+		if(metadata == null) {
+			metadata = read(file);
+			put(file, metadata);
+		}
+		return metadata;
+	}
+
+	/**
+	 * Get the track and album ReplayGain of file, reading them from the file itself only if they aren't already cached.
+	 */
+	public float[] getReplayGain(File file) throws IOException {
+		Metadata metadata = get(file);
+		if(metadata.replayGain == null) {
+			metadata.replayGain = BastpUtil.getReplayGainValues(file.getCanonicalPath());
+			put(file, metadata);
+		}
+		return metadata.replayGain;
+	}
+
+	/**
+	 * Read everything about a file which just finished downloading so later lookups never have to open it.
+	 */
+	public void cache(File file) {
+		try {
+			getReplayGain(file);
+		} catch(Exception e) {
+			Log.w(TAG, "Failed to cache metadata for " + file, e);
+		}
+	}
+
+	/**
+	 * Keep the cached copy after the modified time of a file is changed on purpose, ie: by the cache cleaner
+	 * bookkeeping, instead of reading the tags again.
+	 */
+	public void touch(File file, long oldModified) {
+		Metadata metadata = getCached(file.getPath(), file.length(), oldModified);
+		if(metadata != null) {
+			put(file, metadata);
+		}
+	}
+
+	public void remove(File file) {
+		store.remove(PREFIX + file.getPath());
+	}
+
+	Metadata getCached(File file) {
+		return getCached(file.getPath(), file.length(), file.lastModified());
+	}
+	private Metadata getCached(String path, long size, long modified) {
+		byte[] data = store.get(PREFIX + path);
+		if(data == null) {
+			return null;
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			if(in.readInt() != VERSION || in.readLong() != size || in.readLong() != modified) {
+				return null;
+			}
+
+			Metadata metadata = new Metadata();
+			metadata.discNumber = readInteger(in);
+			metadata.bitRate = readInteger(in);
+			metadata.duration = readInteger(in);
+			metadata.artist = readString(in);
+			metadata.album = readString(in);
+			if(in.readBoolean()) {
+				metadata.replayGain = new float[] {in.readFloat(), in.readFloat()};
+			}
+			return metadata;
+		} catch(IOException e) {
+			Log.w(TAG, "Failed to read cached metadata for " + path, e);
+			return null;
+		}
+	}
+
+	void put(File file, Metadata metadata) {
+		// Don't remember anything about files which are gone or still being written
+		long size = file.length();
+		if(size == 0) {
+			return;
+		}
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(VERSION);
+			out.writeLong(size);
+			out.writeLong(file.lastModified());
+			writeInteger(out, metadata.discNumber);
+			writeInteger(out, metadata.bitRate);
+			writeInteger(out, metadata.duration);
+			writeString(out, metadata.artist);
+			writeString(out, metadata.album);
+			out.writeBoolean(metadata.replayGain != null);
+			if(metadata.replayGain != null) {
+				out.writeFloat(metadata.replayGain[0]);
+				out.writeFloat(metadata.replayGain[1]);
+			}
+			out.close();
+
+			store.put(PREFIX + file.getPath(), bytes.toByteArray());
+		} catch(IOException e) {
+			Log.w(TAG, "Failed to cache metadata for " + file, e);
+		}
+	}
+
+	public static Metadata read(File file) {
+		Metadata metadata = new Metadata();
+		MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+		try {
+			retriever.setDataSource(file.getAbsolutePath());
+
+			String discNumber = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DISC_NUMBER);
+			if(discNumber == null) {
+				discNumber = "1/1";
+			}
+			int slashIndex = discNumber.indexOf("/");
+			if(slashIndex > 0) {
+				discNumber = discNumber.substring(0, slashIndex);
+			}
+			try {
+				metadata.discNumber = Integer.parseInt(discNumber);
+			} catch(Exception e) {
+				Log.w(TAG, "Non numbers in disc field!");
+			}
+
+			String bitrate = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_BITRATE);
+			metadata.bitRate = Integer.parseInt((bitrate != null) ? bitrate : "0") / 1000;
+			String length = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+			if(length != null) {
+				metadata.duration = Integer.parseInt(length) / 1000;
+			}
+			metadata.artist = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ARTIST);
+			metadata.album = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_ALBUM);
+		} catch(Exception e) {
+			Log.i(TAG, "Device doesn't properly support MediaMetadataRetreiver", e);
+		} finally {
+			try {
+				retriever.release();
+			} catch(Exception e) {
+				Log.w(TAG, "Failed to release MediaMetadataRetriever", e);
+			}
+		}
+		return metadata;
+	}
+
+	private static Integer readInteger(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readInt() : null;
+	}
+	private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+		out.writeBoolean(value != null);
+		if(value != null) {
+			out.writeInt(value);
+		}
+	}
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if(value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	/**
+	 * The track number is deliberately not part of this: entries only ever get it from the server or from the
+	 * "01 Title" file name offline, never from the tags, so caching it would just be dead weight in every record.
+	 */
+	public static class Metadata {
+		public Integer discNumber;
+		public Integer bitRate;
+		public Integer duration;
+		public String artist;
+		public String album;
+		public float[] replayGain;
+	}
+}
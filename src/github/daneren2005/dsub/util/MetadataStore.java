@@ -0,0 +1,681 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.util;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Single file key/value store backing the serialized metadata cache.
+ *
+ * Records are appended to one segment file and found through an in memory hash index, so a lookup is one
+ * positional read instead of a stat + open of a file per cached object.  Reads never take a lock.  The segment
+ * is shared with the :sync process, so appends are guarded by a file lock and readers pick up records other
+ * processes appended since the last lookup.  When enough of the segment is overwritten data it is compacted into
+ * the next generation, which other processes notice by the old segment disappearing.
+ *
+ * Record layout: magic, key length, timestamp, data length (-1 for a delete), key, data, CRC32 of data.
+ */
+public class MetadataStore {
+	private static final String TAG = MetadataStore.class.getSimpleName();
+	private static final int RECORD_MAGIC = 0x44537562;
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+	private static final int CRC_SIZE = 4;
+	private static final int TOMBSTONE = -1;
+	private static final int MAX_KEY_LENGTH = 4096;
+	private static final long MIN_COMPACT_GARBAGE = 1024L * 1024L;
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".dat";
+	private static final String LOCK_FILE = "store.lock";
+	private static final String MIGRATED_FILE = "migrated";
+
+	private final File dir;
+	private final Object lock = new Object();
+	private volatile Segment segment;
+	private volatile Map<String, Record> index = new ConcurrentHashMap<String, Record>();
+	private RandomAccessFile lockFile;
+	// File lock this process holds, so catching up in the middle of a write doesn't try to take it again
+	private FileLock heldLock;
+	private long garbageBytes = 0;
+	private long liveBytes = 0;
+	private final List<OnChangedListener> listeners = new CopyOnWriteArrayList<OnChangedListener>();
+
+	public MetadataStore(File dir) {
+		this.dir = dir;
+		synchronized (lock) {
+			try {
+				if(!dir.exists() && !dir.mkdirs()) {
+					Log.w(TAG, "Failed to create metadata store directory " + dir);
+				}
+				openLatestSegment();
+			} catch(IOException e) {
+				Log.e(TAG, "Failed to open metadata store in " + dir, e);
+			}
+		}
+	}
+
+	public byte[] get(String key) {
+		return get(key, 0L);
+	}
+	public byte[] get(String key, long maxAgeMillis) {
+		// Second attempt is for when the segment was compacted or closed by an interrupt underneath us
+		for(int attempt = 0; attempt < 2; attempt++) {
+			try {
+				catchUp();
+			} catch(IOException e) {
+				Log.w(TAG, "Failed to refresh metadata index", e);
+				return null;
+			}
+
+			Record record = index.get(key);
+			if(record == null) {
+				return null;
+			}
+			if(maxAgeMillis > 0 && (System.currentTimeMillis() - record.timestamp) > maxAgeMillis) {
+				return null;
+			}
+
+			try {
+				ByteBuffer buffer = ByteBuffer.allocate(record.length + CRC_SIZE);
+				readFully(record.segment.getChannel(), buffer, record.dataOffset);
+				byte[] data = new byte[record.length];
+				buffer.flip();
+				buffer.get(data);
+				int crc = buffer.getInt();
+
+				if(crc != checksum(data)) {
+					Log.w(TAG, "Checksum mismatch for " + key);
+					return null;
+				}
+				return data;
+			} catch(ClosedChannelException e) {
+				// Retry with whatever the current segment is
+			} catch(IOException e) {
+				Log.w(TAG, "Failed to read " + key, e);
+				return null;
+			}
+		}
+
+		return null;
+	}
+
+	public boolean contains(String key) {
+		try {
+			catchUp();
+		} catch(IOException e) {
+			return false;
+		}
+		return index.containsKey(key);
+	}
+
+	/**
+	 * Picks up anything other processes appended, which is reported to listeners before this returns
+	 */
+	public void refresh() {
+		try {
+			catchUp();
+		} catch(IOException e) {
+			Log.w(TAG, "Failed to refresh metadata index", e);
+		}
+	}
+
+	public long getTimestamp(String key) {
+		Record record = index.get(key);
+		return record == null ? 0L : record.timestamp;
+	}
+
+	public Set<String> keys() {
+		try {
+			catchUp();
+		} catch(IOException e) {
+			Log.w(TAG, "Failed to refresh metadata index", e);
+		}
+		return new HashSet<String>(index.keySet());
+	}
+
+	public boolean put(String key, byte[] data) {
+		return put(key, data, System.currentTimeMillis());
+	}
+	public boolean put(String key, byte[] data, long timestamp) {
+		synchronized (lock) {
+			FileLock fileLock = null;
+			try {
+				fileLock = acquireFileLock();
+				return append(key, data, timestamp);
+			} catch(IOException e) {
+				Log.w(TAG, "Failed to store " + key, e);
+				return false;
+			} finally {
+				release(fileLock);
+			}
+		}
+	}
+
+	public boolean remove(String key) {
+		synchronized (lock) {
+			FileLock fileLock = null;
+			try {
+				fileLock = acquireFileLock();
+				catchUpLocked();
+				if(!index.containsKey(key)) {
+					return false;
+				}
+				return append(key, null, System.currentTimeMillis());
+			} catch(IOException e) {
+				Log.w(TAG, "Failed to remove " + key, e);
+				return false;
+			} finally {
+				release(fileLock);
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (lock) {
+			FileLock fileLock = null;
+			try {
+				fileLock = acquireFileLock();
+				catchUpLocked();
+				Map<String, Record> empty = new ConcurrentHashMap<String, Record>();
+				swapSegment(createSegment(segment.generation + 1, new HashMap<String, Record>(), empty), empty);
+				notifyReset();
+			} catch(IOException e) {
+				Log.w(TAG, "Failed to clear metadata store", e);
+			} finally {
+				release(fileLock);
+			}
+		}
+	}
+
+	/**
+	 * Imports the old one file per object cache out of dir.  Files are stored with their raw contents and last
+	 * modified time, since the format inside a record is the same Kryo output that used to be written to disk.
+	 */
+	public int migrate(File oldDir, FilenameFilter filter) {
+		synchronized (lock) {
+			FileLock fileLock = null;
+			int count = 0;
+			try {
+				fileLock = acquireFileLock();
+				File marker = new File(dir, MIGRATED_FILE);
+				if(marker.exists()) {
+					return 0;
+				}
+
+				File[] files = oldDir.listFiles(filter);
+				if(files != null) {
+					for(File file: files) {
+						try {
+							byte[] data = readFile(file);
+							if(append(file.getName(), data, file.lastModified())) {
+								count++;
+								file.delete();
+							}
+						} catch(IOException e) {
+							Log.w(TAG, "Failed to migrate " + file, e);
+						}
+					}
+				}
+
+				if(!marker.createNewFile()) {
+					Log.w(TAG, "Failed to mark metadata migration as complete");
+				}
+				Log.i(TAG, "Migrated " + count + " cached files into metadata store");
+			} catch(IOException e) {
+				Log.w(TAG, "Failed to migrate old cache", e);
+			} finally {
+				release(fileLock);
+			}
+
+			return count;
+		}
+	}
+
+	private boolean append(String key, byte[] data, long timestamp) throws IOException {
+		catchUpLocked();
+
+		Segment seg = segment;
+		FileChannel channel = seg.getWritableChannel();
+		// Anything past the last valid record is a write torn by a crash, drop it before appending
+		if(channel.size() > seg.end) {
+			channel.truncate(seg.end);
+		}
+
+		byte[] keyBytes = key.getBytes("UTF-8");
+		int length = data == null ? TOMBSTONE : data.length;
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + Math.max(length, 0) + CRC_SIZE);
+		buffer.putInt(RECORD_MAGIC);
+		buffer.putInt(keyBytes.length);
+		buffer.putLong(timestamp);
+		buffer.putInt(length);
+		buffer.put(keyBytes);
+		if(data != null) {
+			buffer.put(data);
+		}
+		buffer.putInt(data == null ? 0 : checksum(data));
+		buffer.flip();
+
+		long position = seg.end;
+		writeFully(channel, buffer, position);
+		seg.end = position + buffer.limit();
+
+		Record record = data == null ? null : new Record(seg, position + HEADER_SIZE + keyBytes.length, length, timestamp, buffer.limit());
+		apply(index, key, record, buffer.limit());
+
+		maybeCompact();
+		return true;
+	}
+
+	private void apply(Map<String, Record> index, String key, Record record, long size) {
+		Record old;
+		if(record == null) {
+			old = index.remove(key);
+			garbageBytes += size;
+		} else {
+			old = index.put(key, record);
+			liveBytes += size;
+		}
+
+		if(old != null) {
+			liveBytes -= old.size;
+			garbageBytes += old.size;
+		}
+
+		// Only once the change can be read back, and not for an index which isn't in use yet
+		if(index == this.index) {
+			for(OnChangedListener listener: listeners) {
+				listener.onChanged(key);
+			}
+		}
+	}
+
+	private void catchUp() throws IOException {
+		Segment seg = segment;
+		if(seg == null) {
+			throw new IOException("Metadata store is not open");
+		}
+
+		if(!seg.file.exists() || seg.getChannel().size() > seg.end) {
+			synchronized (lock) {
+				catchUpLocked();
+			}
+		}
+	}
+	private void catchUpLocked() throws IOException {
+		Segment seg = segment;
+		if(seg == null || !seg.file.exists()) {
+			// Another process compacted or cleared the store
+			openLatestSegment();
+			return;
+		}
+
+		long size = seg.getChannel().size();
+		if(size > seg.end) {
+			seg.end = scan(seg, index, seg.end, size);
+		}
+	}
+
+	private void openLatestSegment() throws IOException {
+		// Another process may be in the middle of compacting, so only look once it is done with the directory
+		FileLock fileLock = acquireFileLock();
+		try {
+			openLatestSegmentLocked();
+		} finally {
+			release(fileLock);
+		}
+	}
+	private void openLatestSegmentLocked() throws IOException {
+		long generation = 0;
+		List<File> old = new ArrayList<File>();
+		File[] files = dir.listFiles();
+		if(files != null) {
+			for(File file: files) {
+				String name = file.getName();
+				if(name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+					try {
+						long fileGeneration = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+						generation = Math.max(generation, fileGeneration);
+						old.add(file);
+					} catch(NumberFormatException e) {
+						old.add(file);
+					}
+				}
+			}
+		}
+
+		// Only ever creates generation 0, for a store which is brand new
+		Segment seg = new Segment(getSegmentFile(generation), generation);
+		Map<String, Record> newIndex = new ConcurrentHashMap<String, Record>();
+		liveBytes = 0;
+		garbageBytes = 0;
+		seg.end = scan(seg, newIndex, 0, seg.getChannel().size());
+
+		Segment oldSegment = segment;
+		segment = seg;
+		index = newIndex;
+		if(oldSegment != null) {
+			oldSegment.close();
+			notifyReset();
+		}
+
+		// Leftovers from a compaction that was interrupted before it could clean up
+		for(File file: old) {
+			if(!file.equals(seg.file)) {
+				Util.delete(file);
+			}
+		}
+	}
+
+	private long scan(Segment seg, Map<String, Record> index, long start, long end) throws IOException {
+		InputStream stream = new FileInputStream(seg.file);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 16 * 1024));
+		long position = start;
+		try {
+			skipFully(in, start);
+
+			while(position + HEADER_SIZE + CRC_SIZE <= end) {
+				int magic = in.readInt();
+				int keyLength = in.readInt();
+				long timestamp = in.readLong();
+				int length = in.readInt();
+				if(magic != RECORD_MAGIC || keyLength < 0 || keyLength > MAX_KEY_LENGTH || length < TOMBSTONE) {
+					Log.w(TAG, "Corrupt record at " + position + " in " + seg.file);
+					break;
+				}
+
+				long recordSize = HEADER_SIZE + keyLength + Math.max(length, 0) + CRC_SIZE;
+				if(position + recordSize > end) {
+					// Partially written, either still in progress in another process or torn by a crash
+					break;
+				}
+
+				byte[] keyBytes = new byte[keyLength];
+				in.readFully(keyBytes);
+				skipFully(in, Math.max(length, 0) + CRC_SIZE);
+
+				String key = new String(keyBytes, "UTF-8");
+				Record record = length == TOMBSTONE ? null : new Record(seg, position + HEADER_SIZE + keyLength, length, timestamp, recordSize);
+				apply(index, key, record, recordSize);
+				position += recordSize;
+			}
+		} catch(EOFException e) {
+			// Nothing more that is complete
+		} finally {
+			Util.close(in);
+		}
+
+		return position;
+	}
+
+	private void maybeCompact() throws IOException {
+		if(garbageBytes < MIN_COMPACT_GARBAGE || garbageBytes < liveBytes) {
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		Map<String, Record> newIndex = new ConcurrentHashMap<String, Record>();
+		Segment compacted = createSegment(segment.generation + 1, index, newIndex);
+		swapSegment(compacted, newIndex);
+		Log.i(TAG, "Compacted metadata store to " + liveBytes + " bytes in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Writes every live record into a new generation segment.  It is written under a temporary name and renamed
+	 * into place once complete so that no process ever opens a partially written segment.
+	 */
+	private Segment createSegment(long generation, Map<String, Record> source, Map<String, Record> newIndex) throws IOException {
+		File tmp = new File(dir, SEGMENT_PREFIX + generation + ".tmp");
+		RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+		try {
+			out.setLength(0);
+			FileChannel outChannel = out.getChannel();
+			long position = 0;
+			for(Map.Entry<String, Record> entry: source.entrySet()) {
+				Record record = entry.getValue();
+				long recordStart = record.dataOffset - HEADER_SIZE - entry.getKey().getBytes("UTF-8").length;
+				long transferred = 0;
+				while(transferred < record.size) {
+					long count = record.segment.getChannel().transferTo(recordStart + transferred, record.size - transferred, outChannel);
+					if(count <= 0) {
+						throw new IOException("Failed to copy record " + entry.getKey());
+					}
+					transferred += count;
+				}
+				newIndex.put(entry.getKey(), new Record(null, position + (record.dataOffset - recordStart), record.length, record.timestamp, record.size));
+				position += record.size;
+			}
+			outChannel.force(true);
+		} finally {
+			Util.close(out);
+		}
+
+		File file = getSegmentFile(generation);
+		if(!tmp.renameTo(file)) {
+			Util.delete(tmp);
+			throw new IOException("Failed to rename " + tmp + " to " + file);
+		}
+		return new Segment(file, generation);
+	}
+	private void swapSegment(Segment seg, Map<String, Record> newIndex) throws IOException {
+		long live = 0;
+		for(Record record: newIndex.values()) {
+			record.segment = seg;
+			live += record.size;
+		}
+		seg.end = seg.getChannel().size();
+
+		Segment old = segment;
+		segment = seg;
+		index = newIndex;
+		liveBytes = live;
+		garbageBytes = 0;
+
+		if(old != null) {
+			Util.delete(old.file);
+			old.close();
+		}
+	}
+
+	public void addOnChangedListener(OnChangedListener listener) {
+		listeners.add(listener);
+	}
+	public void removeOnChangedListener(OnChangedListener listener) {
+		listeners.remove(listener);
+	}
+	private void notifyReset() {
+		for(OnChangedListener listener: listeners) {
+			listener.onReset();
+		}
+	}
+
+	// Always called with lock held.  Returns null if it is already held further up, which release then leaves alone
+	private FileLock acquireFileLock() throws IOException {
+		if(heldLock != null) {
+			return null;
+		}
+
+		// Closed by an interrupt on a previous holder
+		if(lockFile == null || !lockFile.getChannel().isOpen()) {
+			Util.close(lockFile);
+			lockFile = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+		}
+		heldLock = lockFile.getChannel().lock();
+		return heldLock;
+	}
+	private void release(FileLock fileLock) {
+		if(fileLock != null) {
+			heldLock = null;
+			try {
+				fileLock.release();
+			} catch(IOException e) {
+				Log.w(TAG, "Failed to release metadata store lock", e);
+			}
+		}
+	}
+
+	private File getSegmentFile(long generation) {
+		return new File(dir, SEGMENT_PREFIX + generation + SEGMENT_SUFFIX);
+	}
+
+	private static int checksum(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		return (int) crc.getValue();
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if(read < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			channel.write(buffer, position + buffer.position());
+		}
+	}
+	private static void skipFully(InputStream in, long count) throws IOException {
+		while(count > 0) {
+			long skipped = in.skip(count);
+			if(skipped <= 0) {
+				throw new EOFException();
+			}
+			count -= skipped;
+		}
+	}
+	private static byte[] readFile(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] data = new byte[(int) in.length()];
+			in.readFully(data);
+			return data;
+		} finally {
+			Util.close(in);
+		}
+	}
+
+	private static class Segment {
+		final File file;
+		final long generation;
+		volatile long end;
+		private volatile RandomAccessFile raf;
+		private boolean writable;
+
+		// Only called with the file lock held, since opening for writing creates the file if it isn't there
+		Segment(File file, long generation) throws IOException {
+			this.file = file;
+			this.generation = generation;
+			this.raf = new RandomAccessFile(file, "rw");
+			this.writable = true;
+		}
+
+		/**
+		 * FileChannel closes itself when a thread reading from it is interrupted, so reopen it on demand rather than
+		 * having one cancelled task break the store for everyone else.  Reopened read only, which fails instead of
+		 * recreating a segment another process has already compacted away.
+		 */
+		FileChannel getChannel() throws IOException {
+			RandomAccessFile current = raf;
+			if(current != null && current.getChannel().isOpen()) {
+				return current.getChannel();
+			}
+
+			synchronized (this) {
+				if(raf == null) {
+					throw new ClosedChannelException();
+				} else if(!raf.getChannel().isOpen()) {
+					Util.close(raf);
+					try {
+						raf = new RandomAccessFile(file, "r");
+					} catch(FileNotFoundException e) {
+						throw new ClosedChannelException();
+					}
+					writable = false;
+				}
+				return raf.getChannel();
+			}
+		}
+
+		// Only called with the file lock held, when nobody else can be deleting it
+		synchronized FileChannel getWritableChannel() throws IOException {
+			FileChannel channel = getChannel();
+			if(!writable) {
+				if(!file.exists()) {
+					throw new ClosedChannelException();
+				}
+				Util.close(raf);
+				raf = new RandomAccessFile(file, "rw");
+				writable = true;
+				channel = raf.getChannel();
+			}
+			return channel;
+		}
+
+		synchronized void close() {
+			Util.close(raf);
+			raf = null;
+		}
+	}
+
+	/**
+	 * Called with the store lock held, for writes from this process and ones picked up from others alike
+	 */
+	public interface OnChangedListener {
+		void onChanged(String key);
+		// Anything may have changed, such as after another process cleared or compacted the store
+		void onReset();
+	}
+
+	private static class Record {
+		volatile Segment segment;
+		final long dataOffset;
+		final int length;
+		final long timestamp;
+		final long size;
+
+		Record(Segment segment, long dataOffset, int length, long timestamp, long size) {
+			this.segment = segment;
+			this.dataOffset = dataOffset;
+			this.length = length;
+			this.timestamp = timestamp;
+			this.size = size;
+		}
+	}
+}
@@ -40,6 +40,8 @@ import github.daneren2005.dsub.domain.MusicDirectory;
 import github.daneren2005.dsub.domain.PlayerState;
 import github.daneren2005.dsub.provider.DSubWidgetProvider;
 import github.daneren2005.dsub.service.DownloadFile;
+import github.daneren2005.dsub.service.BandwidthShaper;
+import github.daneren2005.dsub.service.DownloadScheduler;
 import github.daneren2005.dsub.service.DownloadService;
 
 public final class Notifications {
@@ -48,6 +50,7 @@ public final class Notifications {
 	// Notification IDs.
 	public static final int NOTIFICATION_ID_PLAYING = 100;
 	public static final int NOTIFICATION_ID_DOWNLOADING = 102;
+	public static final int NOTIFICATION_ID_LIBRARY_SYNC = 103;
 	public static final String NOTIFICATION_SYNC_GROUP = "github.daneren2005.dsub.sync";
 
 	private static boolean playShowing = false;
@@ -237,14 +240,41 @@ public final class Notifications {
 			currentSize = "0";
 		}
 
+		// Show how far along everything downloading right now is, along with what is waiting in each lane
+		DownloadScheduler scheduler = downloadService.getDownloadScheduler();
+		long downloaded = 0;
+		long total = 0;
+		for(DownloadFile downloadFile: scheduler.getActive()) {
+			downloaded += downloadFile.getCurrentSize();
+			total += Math.max(downloadFile.getEstimatedSize(), downloadFile.getCurrentSize());
+		}
+		int progress = total > 0 ? (int) (downloaded * 100 / total) : 0;
+
+		StringBuilder expanded = new StringBuilder(context.getResources().getString(R.string.download_downloading_summary_expanded, currentDownloading, currentSize));
+		int[] laneNames = {R.string.download_lane_now_playing, R.string.download_lane_next_up, R.string.download_lane_preload, R.string.download_lane_background};
+		for(int lane = 0; lane < DownloadScheduler.LANE_COUNT; lane++) {
+			int active = scheduler.getActiveCount(lane);
+			int waiting = scheduler.getWaitingCount(lane);
+			if(active > 0 || waiting > 0) {
+				String speed = Util.formatLocalizedBytes(scheduler.getBytesPerSecond(lane), context);
+				expanded.append("\n").append(context.getResources().getString(R.string.download_downloading_lane, context.getResources().getString(laneNames[lane]), active, waiting, speed));
+			}
+		}
+		BandwidthShaper shaper = BandwidthShaper.getInstance(context);
+		if(shaper.getLimit() > 0) {
+			String limit = Util.formatLocalizedBytes(shaper.getLimit(), context);
+			String speed = Util.formatLocalizedBytes(shaper.getBytesPerSecond(), context);
+			expanded.append("\n").append(context.getResources().getString(R.string.download_downloading_limit, limit, speed));
+		}
+
 		NotificationCompat.Builder builder;
 		builder = new NotificationCompat.Builder(context)
 				.setSmallIcon(android.R.drawable.stat_sys_download)
 				.setContentTitle(context.getResources().getString(R.string.download_downloading_title, size))
 				.setContentText(context.getResources().getString(R.string.download_downloading_summary, currentDownloading))
 				.setStyle(new NotificationCompat.BigTextStyle()
-						.bigText(context.getResources().getString(R.string.download_downloading_summary_expanded, currentDownloading, currentSize)))
-				.setProgress(10, 5, true)
+						.bigText(expanded.toString()))
+				.setProgress(100, progress, total == 0)
 				.setOngoing(true)
 				.addAction(R.drawable.notification_close,
 						context.getResources().getString(R.string.common_cancel),
@@ -288,6 +318,33 @@ public final class Notifications {
 		}
 	}
 
+	public static void showLibrarySyncNotification(final Context context, int progress, int total) {
+		if(!Util.getPreferences(context).getBoolean(Constants.PREFERENCES_KEY_SYNC_NOTIFICATION, true)) {
+			return;
+		}
+
+		NotificationCompat.Builder builder;
+		builder = new NotificationCompat.Builder(context)
+				.setSmallIcon(R.drawable.stat_notify_sync)
+				.setContentTitle(context.getResources().getString(R.string.sync_library_progress))
+				.setContentText(context.getResources().getString(R.string.sync_library_progress_summary, progress, total))
+				.setProgress(total, progress, total == 0)
+				.setOngoing(true)
+				.setGroup(NOTIFICATION_SYNC_GROUP)
+				.setPriority(NotificationCompat.PRIORITY_LOW);
+
+		Intent notificationIntent = new Intent(context, SubsonicFragmentActivity.class);
+		notificationIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+		builder.setContentIntent(PendingIntent.getActivity(context, NOTIFICATION_ID_LIBRARY_SYNC, notificationIntent, 0));
+
+		NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+		notificationManager.notify(NOTIFICATION_ID_LIBRARY_SYNC, builder.build());
+	}
+	public static void hideLibrarySyncNotification(final Context context) {
+		NotificationManager notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+		notificationManager.cancel(NOTIFICATION_ID_LIBRARY_SYNC);
+	}
+
 	public static void showSyncNotification(final Context context, int stringId, String extra) {
 		if(Util.getPreferences(context).getBoolean(Constants.PREFERENCES_KEY_SYNC_NOTIFICATION, true)) {
 			if(extra == null) {
@@ -0,0 +1,293 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.util;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Persistent listing of every media file and folder under the music directory, so offline browsing, searching and
+ * random songs don't have to walk the file system on every request.
+ *
+ * A folder's modified time changes whenever something is added to, removed from or renamed inside it, so keeping
+ * the catalog current only takes one stat per folder and a fresh listing of the folders which changed.  The result
+ * is written out so the next start only has to do that check instead of listing everything again.
+ */
+public class OfflineCatalog {
+	private static final String TAG = OfflineCatalog.class.getSimpleName();
+	private static final int VERSION = 2;
+	// Requests close together (ie: opening an album right after the artist) share one check of the file system
+	private static final long REFRESH_INTERVAL = 5000L;
+
+	private final File root;
+	private final File file;
+	private final Map<String, Folder> folders = new TreeMap<String, Folder>();
+	private boolean loaded = false;
+	private long lastRefresh = 0;
+
+	public OfflineCatalog(File root, File file) {
+		this.root = root;
+		this.file = file;
+	}
+
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * Get the media files and folders directly inside dir in name order, or null if it isn't under the music directory.
+	 */
+	public synchronized List<Record> list(File dir) {
+		refresh();
+		Folder folder = folders.get(dir.getPath());
+		return folder == null ? null : new ArrayList<Record>(folder.children);
+	}
+
+	public synchronized List<Record> getAll() {
+		refresh();
+		List<Record> records = new ArrayList<Record>();
+		for(Folder folder: folders.values()) {
+			records.addAll(folder.children);
+		}
+		return records;
+	}
+
+	public synchronized List<Record> getFiles() {
+		refresh();
+		List<Record> records = new ArrayList<Record>();
+		for(Folder folder: folders.values()) {
+			for(Record record: folder.children) {
+				if(!record.directory) {
+					records.add(record);
+				}
+			}
+		}
+		return records;
+	}
+
+	public synchronized void invalidate() {
+		lastRefresh = 0;
+	}
+
+	public synchronized void refresh() {
+		long now = System.currentTimeMillis();
+		if(loaded && now - lastRefresh < REFRESH_INTERVAL) {
+			return;
+		}
+
+		if(!loaded) {
+			load();
+			loaded = true;
+		}
+
+		Set<String> seen = new HashSet<String>();
+		int changed = scan(root, seen);
+		if(folders.keySet().retainAll(seen)) {
+			changed++;
+		}
+		lastRefresh = System.currentTimeMillis();
+
+		if(changed > 0) {
+			Log.i(TAG, "Relisted " + changed + " of " + folders.size() + " folders in " + (lastRefresh - now) + " ms");
+			save();
+		}
+	}
+
+	private int scan(File dir, Set<String> seen) {
+		String path = dir.getPath();
+		seen.add(path);
+
+		int changed = 0;
+		long modified = dir.lastModified();
+		Folder folder = folders.get(path);
+		if(folder == null || folder.modified != modified) {
+			folder = list(dir, modified);
+			folders.put(path, folder);
+			changed++;
+		}
+
+		for(Record record: folder.children) {
+			if(record.directory) {
+				changed += scan(record.file, seen);
+			}
+		}
+		return changed;
+	}
+
+	private Folder list(File dir, long modified) {
+		Folder folder = new Folder(modified);
+		File[] files = dir.listFiles();
+		if(files == null) {
+			return folder;
+		}
+
+		Arrays.sort(files);
+		for(File child: files) {
+			boolean directory = child.isDirectory();
+			if(directory || FileUtil.isMusicFile(child) || FileUtil.isVideoFile(child)) {
+				folder.children.add(new Record(root, child, directory, directory ? 0L : child.length(), child.lastModified()));
+			}
+		}
+		return folder;
+	}
+
+	private void load() {
+		if(!file.exists()) {
+			return;
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(FileUtil.readChecked(file)));
+			if(in.readInt() != VERSION || !root.getPath().equals(in.readUTF())) {
+				return;
+			}
+
+			Map<String, Folder> loaded = new HashMap<String, Folder>();
+			int folderCount = in.readInt();
+			for(int i = 0; i < folderCount; i++) {
+				File dir = new File(in.readUTF());
+				Folder folder = new Folder(in.readLong());
+				int childCount = in.readInt();
+				for(int j = 0; j < childCount; j++) {
+					File child = new File(dir, in.readUTF());
+					boolean directory = in.readBoolean();
+					folder.children.add(new Record(root, child, directory, in.readLong(), in.readLong()));
+				}
+				loaded.put(dir.getPath(), folder);
+			}
+			folders.putAll(loaded);
+		} catch(IOException e) {
+			Log.w(TAG, "Failed to load offline catalog, rebuilding", e);
+		}
+	}
+
+	private void save() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(VERSION);
+			out.writeUTF(root.getPath());
+			out.writeInt(folders.size());
+			for(Map.Entry<String, Folder> entry: folders.entrySet()) {
+				Folder folder = entry.getValue();
+				out.writeUTF(entry.getKey());
+				out.writeLong(folder.modified);
+				out.writeInt(folder.children.size());
+				for(Record record: folder.children) {
+					out.writeUTF(record.file.getName());
+					out.writeBoolean(record.directory);
+					out.writeLong(record.size);
+					out.writeLong(record.modified);
+				}
+			}
+			out.close();
+
+			FileUtil.writeChecked(file, bytes.toByteArray());
+		} catch(IOException e) {
+			Log.w(TAG, "Failed to save offline catalog", e);
+		}
+	}
+
+	private static class Folder {
+		final long modified;
+		final List<Record> children = new ArrayList<Record>();
+
+		Folder(long modified) {
+			this.modified = modified;
+		}
+	}
+
+	/**
+	 * A file or folder along with the artist, album and track parsed out of where it is saved, the same way
+	 * downloads are laid out as artist/album/track-title.
+	 */
+	public static class Record {
+		public final File file;
+		public final boolean directory;
+		public final long size;
+		public final long modified;
+		public final String name;
+		public final String artist;
+		public final String album;
+		public final String title;
+		public final int track;
+
+		Record(File root, File file, boolean directory, long size, long modified) {
+			this.file = file;
+			this.directory = directory;
+			this.size = size;
+			this.modified = modified;
+			this.name = getName(file, directory);
+
+			File parent = file.getParentFile();
+			File grandParent = parent == null ? null : parent.getParentFile();
+			if(directory) {
+				artist = root.equals(parent) ? name : (parent == null ? null : parent.getName());
+				album = root.equals(parent) ? null : name;
+				title = name;
+				track = 0;
+			} else {
+				artist = (grandParent == null || root.equals(grandParent)) ? parent.getName() : grandParent.getName();
+				album = parent.getName();
+
+				int trackNumber = 0;
+				String trackTitle = name;
+				int index = name == null ? -1 : name.indexOf('-');
+				if(index != -1) {
+					try {
+						trackNumber = Integer.parseInt(name.substring(0, index));
+						trackTitle = name.substring(index + 1);
+					} catch(NumberFormatException e) {
+						// Not a track number, just a dash in the title
+					}
+				}
+				track = trackNumber;
+				title = trackTitle;
+			}
+		}
+
+		/**
+		 * Name shown for the file, or null for files which are still being downloaded
+		 */
+		private static String getName(File file, boolean directory) {
+			String name = file.getName();
+			if(directory) {
+				return name;
+			}
+
+			if(name.endsWith(".partial") || name.contains(".partial.")) {
+				return null;
+			}
+
+			name = name.replace(".complete", "");
+			int index = name.lastIndexOf('.');
+			return index == -1 ? name : name.substring(0, index);
+		}
+	}
+}
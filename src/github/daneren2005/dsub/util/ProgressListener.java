@@ -18,10 +18,16 @@
  */
 package github.daneren2005.dsub.util;
 
+import java.util.List;
+
 /**
  * @author Sindre Mehus
  */
 public interface ProgressListener {
     void updateProgress(String message);
     void updateProgress(int messageId);
+	// Next part of a long list being parsed, where position is how many came before it.  Starts over at 0 if re-parsed.
+	// A result with several lists, ie: a search with artists, albums and songs, sends them mixed together in the order
+	// the server has them and position counts all of them, so items have to be told apart by type.
+	void updateChunk(int position, List<?> items);
 }
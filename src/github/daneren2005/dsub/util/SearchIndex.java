@@ -0,0 +1,376 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.util;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import github.daneren2005.dsub.domain.Artist;
+import github.daneren2005.dsub.domain.Indexes;
+import github.daneren2005.dsub.domain.MusicDirectory;
+import github.daneren2005.dsub.domain.SearchCritera;
+import github.daneren2005.dsub.domain.SearchResult;
+
+/**
+ * In memory word index over the artists, albums and songs in the metadata cache of one server, so search suggestions
+ * can be answered without going to the server.  Every word of a name is a key in a sorted map, which makes a prefix
+ * lookup a range scan, and each query word has to match the prefix of some word of the result.
+ *
+ * It is filled by walking the cached artist list and directories once, and after that kept up to date as
+ * directories are serialized.
+ */
+public class SearchIndex {
+	private static final String TAG = SearchIndex.class.getSimpleName();
+	private static final int MAX_DEPTH = 10;
+
+	private final int instance;
+	private final TreeMap<String, Set<String>> postings = new TreeMap<String, Set<String>>();
+	private final Map<String, Object> documents = new HashMap<String, Object>();
+	private final Map<String, Integer> references = new HashMap<String, Integer>();
+	private final Map<String, List<String>> keysByCacheName = new HashMap<String, List<String>>();
+	private volatile boolean built = false;
+	private boolean building = false;
+
+	public SearchIndex(int instance) {
+		this.instance = instance;
+	}
+
+	public int getInstance() {
+		return instance;
+	}
+	public boolean isBuilt() {
+		return built;
+	}
+	public synchronized boolean isBuilding() {
+		return building;
+	}
+
+	public void put(String cacheName, Object obj) {
+		List<Object> values = new ArrayList<Object>();
+		if(obj instanceof MusicDirectory) {
+			List<MusicDirectory.Entry> children = ((MusicDirectory) obj).getChildren();
+			if(children != null) {
+				values.addAll(children);
+			}
+		} else if(obj instanceof Indexes) {
+			Indexes indexes = (Indexes) obj;
+			values.addAll(indexes.getShortcuts());
+			values.addAll(indexes.getArtists());
+		} else {
+			return;
+		}
+
+		synchronized (this) {
+			remove(cacheName);
+
+			List<String> keys = new ArrayList<String>(values.size());
+			for(Object value: values) {
+				String key = getKey(value);
+				if(key == null || keys.contains(key)) {
+					continue;
+				}
+
+				keys.add(key);
+				Integer count = references.get(key);
+				references.put(key, count == null ? 1 : count + 1);
+				// Keep the newest copy so renames and things like stars stay up to date
+				Object old = documents.put(key, value);
+				if(old != null) {
+					removeTokens(key, old);
+				}
+				for(String token: tokenize(getName(value))) {
+					Set<String> set = postings.get(token);
+					if(set == null) {
+						set = new HashSet<String>();
+						postings.put(token, set);
+					}
+					set.add(key);
+				}
+			}
+			keysByCacheName.put(cacheName, keys);
+		}
+	}
+
+	public synchronized void remove(String cacheName) {
+		List<String> keys = keysByCacheName.remove(cacheName);
+		if(keys == null) {
+			return;
+		}
+
+		for(String key: keys) {
+			Integer count = references.get(key);
+			if(count != null && count > 1) {
+				references.put(key, count - 1);
+				continue;
+			}
+
+			references.remove(key);
+			Object value = documents.remove(key);
+			if(value != null) {
+				removeTokens(key, value);
+			}
+		}
+	}
+
+	private void removeTokens(String key, Object value) {
+		for(String token: tokenize(getName(value))) {
+			Set<String> set = postings.get(token);
+			if(set != null) {
+				set.remove(key);
+				if(set.isEmpty()) {
+					postings.remove(token);
+				}
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return documents.size();
+	}
+
+	public SearchResult search(SearchCritera criteria) {
+		String query = criteria.getQuery().replace("*", "");
+		List<String> tokens = tokenize(query);
+
+		List<Artist> artists = new ArrayList<Artist>();
+		List<MusicDirectory.Entry> albums = new ArrayList<MusicDirectory.Entry>();
+		List<MusicDirectory.Entry> songs = new ArrayList<MusicDirectory.Entry>();
+		if(!tokens.isEmpty()) {
+			synchronized (this) {
+				Set<String> matches = null;
+				for(String token: tokens) {
+					Set<String> tokenMatches = new HashSet<String>();
+					SortedMap<String, Set<String>> tail = postings.tailMap(token);
+					for(Map.Entry<String, Set<String>> posting: tail.entrySet()) {
+						if(!posting.getKey().startsWith(token)) {
+							break;
+						}
+						tokenMatches.addAll(posting.getValue());
+					}
+
+					if(matches == null) {
+						matches = tokenMatches;
+					} else {
+						matches.retainAll(tokenMatches);
+					}
+					if(matches.isEmpty()) {
+						break;
+					}
+				}
+
+				for(String key: matches) {
+					Object value = documents.get(key);
+					if(value instanceof Artist) {
+						artists.add((Artist) value);
+					} else if(value instanceof MusicDirectory.Entry) {
+						MusicDirectory.Entry entry = (MusicDirectory.Entry) value;
+						if(entry.isDirectory()) {
+							albums.add(entry);
+						} else if(!entry.isVideo()) {
+							songs.add(entry);
+						}
+					}
+				}
+			}
+		}
+
+		return new SearchResult(sort(query, artists, criteria.getArtistCount()), sort(query, albums, criteria.getAlbumCount()), sort(query, songs, criteria.getSongCount()));
+	}
+
+	/**
+	 * Fill the index from whatever of this server's library is already cached, starting at the artist list and
+	 * following each artist down through the directories which have been opened before.  Only the first call does
+	 * anything, unless it was cancelled or failed partway.
+	 */
+	public void build(Context context, BackgroundTask task) {
+		synchronized (this) {
+			if(building || built) {
+				return;
+			}
+			building = true;
+		}
+
+		try {
+			long start = System.currentTimeMillis();
+			boolean tagBrowsing = Util.isTagBrowsing(context, instance);
+			String musicFolderId = Util.getSelectedMusicFolderId(context, instance);
+
+			String indexesName = Util.getCacheName(context, instance, tagBrowsing ? "artists" : "indexes", musicFolderId);
+			Indexes indexes = FileUtil.deserializeMetadata(context, indexesName, Indexes.class);
+			if(indexes != null) {
+				put(indexesName, indexes);
+
+				List<Artist> artists = new ArrayList<Artist>();
+				artists.addAll(indexes.getShortcuts());
+				artists.addAll(indexes.getArtists());
+				for(Artist artist: artists) {
+					if(!add(context, task, tagBrowsing ? "artist" : "directory", artist.getId(), tagBrowsing, 0)) {
+						return;
+					}
+				}
+			}
+
+			built = true;
+			Log.i(TAG, "Indexed " + size() + " artists, albums and songs in " + (System.currentTimeMillis() - start) + " ms");
+		} finally {
+			synchronized (this) {
+				building = false;
+			}
+		}
+	}
+
+	// Returns false once the task is cancelled
+	private boolean add(Context context, BackgroundTask task, String type, String id, boolean tagBrowsing, int depth) {
+		if(task != null && task.isCancelled()) {
+			return false;
+		}
+
+		String cacheName = Util.getCacheName(context, instance, type, id);
+		MusicDirectory dir = FileUtil.deserializeMetadata(context, cacheName, MusicDirectory.class);
+		if(dir == null) {
+			return true;
+		}
+
+		put(cacheName, dir);
+		if(depth >= MAX_DEPTH) {
+			return true;
+		}
+
+		for(MusicDirectory.Entry child: dir.getChildren(true, false)) {
+			boolean added;
+			if(tagBrowsing) {
+				added = add(context, task, "album", child.getId(), true, MAX_DEPTH);
+			} else {
+				added = add(context, task, "directory", child.getId(), false, depth + 1);
+			}
+
+			if(!added) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Add the results of a server search after the ones found locally, skipping anything already there and
+	 * keeping to the counts asked for.
+	 */
+	public static SearchResult merge(SearchResult local, SearchResult remote, SearchCritera criteria) {
+		if(remote == null) {
+			return local;
+		} else if(local == null) {
+			return remote;
+		}
+
+		return new SearchResult(merge(local.getArtists(), remote.getArtists(), criteria.getArtistCount()),
+				merge(local.getAlbums(), remote.getAlbums(), criteria.getAlbumCount()),
+				merge(local.getSongs(), remote.getSongs(), criteria.getSongCount()));
+	}
+	private static <T> List<T> merge(List<T> local, List<T> remote, int max) {
+		List<T> merged = new ArrayList<T>(local);
+		Set<String> keys = new HashSet<String>();
+		for(T value: local) {
+			keys.add(getKey(value));
+		}
+
+		for(T value: remote) {
+			if(merged.size() >= max) {
+				break;
+			}
+			if(keys.add(getKey(value))) {
+				merged.add(value);
+			}
+		}
+		return merged;
+	}
+
+	private static <T> List<T> sort(final String query, List<T> values, int max) {
+		final Map<T, Integer> distances = new HashMap<T, Integer>();
+		for(T value: values) {
+			distances.put(value, Util.getStringDistance(query, getName(value)));
+		}
+
+		Collections.sort(values, new Comparator<T>() {
+			@Override
+			public int compare(T lhs, T rhs) {
+				int result = distances.get(lhs).compareTo(distances.get(rhs));
+				if(result == 0) {
+					result = getName(lhs).compareToIgnoreCase(getName(rhs));
+				}
+				return result;
+			}
+		});
+
+		if(values.size() > max) {
+			return new ArrayList<T>(values.subList(0, max));
+		} else {
+			return values;
+		}
+	}
+
+	static List<String> tokenize(String name) {
+		List<String> tokens = new ArrayList<String>();
+		if(name == null) {
+			return tokens;
+		}
+
+		// Strip accents so "cafe" also finds "caf\u00e9"
+		String normalized = Normalizer.normalize(name, Normalizer.Form.NFD).replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
+		for(String token: normalized.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+")) {
+			if(token.length() > 0 && !tokens.contains(token)) {
+				tokens.add(token);
+			}
+		}
+		return tokens;
+	}
+
+	// Servers only keep ids unique within a type, so in ID3 mode an album and a song can share one
+	private static String getKey(Object value) {
+		if(value instanceof Artist) {
+			String id = ((Artist) value).getId();
+			return id == null ? null : "ar-" + id;
+		} else if(value instanceof MusicDirectory.Entry) {
+			MusicDirectory.Entry entry = (MusicDirectory.Entry) value;
+			if(entry.getId() == null) {
+				return null;
+			}
+			return (entry.isDirectory() ? "al-" : "so-") + entry.getId();
+		} else {
+			return null;
+		}
+	}
+	private static String getName(Object value) {
+		String name;
+		if(value instanceof Artist) {
+			name = ((Artist) value).getName();
+		} else {
+			name = ((MusicDirectory.Entry) value).getTitle();
+		}
+		return name == null ? "" : name;
+	}
+}
@@ -0,0 +1,155 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.util;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Progress of a file downloaded as several byte ranges at once.  The file is split into equal segments and for each
+ * one the number of bytes already written from its start is kept, so after a failure only what is missing has to be
+ * requested again.  It is saved next to the file being downloaded and is only trusted for a file of the same length.
+ */
+public class SegmentMap {
+	private static final String TAG = SegmentMap.class.getSimpleName();
+	private static final int VERSION = 1;
+
+	private final long length;
+	private final long[] starts;
+	private final long[] done;
+
+	public SegmentMap(long length, int segments) {
+		this.length = length;
+		int count = (int) Math.max(1, Math.min(segments, length));
+		starts = new long[count];
+		done = new long[count];
+		long segmentSize = length / count;
+		for(int i = 0; i < count; i++) {
+			starts[i] = i * segmentSize;
+		}
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public int getSegmentCount() {
+		return starts.length;
+	}
+
+	public long getStart(int segment) {
+		return starts[segment];
+	}
+
+	/**
+	 * Get the offset right after the last byte of segment.
+	 */
+	public long getEnd(int segment) {
+		return segment + 1 < starts.length ? starts[segment + 1] : length;
+	}
+
+	/**
+	 * Get the offset to resume segment from.
+	 */
+	public synchronized long getPosition(int segment) {
+		return starts[segment] + done[segment];
+	}
+
+	public synchronized void add(int segment, long bytes) {
+		done[segment] = Math.min(done[segment] + bytes, getEnd(segment) - starts[segment]);
+	}
+
+	public synchronized boolean isComplete(int segment) {
+		return getPosition(segment) >= getEnd(segment);
+	}
+
+	public synchronized boolean isComplete() {
+		for(int i = 0; i < starts.length; i++) {
+			if(!isComplete(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public synchronized long getDownloaded() {
+		long downloaded = 0;
+		for(long bytes: done) {
+			downloaded += bytes;
+		}
+		return downloaded;
+	}
+
+	/**
+	 * Get how many bytes from the start of the file are all there.
+	 */
+	public synchronized long getContiguousLength() {
+		for(int i = 0; i < starts.length; i++) {
+			if(!isComplete(i)) {
+				return getPosition(i);
+			}
+		}
+		return length;
+	}
+
+	public synchronized void save(File file) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(VERSION);
+			out.writeLong(length);
+			out.writeInt(starts.length);
+			for(long written: done) {
+				out.writeLong(written);
+			}
+			out.close();
+
+			FileUtil.writeChecked(file, bytes.toByteArray());
+		} catch(IOException e) {
+			Log.w(TAG, "Failed to save segments to " + file, e);
+		}
+	}
+
+	/**
+	 * Read back the progress saved for a file of the given length, or null if there isn't any.
+	 */
+	public static SegmentMap load(File file, long length) {
+		if(!file.exists()) {
+			return null;
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(FileUtil.readChecked(file)));
+			if(in.readInt() != VERSION || in.readLong() != length) {
+				return null;
+			}
+
+			SegmentMap segments = new SegmentMap(length, in.readInt());
+			for(int i = 0; i < segments.done.length; i++) {
+				segments.add(i, in.readLong());
+			}
+			return segments;
+		} catch(IOException e) {
+			Log.w(TAG, "Failed to load segments from " + file, e);
+			return null;
+		}
+	}
+}
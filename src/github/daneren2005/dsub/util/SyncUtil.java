@@ -181,6 +181,25 @@ public final class SyncUtil {
 		return "sync-most_recent-" + (Util.getRestUrl(context, null, instance, false)).hashCode() + ".ser";
 	}
 
+	// Artists already walked by an unfinished library sync, so it can pick up where it left off
+	public static ArrayList<String> getSyncedLibrary(Context context, int instance, String musicFolderId) {
+		ArrayList<String> list = FileUtil.deserialize(context, getLibrarySyncFile(context, instance, musicFolderId), ArrayList.class);
+		if(list == null) {
+			list = new ArrayList<String>();
+		}
+		return list;
+	}
+	public static void setSyncedLibrary(ArrayList<String> syncedList, Context context, int instance, String musicFolderId) {
+		FileUtil.serialize(context, syncedList, getLibrarySyncFile(context, instance, musicFolderId));
+	}
+	public static void removeSyncedLibrary(Context context, int instance, String musicFolderId) {
+		File file = new File(context.getCacheDir(), getLibrarySyncFile(context, instance, musicFolderId));
+		file.delete();
+	}
+	public static String getLibrarySyncFile(Context context, int instance, String musicFolderId) {
+		return "sync-library-" + (Util.getRestUrl(context, null, instance, false) + musicFolderId).hashCode() + ".ser";
+	}
+
 	public static String joinNames(List<String> names) {
 		StringBuilder builder = new StringBuilder();
 		for (String val : names) {
@@ -1,5 +1,7 @@
 package github.daneren2005.dsub.util;
 
+import java.util.List;
+
 import github.daneren2005.dsub.fragments.SubsonicFragment;
 
 /**
@@ -48,4 +50,24 @@ public abstract class TabBackgroundTask<T> extends BackgroundTask<T> {
             }
         });
     }
+
+	@Override
+	public void updateChunk(final int position, final List<?> items) {
+		getHandler().post(new Runnable() {
+			@Override
+			public void run() {
+				if(!isCancelled()) {
+					chunk(position, items);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Called on the UI thread with each part of a long list while the rest is still being parsed, so the first
+	 * screenful can be shown early.  The whole result is still passed to done at the end, so by default nothing
+	 * happens until then.
+	 */
+	protected void chunk(int position, List<?> items) {
+	}
 }
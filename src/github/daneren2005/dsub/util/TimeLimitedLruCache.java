@@ -0,0 +1,138 @@
+/*
+  This file is part of Subsonic.
+	Subsonic is free software: you can redistribute it and/or modify
+	it under the terms of the GNU General Public License as published by
+	the Free Software Foundation, either version 3 of the License, or
+	(at your option) any later version.
+	Subsonic is distributed in the hope that it will be useful,
+	but WITHOUT ANY WARRANTY; without even the implied warranty of
+	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+	GNU General Public License for more details.
+	You should have received a copy of the GNU General Public License
+	along with Subsonic. If not, see <http://www.gnu.org/licenses/>.
+	Copyright 2015 (C) Scott Jackson
+*/
+package github.daneren2005.dsub.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LRU cache bounded by both number of entries and approximate size, where each entry also expires after a fixed
+ * time to live.  Subclasses override sizeOf to give an estimate of how much memory a value takes up.
+ */
+public class TimeLimitedLruCache<K, V> {
+	private final LinkedHashMap<K, Item<V>> map = new LinkedHashMap<K, Item<V>>(16, 0.75f, true);
+	private final int maxEntries;
+	private final long maxSize;
+	private final long ttlMillis;
+	private long size = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public TimeLimitedLruCache(int maxEntries, long maxSize, long ttl, TimeUnit timeUnit) {
+		this.maxEntries = maxEntries;
+		this.maxSize = maxSize;
+		this.ttlMillis = timeUnit.toMillis(ttl);
+	}
+
+	public synchronized V get(K key) {
+		Item<V> item = map.get(key);
+		if(item == null) {
+			misses++;
+			return null;
+		}
+
+		if(System.currentTimeMillis() >= item.expires) {
+			remove(key);
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return item.value;
+	}
+
+	public synchronized void put(K key, V value) {
+		if(value == null) {
+			remove(key);
+			return;
+		}
+
+		Item<V> item = new Item<V>(value, sizeOf(value), System.currentTimeMillis() + ttlMillis);
+		Item<V> old = map.put(key, item);
+		size += item.size;
+		if(old != null) {
+			size -= old.size;
+		}
+
+		trim();
+	}
+
+	public synchronized V remove(K key) {
+		Item<V> item = map.remove(key);
+		if(item == null) {
+			return null;
+		}
+
+		size -= item.size;
+		return item.value;
+	}
+
+	public synchronized void clear() {
+		map.clear();
+		size = 0;
+	}
+
+	public synchronized int getEntryCount() {
+		return map.size();
+	}
+	public synchronized long getSize() {
+		return size;
+	}
+	public synchronized long getHitCount() {
+		return hits;
+	}
+	public synchronized long getMissCount() {
+		return misses;
+	}
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	protected long sizeOf(V value) {
+		return 1;
+	}
+
+	private void trim() {
+		Iterator<Map.Entry<K, Item<V>>> it = map.entrySet().iterator();
+		while((map.size() > maxEntries || size > maxSize) && it.hasNext()) {
+			Item<V> item = it.next().getValue();
+			it.remove();
+			size -= item.size;
+			evictions++;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		long total = hits + misses;
+		return "entries=" + map.size() + ", size=" + size + ", hits=" + hits + ", misses=" + misses +
+				", evictions=" + evictions + ", hitRate=" + (total == 0 ? 0 : (hits * 100 / total)) + "%";
+	}
+
+	private static class Item<V> {
+		final V value;
+		final long size;
+		final long expires;
+
+		Item(V value, long size, long expires) {
+			this.value = value;
+			this.size = size;
+			this.expires = expires;
+		}
+	}
+}
@@ -311,6 +311,40 @@ public final class Util {
         return preloadCount == -1 ? Integer.MAX_VALUE : preloadCount;
     }
 
+	public static int getMaxDownloads(Context context) {
+		ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo networkInfo = manager.getActiveNetworkInfo();
+		if (networkInfo == null) {
+			return 1;
+		}
+
+		SharedPreferences prefs = getPreferences(context);
+		boolean wifi = networkInfo.getType() == ConnectivityManager.TYPE_WIFI;
+		return Integer.parseInt(prefs.getString(wifi ? Constants.PREFERENCES_KEY_MAX_DOWNLOADS_WIFI : Constants.PREFERENCES_KEY_MAX_DOWNLOADS_MOBILE, wifi ? "3" : "1"));
+	}
+
+	public static int getDownloadSegments(Context context) {
+		SharedPreferences prefs = getPreferences(context);
+		return Integer.parseInt(prefs.getString(Constants.PREFERENCES_KEY_DOWNLOAD_SEGMENTS, "1"));
+	}
+
+	/**
+	 * Get the most bytes per second all downloads together should use, or 0 for no limit.
+	 */
+	public static long getDownloadLimit(Context context, boolean screenOn, boolean metered) {
+		SharedPreferences prefs = getPreferences(context);
+		long screenLimit = Long.parseLong(prefs.getString(screenOn ? Constants.PREFERENCES_KEY_DOWNLOAD_LIMIT_SCREEN_ON : Constants.PREFERENCES_KEY_DOWNLOAD_LIMIT_SCREEN_OFF, "0"));
+		long networkLimit = Long.parseLong(prefs.getString(metered ? Constants.PREFERENCES_KEY_DOWNLOAD_LIMIT_METERED : Constants.PREFERENCES_KEY_DOWNLOAD_LIMIT_UNMETERED, "0"));
+
+		long limit;
+		if(screenLimit == 0 || networkLimit == 0) {
+			limit = Math.max(screenLimit, networkLimit);
+		} else {
+			limit = Math.min(screenLimit, networkLimit);
+		}
+		return limit * 1024L;
+	}
+
     public static int getCacheSizeMB(Context context) {
         SharedPreferences prefs = getPreferences(context);
         int cacheSize = Integer.parseInt(prefs.getString(Constants.PREFERENCES_KEY_CACHE_SIZE, "-1"));
@@ -395,6 +429,11 @@ public final class Util {
 		return prefs.getBoolean(Constants.PREFERENCES_KEY_BROWSE_TAGS + instance, false);
 	}
 	
+	public static boolean isBrowseRevalidateEnabled(Context context) {
+		SharedPreferences prefs = getPreferences(context);
+		return prefs.getBoolean(Constants.PREFERENCES_KEY_BROWSE_REVALIDATE, false);
+	}
+
 	public static boolean isSyncEnabled(Context context, int instance) {
 		SharedPreferences prefs = getPreferences(context);
 		return prefs.getBoolean(Constants.PREFERENCES_KEY_SERVER_SYNC + instance, true);
@@ -467,7 +506,7 @@ public final class Util {
 	
 	public static String parseOfflineIDSearch(Context context, String id, String cacheLocation) {
 		// Try to get this info based off of tags first
-		String name = parseOfflineIDSearch(id);
+		String name = parseOfflineIDSearch(context, id);
 		if(name != null) {
 			return name;
 		}
@@ -510,12 +549,12 @@ public final class Util {
 		return name;
 	}
 
-	public static String parseOfflineIDSearch(String id) {
+	public static String parseOfflineIDSearch(Context context, String id) {
 		MusicDirectory.Entry entry = new MusicDirectory.Entry();
 		File file = new File(id);
 
 		if(file.exists()) {
-			entry.loadMetadata(file);
+			entry.loadMetadata(context, file);
 
 			if(entry.getArtist() != null) {
 				String title = file.getName();
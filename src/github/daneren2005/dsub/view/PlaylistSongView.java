@@ -70,7 +70,7 @@ public class PlaylistSongView extends UpdateView {
 		
 		// Don't try to lookup playlist for Create New
 		if(!"-1".equals(playlist.getId())) {
-			MusicDirectory cache = FileUtil.deserialize(context, Util.getCacheName(context, "playlist", playlist.getId()), MusicDirectory.class);
+			MusicDirectory cache = FileUtil.deserializeMetadata(context, Util.getCacheName(context, "playlist", playlist.getId()), MusicDirectory.class);
 			if(cache != null) {
 				// Try to find song instances in the given playlists
 				for(MusicDirectory.Entry song: songs) {
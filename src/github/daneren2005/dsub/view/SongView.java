@@ -64,6 +64,7 @@ public class SongView extends UpdateView implements Checkable {
 	private boolean isSaved = false;
 	private File partialFile;
 	private boolean partialFileExists = false;
+	private long currentSize = 0;
 	private boolean loaded = false;
 	private boolean isBookmarked = false;
 	private boolean bookmarked = false;
@@ -184,13 +185,14 @@ public class SongView extends UpdateView implements Checkable {
 		isSaved = downloadFile.isSaved();
 		partialFile = downloadFile.getPartialFile();
 		partialFileExists = partialFile.exists();
+		currentSize = downloadFile.getCurrentSize();
 		isStarred = song.isStarred();
 		isBookmarked = song.getBookmark() != null;
 		isRated = song.getRating();
 		
 		// Check if needs to load metadata: check against all fields that we know are null in offline mode
 		if(song.getBitRate() == null && song.getDuration() == null && song.getDiscNumber() == null && isWorkDone) {
-			song.loadMetadata(downloadFile.getCompleteFile());
+			song.loadMetadata(context, downloadFile.getCompleteFile());
 			loaded = true;
 		}
 	}
@@ -231,7 +233,7 @@ public class SongView extends UpdateView implements Checkable {
 		}
 
         if (downloadFile.isDownloading() && !downloadFile.isDownloadCancelled() && partialFileExists) {
-			double percentage = (partialFile.length() * 100.0) / downloadFile.getEstimatedSize();
+			double percentage = (currentSize * 100.0) / downloadFile.getEstimatedSize();
 			percentage = Math.min(percentage, 100);
 			statusTextView.setText((int)percentage + " %");
 			if(!rightImage) {
@@ -37,6 +37,7 @@ import java.util.List;
 import java.util.WeakHashMap;
 
 import github.daneren2005.dsub.domain.MusicDirectory;
+import github.daneren2005.dsub.service.DownloadFile;
 import github.daneren2005.dsub.util.ImageLoader;
 import github.daneren2005.dsub.R;
 import github.daneren2005.dsub.util.SilentBackgroundTask;
@@ -135,6 +136,21 @@ public class UpdateView extends LinearLayout {
                 updateAll();
             }
         };
+
+		// Show downloads finishing right away instead of on the next pass
+		DownloadFile.addOnProgressListener(new DownloadFile.OnProgressListener() {
+			@Override
+			public void onProgress(DownloadFile downloadFile, long currentSize) {
+
+			}
+
+			@Override
+			public void onStateChanged(DownloadFile downloadFile, int state) {
+				if(state != DownloadFile.STATE_DOWNLOADING && activeActivities > 0) {
+					triggerUpdate();
+				}
+			}
+		});
 		
 		new Thread(new Runnable() {
 			public void run() {
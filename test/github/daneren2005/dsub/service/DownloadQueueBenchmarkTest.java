@@ -0,0 +1,108 @@
+package github.daneren2005.dsub.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import github.daneren2005.dsub.activity.SubsonicFragmentActivity;
+import github.daneren2005.dsub.domain.MusicDirectory;
+
+import android.test.ActivityInstrumentationTestCase2;
+import android.util.Log;
+
+/**
+ * Fills the play queue with 10,000 songs and times what the service and the song views do with it, once against a
+ * plain ArrayList like the queue used to be and once against the DownloadQueue it is now.
+ */
+public class DownloadQueueBenchmarkTest extends
+		ActivityInstrumentationTestCase2<SubsonicFragmentActivity> {
+	private static final String TAG = DownloadQueueBenchmarkTest.class.getSimpleName();
+	private static final int SONGS = 10000;
+	private static final int OPERATIONS = 2000;
+
+	private DownloadService downloadService;
+
+	public DownloadQueueBenchmarkTest() {
+		super(SubsonicFragmentActivity.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		downloadService = getActivity().getDownloadService();
+		downloadService.clear();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		downloadService.clear();
+		super.tearDown();
+	}
+
+	public void testLargeQueue() {
+		List<MusicDirectory.Entry> songs = createMusicSongs(SONGS);
+
+		long start = System.currentTimeMillis();
+		downloadService.download(songs, false, false, false, false, 0, 0);
+		Log.i(TAG, "Queued " + SONGS + " songs in " + (System.currentTimeMillis() - start) + " ms");
+		assertEquals(SONGS, downloadService.size());
+
+		// What every visible song view asks for each second
+		Random random = new Random(42);
+		start = System.currentTimeMillis();
+		for(int i = 0; i < OPERATIONS; i++) {
+			MusicDirectory.Entry song = songs.get(random.nextInt(SONGS));
+			assertEquals(song, downloadService.forSong(song).getSong());
+		}
+		Log.i(TAG, OPERATIONS + " forSong lookups in " + (System.currentTimeMillis() - start) + " ms");
+
+		start = System.currentTimeMillis();
+		for(int i = 0; i < OPERATIONS; i++) {
+			downloadService.swap(true, random.nextInt(SONGS), random.nextInt(SONGS));
+		}
+		Log.i(TAG, OPERATIONS + " moves in " + (System.currentTimeMillis() - start) + " ms");
+		assertEquals(SONGS, downloadService.size());
+	}
+
+	public void testQueueAgainstList() {
+		List<DownloadFile> files = new ArrayList<DownloadFile>();
+		for(MusicDirectory.Entry song: createMusicSongs(SONGS)) {
+			files.add(new DownloadFile(getActivity(), song, false));
+		}
+
+		long list = run(new ArrayList<DownloadFile>(), files);
+		long queue = run(new DownloadQueue(), files);
+		Log.i(TAG, "ArrayList: " + list + " ms, DownloadQueue: " + queue + " ms for " + OPERATIONS + " lookups, inserts and removes over " + SONGS + " songs");
+	}
+
+	private long run(List<DownloadFile> list, List<DownloadFile> files) {
+		list.addAll(files);
+		Random random = new Random(42);
+
+		long start = System.currentTimeMillis();
+		for(int i = 0; i < OPERATIONS; i++) {
+			DownloadFile file = files.get(random.nextInt(files.size()));
+			int index = list.indexOf(file);
+			assertSame(file, list.remove(index));
+			list.add(random.nextInt(list.size() + 1), file);
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	private List<MusicDirectory.Entry> createMusicSongs(int size) {
+		List<MusicDirectory.Entry> songs = new ArrayList<MusicDirectory.Entry>();
+		for(int i = 0; i < size; i++) {
+			MusicDirectory.Entry song = new MusicDirectory.Entry("benchmark-" + i);
+			song.setArtist("Artist " + (i / 100));
+			song.setAlbum("Album " + (i / 10));
+			song.setTitle("Title " + i);
+			song.setTrack(i % 10 + 1);
+			song.setPath("Artist " + (i / 100) + "/Album " + (i / 10) + "/" + i + ".mp3");
+			song.setDuration(240);
+			song.setSuffix("mp3");
+			song.setVideo(false);
+			songs.add(song);
+		}
+		return songs;
+	}
+}
@@ -0,0 +1,102 @@
+package github.daneren2005.dsub.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import github.daneren2005.dsub.domain.MusicDirectory;
+
+public class DownloadQueueTest extends TestCase {
+	public void testInsertAndRemove() {
+		DownloadQueue queue = new DownloadQueue();
+		DownloadFile a = createFile("a");
+		DownloadFile b = createFile("b");
+		DownloadFile c = createFile("c");
+
+		queue.add(a);
+		queue.add(c);
+		queue.add(1, b);
+		assertEquals(Arrays.asList(a, b, c), queue);
+		assertEquals(2, queue.indexOf(c));
+		assertTrue(queue.contains(b));
+
+		assertEquals(b, queue.remove(1));
+		assertFalse(queue.contains(b));
+		assertEquals(-1, queue.indexOf(b));
+		assertEquals(1, queue.indexOf(c));
+
+		assertTrue(queue.remove(a));
+		assertFalse(queue.remove(a));
+		assertEquals(Arrays.asList(c), queue);
+
+		queue.clear();
+		assertTrue(queue.isEmpty());
+		assertFalse(queue.contains(c));
+	}
+
+	public void testGetFiles() {
+		DownloadQueue queue = new DownloadQueue();
+		DownloadFile first = createFile("a");
+		DownloadFile other = createFile("b");
+		DownloadFile second = createFile("a");
+
+		queue.add(second);
+		queue.add(other);
+		queue.add(0, first);
+		assertEquals(Arrays.asList(first, second), queue.getFiles(first.getSong()));
+		assertEquals(Arrays.asList(other), queue.getFiles(other.getSong()));
+
+		queue.set(2, other);
+		assertEquals(Arrays.asList(first), queue.getFiles(first.getSong()));
+		assertEquals(1, queue.indexOf(other));
+		assertEquals(2, queue.lastIndexOf(other));
+		assertTrue(queue.getFiles(new MusicDirectory.Entry("missing")).isEmpty());
+	}
+
+	public void testMatchesArrayList() {
+		Random random = new Random(42);
+		List<DownloadFile> files = new ArrayList<DownloadFile>();
+		for(int i = 0; i < 50; i++) {
+			files.add(createFile("song-" + (i % 20)));
+		}
+
+		DownloadQueue queue = new DownloadQueue();
+		List<DownloadFile> expected = new ArrayList<DownloadFile>();
+		for(int i = 0; i < 20000; i++) {
+			DownloadFile file = files.get(random.nextInt(files.size()));
+			switch(random.nextInt(4)) {
+				case 0: case 1:
+					int index = random.nextInt(expected.size() + 1);
+					expected.add(index, file);
+					queue.add(index, file);
+					break;
+				case 2:
+					if(!expected.isEmpty()) {
+						index = random.nextInt(expected.size());
+						assertSame(expected.remove(index), queue.remove(index));
+					}
+					break;
+				case 3:
+					assertEquals(expected.remove(file), queue.remove(file));
+					break;
+			}
+
+			assertEquals(expected.size(), queue.size());
+			assertEquals(expected.indexOf(file), queue.indexOf(file));
+		}
+		assertEquals(expected, queue);
+
+		Collections.shuffle(queue, random);
+		for(DownloadFile file: files) {
+			assertEquals(queue.subList(0, queue.size()).indexOf(file), queue.indexOf(file));
+		}
+	}
+
+	private DownloadFile createFile(String id) {
+		return new DownloadFile(null, new MusicDirectory.Entry(id), false);
+	}
+}
@@ -0,0 +1,518 @@
+package github.daneren2005.dsub.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.xmlpull.v1.XmlPullParser;
+
+import github.daneren2005.dsub.service.parser.JsonPullParser;
+
+/**
+ * Sends the same requests the app does to a FakeSubsonicServer and reads the answers with the same JSON parser, then
+ * prints requests per second, median and 99th percentile latency and MB/s for each.  Nothing in here needs Android, so
+ * it runs on a plain JVM as well as on a device:
+ * java -cp bin/classes:bin/test-classes:libs/junit.jar:libs/jetty-all-8.1.16.v20140903.jar:libs/javax.servlet-3.0.0.v201112011016.jar
+ *   github.daneren2005.dsub.service.EndToEndBenchmarkTest
+ */
+public class EndToEndBenchmarkTest extends TestCase {
+	private static final int ITERATIONS = 50;
+	private static final int THREADS = 8;
+	// Same as RESTMusicService, so dropped connections are retried the same number of times
+	private static final int MAX_ATTEMPTS = 5;
+
+	private FakeSubsonicServer server;
+	private String baseUrl;
+	private final AtomicLong compressedBytes = new AtomicLong();
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(new TestSuite(EndToEndBenchmarkTest.class));
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		server = new FakeSubsonicServer();
+		int port = server.start(0);
+		baseUrl = "http://127.0.0.1:" + port + "/rest/";
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop();
+		super.tearDown();
+	}
+
+	public void testBrowse() throws Exception {
+		measure("getIndexes", ITERATIONS, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				assertEquals(server.getArtistCount(), getParsed("artist", "getIndexes"));
+				return 0;
+			}
+		});
+		measure("getMusicDirectory", ITERATIONS, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				assertEquals(server.getSongsPerAlbum(), getParsed("child", "getMusicDirectory", "id", getAlbumId(i)));
+				return 0;
+			}
+		});
+		measure("getAlbumList", ITERATIONS, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				String offset = String.valueOf((i * 50) % server.getAlbumCount());
+				assertTrue(getParsed("album", "getAlbumList", "type", "newest", "size", "50", "offset", offset) > 0);
+				return 0;
+			}
+		});
+		measure("search2", ITERATIONS, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				String query = "rtist " + (i % server.getArtistCount());
+				assertTrue(getParsed("artist", "search2", "query", query, "artistCount", "20", "albumCount", "20", "songCount", "20") > 0);
+				return 0;
+			}
+		});
+		measure("getPlaylist", ITERATIONS, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				assertEquals(server.getPlaylistSize(), getParsed("entry", "getPlaylist", "id", FakeSubsonicServer.getPlaylistId(i % 10)));
+				return 0;
+			}
+		});
+	}
+
+	public void testTagBrowse() throws Exception {
+		measure("getArtists", ITERATIONS, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				assertEquals(server.getArtistCount(), getParsed("artist", "getArtists"));
+				return 0;
+			}
+		});
+		measure("getArtist", ITERATIONS, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				assertEquals(server.getAlbumsPerArtist(), getParsed("album", "getArtist", "id", FakeSubsonicServer.getArtistId(i % server.getArtistCount())));
+				return 0;
+			}
+		});
+		measure("getAlbum", ITERATIONS, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				assertEquals(server.getSongsPerAlbum(), getParsed("song", "getAlbum", "id", getAlbumId(i)));
+				return 0;
+			}
+		});
+		measure("getAlbumList2", ITERATIONS, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				String offset = String.valueOf((i * 50) % server.getAlbumCount());
+				assertTrue(getParsed("album", "getAlbumList2", "type", "newest", "size", "50", "offset", offset) > 0);
+				return 0;
+			}
+		});
+		measure("search3", ITERATIONS, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				String query = "rtist " + (i % server.getArtistCount());
+				assertTrue(getParsed("artist", "search3", "query", query, "artistCount", "20", "albumCount", "20", "songCount", "20") > 0);
+				return 0;
+			}
+		});
+	}
+
+	public void testCompression() throws Exception {
+		compressedBytes.set(0);
+		measure("getPlaylist gzipped", ITERATIONS, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				assertEquals(server.getPlaylistSize(), getParsed("entry", "getPlaylist", "id", FakeSubsonicServer.getPlaylistId(i % 10)));
+				return 0;
+			}
+		});
+		System.out.println("getPlaylist gzipped: " + (compressedBytes.get() / ITERATIONS) + " bytes per response");
+	}
+
+	public void testConcurrent() throws Exception {
+		measureConcurrent("getMusicDirectory", ITERATIONS * THREADS, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				assertEquals(server.getSongsPerAlbum(), getParsed("child", "getMusicDirectory", "id", getAlbumId(i)));
+				return 0;
+			}
+		});
+	}
+
+	public void testLatency() throws Exception {
+		server.setLatency(100L);
+		long[] latencies = measure("getMusicDirectory with 100 ms latency", ITERATIONS / 2, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				getParsed("child", "getMusicDirectory", "id", getAlbumId(i));
+				return 0;
+			}
+		});
+		assertTrue(latencies[latencies.length / 2] >= 100L);
+	}
+
+	public void testFailures() throws Exception {
+		// Dropped connections are retried, so everything should still come back
+		int before = server.getRequests("getMusicDirectory");
+		server.setFailureRate(0.1, FakeSubsonicServer.Failure.DROP);
+		measure("getMusicDirectory with 10% dropped", ITERATIONS / 2, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				assertEquals(server.getSongsPerAlbum(), getParsed("child", "getMusicDirectory", "id", getAlbumId(i)));
+				return 0;
+			}
+		});
+		// Counted by the server since HttpURLConnection also quietly sends a request again if the connection drops before
+		// anything came back
+		int retried = server.getRequests("getMusicDirectory") - before - ITERATIONS / 2;
+		System.out.println("getMusicDirectory with 10% dropped: " + retried + " retries");
+
+		// Errors from the server itself are passed on instead
+		server.setFailureRate(1.0, FakeSubsonicServer.Failure.SUBSONIC_ERROR);
+		try {
+			getParsed("child", "getMusicDirectory", "id", getAlbumId(0));
+			fail("Error response should have thrown");
+		} catch(ServerError e) {
+			// Expected
+		}
+	}
+
+	public void testStreamRange() throws Exception {
+		HttpURLConnection connection = open("stream", "id", FakeSubsonicServer.getSongId(0, 0, 0));
+		connection.setRequestProperty("Range", "bytes=1000-1999");
+		assertEquals(HttpURLConnection.HTTP_PARTIAL, connection.getResponseCode());
+
+		InputStream in = connection.getInputStream();
+		try {
+			byte[] bytes = readFully(in);
+			assertEquals(1000, bytes.length);
+			for(int i = 0; i < bytes.length; i++) {
+				assertEquals(FakeSubsonicServer.getStreamByte(1000 + i), bytes[i]);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	public void testCoverArt() throws Exception {
+		measure("getCoverArt", ITERATIONS, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				return download("getCoverArt", getAlbumId(i), 0, -1);
+			}
+		});
+	}
+
+	public void testDownload() throws Exception {
+		measure("Download", ITERATIONS / 5, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				return download(i, 1);
+			}
+		});
+
+		server.setBandwidth(512 * 1024);
+		long[] latencies = measure("Download at 512 KB/s", 2, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				return download(i, 1);
+			}
+		});
+		// Can't come in faster than the server is sending it
+		assertTrue(latencies[0] >= server.getSongSize() * 1000L / (512 * 1024) - 100L);
+	}
+
+	public void testSegmentedDownload() throws Exception {
+		server.setSongSize(16 * 1024L * 1024L);
+		server.setBandwidth(2 * 1024 * 1024);
+
+		measure("Download 16 MB at 2 MB/s per connection", 2, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				return download(i, 1);
+			}
+		});
+		measure("Download 16 MB at 2 MB/s per connection in 4 segments", 2, new Call() {
+			@Override
+			public long call(int i) throws Exception {
+				return download(2 + i, 4);
+			}
+		});
+	}
+
+	/**
+	 * Download song i split into the given number of ranges at once, like a segmented download does.  Returns how many
+	 * bytes came back.
+	 */
+	private long download(int i, int segments) throws Exception {
+		final String id = FakeSubsonicServer.getSongId(0, 0, i % server.getSongsPerAlbum());
+		final long size = server.getSongSize();
+		final long segmentSize = (size + segments - 1) / segments;
+		final AtomicLong total = new AtomicLong();
+		final AtomicReference<Exception> error = new AtomicReference<Exception>();
+
+		Thread[] threads = new Thread[segments];
+		for(int j = 0; j < segments; j++) {
+			final long start = j * segmentSize;
+			threads[j] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						total.addAndGet(download("stream", id, start, Math.min(start + segmentSize, size) - 1));
+					} catch(Exception e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			threads[j].start();
+		}
+		for(Thread thread: threads) {
+			thread.join();
+		}
+		if(error.get() != null) {
+			throw error.get();
+		}
+
+		assertEquals(size, total.get());
+		return total.get();
+	}
+
+	/**
+	 * Read a stream or cover art from start to end, or all of it if end is -1, checking every byte is the right one.
+	 */
+	private long download(String method, String id, long start, long end) throws Exception {
+		HttpURLConnection connection = open(method, "id", id);
+		if(end != -1) {
+			connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+		}
+		assertEquals(end == -1 ? HttpURLConnection.HTTP_OK : HttpURLConnection.HTTP_PARTIAL, connection.getResponseCode());
+
+		InputStream in = connection.getInputStream();
+		try {
+			byte[] buffer = new byte[8192];
+			long position = start;
+			int n;
+			while((n = in.read(buffer)) != -1) {
+				for(int i = 0; i < n; i++) {
+					if(buffer[i] != FakeSubsonicServer.getStreamByte(position + i)) {
+						fail("Wrong byte at " + (position + i) + " of " + id);
+					}
+				}
+				position += n;
+			}
+			return position - start;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Ask for method as JSON and parse the answer, retrying dropped connections like the app does.  Returns how many
+	 * elements named counted came back.
+	 */
+	private int getParsed(String counted, String method, String... parameters) throws Exception {
+		int attempts = 0;
+		while(true) {
+			attempts++;
+			try {
+				return parse(counted, open(method, parameters));
+			} catch(ServerError e) {
+				throw e;
+			} catch(JsonPullParser.JsonException e) {
+				throw e;
+			} catch(IOException e) {
+				if(attempts >= MAX_ATTEMPTS) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	private int parse(String counted, HttpURLConnection connection) throws IOException {
+		InputStream in = new FilterInputStream(connection.getInputStream()) {
+			@Override
+			public int read(byte[] buffer, int offset, int length) throws IOException {
+				int n = super.read(buffer, offset, length);
+				if(n > 0) {
+					compressedBytes.addAndGet(n);
+				}
+				return n;
+			}
+		};
+		try {
+			if("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+				in = new GZIPInputStream(in);
+			}
+
+			JsonPullParser parser = new JsonPullParser();
+			parser.setInput(new InputStreamReader(in, "UTF-8"));
+			int count = 0;
+			int event;
+			while((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+				if(event != XmlPullParser.START_TAG) {
+					continue;
+				}
+
+				if("error".equals(parser.getName())) {
+					throw new ServerError(parser.getAttributeValue("code") + ": " + parser.getAttributeValue("message"));
+				} else if(counted.equals(parser.getName())) {
+					count++;
+				}
+			}
+			return count;
+		} finally {
+			in.close();
+		}
+	}
+
+	private HttpURLConnection open(String method, String... parameters) throws IOException {
+		StringBuilder url = new StringBuilder(baseUrl).append(method).append(".view");
+		url.append("?u=benchmark&p=benchmark&v=").append(FakeSubsonicServer.VERSION).append("&c=DSub&f=json");
+		StringBuilder form = new StringBuilder();
+		for(int i = 0; i + 1 < parameters.length; i += 2) {
+			form.append('&').append(parameters[i]).append('=').append(URLEncoder.encode(parameters[i + 1], "UTF-8"));
+		}
+
+		boolean media = "stream".equals(method) || "getCoverArt".equals(method);
+		if(media) {
+			url.append(form);
+		}
+		HttpURLConnection connection = (HttpURLConnection) new URL(url.toString()).openConnection();
+		if(!media) {
+			// Same as the app, which posts its parameters and doesn't bother compressing media
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+			OutputStream out = connection.getOutputStream();
+			try {
+				out.write(form.length() == 0 ? new byte[0] : form.substring(1).getBytes("UTF-8"));
+			} finally {
+				out.close();
+			}
+		}
+		return connection;
+	}
+
+	private String getAlbumId(int i) {
+		int album = i % server.getAlbumCount();
+		return FakeSubsonicServer.getAlbumId(album / server.getAlbumsPerArtist(), album % server.getAlbumsPerArtist());
+	}
+
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Run call the given number of times one after the other.  Returns how long each took in ms, sorted.
+	 */
+	private long[] measure(String name, int iterations, Call call) throws Exception {
+		long[] latencies = new long[iterations];
+		long bytes = 0;
+		long start = System.nanoTime();
+		for(int i = 0; i < iterations; i++) {
+			long callStart = System.nanoTime();
+			bytes += call.call(i);
+			latencies[i] = (System.nanoTime() - callStart) / 1000000L;
+		}
+		return report(name, latencies, System.nanoTime() - start, bytes);
+	}
+
+	/**
+	 * Run call the given number of times spread across THREADS threads.  Returns how long each took in ms, sorted.
+	 */
+	private long[] measureConcurrent(String name, int iterations, final Call call) throws Exception {
+		final long[] latencies = new long[iterations];
+		final long[] bytes = new long[THREADS];
+		final AtomicReference<Exception> error = new AtomicReference<Exception>();
+		final CountDownLatch ready = new CountDownLatch(1);
+		Thread[] threads = new Thread[THREADS];
+		for(int i = 0; i < THREADS; i++) {
+			final int thread = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						ready.await();
+						for(int j = thread; j < latencies.length; j += THREADS) {
+							long callStart = System.nanoTime();
+							bytes[thread] += call.call(j);
+							latencies[j] = (System.nanoTime() - callStart) / 1000000L;
+						}
+					} catch(Exception e) {
+						error.compareAndSet(null, e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+
+		long start = System.nanoTime();
+		ready.countDown();
+		for(Thread thread: threads) {
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - start;
+		if(error.get() != null) {
+			throw error.get();
+		}
+
+		long total = 0;
+		for(long n: bytes) {
+			total += n;
+		}
+		return report(name + " on " + THREADS + " threads", latencies, elapsed, total);
+	}
+
+	private long[] report(String name, long[] latencies, long elapsedNanos, long bytes) {
+		Arrays.sort(latencies);
+		double seconds = elapsedNanos / 1000000000.0;
+		StringBuilder builder = new StringBuilder();
+		builder.append(name).append(": ").append(latencies.length).append(" calls, ");
+		builder.append(String.format("%.1f", latencies.length / seconds)).append(" requests/s, ");
+		builder.append("p50 ").append(latencies[latencies.length / 2]).append(" ms, ");
+		builder.append("p99 ").append(latencies[Math.min(latencies.length - 1, latencies.length * 99 / 100)]).append(" ms");
+		if(bytes > 0) {
+			builder.append(", ").append(String.format("%.2f", bytes / seconds / (1024 * 1024))).append(" MB/s");
+		}
+		System.out.println(builder.toString());
+		return latencies;
+	}
+
+	private interface Call {
+		// Returns how many bytes it moved, if that is worth counting
+		long call(int i) throws Exception;
+	}
+
+	// Error answered by the server itself, which unlike a dropped connection isn't worth asking again for
+	private static class ServerError extends IOException {
+		public ServerError(String message) {
+			super(message);
+		}
+	}
+}
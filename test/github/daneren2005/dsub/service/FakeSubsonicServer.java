@@ -0,0 +1,823 @@
+package github.daneren2005.dsub.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+
+/**
+ * Stands in for a Subsonic server so the client can be measured without one.  It makes up a library of artists,
+ * albums, songs and playlists and answers the browsing, search, playlist, stream and cover art calls for it the way a
+ * real server would, as JSON when asked for with f=json and as XML otherwise.  Every response can be held back, have
+ * its bandwidth capped and be made to fail.  If a directory of recorded responses is set, a file in it named after the
+ * method, ie: getIndexes.xml or getIndexes.json, is sent instead of the made up one.
+ *
+ * It only needs Jetty, so besides running inside a test it can be started on its own and used as the server from a
+ * device or emulator:
+ * java -cp bin/test-classes:libs/jetty-all-8.1.16.v20140903.jar:libs/javax.servlet-3.0.0.v201112011016.jar
+ *   github.daneren2005.dsub.service.FakeSubsonicServer --port 4040 --latency 50 --bandwidth 1000000 --failures 0.05
+ */
+public class FakeSubsonicServer {
+	public static final String VERSION = "1.13.0";
+	public static final long LAST_MODIFIED = 1437318287000L;
+	private static final int CHUNK = 8192;
+	private static final int PATTERN = 251;
+	private static final String[] GENRES = {"Rock", "Jazz", "Electronic", "Classical", "Hip-Hop", "Folk"};
+
+	public enum Failure {
+		// Close the connection without answering, which the client retries
+		DROP,
+		HTTP_ERROR,
+		SUBSONIC_ERROR
+	}
+
+	private Server server;
+	private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+	private final Random random = new Random();
+	private final byte[] pattern;
+
+	private int artists = 200;
+	private int albumsPerArtist = 5;
+	private int songsPerAlbum = 12;
+	private int playlists = 10;
+	private int playlistSize = 100;
+	private long songSize = 1024L * 1024L;
+	private int coverArtSize = 64 * 1024;
+
+	private volatile long latency = 0;
+	private volatile long bandwidth = 0;
+	private volatile double failureRate = 0;
+	private volatile Failure failure = Failure.DROP;
+	private volatile File recorded;
+
+	public FakeSubsonicServer() {
+		// Long enough that a chunk can start anywhere in the pattern and still be read in one go
+		pattern = new byte[PATTERN * (CHUNK / PATTERN + 2)];
+		for(int i = 0; i < pattern.length; i++) {
+			pattern[i] = getStreamByte(i);
+		}
+	}
+
+	/**
+	 * Start listening on port, or any free one if it is 0.  Returns the port it is listening on.
+	 */
+	public int start(int port) throws Exception {
+		SelectChannelConnector connector = new SelectChannelConnector();
+		connector.setPort(port);
+
+		server = new Server();
+		server.addConnector(connector);
+		server.setHandler(new AbstractHandler() {
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+				baseRequest.setHandled(true);
+				FakeSubsonicServer.this.handle(baseRequest, request, response);
+			}
+		});
+		server.start();
+		return connector.getLocalPort();
+	}
+	public void stop() throws Exception {
+		if(server != null) {
+			server.stop();
+			server = null;
+		}
+	}
+
+	public void setLibrary(int artists, int albumsPerArtist, int songsPerAlbum) {
+		this.artists = artists;
+		this.albumsPerArtist = albumsPerArtist;
+		this.songsPerAlbum = songsPerAlbum;
+	}
+	public void setPlaylists(int playlists, int playlistSize) {
+		this.playlists = playlists;
+		this.playlistSize = playlistSize;
+	}
+	public void setSongSize(long songSize) {
+		this.songSize = songSize;
+	}
+	public long getSongSize() {
+		return songSize;
+	}
+	public void setCoverArtSize(int coverArtSize) {
+		this.coverArtSize = coverArtSize;
+	}
+	public int getArtistCount() {
+		return artists;
+	}
+	public int getAlbumsPerArtist() {
+		return albumsPerArtist;
+	}
+	public int getAlbumCount() {
+		return artists * albumsPerArtist;
+	}
+	public int getSongsPerAlbum() {
+		return songsPerAlbum;
+	}
+	public int getPlaylistSize() {
+		return playlistSize;
+	}
+
+	/**
+	 * How long to wait before answering each request, in ms.
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+	/**
+	 * Most bytes per second to send each response at, or 0 for as fast as possible.
+	 */
+	public void setBandwidth(long bandwidth) {
+		this.bandwidth = bandwidth;
+	}
+	/**
+	 * Fraction of requests, from 0 to 1, which fail the given way instead of being answered.
+	 */
+	public void setFailureRate(double failureRate, Failure failure) {
+		this.failureRate = failureRate;
+		this.failure = failure;
+	}
+	public void setRecorded(File recorded) {
+		this.recorded = recorded;
+	}
+
+	public int getRequests(String method) {
+		AtomicInteger count = requests.get(method);
+		return count == null ? 0 : count.get();
+	}
+	public int getRequests() {
+		int total = 0;
+		for(AtomicInteger count: requests.values()) {
+			total += count.get();
+		}
+		return total;
+	}
+
+	public static String getArtistId(int artist) {
+		return "ar" + artist;
+	}
+	public static String getAlbumId(int artist, int album) {
+		return "al" + artist + "_" + album;
+	}
+	public static String getSongId(int artist, int album, int song) {
+		return "so" + artist + "_" + album + "_" + song;
+	}
+	public static String getPlaylistId(int playlist) {
+		return "pl" + playlist;
+	}
+	public static String getArtistName(int artist) {
+		return (char) ('A' + artist % 26) + "rtist " + artist;
+	}
+
+	/**
+	 * What is at position in every stream and cover art, so whoever downloads it can check they got the right bytes.
+	 */
+	public static byte getStreamByte(long position) {
+		return (byte) (position % PATTERN);
+	}
+
+	private void handle(Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		String method = getMethod(request.getRequestURI());
+		AtomicInteger count = requests.get(method);
+		if(count == null) {
+			count = new AtomicInteger();
+			AtomicInteger existing = requests.putIfAbsent(method, count);
+			if(existing != null) {
+				count = existing;
+			}
+		}
+		count.incrementAndGet();
+
+		sleep(latency);
+		boolean json = "json".equals(request.getParameter("f"));
+		if(failureRate > 0 && random.nextDouble() < failureRate) {
+			switch(failure) {
+				case DROP:
+					baseRequest.getConnection().getEndPoint().close();
+					break;
+				case HTTP_ERROR:
+					response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+					break;
+				case SUBSONIC_ERROR:
+					sendError(request, response, json, 0, "Injected failure");
+					break;
+			}
+			return;
+		}
+
+		if("stream".equals(method) || "download".equals(method)) {
+			stream(request, response, json);
+		} else if("getCoverArt".equals(method)) {
+			coverArt(request, response, json);
+		} else if(!sendRecorded(request, response, method, json)) {
+			Element root = createResponse();
+			try {
+				if(!respond(method, request, root)) {
+					sendError(request, response, json, 0, "Unknown method " + method);
+					return;
+				}
+			} catch(NotFoundException e) {
+				sendError(request, response, json, 70, e.getMessage());
+				return;
+			}
+			send(request, response, root, json);
+		}
+	}
+
+	private boolean respond(String method, HttpServletRequest request, Element root) throws NotFoundException {
+		if("ping".equals(method)) {
+			// Nothing more than the status
+		} else if("getLicense".equals(method)) {
+			root.add("license").set("valid", true).set("email", "fake@example.com");
+		} else if("getMusicFolders".equals(method)) {
+			root.add("musicFolders").add("musicFolder").set("id", 0).set("name", "Music");
+		} else if("getIndexes".equals(method)) {
+			Element indexes = root.add("indexes").set("lastModified", LAST_MODIFIED).set("ignoredArticles", "The El La Los Las Le Les");
+			String ifModifiedSince = request.getParameter("ifModifiedSince");
+			if(ifModifiedSince == null || Long.parseLong(ifModifiedSince) < LAST_MODIFIED) {
+				addIndexes(indexes, false);
+			}
+		} else if("getArtists".equals(method)) {
+			addIndexes(root.add("artists").set("ignoredArticles", "The El La Los Las Le Les"), true);
+		} else if("getMusicDirectory".equals(method)) {
+			int[] id = parseId(request.getParameter("id"));
+			if(id.length == 1) {
+				Element directory = root.add("directory").set("id", getArtistId(id[0])).set("name", getArtistName(id[0]));
+				for(int i = 0; i < albumsPerArtist; i++) {
+					addAlbum(directory, "child", id[0], i, false);
+				}
+			} else if(id.length == 2) {
+				Element directory = root.add("directory").set("id", getAlbumId(id[0], id[1])).set("parent", getArtistId(id[0])).set("name", getAlbumName(id[0], id[1]));
+				for(int i = 0; i < songsPerAlbum; i++) {
+					addSong(directory, "child", id[0], id[1], i);
+				}
+			} else {
+				throw new NotFoundException("Directory not found");
+			}
+		} else if("getArtist".equals(method)) {
+			int[] id = parseId(request.getParameter("id"));
+			if(id.length != 1) {
+				throw new NotFoundException("Artist not found");
+			}
+			Element artist = root.add("artist").set("id", getArtistId(id[0])).set("name", getArtistName(id[0])).set("albumCount", albumsPerArtist);
+			for(int i = 0; i < albumsPerArtist; i++) {
+				addAlbum(artist, "album", id[0], i, true);
+			}
+		} else if("getAlbum".equals(method)) {
+			int[] id = parseId(request.getParameter("id"));
+			if(id.length != 2) {
+				throw new NotFoundException("Album not found");
+			}
+			Element album = addAlbum(root, "album", id[0], id[1], true);
+			for(int i = 0; i < songsPerAlbum; i++) {
+				addSong(album, "song", id[0], id[1], i);
+			}
+		} else if("getAlbumList".equals(method) || "getAlbumList2".equals(method)) {
+			boolean tags = "getAlbumList2".equals(method);
+			Element list = root.add(tags ? "albumList2" : "albumList");
+			int size = getInt(request, "size", 10);
+			int offset = getInt(request, "offset", 0);
+			boolean shuffle = "random".equals(request.getParameter("type"));
+			for(int i = offset; i < Math.min(offset + size, getAlbumCount()); i++) {
+				int album = shuffle ? random.nextInt(getAlbumCount()) : i;
+				addAlbum(list, "album", album / albumsPerArtist, album % albumsPerArtist, tags);
+			}
+		} else if("search2".equals(method) || "search3".equals(method)) {
+			search(request, root.add("search2".equals(method) ? "searchResult2" : "searchResult3"), "search3".equals(method));
+		} else if("getPlaylists".equals(method)) {
+			Element list = root.add("playlists");
+			for(int i = 0; i < playlists; i++) {
+				addPlaylist(list, i);
+			}
+		} else if("getPlaylist".equals(method)) {
+			String id = request.getParameter("id");
+			int playlist;
+			try {
+				playlist = Integer.parseInt(id.substring(2));
+			} catch(Exception e) {
+				throw new NotFoundException("Playlist not found");
+			}
+			if(!id.startsWith("pl") || playlist >= playlists) {
+				throw new NotFoundException("Playlist not found");
+			}
+
+			Element element = addPlaylist(root, playlist);
+			int songs = getAlbumCount() * songsPerAlbum;
+			for(int i = 0; i < playlistSize; i++) {
+				// Spread each playlist over the library instead of taking whole albums
+				int song = (int) (((long) playlist * playlistSize + i) * 7919 % songs);
+				int album = song / songsPerAlbum;
+				addSong(element, "entry", album / albumsPerArtist, album % albumsPerArtist, song % songsPerAlbum);
+			}
+		} else {
+			return false;
+		}
+
+		return true;
+	}
+
+	private void addIndexes(Element parent, boolean tags) {
+		for(int letter = 0; letter < 26 && letter < artists; letter++) {
+			Element index = parent.add("index").set("name", String.valueOf((char) ('A' + letter)));
+			for(int i = letter; i < artists; i += 26) {
+				Element artist = index.add("artist").set("id", getArtistId(i)).set("name", getArtistName(i));
+				if(tags) {
+					artist.set("albumCount", albumsPerArtist).set("coverArt", getArtistId(i));
+				}
+			}
+		}
+	}
+
+	private Element addAlbum(Element parent, String name, int artist, int album, boolean tags) {
+		Element element = parent.add(name).set("id", getAlbumId(artist, album));
+		if(tags) {
+			element.set("name", getAlbumName(artist, album)).set("artistId", getArtistId(artist)).set("songCount", songsPerAlbum);
+		} else {
+			element.set("parent", getArtistId(artist)).set("title", getAlbumName(artist, album)).set("isDir", true);
+		}
+		return element.set("artist", getArtistName(artist))
+			.set("coverArt", getAlbumId(artist, album))
+			.set("year", 1970 + (artist + album) % 45)
+			.set("genre", GENRES[artist % GENRES.length])
+			.set("duration", songsPerAlbum * getDuration());
+	}
+
+	private Element addSong(Element parent, String name, int artist, int album, int song) {
+		String artistName = getArtistName(artist);
+		String albumName = getAlbumName(artist, album);
+		String title = "Song " + (song + 1);
+		return parent.add(name).set("id", getSongId(artist, album, song))
+			.set("parent", getAlbumId(artist, album))
+			.set("title", title)
+			.set("album", albumName)
+			.set("artist", artistName)
+			.set("isDir", false)
+			.set("coverArt", getAlbumId(artist, album))
+			.set("track", song + 1)
+			.set("year", 1970 + (artist + album) % 45)
+			.set("genre", GENRES[artist % GENRES.length])
+			.set("size", songSize)
+			.set("contentType", "audio/mpeg")
+			.set("suffix", "mp3")
+			.set("duration", getDuration())
+			.set("bitRate", 320)
+			.set("path", artistName + "/" + albumName + "/" + String.format("%02d", song + 1) + " " + title + ".mp3")
+			.set("albumId", getAlbumId(artist, album))
+			.set("artistId", getArtistId(artist))
+			.set("type", "music");
+	}
+
+	private Element addPlaylist(Element parent, int playlist) {
+		return parent.add("playlist").set("id", getPlaylistId(playlist))
+			.set("name", "Playlist " + playlist)
+			.set("owner", "fake")
+			.set("public", true)
+			.set("songCount", playlistSize)
+			.set("duration", playlistSize * getDuration())
+			.set("created", "2015-07-19T14:58:07.000Z");
+	}
+
+	private void search(HttpServletRequest request, Element result, boolean tags) {
+		String query = request.getParameter("query");
+		query = query == null ? "" : query.toLowerCase().replace("*", "");
+		int artistCount = getInt(request, "artistCount", 20);
+		int albumCount = getInt(request, "albumCount", 20);
+		int songCount = getInt(request, "songCount", 20);
+
+		for(int i = 0; i < artists && artistCount > 0; i++) {
+			if(getArtistName(i).toLowerCase().contains(query)) {
+				Element artist = result.add("artist").set("id", getArtistId(i)).set("name", getArtistName(i));
+				if(tags) {
+					artist.set("albumCount", albumsPerArtist);
+				}
+				artistCount--;
+			}
+		}
+		for(int i = 0; i < getAlbumCount() && albumCount > 0; i++) {
+			int artist = i / albumsPerArtist;
+			if(getAlbumName(artist, i % albumsPerArtist).toLowerCase().contains(query)) {
+				addAlbum(result, "album", artist, i % albumsPerArtist, tags);
+				albumCount--;
+			}
+		}
+		for(int i = 0; i < getAlbumCount() * songsPerAlbum && songCount > 0; i++) {
+			int album = i / songsPerAlbum;
+			int artist = album / albumsPerArtist;
+			if(("song " + (i % songsPerAlbum + 1)).contains(query) || getAlbumName(artist, album % albumsPerArtist).toLowerCase().contains(query)) {
+				addSong(result, "song", artist, album % albumsPerArtist, i % songsPerAlbum);
+				songCount--;
+			}
+		}
+	}
+
+	private void stream(HttpServletRequest request, HttpServletResponse response, boolean json) throws IOException {
+		int[] id = parseId(request.getParameter("id"));
+		if(id.length != 3) {
+			sendError(request, response, json, 70, "Song not found");
+			return;
+		}
+		sendBytes(request, response, "audio/mpeg", songSize);
+	}
+
+	private void coverArt(HttpServletRequest request, HttpServletResponse response, boolean json) throws IOException {
+		if(request.getParameter("id") == null) {
+			sendError(request, response, json, 10, "Required parameter is missing");
+			return;
+		}
+		// Not an image that can be decoded, only something the size of one to move over the wire
+		sendBytes(request, response, "image/jpeg", coverArtSize);
+	}
+
+	private void sendBytes(HttpServletRequest request, HttpServletResponse response, String contentType, long size) throws IOException {
+		long start = 0;
+		long end = size - 1;
+		String range = request.getHeader("Range");
+		if(range != null && range.startsWith("bytes=")) {
+			String[] parts = range.substring("bytes=".length()).split("-", -1);
+			start = Long.parseLong(parts[0]);
+			if(parts.length > 1 && parts[1].length() > 0) {
+				end = Math.min(Long.parseLong(parts[1]), size - 1);
+			}
+
+			if(start >= size || start > end) {
+				response.setHeader("Content-Range", "bytes */" + size);
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + size);
+		}
+
+		response.setContentType(contentType);
+		response.setHeader("Accept-Ranges", "bytes");
+		response.setHeader("Content-Length", String.valueOf(end - start + 1));
+
+		OutputStream out = response.getOutputStream();
+		long writeStart = System.nanoTime();
+		long position = start;
+		while(position <= end) {
+			int n = (int) Math.min(CHUNK, end - position + 1);
+			out.write(pattern, (int) (position % PATTERN), n);
+			position += n;
+			throttle(writeStart, position - start);
+		}
+		out.flush();
+	}
+
+	private boolean sendRecorded(HttpServletRequest request, HttpServletResponse response, String method, boolean json) throws IOException {
+		File recorded = this.recorded;
+		if(recorded == null) {
+			return false;
+		}
+
+		File file = new File(recorded, method + ".json");
+		if(!json || !file.exists()) {
+			// Sent even if JSON was asked for, like a server which doesn't know JSON would
+			file = new File(recorded, method + ".xml");
+			json = false;
+		}
+		if(!file.exists()) {
+			return false;
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[CHUNK];
+			int n;
+			while((n = in.read(buffer)) != -1) {
+				bytes.write(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		send(request, response, bytes.toByteArray(), json);
+		return true;
+	}
+
+	private void sendError(HttpServletRequest request, HttpServletResponse response, boolean json, int code, String message) throws IOException {
+		Element root = createResponse().set("status", "failed");
+		root.add("error").set("code", code).set("message", message);
+		send(request, response, root, json);
+	}
+
+	private void send(HttpServletRequest request, HttpServletResponse response, Element root, boolean json) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		if(json) {
+			builder.append("{");
+			root.writeJson(builder);
+			builder.append("}");
+		} else {
+			builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			root.writeXml(builder);
+		}
+		send(request, response, builder.toString().getBytes("UTF-8"), json);
+	}
+	private void send(HttpServletRequest request, HttpServletResponse response, byte[] bytes, boolean json) throws IOException {
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+		if(acceptEncoding != null && acceptEncoding.contains("gzip")) {
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+			gzip.write(bytes);
+			gzip.close();
+			bytes = compressed.toByteArray();
+			response.setHeader("Content-Encoding", "gzip");
+		}
+
+		response.setContentType(json ? "application/json; charset=UTF-8" : "text/xml; charset=UTF-8");
+		response.setContentLength(bytes.length);
+		OutputStream out = response.getOutputStream();
+		long start = System.nanoTime();
+		for(int position = 0; position < bytes.length; position += CHUNK) {
+			int n = Math.min(CHUNK, bytes.length - position);
+			out.write(bytes, position, n);
+			throttle(start, position + n);
+		}
+		out.flush();
+	}
+
+	private void throttle(long start, long sent) throws IOException {
+		long bandwidth = this.bandwidth;
+		if(bandwidth <= 0) {
+			return;
+		}
+
+		long due = sent * 1000L / bandwidth;
+		long elapsed = (System.nanoTime() - start) / 1000000L;
+		if(due > elapsed) {
+			try {
+				Thread.sleep(due - elapsed);
+			} catch(InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+	}
+
+	private Element createResponse() {
+		return new Element("subsonic-response").set("xmlns", "http://subsonic.org/restapi").set("status", "ok").set("version", VERSION);
+	}
+
+	private String getAlbumName(int artist, int album) {
+		return "Album " + artist + "-" + (album + 1);
+	}
+	private int getDuration() {
+		// Seconds the song would last at 320 kbps
+		return (int) (songSize * 8 / 320000);
+	}
+
+	private int[] parseId(String id) {
+		if(id == null || id.length() < 3) {
+			return new int[0];
+		}
+
+		int expected;
+		if(id.startsWith("ar")) {
+			expected = 1;
+		} else if(id.startsWith("al")) {
+			expected = 2;
+		} else if(id.startsWith("so")) {
+			expected = 3;
+		} else {
+			return new int[0];
+		}
+
+		String[] parts = id.substring(2).split("_");
+		if(parts.length != expected) {
+			return new int[0];
+		}
+		try {
+			int[] values = new int[parts.length];
+			for(int i = 0; i < parts.length; i++) {
+				values[i] = Integer.parseInt(parts[i]);
+			}
+			if(values[0] >= artists || (values.length > 1 && values[1] >= albumsPerArtist) || (values.length > 2 && values[2] >= songsPerAlbum)) {
+				return new int[0];
+			}
+			return values;
+		} catch(NumberFormatException e) {
+			return new int[0];
+		}
+	}
+
+	private static int getInt(HttpServletRequest request, String name, int defaultValue) {
+		String value = request.getParameter(name);
+		try {
+			return value == null ? defaultValue : Integer.parseInt(value);
+		} catch(NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	private static String getMethod(String uri) {
+		int start = uri.indexOf("/rest/");
+		if(start == -1) {
+			return "other";
+		}
+
+		start += "/rest/".length();
+		int end = uri.indexOf('.', start);
+		return uri.substring(start, end == -1 ? uri.length() : end);
+	}
+
+	private static void sleep(long ms) throws IOException {
+		if(ms > 0) {
+			try {
+				Thread.sleep(ms);
+			} catch(InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		FakeSubsonicServer server = new FakeSubsonicServer();
+		int port = 4040;
+		for(int i = 0; i + 1 < args.length; i += 2) {
+			String name = args[i];
+			String value = args[i + 1];
+			if("--port".equals(name)) {
+				port = Integer.parseInt(value);
+			} else if("--latency".equals(name)) {
+				server.setLatency(Long.parseLong(value));
+			} else if("--bandwidth".equals(name)) {
+				server.setBandwidth(Long.parseLong(value));
+			} else if("--failures".equals(name)) {
+				server.setFailureRate(Double.parseDouble(value), Failure.DROP);
+			} else if("--artists".equals(name)) {
+				server.setLibrary(Integer.parseInt(value), server.albumsPerArtist, server.songsPerAlbum);
+			} else if("--songSize".equals(name)) {
+				server.setSongSize(Long.parseLong(value));
+			} else if("--recorded".equals(name)) {
+				server.setRecorded(new File(value));
+			} else {
+				System.err.println("Unknown option " + name);
+				System.exit(1);
+			}
+		}
+
+		port = server.start(port);
+		System.out.println("Fake Subsonic " + VERSION + " listening on port " + port + " with " + server.getArtistCount() + " artists");
+		server.server.join();
+	}
+
+	private static class NotFoundException extends Exception {
+		public NotFoundException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * One element of a response, written out as XML or as the JSON a Subsonic server sends for the same thing.
+	 */
+	private static class Element {
+		private final String name;
+		private final Map<String, String> attributes = new LinkedHashMap<String, String>();
+		private final List<Element> children = new ArrayList<Element>();
+
+		public Element(String name) {
+			this.name = name;
+		}
+
+		public Element set(String name, Object value) {
+			attributes.put(name, String.valueOf(value));
+			return this;
+		}
+		public Element add(String name) {
+			Element child = new Element(name);
+			children.add(child);
+			return child;
+		}
+
+		public void writeXml(StringBuilder builder) {
+			builder.append('<').append(name);
+			for(Map.Entry<String, String> attribute: attributes.entrySet()) {
+				builder.append(' ').append(attribute.getKey()).append("=\"");
+				escapeXml(builder, attribute.getValue());
+				builder.append('"');
+			}
+
+			if(children.isEmpty()) {
+				builder.append("/>");
+			} else {
+				builder.append('>');
+				for(Element child: children) {
+					child.writeXml(builder);
+				}
+				builder.append("</").append(name).append('>');
+			}
+		}
+
+		public void writeJson(StringBuilder builder) {
+			writeJsonString(builder, name);
+			builder.append(':');
+			writeJsonBody(builder);
+		}
+		private void writeJsonBody(StringBuilder builder) {
+			builder.append('{');
+			boolean first = true;
+			for(Map.Entry<String, String> attribute: attributes.entrySet()) {
+				// JSON responses don't have a namespace
+				if("xmlns".equals(attribute.getKey())) {
+					continue;
+				}
+				if(!first) {
+					builder.append(',');
+				}
+				writeJsonString(builder, attribute.getKey());
+				builder.append(':');
+				writeJsonString(builder, attribute.getValue());
+				first = false;
+			}
+
+			// Children with the same name are one array, unless there is only one of them
+			Map<String, List<Element>> groups = new LinkedHashMap<String, List<Element>>();
+			for(Element child: children) {
+				List<Element> group = groups.get(child.name);
+				if(group == null) {
+					group = new ArrayList<Element>();
+					groups.put(child.name, group);
+				}
+				group.add(child);
+			}
+			for(Map.Entry<String, List<Element>> group: groups.entrySet()) {
+				if(!first) {
+					builder.append(',');
+				}
+				writeJsonString(builder, group.getKey());
+				builder.append(':');
+				List<Element> elements = group.getValue();
+				if(elements.size() == 1) {
+					elements.get(0).writeJsonBody(builder);
+				} else {
+					builder.append('[');
+					for(int i = 0; i < elements.size(); i++) {
+						if(i > 0) {
+							builder.append(',');
+						}
+						elements.get(i).writeJsonBody(builder);
+					}
+					builder.append(']');
+				}
+				first = false;
+			}
+			builder.append('}');
+		}
+
+		private static void escapeXml(StringBuilder builder, String value) {
+			for(int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				switch(c) {
+					case '<':
+						builder.append("&lt;");
+						break;
+					case '>':
+						builder.append("&gt;");
+						break;
+					case '&':
+						builder.append("&amp;");
+						break;
+					case '"':
+						builder.append("&quot;");
+						break;
+					default:
+						builder.append(c);
+				}
+			}
+		}
+		private static void writeJsonString(StringBuilder builder, String value) {
+			builder.append('"');
+			for(int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if(c == '"' || c == '\\') {
+					builder.append('\\').append(c);
+				} else if(c < 0x20) {
+					builder.append(String.format("\\u%04x", (int) c));
+				} else {
+					builder.append(c);
+				}
+			}
+			builder.append('"');
+		}
+	}
+}
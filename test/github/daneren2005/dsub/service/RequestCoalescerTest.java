@@ -0,0 +1,262 @@
+package github.daneren2005.dsub.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import github.daneren2005.dsub.util.ProgressListener;
+import junit.framework.TestCase;
+
+public class RequestCoalescerTest extends TestCase {
+	public void testKey() {
+		String key = RequestCoalescer.getKey(1, "getAlbumList", Arrays.asList("type", "size"), Arrays.<Object>asList("newest", 20));
+		assertEquals("1:getAlbumList?size=20&type=newest", key);
+		assertEquals(key, RequestCoalescer.getKey(1, "getAlbumList", Arrays.asList("size", "type"), Arrays.<Object>asList(20, "newest")));
+		assertFalse(key.equals(RequestCoalescer.getKey(2, "getAlbumList", Arrays.asList("size", "type"), Arrays.<Object>asList(20, "newest"))));
+		assertEquals("1:getGenres", RequestCoalescer.getKey(1, "getGenres", null, null));
+	}
+
+	public void testConcurrentCallsShareResult() throws Exception {
+		final RequestCoalescer coalescer = new RequestCoalescer();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		final Object result = new Object();
+		final Callable<Object> request = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				calls.incrementAndGet();
+				started.countDown();
+				release.await();
+				return result;
+			}
+		};
+
+		final AtomicReference<Object> leaderResult = new AtomicReference<Object>();
+		Thread leader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					leaderResult.set(coalescer.execute("key", null, request));
+				} catch(Exception e) {
+					fail(e.toString());
+				}
+			}
+		};
+		leader.start();
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		final AtomicReference<Object> followerResult = new AtomicReference<Object>();
+		Thread follower = new Thread() {
+			@Override
+			public void run() {
+				try {
+					followerResult.set(coalescer.execute("key", null, request));
+				} catch(Exception e) {
+					fail(e.toString());
+				}
+			}
+		};
+		follower.start();
+
+		// Let the follower join before the leader finishes
+		while(coalescer.getCoalesced() == 0) {
+			Thread.sleep(10L);
+		}
+		release.countDown();
+		leader.join();
+		follower.join();
+
+		assertEquals(1, calls.get());
+		assertSame(result, leaderResult.get());
+		assertSame(result, followerResult.get());
+		assertEquals(2, coalescer.getRequests());
+		assertEquals(0.5, coalescer.getHitRate(), 0.001);
+
+		// Nothing in flight anymore, so this runs again
+		assertSame(result, coalescer.execute("key", null, request));
+		assertEquals(2, calls.get());
+	}
+
+	public void testWaitingCallersGetCopies() throws Exception {
+		final RequestCoalescer coalescer = new RequestCoalescer();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> result = new ArrayList<String>(Arrays.asList("b", "a"));
+		final Callable<List<String>> request = new Callable<List<String>>() {
+			@Override
+			public List<String> call() throws Exception {
+				started.countDown();
+				release.await();
+				return result;
+			}
+		};
+		final RequestCoalescer.Copier<List<String>> copier = new RequestCoalescer.Copier<List<String>>() {
+			@Override
+			public List<String> copy(List<String> original) {
+				return new ArrayList<String>(original);
+			}
+		};
+
+		final AtomicReference<List<String>> followerResult = new AtomicReference<List<String>>();
+		Thread follower = new Thread() {
+			@Override
+			public void run() {
+				try {
+					started.await();
+					followerResult.set(coalescer.execute("key", null, request, copier));
+				} catch(Exception e) {
+					fail(e.toString());
+				}
+			}
+		};
+		follower.start();
+
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					while(coalescer.getCoalesced() == 0) {
+						Thread.sleep(10L);
+					}
+				} catch(InterruptedException e) {
+					// Release below either way
+				}
+				release.countDown();
+			}
+		}.start();
+
+		List<String> leaderResult = coalescer.execute("key", null, request, copier);
+		// Sorting what the leader got can't change what the follower gets
+		Collections.sort(leaderResult);
+		follower.join();
+
+		assertSame(result, leaderResult);
+		assertNotSame(result, followerResult.get());
+		assertEquals(Arrays.asList("b", "a"), followerResult.get());
+	}
+
+	public void testWaitingCallersGetProgress() throws Exception {
+		final RequestCoalescer coalescer = new RequestCoalescer();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final RequestCoalescer.Request<String> request = new RequestCoalescer.Request<String>() {
+			@Override
+			public String call(ProgressListener listener) throws Exception {
+				listener.updateChunk(0, Arrays.asList("a", "b"));
+				started.countDown();
+				release.await();
+				listener.updateChunk(2, Arrays.asList("c"));
+				return "done";
+			}
+		};
+
+		final ChunkListener followerListener = new ChunkListener();
+		Thread follower = new Thread() {
+			@Override
+			public void run() {
+				try {
+					started.await();
+					coalescer.execute("key", null, followerListener, request, null);
+				} catch(Exception e) {
+					fail(e.toString());
+				}
+			}
+		};
+		follower.start();
+
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					while(coalescer.getCoalesced() == 0) {
+						Thread.sleep(10L);
+					}
+				} catch(InterruptedException e) {
+					// Release below either way
+				}
+				release.countDown();
+			}
+		}.start();
+
+		ChunkListener leaderListener = new ChunkListener();
+		assertEquals("done", coalescer.execute("key", null, leaderListener, request, null));
+		follower.join();
+
+		// The follower joined after the first chunk, so it was repeated to it
+		assertEquals(Arrays.asList("a", "b", "c"), leaderListener.items);
+		assertEquals(Arrays.asList("a", "b", "c"), followerListener.items);
+	}
+
+	public void testFailureIsShared() throws Exception {
+		final RequestCoalescer coalescer = new RequestCoalescer();
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<Object> request = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				release.await();
+				throw new IllegalStateException("Server error");
+			}
+		};
+
+		final AtomicReference<Exception> error = new AtomicReference<Exception>();
+		Thread follower = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while(coalescer.getRequests() == 0) {
+						Thread.sleep(10L);
+					}
+					coalescer.execute("key", null, request);
+				} catch(Exception e) {
+					error.set(e);
+				}
+			}
+		};
+		follower.start();
+
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					while(coalescer.getCoalesced() == 0) {
+						Thread.sleep(10L);
+					}
+				} catch(InterruptedException e) {
+					// Release below either way
+				}
+				release.countDown();
+			}
+		}.start();
+
+		try {
+			coalescer.execute("key", null, request);
+			fail("Leader should have failed");
+		} catch(IllegalStateException e) {
+			// Expected
+		}
+		follower.join();
+		assertTrue(error.get() instanceof IllegalStateException);
+	}
+
+	private static class ChunkListener implements ProgressListener {
+		final List<Object> items = Collections.synchronizedList(new ArrayList<Object>());
+
+		@Override
+		public void updateProgress(String message) {
+		}
+		@Override
+		public void updateProgress(int messageId) {
+		}
+		@Override
+		public void updateChunk(int position, List<?> items) {
+			this.items.addAll(items);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package github.daneren2005.dsub.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+public class RequestStatsTest extends TestCase {
+	public void testMethod() {
+		assertEquals("getIndexes", RequestStats.getMethod("http://server:4040/rest/getIndexes.view?u=user&v=1.2.0"));
+		assertEquals("ping", RequestStats.getMethod("http://server/subsonic/rest/ping?u=user"));
+		assertEquals("getLicense", RequestStats.getMethod("https://server/rest/getLicense"));
+		assertEquals("other", RequestStats.getMethod("http://server/stream/123"));
+	}
+
+	public void testHistogram() {
+		RequestStats.Histogram histogram = new RequestStats.Histogram();
+		assertEquals(0, histogram.getPercentile(0.5));
+		for(int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+
+		assertEquals(100, histogram.getCount());
+		assertEquals(50, histogram.getMean());
+		assertEquals(100, histogram.getMax());
+		// Percentiles round up to the top of the power of two bucket they land in
+		assertEquals(63, histogram.getPercentile(0.5));
+		assertEquals(100, histogram.getPercentile(0.95));
+		assertEquals(1, histogram.getPercentile(0.01));
+	}
+
+	public void testCsv() {
+		RequestStats stats = RequestStats.getInstance();
+		stats.clear();
+		RequestStats.Endpoint endpoint = stats.getEndpoint("getAlbum");
+		endpoint.cached(true, 2);
+		endpoint.cached(false, 300);
+		endpoint.failed("HTTP 500");
+		assertSame(endpoint, stats.getEndpoint("getAlbum"));
+
+		String[] lines = stats.toCsv().split("\n");
+		assertEquals(2, lines.length);
+		assertTrue(lines[0].startsWith("method,requests,retries,failures,cacheHits,cacheMisses"));
+		assertTrue(lines[1].startsWith("getAlbum,0,0,1,1,1,"));
+		assertTrue(lines[1].endsWith(",HTTP 500=1"));
+		stats.clear();
+	}
+
+	public void testFailureCountedOnce() {
+		RequestStats stats = RequestStats.getInstance();
+		stats.clear();
+		RequestStats.Request request = stats.startMethod("getAlbum");
+		request.responded(404);
+		// The error page then doesn't parse either, which is still the same failure
+		request.failed(new IOException("Not XML"));
+
+		RequestStats.Endpoint endpoint = stats.getEndpoint("getAlbum");
+		assertEquals(1, endpoint.getRequests());
+		assertEquals(1, endpoint.getFailures());
+		assertEquals(Long.valueOf(1), endpoint.getFailureTypes().get("HTTP 404"));
+		stats.clear();
+	}
+
+	public void testTimedOncePerCall() throws IOException {
+		RequestStats stats = RequestStats.getInstance();
+		stats.clear();
+		RequestStats.Request request = stats.startMethod("getAlbum");
+		RequestStats.setCurrent(request);
+		request.attempt(1);
+		RequestStats.socketCreated();
+		RequestStats.socketConnected();
+		request.responded(200);
+
+		// First answer is thrown away and asked for again on a new connection
+		request.discardBody();
+		request.countDecoded(new ByteArrayInputStream(new byte[0])).close();
+		request.attempt(1);
+		RequestStats.socketCreated();
+		RequestStats.socketConnected();
+		request.responded(200);
+		InputStream in = request.countDecoded(new ByteArrayInputStream(new byte[10]));
+		in.read(new byte[10]);
+		in.close();
+		RequestStats.setCurrent(null);
+
+		RequestStats.Endpoint endpoint = stats.getEndpoint("getAlbum");
+		assertEquals(1, endpoint.getRequests());
+		assertEquals(0, endpoint.getRetries());
+		assertEquals(1, endpoint.getTiming("connectWait").getCount());
+		assertEquals(1, endpoint.getTiming("connect").getCount());
+		assertEquals(1, endpoint.getTiming("firstByte").getCount());
+		assertEquals(1, endpoint.getTiming("body").getCount());
+		assertEquals(1, endpoint.getTiming("parse").getCount());
+		assertEquals(10, endpoint.getDecodedBytes());
+		stats.clear();
+	}
+}
@@ -0,0 +1,169 @@
+package github.daneren2005.dsub.service.parser;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import org.xmlpull.v1.XmlPullParser;
+
+public class JsonPullParserTest extends TestCase {
+	public void testEvents() throws Exception {
+		JsonPullParser parser = createParser("{\"subsonic-response\": {\"status\": \"ok\", \"version\": \"1.13.0\", " +
+				"\"indexes\": {\"index\": [{\"artist\": [{\"id\": \"1\", \"name\": \"ABBA\"}, {\"id\": \"2\", \"name\": \"AC/DC\"}], \"name\": \"A\"}], \"lastModified\": 1437318287000}}}");
+
+		assertStart(parser, "subsonic-response");
+		assertEquals("ok", parser.getAttributeValue("status"));
+		assertEquals("1.13.0", parser.getAttributeValue("version"));
+
+		assertStart(parser, "indexes");
+		assertEquals(Long.valueOf(1437318287000L), parser.getAttributeLong("lastModified"));
+
+		// Attributes which come after the children are still there when the element starts
+		assertStart(parser, "index");
+		assertEquals("A", parser.getAttributeValue("name"));
+		assertNull(parser.getAttributeValue("artist"));
+
+		assertStart(parser, "artist");
+		assertEquals("1", parser.getAttributeValue("id"));
+		assertEquals("ABBA", parser.getAttributeValue("name"));
+		assertEnd(parser, "artist");
+		assertStart(parser, "artist");
+		assertEquals("AC/DC", parser.getAttributeValue("name"));
+		assertEnd(parser, "artist");
+
+		assertEnd(parser, "index");
+		assertEnd(parser, "indexes");
+		assertEnd(parser, "subsonic-response");
+		assertEquals(XmlPullParser.END_DOCUMENT, parser.next());
+	}
+
+	public void testText() throws Exception {
+		JsonPullParser parser = createParser("{\"subsonic-response\": {\"lyrics\": {\"artist\": \"Queen\", \"value\": \"Is this the real life?\\nIs this just \\\"fantasy\\\"\"}, " +
+				"\"user\": {\"username\": \"admin\", \"folder\": [1, 3]}, " +
+				"\"artistInfo\": {\"biography\": \"Caf\\u00e9\", \"similarArtist\": []}}}");
+
+		assertStart(parser, "subsonic-response");
+		assertStart(parser, "lyrics");
+		assertEquals("Queen", parser.getAttributeValue("artist"));
+		assertEquals(XmlPullParser.TEXT, parser.next());
+		assertEquals("Is this the real life?\nIs this just \"fantasy\"", parser.getText());
+		assertEnd(parser, "lyrics");
+
+		assertStart(parser, "user");
+		assertEquals("admin", parser.getAttributeValue("username"));
+		assertStart(parser, "folder");
+		assertEquals(XmlPullParser.TEXT, parser.next());
+		assertEquals("1", parser.getText());
+		assertEnd(parser, "folder");
+		assertStart(parser, "folder");
+		assertEquals(XmlPullParser.TEXT, parser.next());
+		assertEquals("3", parser.getText());
+		assertEnd(parser, "folder");
+		assertEnd(parser, "user");
+
+		assertStart(parser, "artistInfo");
+		assertStart(parser, "biography");
+		assertEquals(XmlPullParser.TEXT, parser.next());
+		assertEquals("Caf\u00e9", parser.getText());
+		assertEnd(parser, "biography");
+		assertEnd(parser, "artistInfo");
+		assertEnd(parser, "subsonic-response");
+		assertEquals(XmlPullParser.END_DOCUMENT, parser.next());
+	}
+
+	public void testValues() throws Exception {
+		JsonPullParser parser = createParser("{\"subsonic-response\": {\"song\": {\"id\": 12, \"isDir\": false, \"starred\": null, " +
+				"\"title\": \"Tab\\tand \\\\ slash\", \"size\": -3, \"genre\": {\"ignored\": true}, \"track\": 7}}}");
+
+		assertStart(parser, "subsonic-response");
+		assertStart(parser, "song");
+		assertEquals("12", parser.getAttributeValue("id"));
+		assertEquals(Long.valueOf(12), parser.getAttributeLong("id"));
+		assertEquals("false", parser.getAttributeValue("isDir"));
+		assertNull(parser.getAttributeValue("starred"));
+		assertNull(parser.getAttributeLong("starred"));
+		assertEquals("Tab\tand \\ slash", parser.getAttributeValue("title"));
+		assertEquals(Long.valueOf(-3), parser.getAttributeLong("size"));
+		// Only members of the object itself count, not ones nested inside another object
+		assertNull(parser.getAttributeValue("ignored"));
+		assertEquals(Long.valueOf(7), parser.getAttributeLong("track"));
+		assertNull(parser.getAttributeValue("missing"));
+
+		assertStart(parser, "genre");
+		assertEquals("true", parser.getAttributeValue("ignored"));
+		assertEnd(parser, "genre");
+		assertEnd(parser, "song");
+	}
+
+	public void testReadsAsItGoes() throws Exception {
+		StringBuilder json = new StringBuilder("{\"subsonic-response\": {\"status\": \"ok\", \"directory\": {\"child\": [");
+		for(int i = 0; i < 5000; i++) {
+			json.append(i == 0 ? "" : ", ").append("{\"id\": \"").append(i).append("\", \"title\": \"Song ").append(i).append("\"}");
+		}
+		json.append("], \"name\": \"Album\"}}}");
+
+		final int[] read = new int[1];
+		JsonPullParser parser = new JsonPullParser();
+		parser.setInput(new StringReader(json.toString()) {
+			@Override
+			public int read(char[] buffer, int offset, int length) throws IOException {
+				// Hand it out in small pieces like a slow connection would
+				int n = super.read(buffer, offset, Math.min(length, 100));
+				read[0] += Math.max(n, 0);
+				return n;
+			}
+		});
+
+		assertStart(parser, "subsonic-response");
+		assertEquals("ok", parser.getAttributeValue("status"));
+		assertStart(parser, "directory");
+		assertStart(parser, "child");
+		assertEquals("0", parser.getAttributeValue("id"));
+		assertTrue(read[0] < json.length() / 10);
+
+		// Asking for an attribute after the children has to read past all of them
+		assertEnd(parser, "child");
+		int count = 1;
+		while(parser.next() == XmlPullParser.START_TAG) {
+			assertEquals("Song " + count, parser.getAttributeValue("title"));
+			assertEnd(parser, "child");
+			count++;
+		}
+		assertEquals(5000, count);
+		assertEquals("directory", parser.getName());
+	}
+
+	public void testMalformed() throws Exception {
+		try {
+			createParser("<subsonic-response status=\"ok\"/>");
+			fail("XML should not be read as JSON");
+		} catch(JsonPullParser.JsonException e) {
+			// Expected
+		}
+
+		try {
+			JsonPullParser parser = createParser("{\"subsonic-response\": {\"status\": \"ok\"");
+			while(parser.next() != XmlPullParser.END_DOCUMENT) {
+			}
+			fail("Truncated JSON should not parse");
+		} catch(JsonPullParser.JsonException e) {
+			// Expected
+		}
+	}
+
+	private JsonPullParser createParser(String json) throws IOException {
+		JsonPullParser parser = new JsonPullParser();
+		parser.setInput(new StringReader(json));
+		return parser;
+	}
+
+	private void assertStart(JsonPullParser parser, String name) throws IOException {
+		assertEquals(XmlPullParser.START_TAG, parser.next());
+		assertEquals(name, parser.getName());
+	}
+	private void assertEnd(JsonPullParser parser, String name) throws IOException {
+		assertEquals(XmlPullParser.END_TAG, parser.next());
+		assertEquals(name, parser.getName());
+	}
+}
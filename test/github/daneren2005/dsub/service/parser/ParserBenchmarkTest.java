@@ -0,0 +1,204 @@
+package github.daneren2005.dsub.service.parser;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import github.daneren2005.dsub.domain.Artist;
+import github.daneren2005.dsub.domain.Indexes;
+import github.daneren2005.dsub.domain.MusicDirectory;
+import github.daneren2005.dsub.util.ProgressListener;
+import github.daneren2005.dsub.util.Util;
+
+/**
+ * Parses the same getIndexes and getAlbumList responses as XML and as JSON with the parsers the app uses and logs how
+ * long each took and how much it allocated.  The responses are built to look like what a large library sends back.
+ */
+public class ParserBenchmarkTest extends AndroidTestCase {
+	private static final String TAG = ParserBenchmarkTest.class.getSimpleName();
+	private static final int ARTISTS = 15000;
+	private static final int ALBUMS = 500;
+	private static final int ITERATIONS = 5;
+
+	public void testIndexes() throws Exception {
+		final String xml = createIndexesXml();
+		final String json = createIndexesJson();
+		final int instance = Util.getActiveServer(getContext());
+
+		Parse parse = new Parse() {
+			@Override
+			public int parse(String response) throws Exception {
+				Indexes indexes = new IndexesParser(getContext(), instance).parse(new StringReader(response), null);
+				return indexes.getArtists().size();
+			}
+		};
+		compare("getIndexes", parse, xml, json, ARTISTS);
+	}
+
+	public void testAlbumList() throws Exception {
+		final String xml = createAlbumListXml();
+		final String json = createAlbumListJson();
+		final int instance = Util.getActiveServer(getContext());
+
+		Parse parse = new Parse() {
+			@Override
+			public int parse(String response) throws Exception {
+				MusicDirectory dir = new AlbumListParser(getContext(), instance).parse(new StringReader(response), null);
+				return dir.getChildrenSize();
+			}
+		};
+		compare("getAlbumList", parse, xml, json, ALBUMS);
+	}
+
+	public void testChunks() throws Exception {
+		final String xml = createIndexesXml();
+		final List<Object> received = new ArrayList<Object>();
+		final long[] firstChunk = new long[1];
+		final long start = System.currentTimeMillis();
+		ProgressListener listener = new ProgressListener() {
+			@Override
+			public void updateProgress(String message) {
+
+			}
+
+			@Override
+			public void updateProgress(int messageId) {
+
+			}
+
+			@Override
+			public void updateChunk(int position, List<?> items) {
+				if(position == 0) {
+					firstChunk[0] = System.currentTimeMillis() - start;
+				}
+				assertEquals(received.size(), position);
+				received.addAll(items);
+			}
+		};
+
+		Indexes indexes = new IndexesParser(getContext(), Util.getActiveServer(getContext())).parse(new StringReader(xml), listener);
+		long total = System.currentTimeMillis() - start;
+
+		// Chunks come in order and the last partial one is left for the full result
+		List<Artist> artists = indexes.getArtists();
+		assertTrue(received.size() > 0);
+		assertTrue(received.size() <= artists.size());
+		for(int i = 0; i < received.size(); i++) {
+			assertSame(artists.get(i), received.get(i));
+		}
+		Log.i(TAG, "getIndexes first chunk after " + firstChunk[0] + " ms, all " + ARTISTS + " artists after " + total + " ms");
+	}
+
+	private void compare(String method, Parse parse, String xml, String json, int expected) throws Exception {
+		// Warm up both paths before measuring
+		assertEquals(expected, parse.parse(xml));
+		assertEquals(expected, parse.parse(json));
+
+		long[] xmlResult = run(parse, xml, expected);
+		long[] jsonResult = run(parse, json, expected);
+		Log.i(TAG, method + " XML: " + xmlResult[0] + " ms, " + (xmlResult[1] / 1024) + " KB allocated, " + (xml.length() / 1024) + " KB response");
+		Log.i(TAG, method + " JSON: " + jsonResult[0] + " ms, " + (jsonResult[1] / 1024) + " KB allocated, " + (json.length() / 1024) + " KB response");
+	}
+
+	private long[] run(Parse parse, String response, int expected) throws Exception {
+		Debug.startAllocCounting();
+		Debug.resetThreadAllocSize();
+		long start = System.currentTimeMillis();
+		for(int i = 0; i < ITERATIONS; i++) {
+			assertEquals(expected, parse.parse(response));
+		}
+		long time = System.currentTimeMillis() - start;
+		long allocated = Debug.getThreadAllocSize();
+		Debug.stopAllocCounting();
+
+		return new long[] {time / ITERATIONS, allocated / ITERATIONS};
+	}
+
+	private String createIndexesXml() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		builder.append("<subsonic-response xmlns=\"http://subsonic.org/restapi\" status=\"ok\" version=\"1.13.0\">");
+		builder.append("<indexes lastModified=\"1437318287000\" ignoredArticles=\"The El La Los Las Le Les\">");
+		for(int i = 0; i < ARTISTS; i++) {
+			if(i % 500 == 0) {
+				if(i > 0) {
+					builder.append("</index>");
+				}
+				builder.append("<index name=\"").append(getIndex(i)).append("\">");
+			}
+			builder.append("<artist id=\"").append(i).append("\" name=\"").append(getArtist(i)).append("\"");
+			if(i % 50 == 0) {
+				builder.append(" starred=\"2015-07-19T14:58:07.000Z\"");
+			}
+			builder.append("/>");
+		}
+		builder.append("</index></indexes></subsonic-response>");
+		return builder.toString();
+	}
+	private String createIndexesJson() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("{\"subsonic-response\": {\"status\": \"ok\", \"version\": \"1.13.0\", ");
+		builder.append("\"indexes\": {\"lastModified\": 1437318287000, \"ignoredArticles\": \"The El La Los Las Le Les\", \"index\": [");
+		for(int i = 0; i < ARTISTS; i++) {
+			if(i % 500 == 0) {
+				if(i > 0) {
+					builder.append("]}, ");
+				}
+				builder.append("{\"name\": \"").append(getIndex(i)).append("\", \"artist\": [");
+			} else {
+				builder.append(", ");
+			}
+			builder.append("{\"id\": \"").append(i).append("\", \"name\": \"").append(getArtist(i)).append("\"");
+			if(i % 50 == 0) {
+				builder.append(", \"starred\": \"2015-07-19T14:58:07.000Z\"");
+			}
+			builder.append("}");
+		}
+		builder.append("]}]}}}");
+		return builder.toString();
+	}
+
+	private String createAlbumListXml() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		builder.append("<subsonic-response xmlns=\"http://subsonic.org/restapi\" status=\"ok\" version=\"1.13.0\"><albumList>");
+		for(int i = 0; i < ALBUMS; i++) {
+			builder.append("<album id=\"").append(1000 + i).append("\" parent=\"").append(i / 5)
+				.append("\" title=\"Album ").append(i).append("\" artist=\"").append(getArtist(i / 5))
+				.append("\" isDir=\"true\" coverArt=\"").append(1000 + i).append("\" year=\"").append(1970 + i % 45)
+				.append("\" genre=\"Rock\" userRating=\"").append(i % 5 + 1).append("\"/>");
+		}
+		builder.append("</albumList></subsonic-response>");
+		return builder.toString();
+	}
+	private String createAlbumListJson() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("{\"subsonic-response\": {\"status\": \"ok\", \"version\": \"1.13.0\", \"albumList\": {\"album\": [");
+		for(int i = 0; i < ALBUMS; i++) {
+			if(i > 0) {
+				builder.append(", ");
+			}
+			builder.append("{\"id\": \"").append(1000 + i).append("\", \"parent\": \"").append(i / 5)
+				.append("\", \"title\": \"Album ").append(i).append("\", \"artist\": \"").append(getArtist(i / 5))
+				.append("\", \"isDir\": true, \"coverArt\": \"").append(1000 + i).append("\", \"year\": ").append(1970 + i % 45)
+				.append(", \"genre\": \"Rock\", \"userRating\": ").append(i % 5 + 1).append("}");
+		}
+		builder.append("]}}}");
+		return builder.toString();
+	}
+
+	private String getIndex(int i) {
+		return String.valueOf((char) ('A' + (i / 500) % 26));
+	}
+	private String getArtist(int i) {
+		return getIndex(i) + "rtist " + i;
+	}
+
+	private interface Parse {
+		int parse(String response) throws Exception;
+	}
+}
@@ -0,0 +1,74 @@
+package github.daneren2005.dsub.util;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+public class ByteRangeMapTest extends TestCase {
+	public void testMerge() {
+		ByteRangeMap map = new ByteRangeMap();
+		map.add(0, 100);
+		map.add(500, 600);
+		map.add(300, 400);
+		assertEquals(3, map.size());
+
+		// Touching ranges become one
+		map.add(100, 150);
+		assertEquals(3, map.size());
+		assertEquals(150, map.getEnd(0));
+
+		// Filling a hole swallows everything it overlaps
+		map.add(140, 550);
+		assertEquals(1, map.size());
+		assertEquals(600, map.getEnd(42));
+		assertEquals(600, map.getDownloaded());
+	}
+
+	public void testHoles() {
+		ByteRangeMap map = new ByteRangeMap();
+		map.setLength(1000);
+		map.add(0, 100);
+		map.add(600, 700);
+
+		assertTrue(map.contains(99));
+		assertFalse(map.contains(100));
+		assertEquals(100, map.getNextHole(0));
+		assertEquals(600, map.getHoleEnd(100));
+		assertEquals(250, map.getNextHole(250));
+		assertEquals(600, map.getHoleEnd(250));
+		assertEquals(700, map.getNextHole(650));
+		assertEquals(1000, map.getHoleEnd(700));
+		assertFalse(map.isComplete());
+
+		map.add(100, 600);
+		map.add(700, 1000);
+		assertEquals(1000, map.getNextHole(0));
+		assertTrue(map.isComplete());
+	}
+
+	public void testUnknownLength() {
+		ByteRangeMap map = new ByteRangeMap();
+		map.add(0, 100);
+		assertEquals(-1, map.getHoleEnd(100));
+		assertFalse(map.isComplete());
+	}
+
+	public void testSaveAndLoad() {
+		File file = new File(System.getProperty("java.io.tmpdir"), "byteRangeMapTest-" + System.nanoTime());
+		try {
+			ByteRangeMap map = new ByteRangeMap();
+			map.setLength(1000);
+			map.add(0, 100);
+			map.add(600, 700);
+			map.save(file);
+
+			ByteRangeMap loaded = ByteRangeMap.load(file);
+			assertEquals(1000, loaded.getLength());
+			assertEquals(2, loaded.size());
+			assertEquals(700, loaded.getEnd(600));
+			assertNull(ByteRangeMap.load(new File(file.getPath() + ".missing")));
+		} finally {
+			file.delete();
+		}
+	}
+}
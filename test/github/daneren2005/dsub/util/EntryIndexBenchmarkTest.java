@@ -0,0 +1,118 @@
+package github.daneren2005.dsub.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import github.daneren2005.dsub.domain.MusicDirectory;
+
+/**
+ * Stars one song against a cache of 200 playlists, once by opening every playlist like the updaters used to and
+ * once by only opening what the entry index says contains it.
+ */
+public class EntryIndexBenchmarkTest extends AndroidTestCase {
+	private static final String TAG = EntryIndexBenchmarkTest.class.getSimpleName();
+	private static final int PLAYLISTS = 200;
+	private static final int SONGS_PER_PLAYLIST = 100;
+	private static final int LIBRARY_SIZE = 5000;
+
+	private List<String> cacheNames;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		cacheNames = new ArrayList<String>();
+		for(int i = 0; i < PLAYLISTS; i++) {
+			String cacheName = "playlist-benchmark" + i + ".ser";
+			assertTrue(FileUtil.serializeMetadata(getContext(), createPlaylist(i), cacheName));
+			cacheNames.add(cacheName);
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for(String cacheName: cacheNames) {
+			FileUtil.deleteMetadata(getContext(), cacheName);
+		}
+		super.tearDown();
+	}
+
+	public void testStarSong() {
+		String id = "song-42";
+
+		long start = System.currentTimeMillis();
+		Set<String> scanned = new HashSet<String>();
+		for(String cacheName: cacheNames) {
+			if(star(cacheName, id)) {
+				scanned.add(cacheName);
+			}
+		}
+		long scanTime = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		Set<String> indexed = new HashSet<String>();
+		for(String cacheName: FileUtil.getEntryIndex(getContext()).getCacheNames(id)) {
+			if(cacheNames.contains(cacheName) && star(cacheName, id)) {
+				indexed.add(cacheName);
+			}
+		}
+		long indexTime = System.currentTimeMillis() - start;
+
+		assertFalse(scanned.isEmpty());
+		assertEquals(scanned, indexed);
+		Log.i(TAG, "Full scan: " + scanTime + " ms, indexed: " + indexTime + " ms to update " + indexed.size() + " of " + PLAYLISTS + " playlists");
+	}
+
+	public void testRebuild() {
+		FileUtil.getEntryIndex(getContext()).clear();
+		assertFalse(FileUtil.getEntryIndex(getContext()).isComplete());
+
+		long start = System.currentTimeMillis();
+		assertTrue(FileUtil.rebuildEntryIndex(getContext()) >= PLAYLISTS);
+		Log.i(TAG, "Rebuilt index in " + (System.currentTimeMillis() - start) + " ms");
+
+		assertTrue(FileUtil.getEntryIndex(getContext()).isComplete());
+		assertTrue(FileUtil.getEntryIndex(getContext()).getCacheNames("song-0").contains(cacheNames.get(0)));
+	}
+
+	private boolean star(String cacheName, String id) {
+		MusicDirectory dir = FileUtil.deserializeMetadata(getContext(), cacheName, MusicDirectory.class);
+		boolean found = false;
+		for(MusicDirectory.Entry entry: dir.getChildren()) {
+			if(id.equals(entry.getId())) {
+				entry.setStarred(!entry.isStarred());
+				found = true;
+			}
+		}
+
+		if(found) {
+			FileUtil.serializeMetadata(getContext(), dir, cacheName);
+		}
+		return found;
+	}
+
+	private MusicDirectory createPlaylist(int playlist) {
+		MusicDirectory.Entry[] entries = new MusicDirectory.Entry[SONGS_PER_PLAYLIST];
+		for(int i = 0; i < SONGS_PER_PLAYLIST; i++) {
+			// Spread songs out over the library so any one song is in a handful of playlists
+			int song = (playlist * 37 + i * 53) % LIBRARY_SIZE;
+			MusicDirectory.Entry entry = new MusicDirectory.Entry("song-" + song);
+			entry.setTitle("Title " + song);
+			entry.setArtist("Artist " + (song / 50));
+			entry.setAlbum("Album " + (song / 10));
+			entry.setDuration(240);
+			entry.setSuffix("mp3");
+			entries[i] = entry;
+		}
+
+		MusicDirectory dir = new MusicDirectory(new ArrayList<MusicDirectory.Entry>(Arrays.asList(entries)));
+		dir.setId("playlist-" + playlist);
+		dir.setName("Playlist " + playlist);
+		return dir;
+	}
+}
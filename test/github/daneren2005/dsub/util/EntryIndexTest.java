@@ -0,0 +1,85 @@
+package github.daneren2005.dsub.util;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+public class EntryIndexTest extends TestCase {
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		dir = new File(System.getProperty("java.io.tmpdir"), "entryIndexTest-" + System.nanoTime());
+		dir.mkdirs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtil.recursiveDelete(dir);
+		super.tearDown();
+	}
+
+	public void testPutAndReplace() {
+		EntryIndex index = new EntryIndex(new MetadataStore(dir));
+		index.put("playlist-1.ser", Arrays.asList("a", "b"));
+		index.put("playlist-2.ser", Arrays.asList("b", "c"));
+
+		assertEquals(new HashSet<String>(Arrays.asList("playlist-1.ser", "playlist-2.ser")), index.getCacheNames("b"));
+		assertEquals(Collections.singleton("playlist-1.ser"), index.getCacheNames("a"));
+
+		index.put("playlist-1.ser", Arrays.asList("c"));
+		assertTrue(index.getCacheNames("a").isEmpty());
+		assertEquals(Collections.singleton("playlist-2.ser"), index.getCacheNames("b"));
+
+		index.remove("playlist-2.ser");
+		assertEquals(Collections.singleton("playlist-1.ser"), index.getCacheNames(Arrays.asList("b", "c")));
+	}
+
+	/**
+	 * Another process writing to the same store has to show up without reopening
+	 */
+	public void testPicksUpOtherWriters() {
+		EntryIndex index = new EntryIndex(new MetadataStore(dir));
+		EntryIndex other = new EntryIndex(new MetadataStore(dir));
+		index.put("playlist-1.ser", Arrays.asList("a"));
+		assertEquals(Collections.singleton("playlist-1.ser"), other.getCacheNames("a"));
+
+		other.put("playlist-1.ser", Arrays.asList("b"));
+		assertTrue(index.getCacheNames("a").isEmpty());
+		assertEquals(Collections.singleton("playlist-1.ser"), index.getCacheNames("b"));
+
+		other.remove("playlist-1.ser");
+		assertTrue(index.getCacheNames("b").isEmpty());
+	}
+
+	public void testPicksUpOtherClear() {
+		MetadataStore store = new MetadataStore(dir);
+		EntryIndex index = new EntryIndex(store);
+		index.put("playlist-1.ser", Arrays.asList("a"));
+		assertEquals(Collections.singleton("playlist-1.ser"), index.getCacheNames("a"));
+
+		new MetadataStore(dir).clear();
+		assertTrue(index.getCacheNames("a").isEmpty());
+
+		index.put("playlist-2.ser", Arrays.asList("a"));
+		assertEquals(Collections.singleton("playlist-2.ser"), index.getCacheNames("a"));
+	}
+
+	public void testClear() {
+		MetadataStore store = new MetadataStore(dir);
+		store.put("playlist-1.ser", new byte[] {1});
+		EntryIndex index = new EntryIndex(store);
+		index.put("playlist-1.ser", Arrays.asList("a"));
+		index.setComplete();
+		assertTrue(index.isComplete());
+
+		index.clear();
+		assertFalse(index.isComplete());
+		assertTrue(index.getCacheNames("a").isEmpty());
+		assertTrue(store.contains("playlist-1.ser"));
+	}
+}
@@ -0,0 +1,81 @@
+package github.daneren2005.dsub.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class MediaMetadataCacheTest extends TestCase {
+	private File dir;
+	private MediaMetadataCache cache;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		dir = new File(System.getProperty("java.io.tmpdir"), "mediaMetadataCacheTest-" + System.nanoTime());
+		dir.mkdirs();
+		cache = new MediaMetadataCache(new MetadataStore(new File(dir, "metadata")));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtil.recursiveDelete(dir);
+		super.tearDown();
+	}
+
+	public void testRoundTrip() throws IOException {
+		File file = createFile("01-Song.mp3", 100);
+		MediaMetadataCache.Metadata metadata = new MediaMetadataCache.Metadata();
+		metadata.discNumber = 2;
+		metadata.bitRate = 320;
+		metadata.duration = 245;
+		metadata.artist = "Artist";
+		metadata.replayGain = new float[] {-6.5f, -4.0f};
+		cache.put(file, metadata);
+
+		MediaMetadataCache.Metadata cached = new MediaMetadataCache(new MetadataStore(new File(dir, "metadata"))).getCached(file);
+		assertNotNull(cached);
+		assertEquals(Integer.valueOf(2), cached.discNumber);
+		assertEquals(Integer.valueOf(320), cached.bitRate);
+		assertEquals(Integer.valueOf(245), cached.duration);
+		assertEquals("Artist", cached.artist);
+		assertNull(cached.album);
+		assertEquals(-6.5f, cached.replayGain[0]);
+		assertEquals(-4.0f, cached.replayGain[1]);
+	}
+
+	public void testChangedFileIsNotTrusted() throws IOException {
+		File file = createFile("01-Song.mp3", 100);
+		cache.put(file, new MediaMetadataCache.Metadata());
+		assertNotNull(cache.getCached(file));
+
+		createFile("01-Song.mp3", 200);
+		assertNull(cache.getCached(file));
+
+		cache.put(file, new MediaMetadataCache.Metadata());
+		assertTrue(file.setLastModified(file.lastModified() - 60000L));
+		assertNull(cache.getCached(file));
+	}
+
+	public void testTouch() throws IOException {
+		File file = createFile("01-Song.mp3", 100);
+		cache.put(file, new MediaMetadataCache.Metadata());
+
+		long oldModified = file.lastModified();
+		assertTrue(file.setLastModified(oldModified + 60000L));
+		cache.touch(file, oldModified);
+		assertNotNull(cache.getCached(file));
+	}
+
+	private File createFile(String name, int size) throws IOException {
+		File file = new File(dir, name);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[size]);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
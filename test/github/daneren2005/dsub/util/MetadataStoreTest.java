@@ -0,0 +1,139 @@
+package github.daneren2005.dsub.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class MetadataStoreTest extends TestCase {
+	private File dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		dir = new File(System.getProperty("java.io.tmpdir"), "metadataStoreTest-" + System.nanoTime());
+		dir.mkdirs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtil.recursiveDelete(dir);
+		super.tearDown();
+	}
+
+	public void testPutGetRemove() {
+		MetadataStore store = new MetadataStore(new File(dir, "store"));
+		assertNull(store.get("missing"));
+
+		store.put("key", new byte[] {1, 2, 3});
+		store.put("key", new byte[] {4, 5});
+		assertTrue(Arrays.equals(new byte[] {4, 5}, store.get("key")));
+
+		assertTrue(store.remove("key"));
+		assertNull(store.get("key"));
+		assertFalse(store.remove("key"));
+	}
+
+	public void testListenerSeesNewValue() {
+		final MetadataStore store = new MetadataStore(new File(dir, "store"));
+		store.put("key", new byte[] {1});
+		final byte[][] seen = new byte[1][];
+		store.addOnChangedListener(new MetadataStore.OnChangedListener() {
+			@Override
+			public void onChanged(String key) {
+				seen[0] = store.get(key);
+			}
+
+			@Override
+			public void onReset() {
+			}
+		});
+
+		store.put("key", new byte[] {2});
+		assertTrue(Arrays.equals(new byte[] {2}, seen[0]));
+		store.remove("key");
+		assertNull(seen[0]);
+	}
+
+	public void testMaxAge() {
+		MetadataStore store = new MetadataStore(new File(dir, "store"));
+		store.put("old", new byte[] {1}, System.currentTimeMillis() - 2 * 3600 * 1000L);
+		assertNull(store.get("old", 3600 * 1000L));
+		assertNotNull(store.get("old"));
+	}
+
+	/**
+	 * A crash partway through an append must not lose anything written before it
+	 */
+	public void testReopenDropsTornRecord() throws IOException {
+		File storeDir = new File(dir, "store");
+		MetadataStore store = new MetadataStore(storeDir);
+		store.put("a", new byte[] {1});
+		store.put("b", new byte[] {2});
+
+		RandomAccessFile segment = new RandomAccessFile(new File(storeDir, "segment-0.dat"), "rw");
+		segment.seek(segment.length());
+		segment.write(new byte[] {0x44, 0x53, 0x75, 0x62, 0, 0, 0});
+		segment.close();
+
+		MetadataStore reopened = new MetadataStore(storeDir);
+		assertTrue(Arrays.equals(new byte[] {2}, reopened.get("b")));
+		reopened.put("c", new byte[] {3});
+		assertTrue(Arrays.equals(new byte[] {3}, reopened.get("c")));
+		assertEquals(3, reopened.keys().size());
+	}
+
+	public void testCompactionKeepsLatestValues() {
+		File storeDir = new File(dir, "store");
+		MetadataStore store = new MetadataStore(storeDir);
+		byte[] data = new byte[100 * 1024];
+		for(int i = 0; i < 50; i++) {
+			data[0] = (byte) i;
+			store.put("key" + (i % 5), data);
+		}
+
+		for(int i = 0; i < 5; i++) {
+			assertEquals(45 + i, store.get("key" + i)[0]);
+		}
+		assertFalse(new File(storeDir, "segment-0.dat").exists());
+
+		MetadataStore reopened = new MetadataStore(storeDir);
+		assertEquals(49, reopened.get("key4")[0]);
+	}
+
+	public void testMigrate() throws IOException {
+		File oldDir = new File(dir, "old");
+		oldDir.mkdirs();
+		writeFile(new File(oldDir, "directory-1.ser"), new byte[] {7});
+		writeFile(new File(oldDir, "downloadstate2.ser"), new byte[] {8});
+
+		MetadataStore store = new MetadataStore(new File(dir, "store"));
+		FilenameFilter filter = new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith("directory-");
+			}
+		};
+		assertEquals(1, store.migrate(oldDir, filter));
+		assertTrue(Arrays.equals(new byte[] {7}, store.get("directory-1.ser")));
+		assertFalse(new File(oldDir, "directory-1.ser").exists());
+		assertTrue(new File(oldDir, "downloadstate2.ser").exists());
+
+		// Only ever runs once
+		writeFile(new File(oldDir, "directory-2.ser"), new byte[] {9});
+		assertEquals(0, store.migrate(oldDir, filter));
+	}
+
+	private void writeFile(File file, byte[] data) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+}
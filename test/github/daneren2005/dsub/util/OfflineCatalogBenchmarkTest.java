@@ -0,0 +1,125 @@
+package github.daneren2005.dsub.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+/**
+ * Searches a synthetic 40k song tree the way OfflineMusicService used to, by listing every folder, and then from
+ * the offline catalog both right after building it and after loading it back from disk.
+ */
+public class OfflineCatalogBenchmarkTest extends TestCase {
+	private static final String TAG = OfflineCatalogBenchmarkTest.class.getSimpleName();
+	private static final int ARTISTS = 400;
+	private static final int ALBUMS_PER_ARTIST = 10;
+	private static final int SONGS_PER_ALBUM = 10;
+
+	private File dir;
+	private File root;
+	private File catalogFile;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		dir = new File(System.getProperty("java.io.tmpdir"), "offlineCatalogTest-" + System.nanoTime());
+		root = new File(dir, "music");
+		catalogFile = new File(dir, "offlineCatalog.dat");
+		for(int i = 0; i < ARTISTS; i++) {
+			File artist = new File(root, "Artist " + i);
+			for(int j = 0; j < ALBUMS_PER_ARTIST; j++) {
+				File album = new File(artist, "Album " + i + "-" + j);
+				assertTrue(album.mkdirs());
+				for(int k = 1; k <= SONGS_PER_ALBUM; k++) {
+					assertTrue(new File(album, String.format("%02d-Song %d %d %d.mp3", k, i, j, k)).createNewFile());
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		FileUtil.recursiveDelete(dir);
+		super.tearDown();
+	}
+
+	public void testSearch() {
+		String query = "song 42 3";
+
+		long start = System.currentTimeMillis();
+		List<File> walked = new ArrayList<File>();
+		walk(root, query, walked);
+		long walkTime = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		OfflineCatalog catalog = new OfflineCatalog(root, catalogFile);
+		List<File> built = search(catalog, query);
+		long buildTime = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		List<File> searched = search(catalog, query);
+		long searchTime = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		List<File> loaded = search(new OfflineCatalog(root, catalogFile), query);
+		long loadTime = System.currentTimeMillis() - start;
+
+		assertEquals(SONGS_PER_ALBUM, walked.size());
+		assertEquals(walked, built);
+		assertEquals(walked, searched);
+		assertEquals(walked, loaded);
+		Log.i(TAG, "Walking tree: " + walkTime + " ms, building catalog: " + buildTime + " ms, searching catalog: " + searchTime + " ms, loading saved catalog: " + loadTime + " ms for " + catalog.getFiles().size() + " songs");
+	}
+
+	public void testChangesArePickedUp() throws IOException {
+		OfflineCatalog catalog = new OfflineCatalog(root, catalogFile);
+		File album = new File(root, "Artist 0/Album 0-0");
+		assertEquals(SONGS_PER_ALBUM, catalog.list(album).size());
+
+		File song = new File(album, "11-Bonus.mp3");
+		assertTrue(song.createNewFile());
+		// Make sure the folder time changes even on file systems with coarse timestamps
+		assertTrue(album.setLastModified(album.lastModified() + 2000L));
+		catalog.invalidate();
+		assertEquals(SONGS_PER_ALBUM + 1, catalog.list(album).size());
+
+		// Saved copy sees the new song as well without having to list the folder again
+		OfflineCatalog reloaded = new OfflineCatalog(root, catalogFile);
+		assertEquals("Bonus", reloaded.list(album).get(SONGS_PER_ALBUM).title);
+		assertEquals(11, reloaded.list(album).get(SONGS_PER_ALBUM).track);
+
+		FileUtil.recursiveDelete(new File(root, "Artist 1"));
+		assertTrue(root.setLastModified(root.lastModified() + 2000L));
+		catalog.invalidate();
+		assertNull(catalog.list(new File(root, "Artist 1/Album 1-0")));
+	}
+
+	private List<File> search(OfflineCatalog catalog, String query) {
+		List<File> matches = new ArrayList<File>();
+		for(OfflineCatalog.Record record: catalog.getFiles()) {
+			if(record.name != null && record.name.toLowerCase().contains(query)) {
+				matches.add(record.file);
+			}
+		}
+		return matches;
+	}
+
+	private void walk(File file, String query, List<File> matches) {
+		File[] files = file.listFiles();
+		SortedSet<File> children = new TreeSet<File>(Arrays.asList(files));
+		for(File child: children) {
+			if(child.isDirectory()) {
+				walk(child, query, matches);
+			} else if(child.getName().toLowerCase().contains(query)) {
+				matches.add(child);
+			}
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package github.daneren2005.dsub.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import github.daneren2005.dsub.domain.Artist;
+import github.daneren2005.dsub.domain.MusicDirectory;
+import github.daneren2005.dsub.domain.SearchCritera;
+import github.daneren2005.dsub.domain.SearchResult;
+
+public class SearchIndexTest extends TestCase {
+	public void testTokenize() {
+		assertEquals(Arrays.asList("beyonce", "halo"), SearchIndex.tokenize("Beyonc\u00e9 - Halo"));
+		assertEquals(Arrays.asList("the", "wall", "2"), SearchIndex.tokenize("The Wall (the wall 2)"));
+		assertTrue(SearchIndex.tokenize(null).isEmpty());
+	}
+
+	public void testPrefixSearch() {
+		SearchIndex index = new SearchIndex(1);
+		index.put("directory-1.ser", createDirectory("Dark Side of the Moon", "Money", "Time", "Us and Them"));
+
+		SearchResult result = index.search(new SearchCritera("mon*", 5, 5, 5));
+		assertTrue(result.getAlbums().isEmpty());
+		assertEquals(1, result.getSongs().size());
+		assertEquals("Money", result.getSongs().get(0).getTitle());
+
+		// Every word has to match
+		assertEquals(1, index.search(new SearchCritera("dark moo", 5, 5, 5)).getAlbums().size());
+		assertTrue(index.search(new SearchCritera("dark money", 5, 5, 5)).getAlbums().isEmpty());
+	}
+
+	public void testReplaceAndRemove() {
+		SearchIndex index = new SearchIndex(1);
+		index.put("directory-1.ser", createDirectory("Album", "First", "Second"));
+		index.put("playlist-1.ser", createDirectory("Playlist", "Second"));
+
+		index.put("directory-1.ser", createDirectory("Album", "Third"));
+		assertTrue(index.search(new SearchCritera("first", 5, 5, 5)).getSongs().isEmpty());
+		// Still in the playlist
+		assertEquals(1, index.search(new SearchCritera("second", 5, 5, 5)).getSongs().size());
+
+		index.remove("playlist-1.ser");
+		assertTrue(index.search(new SearchCritera("second", 5, 5, 5)).getSongs().isEmpty());
+		assertEquals(1, index.search(new SearchCritera("third", 5, 5, 5)).getSongs().size());
+	}
+
+	public void testAlbumAndSongWithSameId() {
+		SearchIndex index = new SearchIndex(1);
+		MusicDirectory.Entry album = new MusicDirectory.Entry("1");
+		album.setTitle("Blue");
+		album.setDirectory(true);
+		MusicDirectory.Entry song = new MusicDirectory.Entry("1");
+		song.setTitle("Blue Moon");
+		index.put("artist-1.ser", new MusicDirectory(new ArrayList<MusicDirectory.Entry>(Arrays.asList(album))));
+		index.put("album-1.ser", new MusicDirectory(new ArrayList<MusicDirectory.Entry>(Arrays.asList(song))));
+
+		SearchResult result = index.search(new SearchCritera("blue", 5, 5, 5));
+		assertEquals(1, result.getAlbums().size());
+		assertEquals(1, result.getSongs().size());
+	}
+
+	public void testMerge() {
+		SearchIndex index = new SearchIndex(1);
+		index.put("directory-1.ser", createDirectory("Album", "Song A", "Song B"));
+		SearchCritera criteria = new SearchCritera("song", 5, 5, 3);
+		SearchResult local = index.search(criteria);
+
+		MusicDirectory remote = createDirectory("Album", "Song B", "Song C", "Song D");
+		SearchResult merged = SearchIndex.merge(local, new SearchResult(new ArrayList<Artist>(), new ArrayList<MusicDirectory.Entry>(), remote.getChildren(false, true)), criteria);
+		assertEquals(3, merged.getSongs().size());
+		assertEquals("Song C", merged.getSongs().get(2).getTitle());
+	}
+
+	private MusicDirectory createDirectory(String name, String... songs) {
+		List<MusicDirectory.Entry> entries = new ArrayList<MusicDirectory.Entry>();
+		MusicDirectory.Entry album = new MusicDirectory.Entry(name);
+		album.setTitle(name);
+		album.setDirectory(true);
+		entries.add(album);
+
+		for(String song: songs) {
+			MusicDirectory.Entry entry = new MusicDirectory.Entry(song);
+			entry.setTitle(song);
+			entries.add(entry);
+		}
+		return new MusicDirectory(entries);
+	}
+}
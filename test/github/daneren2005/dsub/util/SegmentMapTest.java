@@ -0,0 +1,63 @@
+package github.daneren2005.dsub.util;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+public class SegmentMapTest extends TestCase {
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		file = new File(System.getProperty("java.io.tmpdir"), "segmentMapTest-" + System.nanoTime());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	public void testSegments() {
+		SegmentMap segments = new SegmentMap(1003, 4);
+		assertEquals(4, segments.getSegmentCount());
+		assertEquals(0, segments.getStart(0));
+		assertEquals(250, segments.getEnd(0));
+		assertEquals(750, segments.getStart(3));
+		// Last segment picks up what doesn't divide evenly
+		assertEquals(1003, segments.getEnd(3));
+
+		segments.add(1, 250);
+		segments.add(0, 100);
+		assertEquals(100, segments.getContiguousLength());
+		assertEquals(100, segments.getPosition(0));
+		assertTrue(segments.isComplete(1));
+
+		segments.add(0, 150);
+		assertEquals(500, segments.getContiguousLength());
+		assertFalse(segments.isComplete());
+
+		segments.add(2, 250);
+		segments.add(3, 1000);
+		assertEquals(1003, segments.getDownloaded());
+		assertTrue(segments.isComplete());
+	}
+
+	public void testSaveAndLoad() {
+		SegmentMap segments = new SegmentMap(1000, 4);
+		segments.add(0, 250);
+		segments.add(2, 42);
+		segments.save(file);
+
+		SegmentMap loaded = SegmentMap.load(file, 1000);
+		assertEquals(4, loaded.getSegmentCount());
+		assertEquals(292, loaded.getDownloaded());
+		assertEquals(542, loaded.getPosition(2));
+		assertEquals(250, loaded.getContiguousLength());
+
+		// Saved for a different file
+		assertNull(SegmentMap.load(file, 2000));
+		assertNull(SegmentMap.load(new File(file.getPath() + ".missing"), 1000));
+	}
+}
@@ -0,0 +1,115 @@
+package github.daneren2005.dsub.util;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import github.daneren2005.dsub.domain.MusicDirectory;
+
+/**
+ * Runs serialize + deserialize from as many threads as BackgroundTask uses, once with every call behind a single
+ * shared lock like the old single Kryo instance and once with the pooled instances.
+ */
+public class SerializeBenchmarkTest extends AndroidTestCase {
+	private static final String TAG = SerializeBenchmarkTest.class.getSimpleName();
+	private static final int THREADS = 8;
+	private static final int ITERATIONS = 25;
+	private static final int ENTRIES = 500;
+
+	public void testConcurrentSerialize() throws Exception {
+		MusicDirectory dir = createDirectory();
+
+		// Warm up each thread's Kryo instance and the file system before measuring
+		run(dir, new Object(), 2);
+
+		long locked = run(dir, new Object(), ITERATIONS);
+		long pooled = run(dir, null, ITERATIONS);
+		Log.i(TAG, "Single lock: " + locked + " ms, pooled: " + pooled + " ms for " + (THREADS * ITERATIONS) + " round trips of " + ENTRIES + " entries");
+	}
+
+	public void testCorruptFileIsRejected() throws Exception {
+		String name = "benchmarkCorrupt.ser";
+		assertTrue(FileUtil.serialize(getContext(), createDirectory(), name));
+
+		RandomAccessFile file = new RandomAccessFile(new File(getContext().getCacheDir(), name), "rw");
+		try {
+			long position = file.length() / 2;
+			file.seek(position);
+			int value = file.read();
+			file.seek(position);
+			file.write(value ^ 0xFF);
+		} finally {
+			file.close();
+		}
+
+		assertNull(FileUtil.deserialize(getContext(), name, MusicDirectory.class));
+	}
+
+	private long run(final MusicDirectory dir, final Object lock, final int iterations) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(THREADS);
+		final AtomicInteger failures = new AtomicInteger(0);
+
+		for(int i = 0; i < THREADS; i++) {
+			final String name = "benchmark-" + i + ".ser";
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int j = 0; j < iterations; j++) {
+							MusicDirectory result;
+							if(lock != null) {
+								synchronized (lock) {
+									FileUtil.serialize(getContext(), dir, name);
+									result = FileUtil.deserialize(getContext(), name, MusicDirectory.class);
+								}
+							} else {
+								FileUtil.serialize(getContext(), dir, name);
+								result = FileUtil.deserialize(getContext(), name, MusicDirectory.class);
+							}
+
+							if(result == null || result.getChildrenSize() != ENTRIES) {
+								failures.incrementAndGet();
+							}
+						}
+					} catch(InterruptedException e) {
+						failures.incrementAndGet();
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "BackgroundTask_" + i).start();
+		}
+
+		long startTime = System.currentTimeMillis();
+		start.countDown();
+		done.await();
+		long elapsed = System.currentTimeMillis() - startTime;
+
+		assertEquals(0, failures.get());
+		return elapsed;
+	}
+
+	private MusicDirectory createDirectory() {
+		List<MusicDirectory.Entry> entries = new ArrayList<MusicDirectory.Entry>();
+		for(int i = 0; i < ENTRIES; i++) {
+			MusicDirectory.Entry entry = new MusicDirectory.Entry(String.valueOf(i));
+			entry.setTitle("Title " + i);
+			entry.setArtist("Artist " + (i / 50));
+			entry.setAlbum("Album " + (i / 10));
+			entry.setParent("parent-" + (i / 10));
+			entry.setTrack(i % 10);
+			entry.setDuration(240);
+			entry.setSuffix("mp3");
+			entries.add(entry);
+		}
+		return new MusicDirectory(entries);
+	}
+}